@@ -0,0 +1,9 @@
+precision mediump float;
+
+//Previous level, sampled with linear filtering so each pixel averages a 2x2 block
+uniform sampler2D sourceTex;
+varying vec2 texCoordinate;
+
+void main () {
+    gl_FragColor = texture2D(sourceTex, texCoordinate);
+}
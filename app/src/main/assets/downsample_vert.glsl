@@ -0,0 +1,10 @@
+//Full screen quad, texture coordinates follow the positions
+attribute vec4 position;
+attribute vec2 texturePosition;
+
+varying vec2 texCoordinate;
+
+void main() {
+    texCoordinate = texturePosition;
+    gl_Position = position;
+}
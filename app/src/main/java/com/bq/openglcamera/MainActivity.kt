@@ -5,19 +5,29 @@ import android.content.Context
 import android.graphics.Camera
 import android.graphics.SurfaceTexture
 import android.hardware.camera2.CameraCaptureSession
+import android.hardware.camera2.CameraCharacteristics
 import android.hardware.camera2.CameraDevice
 import android.hardware.camera2.CameraManager
+import android.hardware.camera2.CameraMetadata
 import android.hardware.camera2.CaptureRequest
 import android.support.v7.app.AppCompatActivity
 import android.os.Bundle
 import android.os.Handler
 import android.os.HandlerThread
 import android.os.Looper
+import android.util.Range
 import android.view.Surface
 import android.view.TextureView
+import com.bq.openglcamera.opengl.AndroidGlBackend
+import com.bq.openglcamera.opengl.CheckingGlBackend
 import com.bq.openglcamera.opengl.DefaultCameraRenderer
+import com.bq.openglcamera.opengl.GlUtil
+import com.bq.openglcamera.opengl.PreviewTransform
+import com.bq.openglcamera.opengl.ResolutionGovernor
+import com.bq.openglcamera.opengl.StreamConfigNegotiator
 import com.bq.openglcamera.opengl.TextureViewGLWrapper
 import com.tbruyelle.rxpermissions2.RxPermissions
+import java.util.concurrent.TimeUnit
 
 class MainActivity : AppCompatActivity() {
 
@@ -26,6 +36,8 @@ class MainActivity : AppCompatActivity() {
     var cameraDevice: CameraDevice? = null
     var session: CameraCaptureSession? = null
     var surface: Surface? = null
+    var streamConfig: StreamConfigNegotiator.Config? = null
+    var sensorOrientation = 0
 
     lateinit var textureView: TextureView
     var surfaceTexture: SurfaceTexture? = null
@@ -34,6 +46,7 @@ class MainActivity : AppCompatActivity() {
     lateinit var backgroundHandler: Handler
 
     lateinit var textureViewGLWrapper: TextureViewGLWrapper
+    lateinit var governor: ResolutionGovernor
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -41,13 +54,16 @@ class MainActivity : AppCompatActivity() {
 
         textureView = findViewById(R.id.texture_view) as TextureView
 
-        val defaultCameraRenderer = DefaultCameraRenderer(this)
-
-        textureViewGLWrapper = TextureViewGLWrapper(defaultCameraRenderer)
+        //Keep the GL context across rotations, only the window surface is recreated
+        textureViewGLWrapper = lastCustomNonConfigurationInstance as? TextureViewGLWrapper
+                ?: createGLWrapper()
         textureViewGLWrapper.setListener({ texture ->
             surfaceTexture = texture
             openCamera()
         }, Handler(Looper.getMainLooper()))
+        //Created with the wrapper, so the scale reached survives rotations too
+        governor = textureViewGLWrapper.resolutionGovernor
+        governor.setListener { runOnUiThread { restartPreview() } }
 
         backgroundThread.start()
         backgroundHandler = Handler(backgroundThread.looper)
@@ -83,6 +99,29 @@ class MainActivity : AppCompatActivity() {
                 }
     }
 
+    private fun createGLWrapper(): TextureViewGLWrapper {
+        //Checked after every call in debug builds, not at all in release ones
+        val gl = CheckingGlBackend.wrap(AndroidGlBackend.INSTANCE, GlUtil.getDiagnostics())
+        val defaultCameraRenderer = DefaultCameraRenderer(applicationContext, gl)
+        val wrapper = TextureViewGLWrapper(defaultCameraRenderer, gl)
+        defaultCameraRenderer.setRenderMetrics(wrapper.renderMetrics)
+        wrapper.setRetainContext(true, TextureViewGLWrapper.DEFAULT_IDLE_TIMEOUT_MS)
+        wrapper.setResolutionGovernor(ResolutionGovernor(TARGET_FRAME_NANOS))
+        return wrapper
+    }
+
+    override fun onRetainCustomNonConfigurationInstance(): Any = textureViewGLWrapper
+
+    override fun onDestroy() {
+        super.onDestroy()
+        governor.setListener(null)
+        if (!isChangingConfigurations) {
+            //Leaving for good, nothing will reuse the context
+            textureViewGLWrapper.setRetainContext(false, 0)
+            textureViewGLWrapper.releaseRetainedContext()
+        }
+    }
+
     override fun onResume() {
         super.onResume()
         openCamera()
@@ -100,27 +139,17 @@ class MainActivity : AppCompatActivity() {
         if (cameraDevice != null) return
 
         cameraManager = getSystemService(Context.CAMERA_SERVICE) as CameraManager
+        val characteristics = cameraManager!!.getCameraCharacteristics("0")
+        sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION)
+        streamConfig = negotiateStreamConfig(characteristics, sensorOrientation, displayRotation())
+        textureViewGLWrapper.setCameraTimestampsRealtime(
+                characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE) ==
+                        CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME)
         cameraManager!!.openCamera("0", object : CameraDevice.StateCallback() {
             override fun onOpened(camera: CameraDevice) {
-                this@MainActivity.cameraDevice = cameraDevice
+                this@MainActivity.cameraDevice = camera
                 this@MainActivity.surface = Surface(surfaceTexture)
-                surfaceTexture?.setDefaultBufferSize(textureView.width, textureView.height)
-                val req = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW)
-                req.addTarget(surface)
-
-                camera.createCaptureSession(listOf(surface), object : CameraCaptureSession.StateCallback() {
-                    override fun onConfigured(session: CameraCaptureSession) {
-                        req.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)
-                        req.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON)
-                        req.set(CaptureRequest.CONTROL_AE_ANTIBANDING_MODE, CaptureRequest.CONTROL_AE_ANTIBANDING_MODE_AUTO)
-                        session.setRepeatingRequest(req.build(), null, null)
-                        this@MainActivity.session = session
-                    }
-
-                    override fun onConfigureFailed(session: CameraCaptureSession?) {
-                        error("onConfigure Failed")
-                    }
-                }, null)
+                startPreview(camera)
             }
 
             override fun onDisconnected(camera: CameraDevice?) {
@@ -132,6 +161,91 @@ class MainActivity : AppCompatActivity() {
         }, null)
     }
 
+    /**
+     * Capture session with the negotiated size at the governor's current scale.
+     */
+    private fun startPreview(camera: CameraDevice) {
+        val config = streamConfig ?: return
+        val width = governor.scale(config.width)
+        val height = governor.scale(config.height)
+        updatePreviewTransform(sensorOrientation, displayRotation(), width, height)
+        surfaceTexture?.setDefaultBufferSize(width, height)
+        val req = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW)
+        req.addTarget(surface)
+        req.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, Range(config.fpsMin, config.fpsMax))
+
+        camera.createCaptureSession(listOf(surface), object : CameraCaptureSession.StateCallback() {
+            override fun onConfigured(session: CameraCaptureSession) {
+                if (cameraDevice != camera) {
+                    //Closed while configuring
+                    session.close()
+                    return
+                }
+                req.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)
+                req.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON)
+                req.set(CaptureRequest.CONTROL_AE_ANTIBANDING_MODE, CaptureRequest.CONTROL_AE_ANTIBANDING_MODE_AUTO)
+                session.setRepeatingRequest(req.build(), null, null)
+                this@MainActivity.session = session
+            }
+
+            override fun onConfigureFailed(session: CameraCaptureSession?) {
+                error("onConfigure Failed")
+            }
+        }, null)
+    }
+
+    /**
+     * The governor changed the scale: the buffer size only applies to new sessions, so the
+     * current one is replaced. The camera device stays open.
+     */
+    private fun restartPreview() {
+        val camera = cameraDevice ?: return
+        session?.close()
+        session = null
+        startPreview(camera)
+    }
+
+    /**
+     * Cheapest output size and frame rate range for the preview, instead of the view size that
+     * the camera would have to scale to.
+     */
+    private fun negotiateStreamConfig(characteristics: CameraCharacteristics, sensorOrientation: Int,
+                                      displayRotation: Int): StreamConfigNegotiator.Config {
+        val map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
+        val capabilities = StreamConfigNegotiator.Capabilities()
+        for (size in map.getOutputSizes(SurfaceTexture::class.java)) {
+            capabilities.addOutputSize(size.width, size.height,
+                    map.getOutputMinFrameDuration(SurfaceTexture::class.java, size))
+        }
+        for (range in characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES)) {
+            capabilities.addFpsRange(range.lower, range.upper)
+        }
+        val preview = StreamConfigNegotiator.Consumer.preview(textureView.width, textureView.height,
+                sensorOrientation, displayRotation)
+        return StreamConfigNegotiator.negotiate(capabilities, listOf(preview))
+    }
+
+    private fun displayRotation(): Int = when (windowManager.defaultDisplay.rotation) {
+        Surface.ROTATION_90 -> 90
+        Surface.ROTATION_180 -> 180
+        Surface.ROTATION_270 -> 270
+        else -> 0
+    }
+
+    /**
+     * The SurfaceTexture transform already turns the image upright and mirrors front cameras,
+     * only the display rotation is left to undo.
+     */
+    private fun updatePreviewTransform(sensorOrientation: Int, displayRotation: Int,
+                                       width: Int, height: Int) {
+        val renderer = textureViewGLWrapper.renderer as DefaultCameraRenderer
+        val transform = renderer.previewTransform
+        transform.setRotation(PreviewTransform.previewRotation(displayRotation))
+        transform.setBufferSize(
+                PreviewTransform.uprightWidth(width, height, sensorOrientation),
+                PreviewTransform.uprightHeight(width, height, sensorOrientation))
+    }
+
     private fun closeCamera() {
         session?.close()
         session = null
@@ -139,4 +253,9 @@ class MainActivity : AppCompatActivity() {
         cameraDevice = null
         surfaceTexture = null
     }
+
+    companion object {
+        //30 fps
+        private val TARGET_FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 30
+    }
 }
\ No newline at end of file
@@ -0,0 +1,289 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLES31Ext;
+
+import java.nio.Buffer;
+
+/**
+ * {@link GlBackend} that forwards every call to the platform GLES bindings.
+ * It holds no state, so a single instance can be shared by every thread and context.
+ */
+public final class AndroidGlBackend implements GlBackend {
+
+   public static final AndroidGlBackend INSTANCE = new AndroidGlBackend();
+
+   private AndroidGlBackend() {
+      //Use INSTANCE
+   }
+
+   @Override public void glUseProgram(int program) {
+      GLES20.glUseProgram(program);
+   }
+
+   @Override public void glViewport(int x, int y, int width, int height) {
+      GLES20.glViewport(x, y, width, height);
+   }
+
+   @Override public void glClearColor(float red, float green, float blue, float alpha) {
+      GLES20.glClearColor(red, green, blue, alpha);
+   }
+
+   @Override public void glClear(int mask) {
+      GLES20.glClear(mask);
+   }
+
+   @Override public void glActiveTexture(int texture) {
+      GLES20.glActiveTexture(texture);
+   }
+
+   @Override public void glEnable(int capability) {
+      GLES20.glEnable(capability);
+   }
+
+   @Override public void glDisable(int capability) {
+      GLES20.glDisable(capability);
+   }
+
+   @Override public int glGetError() {
+      return GLES20.glGetError();
+   }
+
+   @Override public String glGetString(int name) {
+      return GLES20.glGetString(name);
+   }
+
+   @Override public int glGetUniformLocation(int program, String name) {
+      return GLES20.glGetUniformLocation(program, name);
+   }
+
+   @Override public int glGetAttribLocation(int program, String name) {
+      return GLES20.glGetAttribLocation(program, name);
+   }
+
+   @Override
+   public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+      GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+   }
+
+   @Override public void glUniform1i(int location, int x) {
+      GLES20.glUniform1i(location, x);
+   }
+
+   @Override public void glUniform1fv(int location, int count, float[] value, int offset) {
+      GLES20.glUniform1fv(location, count, value, offset);
+   }
+
+   @Override public void glUniform2fv(int location, int count, float[] value, int offset) {
+      GLES20.glUniform2fv(location, count, value, offset);
+   }
+
+   @Override public void glUniform3fv(int location, int count, float[] value, int offset) {
+      GLES20.glUniform3fv(location, count, value, offset);
+   }
+
+   @Override public void glUniform4fv(int location, int count, float[] value, int offset) {
+      GLES20.glUniform4fv(location, count, value, offset);
+   }
+
+   @Override public void glEnableVertexAttribArray(int index) {
+      GLES20.glEnableVertexAttribArray(index);
+   }
+
+   @Override public void glDisableVertexAttribArray(int index) {
+      GLES20.glDisableVertexAttribArray(index);
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer buffer) {
+      GLES20.glVertexAttribPointer(index, size, type, normalized, stride, buffer);
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+      GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+   }
+
+   @Override public void glGenBuffers(int n, int[] buffers, int offset) {
+      GLES20.glGenBuffers(n, buffers, offset);
+   }
+
+   @Override public void glDeleteBuffers(int n, int[] buffers, int offset) {
+      GLES20.glDeleteBuffers(n, buffers, offset);
+   }
+
+   @Override public void glBindBuffer(int target, int buffer) {
+      GLES20.glBindBuffer(target, buffer);
+   }
+
+   @Override public void glBufferData(int target, int size, Buffer data, int usage) {
+      GLES20.glBufferData(target, size, data, usage);
+   }
+
+   @Override public void glGenVertexArrays(int n, int[] arrays, int offset) {
+      GLES30.glGenVertexArrays(n, arrays, offset);
+   }
+
+   @Override public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+      GLES30.glDeleteVertexArrays(n, arrays, offset);
+   }
+
+   @Override public void glBindVertexArray(int array) {
+      GLES30.glBindVertexArray(array);
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, Buffer indices) {
+      GLES20.glDrawElements(mode, count, type, indices);
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, int offset) {
+      GLES20.glDrawElements(mode, count, type, offset);
+   }
+
+   @Override public void glDrawArrays(int mode, int first, int count) {
+      GLES20.glDrawArrays(mode, first, count);
+   }
+
+   @Override public int glCreateShader(int type) {
+      return GLES20.glCreateShader(type);
+   }
+
+   @Override public void glShaderSource(int shader, String source) {
+      GLES20.glShaderSource(shader, source);
+   }
+
+   @Override public void glCompileShader(int shader) {
+      GLES20.glCompileShader(shader);
+   }
+
+   @Override public void glGetShaderiv(int shader, int name, int[] params, int offset) {
+      GLES20.glGetShaderiv(shader, name, params, offset);
+   }
+
+   @Override public String glGetShaderInfoLog(int shader) {
+      return GLES20.glGetShaderInfoLog(shader);
+   }
+
+   @Override public void glDeleteShader(int shader) {
+      GLES20.glDeleteShader(shader);
+   }
+
+   @Override public int glCreateProgram() {
+      return GLES20.glCreateProgram();
+   }
+
+   @Override public void glAttachShader(int program, int shader) {
+      GLES20.glAttachShader(program, shader);
+   }
+
+   @Override public void glLinkProgram(int program) {
+      GLES20.glLinkProgram(program);
+   }
+
+   @Override public void glGetProgramiv(int program, int name, int[] params, int offset) {
+      GLES20.glGetProgramiv(program, name, params, offset);
+   }
+
+   @Override public String glGetProgramInfoLog(int program) {
+      return GLES20.glGetProgramInfoLog(program);
+   }
+
+   @Override public void glDeleteProgram(int program) {
+      GLES20.glDeleteProgram(program);
+   }
+
+   @Override public void glGenTextures(int n, int[] textures, int offset) {
+      GLES20.glGenTextures(n, textures, offset);
+   }
+
+   @Override public void glDeleteTextures(int n, int[] textures, int offset) {
+      GLES20.glDeleteTextures(n, textures, offset);
+   }
+
+   @Override public void glBindTexture(int target, int texture) {
+      GLES20.glBindTexture(target, texture);
+   }
+
+   @Override public void glTexParameteri(int target, int name, int param) {
+      GLES20.glTexParameteri(target, name, param);
+   }
+
+   @Override
+   public void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+                            int border, int format, int type, Buffer pixels) {
+      GLES20.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+   }
+
+   @Override
+   public void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth,
+                            int border, int format, int type, Buffer pixels) {
+      GLES30.glTexImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+   }
+
+   @Override public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+      GLES20.glGenFramebuffers(n, framebuffers, offset);
+   }
+
+   @Override public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+      GLES20.glDeleteFramebuffers(n, framebuffers, offset);
+   }
+
+   @Override public void glBindFramebuffer(int target, int framebuffer) {
+      GLES20.glBindFramebuffer(target, framebuffer);
+   }
+
+   @Override
+   public void glFramebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level) {
+      GLES20.glFramebufferTexture2D(target, attachment, textureTarget, texture, level);
+   }
+
+   @Override public int glCheckFramebufferStatus(int target) {
+      return GLES20.glCheckFramebufferStatus(target);
+   }
+
+   @Override public void glGetIntegerv(int name, int[] params, int offset) {
+      GLES20.glGetIntegerv(name, params, offset);
+   }
+
+   @Override public void glFinish() {
+      GLES20.glFinish();
+   }
+
+   @Override
+   public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                  int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+      GLES30.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+   }
+
+   @Override public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+      GLES30.glProgramBinary(program, binaryFormat, binary, length);
+   }
+
+   @Override
+   public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+      GLES20.glReadPixels(x, y, width, height, format, type, pixels);
+   }
+
+   @Override
+   public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+      GLES30.glReadPixels(x, y, width, height, format, type, offset);
+   }
+
+   @Override public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+      return GLES30.glMapBufferRange(target, offset, length, access);
+   }
+
+   @Override public boolean glUnmapBuffer(int target) {
+      return GLES30.glUnmapBuffer(target);
+   }
+
+   @Override
+   public int glGetDebugMessageLogKHR(int count, int bufSize, int[] sources, int sourcesOffset,
+                                      int[] types, int typesOffset, int[] ids, int idsOffset,
+                                      int[] severities, int severitiesOffset, int[] lengths,
+                                      int lengthsOffset, byte[] messageLog, int messageLogOffset) {
+      return GLES31Ext.glGetDebugMessageLogKHR(count, bufSize, sources, sourcesOffset, types, typesOffset, ids,
+         idsOffset, severities, severitiesOffset, lengths, lengthsOffset, messageLog, messageLogOffset);
+   }
+}
@@ -0,0 +1,36 @@
+package com.bq.openglcamera.opengl;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link StillEncoderPool.Encoder} compressing with {@link Bitmap#compress}. Each encoder
+ * thread keeps its bitmap while the still size doesn't change.
+ */
+public final class BitmapStillEncoder implements StillEncoderPool.Encoder {
+
+   private final ThreadLocal<Bitmap> bitmaps = new ThreadLocal<>();
+
+   @Override public void encode(ByteBuffer pixels, int width, int height, StillCapture.Format format,
+                                int quality, OutputStream out) throws IOException {
+      Bitmap bitmap = bitmaps.get();
+      if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+         if (bitmap != null) bitmap.recycle();
+         bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+         //Camera images are opaque, PNGs are written without alpha
+         bitmap.setHasAlpha(false);
+         bitmaps.set(bitmap);
+      }
+      //ARGB_8888 is laid out as RGBA bytes, as read back
+      bitmap.copyPixelsFromBuffer(pixels);
+      Bitmap.CompressFormat compressFormat = format == StillCapture.Format.PNG
+         ? Bitmap.CompressFormat.PNG
+         : Bitmap.CompressFormat.JPEG;
+      if (!bitmap.compress(compressFormat, quality, out)) {
+         throw new IOException("Bitmap compression to " + format + " failed");
+      }
+   }
+}
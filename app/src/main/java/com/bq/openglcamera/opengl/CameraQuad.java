@@ -0,0 +1,182 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * The GL side of {@link DefaultCameraRenderer}'s frames: the full screen quad, the program
+ * locations it is drawn with and the per frame calls.
+ * <p>
+ * Free of Android types so the benchmarks can drive the exact frame through a stand-in
+ * backend. Render thread only.
+ */
+final class CameraQuad {
+
+   private final GlBackend gl;
+
+   //Vertex buffer and index buffer
+   private final int[] buffers = new int[2];
+   private final int[] vertexArray = new int[1];
+   private int indexCount;
+
+   private int program;
+   private int positionHandle;
+   private int texturePositionHandle;
+   private int camTexMatrixHandle;
+   private int mvpMatrixHandle;
+
+   CameraQuad(GlBackend gl) {
+      this.gl = gl;
+   }
+
+   /**
+    * Upload the quad once, frames only bind the buffers (or the vertex array on ES3) and draw.
+    * Call with a program set, its attribute locations are recorded in the vertex array.
+    */
+   void upload(boolean vertexArrays) {
+      //We are drawing two triangles for the texture
+      short vertexOrder[] = {0, 1, 2, 1, 3, 2};
+      //Positions followed by tex coordinates
+      float vertexData[] = {
+         -1, +1,
+         +1, +1,
+         -1, -1,
+         +1, -1,
+         //Tex coordinates are flipped vertically
+         0.0f, 1.0f,
+         1.0f, 1.0f,
+         0.0f, 0.0f,
+         1.0f, 0.0f,
+      };
+
+      ByteBuffer bb;
+
+      // Draw list buffer
+      bb = ByteBuffer.allocateDirect(vertexOrder.length * 2); //2 bytes short
+      bb.order(ByteOrder.nativeOrder());
+      ShortBuffer drawOrderBuffer = bb.asShortBuffer();
+      drawOrderBuffer.put(vertexOrder);
+      drawOrderBuffer.position(0);
+
+      bb = ByteBuffer.allocateDirect(vertexData.length * 4); //4 bytes/float
+      bb.order(ByteOrder.nativeOrder());
+      FloatBuffer vertexBuffer = bb.asFloatBuffer();
+      vertexBuffer.put(vertexData);
+      vertexBuffer.position(0);
+
+      gl.glGenBuffers(buffers.length, buffers, 0);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+      gl.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexData.length * 4, vertexBuffer, GLES20.GL_STATIC_DRAW);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+      indexCount = vertexOrder.length;
+
+      if (vertexArrays) {
+         //The vertex array captures the attribute setup and the index buffer binding
+         gl.glGenVertexArrays(1, vertexArray, 0);
+         gl.glBindVertexArray(vertexArray[0]);
+         bindQuad();
+         gl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, vertexOrder.length * 2, drawOrderBuffer, GLES20.GL_STATIC_DRAW);
+         gl.glBindVertexArray(0);
+      } else {
+         vertexArray[0] = 0;
+         gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+         gl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, vertexOrder.length * 2, drawOrderBuffer, GLES20.GL_STATIC_DRAW);
+         gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+      }
+   }
+
+   /**
+    * Draw with another program, taking the same attributes and uniforms as
+    * <code>vert.glsl</code> and <code>frag.glsl</code>.
+    */
+   void setProgram(int program) {
+      this.program = program;
+      gl.glUseProgram(program);
+      camTexMatrixHandle = gl.glGetUniformLocation(program, "camTexMatrix");
+      mvpMatrixHandle = gl.glGetUniformLocation(program, "mvpMatrix");
+      int position = gl.glGetAttribLocation(program, "position");
+      int texturePosition = gl.glGetAttribLocation(program, "texturePosition");
+
+      boolean moved = position != positionHandle || texturePosition != texturePositionHandle;
+      positionHandle = position;
+      texturePositionHandle = texturePosition;
+      if (moved && vertexArray[0] != 0) {
+         //The vertex array recorded the old locations
+         gl.glBindVertexArray(vertexArray[0]);
+         bindQuad();
+         gl.glBindVertexArray(0);
+      }
+   }
+
+   int getProgram() {
+      return program;
+   }
+
+   /**
+    * Make the camera texture unit active, before the image is latched into it.
+    */
+   void activateCameraTexture() {
+      gl.glActiveTexture(GLES20.GL_TEXTURE0);
+   }
+
+   /**
+    * Start the frame with the program in use, the place to set extra uniforms.
+    */
+   void useProgram() {
+      gl.glUseProgram(program);
+   }
+
+   /**
+    * Clear the viewport and draw the camera image into it.
+    */
+   void draw(int width, int height, float[] cameraTextureMatrix, float[] mvpMatrix) {
+      //Make the texture available to the shader
+      gl.glViewport(0, 0, width, height);
+      gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+      gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+      gl.glUniformMatrix4fv(camTexMatrixHandle, 1, false, cameraTextureMatrix, 0);
+
+      //Send quad
+      if (vertexArray[0] != 0) {
+         gl.glBindVertexArray(vertexArray[0]);
+      } else {
+         bindQuad();
+      }
+
+      //Send Mvp Matrix
+      gl.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
+      //And draw
+      gl.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+   }
+
+   /**
+    * Delete the buffers and vertex array, the programs belong to the caller.
+    */
+   void release() {
+      if (vertexArray[0] != 0) {
+         gl.glBindVertexArray(0);
+         gl.glDeleteVertexArrays(1, vertexArray, 0);
+         vertexArray[0] = 0;
+      }
+      gl.glDeleteBuffers(buffers.length, buffers, 0);
+      buffers[0] = buffers[1] = 0;
+      program = 0;
+   }
+
+   /**
+    * Point the attributes at the quad buffers. Recorded once in the vertex array on ES3,
+    * repeated every frame on ES2 (the state cache drops it when nothing changed).
+    */
+   private void bindQuad() {
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+      gl.glEnableVertexAttribArray(positionHandle);
+      gl.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, 0);
+      gl.glEnableVertexAttribArray(texturePositionHandle);
+      gl.glVertexAttribPointer(texturePositionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, 4 * 2 * 4);
+      gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+   }
+}
@@ -0,0 +1,165 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One camera image source of a composed frame, see
+ * {@link TextureViewGLWrapper#addCameraStream(TextureViewGLWrapper.StreamListener, android.os.Handler)}.
+ * <p>
+ * Each stream has its own {@link PreviewTransform} and a region of the output to draw into,
+ * and tracks how old its image is, so a stream whose camera stopped delivering can be spotted.
+ * Region, transform and counters can be used from any thread.
+ */
+public final class CameraStream {
+
+   /**
+    * The image behind a stream, a <code>SurfaceTexture</code> on the device.
+    */
+   public interface Image {
+      /**
+       * Latch the newest image, on the render thread.
+       */
+      void update();
+
+      long getTimestamp();
+
+      void getTransformMatrix(float[] matrix);
+   }
+
+   private final int id;
+   private final int texture;
+   private final Image image;
+   private final Clock clock;
+   private final PreviewTransform previewTransform = new PreviewTransform();
+   private final AtomicBoolean pending = new AtomicBoolean();
+   private final AtomicLong framesAvailable = new AtomicLong();
+   private final AtomicLong framesLatched = new AtomicLong();
+   //x, y, width, height, replaced as a whole
+   private volatile float[] region = {0, 0, 1, 1};
+   private volatile long latchedAtNanos = -1;
+
+   //Render thread only
+   private final float[] textureMatrix = new float[16];
+   private long imageTimestamp;
+
+   /**
+    * @param texture GL_TEXTURE_EXTERNAL_OES texture the image is attached to, 0 if none.
+    */
+   CameraStream(int id, int texture, Image image, Clock clock) {
+      this.id = id;
+      this.texture = texture;
+      this.image = image;
+      this.clock = clock;
+   }
+
+   /**
+    * Unique per wrapper, 0 for the primary stream.
+    */
+   public int getId() {
+      return id;
+   }
+
+   public int getTexture() {
+      return texture;
+   }
+
+   /**
+    * Placement of the camera image inside the stream's region, on top of the image's own
+    * transform matrix. Give it the upright buffer size and the display rotation, the surface
+    * size is the region size, kept up to date by the renderer.
+    */
+   public PreviewTransform getPreviewTransform() {
+      return previewTransform;
+   }
+
+   /**
+    * Part of the output to draw into, as fractions of its size from the top left corner. The
+    * whole output by default. Streams draw in the order they were added, the last one on top.
+    */
+   public void setRegion(float x, float y, float width, float height) {
+      region = new float[]{x, y, width, height};
+   }
+
+   /**
+    * Copy of the region, x, y, width and height.
+    */
+   public float[] getRegion() {
+      return region.clone();
+   }
+
+   /**
+    * True once an image has been latched.
+    */
+   public boolean hasImage() {
+      return latchedAtNanos >= 0;
+   }
+
+   /**
+    * Time since the stream last got a new image, -1 if it never did.
+    */
+   public long getImageAgeNanos() {
+      long latchedAt = latchedAtNanos;
+      return latchedAt < 0 ? -1 : clock.nanoTime() - latchedAt;
+   }
+
+   /**
+    * True if the stream has no image or hasn't got a new one for <code>maxAgeNanos</code>.
+    */
+   public boolean isStale(long maxAgeNanos) {
+      long age = getImageAgeNanos();
+      return age < 0 || age > maxAgeNanos;
+   }
+
+   public long getFramesAvailable() {
+      return framesAvailable.get();
+   }
+
+   /**
+    * Images drawn at least once, the rest were replaced before a composed render latched them.
+    */
+   public long getFramesLatched() {
+      return framesLatched.get();
+   }
+
+   /**
+    * Camera timestamp of the latched image. Render thread only.
+    */
+   public long getImageTimestamp() {
+      return imageTimestamp;
+   }
+
+   /**
+    * Texture coordinate transform of the latched image. Render thread only, don't modify.
+    */
+   public float[] getTextureMatrix() {
+      return textureMatrix;
+   }
+
+   /**
+    * A new image is available.
+    */
+   void onFrameAvailable() {
+      framesAvailable.incrementAndGet();
+      pending.set(true);
+   }
+
+   /**
+    * Latch the newest image if a new one arrived since the last call.
+    *
+    * @return True if an image was latched.
+    */
+   boolean latchIfPending() {
+      if (!pending.getAndSet(false)) return false;
+      image.update();
+      image.getTransformMatrix(textureMatrix);
+      imageTimestamp = image.getTimestamp();
+      latchedAtNanos = clock.nanoTime();
+      framesLatched.incrementAndGet();
+      return true;
+   }
+
+   @Override public String toString() {
+      return "CameraStream " + id;
+   }
+}
@@ -0,0 +1,712 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * {@link GlBackend} recording every call into a {@link GlCapture} after forwarding it, with the
+ * CPU time it took. Results and output arrays are recorded as returned by the delegate.
+ */
+public class CapturingGlBackend extends ForwardingGlBackend {
+
+   private final GlCapture capture;
+
+   public CapturingGlBackend(GlBackend delegate, GlCapture capture) {
+      super(delegate);
+      this.capture = capture;
+   }
+
+   @Override public void glUseProgram(int program) {
+      long start = capture.start();
+      delegate.glUseProgram(program);
+      if (capture.begin(GlCall.USE_PROGRAM, start)) {
+         capture.putInt(program);
+         capture.end();
+      }
+   }
+
+   @Override public void glViewport(int x, int y, int width, int height) {
+      long start = capture.start();
+      delegate.glViewport(x, y, width, height);
+      if (capture.begin(GlCall.VIEWPORT, start)) {
+         capture.putInt(x);
+         capture.putInt(y);
+         capture.putInt(width);
+         capture.putInt(height);
+         capture.end();
+      }
+   }
+
+   @Override public void glClearColor(float red, float green, float blue, float alpha) {
+      long start = capture.start();
+      delegate.glClearColor(red, green, blue, alpha);
+      if (capture.begin(GlCall.CLEAR_COLOR, start)) {
+         capture.putFloat(red);
+         capture.putFloat(green);
+         capture.putFloat(blue);
+         capture.putFloat(alpha);
+         capture.end();
+      }
+   }
+
+   @Override public void glClear(int mask) {
+      long start = capture.start();
+      delegate.glClear(mask);
+      if (capture.begin(GlCall.CLEAR, start)) {
+         capture.putInt(mask);
+         capture.end();
+      }
+   }
+
+   @Override public void glActiveTexture(int texture) {
+      long start = capture.start();
+      delegate.glActiveTexture(texture);
+      if (capture.begin(GlCall.ACTIVE_TEXTURE, start)) {
+         capture.putInt(texture);
+         capture.end();
+      }
+   }
+
+   @Override public void glEnable(int capability) {
+      long start = capture.start();
+      delegate.glEnable(capability);
+      if (capture.begin(GlCall.ENABLE, start)) {
+         capture.putInt(capability);
+         capture.end();
+      }
+   }
+
+   @Override public void glDisable(int capability) {
+      long start = capture.start();
+      delegate.glDisable(capability);
+      if (capture.begin(GlCall.DISABLE, start)) {
+         capture.putInt(capability);
+         capture.end();
+      }
+   }
+
+   @Override public int glGetError() {
+      long start = capture.start();
+      int result = delegate.glGetError();
+      if (capture.begin(GlCall.GET_ERROR, start)) {
+         capture.putInt(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override public String glGetString(int name) {
+      long start = capture.start();
+      String result = delegate.glGetString(name);
+      if (capture.begin(GlCall.GET_STRING, start)) {
+         capture.putInt(name);
+         capture.putString(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override public void glGetIntegerv(int name, int[] params, int offset) {
+      long start = capture.start();
+      delegate.glGetIntegerv(name, params, offset);
+      if (capture.begin(GlCall.GET_INTEGERV, start)) {
+         capture.putInt(name);
+         capture.putInts(params, offset, 1);
+         capture.end();
+      }
+   }
+
+   @Override public void glFinish() {
+      long start = capture.start();
+      delegate.glFinish();
+      if (capture.begin(GlCall.FINISH, start)) {
+         capture.end();
+      }
+   }
+
+   @Override public int glGetUniformLocation(int program, String name) {
+      long start = capture.start();
+      int result = delegate.glGetUniformLocation(program, name);
+      if (capture.begin(GlCall.GET_UNIFORM_LOCATION, start)) {
+         capture.putInt(program);
+         capture.putString(name);
+         capture.putInt(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override public int glGetAttribLocation(int program, String name) {
+      long start = capture.start();
+      int result = delegate.glGetAttribLocation(program, name);
+      if (capture.begin(GlCall.GET_ATTRIB_LOCATION, start)) {
+         capture.putInt(program);
+         capture.putString(name);
+         capture.putInt(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override
+   public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+      long start = capture.start();
+      delegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+      if (capture.begin(GlCall.UNIFORM_MATRIX4FV, start)) {
+         capture.putInt(location);
+         capture.putInt(count);
+         capture.putBoolean(transpose);
+         capture.putFloats(value, offset, count * 16);
+         capture.end();
+      }
+   }
+
+   @Override public void glUniform1i(int location, int x) {
+      long start = capture.start();
+      delegate.glUniform1i(location, x);
+      if (capture.begin(GlCall.UNIFORM1I, start)) {
+         capture.putInt(location);
+         capture.putInt(x);
+         capture.end();
+      }
+   }
+
+   @Override public void glUniform1fv(int location, int count, float[] value, int offset) {
+      long start = capture.start();
+      delegate.glUniform1fv(location, count, value, offset);
+      if (capture.begin(GlCall.UNIFORM1FV, start)) {
+         capture.putInt(location);
+         capture.putInt(count);
+         capture.putFloats(value, offset, count * 1);
+         capture.end();
+      }
+   }
+
+   @Override public void glUniform2fv(int location, int count, float[] value, int offset) {
+      long start = capture.start();
+      delegate.glUniform2fv(location, count, value, offset);
+      if (capture.begin(GlCall.UNIFORM2FV, start)) {
+         capture.putInt(location);
+         capture.putInt(count);
+         capture.putFloats(value, offset, count * 2);
+         capture.end();
+      }
+   }
+
+   @Override public void glUniform3fv(int location, int count, float[] value, int offset) {
+      long start = capture.start();
+      delegate.glUniform3fv(location, count, value, offset);
+      if (capture.begin(GlCall.UNIFORM3FV, start)) {
+         capture.putInt(location);
+         capture.putInt(count);
+         capture.putFloats(value, offset, count * 3);
+         capture.end();
+      }
+   }
+
+   @Override public void glUniform4fv(int location, int count, float[] value, int offset) {
+      long start = capture.start();
+      delegate.glUniform4fv(location, count, value, offset);
+      if (capture.begin(GlCall.UNIFORM4FV, start)) {
+         capture.putInt(location);
+         capture.putInt(count);
+         capture.putFloats(value, offset, count * 4);
+         capture.end();
+      }
+   }
+
+   @Override public void glEnableVertexAttribArray(int index) {
+      long start = capture.start();
+      delegate.glEnableVertexAttribArray(index);
+      if (capture.begin(GlCall.ENABLE_VERTEX_ATTRIB_ARRAY, start)) {
+         capture.putInt(index);
+         capture.end();
+      }
+   }
+
+   @Override public void glDisableVertexAttribArray(int index) {
+      long start = capture.start();
+      delegate.glDisableVertexAttribArray(index);
+      if (capture.begin(GlCall.DISABLE_VERTEX_ATTRIB_ARRAY, start)) {
+         capture.putInt(index);
+         capture.end();
+      }
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer buffer) {
+      long start = capture.start();
+      delegate.glVertexAttribPointer(index, size, type, normalized, stride, buffer);
+      if (capture.begin(GlCall.VERTEX_ATTRIB_POINTER, start)) {
+         capture.putInt(index);
+         capture.putInt(size);
+         capture.putInt(type);
+         capture.putBoolean(normalized);
+         capture.putInt(stride);
+         capture.putBuffer(buffer);
+         capture.end();
+      }
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+      long start = capture.start();
+      delegate.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+      if (capture.begin(GlCall.VERTEX_ATTRIB_POINTER_OFFSET, start)) {
+         capture.putInt(index);
+         capture.putInt(size);
+         capture.putInt(type);
+         capture.putBoolean(normalized);
+         capture.putInt(stride);
+         capture.putInt(offset);
+         capture.end();
+      }
+   }
+
+   @Override public void glGenBuffers(int n, int[] buffers, int offset) {
+      long start = capture.start();
+      delegate.glGenBuffers(n, buffers, offset);
+      if (capture.begin(GlCall.GEN_BUFFERS, start)) {
+         capture.putInts(buffers, offset, n);
+         capture.end();
+      }
+   }
+
+   @Override public void glDeleteBuffers(int n, int[] buffers, int offset) {
+      long start = capture.start();
+      delegate.glDeleteBuffers(n, buffers, offset);
+      if (capture.begin(GlCall.DELETE_BUFFERS, start)) {
+         capture.putInts(buffers, offset, n);
+         capture.end();
+      }
+   }
+
+   @Override public void glBindBuffer(int target, int buffer) {
+      long start = capture.start();
+      delegate.glBindBuffer(target, buffer);
+      if (capture.begin(GlCall.BIND_BUFFER, start)) {
+         capture.putInt(target);
+         capture.putInt(buffer);
+         capture.end();
+      }
+   }
+
+   @Override public void glBufferData(int target, int size, Buffer data, int usage) {
+      long start = capture.start();
+      delegate.glBufferData(target, size, data, usage);
+      if (capture.begin(GlCall.BUFFER_DATA, start)) {
+         capture.putInt(target);
+         capture.putInt(size);
+         capture.putBuffer(data);
+         capture.putInt(usage);
+         capture.end();
+      }
+   }
+
+   @Override public void glGenVertexArrays(int n, int[] arrays, int offset) {
+      long start = capture.start();
+      delegate.glGenVertexArrays(n, arrays, offset);
+      if (capture.begin(GlCall.GEN_VERTEX_ARRAYS, start)) {
+         capture.putInts(arrays, offset, n);
+         capture.end();
+      }
+   }
+
+   @Override public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+      long start = capture.start();
+      delegate.glDeleteVertexArrays(n, arrays, offset);
+      if (capture.begin(GlCall.DELETE_VERTEX_ARRAYS, start)) {
+         capture.putInts(arrays, offset, n);
+         capture.end();
+      }
+   }
+
+   @Override public void glBindVertexArray(int array) {
+      long start = capture.start();
+      delegate.glBindVertexArray(array);
+      if (capture.begin(GlCall.BIND_VERTEX_ARRAY, start)) {
+         capture.putInt(array);
+         capture.end();
+      }
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, Buffer indices) {
+      long start = capture.start();
+      delegate.glDrawElements(mode, count, type, indices);
+      if (capture.begin(GlCall.DRAW_ELEMENTS, start)) {
+         capture.putInt(mode);
+         capture.putInt(count);
+         capture.putInt(type);
+         capture.putBuffer(indices);
+         capture.end();
+      }
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, int offset) {
+      long start = capture.start();
+      delegate.glDrawElements(mode, count, type, offset);
+      if (capture.begin(GlCall.DRAW_ELEMENTS_OFFSET, start)) {
+         capture.putInt(mode);
+         capture.putInt(count);
+         capture.putInt(type);
+         capture.putInt(offset);
+         capture.end();
+      }
+   }
+
+   @Override public void glDrawArrays(int mode, int first, int count) {
+      long start = capture.start();
+      delegate.glDrawArrays(mode, first, count);
+      if (capture.begin(GlCall.DRAW_ARRAYS, start)) {
+         capture.putInt(mode);
+         capture.putInt(first);
+         capture.putInt(count);
+         capture.end();
+      }
+   }
+
+   @Override public int glCreateShader(int type) {
+      long start = capture.start();
+      int result = delegate.glCreateShader(type);
+      if (capture.begin(GlCall.CREATE_SHADER, start)) {
+         capture.putInt(type);
+         capture.putInt(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override public void glShaderSource(int shader, String source) {
+      long start = capture.start();
+      delegate.glShaderSource(shader, source);
+      if (capture.begin(GlCall.SHADER_SOURCE, start)) {
+         capture.putInt(shader);
+         capture.putString(source);
+         capture.end();
+      }
+   }
+
+   @Override public void glCompileShader(int shader) {
+      long start = capture.start();
+      delegate.glCompileShader(shader);
+      if (capture.begin(GlCall.COMPILE_SHADER, start)) {
+         capture.putInt(shader);
+         capture.end();
+      }
+   }
+
+   @Override public void glGetShaderiv(int shader, int name, int[] params, int offset) {
+      long start = capture.start();
+      delegate.glGetShaderiv(shader, name, params, offset);
+      if (capture.begin(GlCall.GET_SHADERIV, start)) {
+         capture.putInt(shader);
+         capture.putInt(name);
+         capture.putInts(params, offset, 1);
+         capture.end();
+      }
+   }
+
+   @Override public String glGetShaderInfoLog(int shader) {
+      long start = capture.start();
+      String result = delegate.glGetShaderInfoLog(shader);
+      if (capture.begin(GlCall.GET_SHADER_INFO_LOG, start)) {
+         capture.putInt(shader);
+         capture.putString(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override public void glDeleteShader(int shader) {
+      long start = capture.start();
+      delegate.glDeleteShader(shader);
+      if (capture.begin(GlCall.DELETE_SHADER, start)) {
+         capture.putInt(shader);
+         capture.end();
+      }
+   }
+
+   @Override public int glCreateProgram() {
+      long start = capture.start();
+      int result = delegate.glCreateProgram();
+      if (capture.begin(GlCall.CREATE_PROGRAM, start)) {
+         capture.putInt(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override public void glAttachShader(int program, int shader) {
+      long start = capture.start();
+      delegate.glAttachShader(program, shader);
+      if (capture.begin(GlCall.ATTACH_SHADER, start)) {
+         capture.putInt(program);
+         capture.putInt(shader);
+         capture.end();
+      }
+   }
+
+   @Override public void glLinkProgram(int program) {
+      long start = capture.start();
+      delegate.glLinkProgram(program);
+      if (capture.begin(GlCall.LINK_PROGRAM, start)) {
+         capture.putInt(program);
+         capture.end();
+      }
+   }
+
+   @Override public void glGetProgramiv(int program, int name, int[] params, int offset) {
+      long start = capture.start();
+      delegate.glGetProgramiv(program, name, params, offset);
+      if (capture.begin(GlCall.GET_PROGRAMIV, start)) {
+         capture.putInt(program);
+         capture.putInt(name);
+         capture.putInts(params, offset, 1);
+         capture.end();
+      }
+   }
+
+   @Override public String glGetProgramInfoLog(int program) {
+      long start = capture.start();
+      String result = delegate.glGetProgramInfoLog(program);
+      if (capture.begin(GlCall.GET_PROGRAM_INFO_LOG, start)) {
+         capture.putInt(program);
+         capture.putString(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override public void glDeleteProgram(int program) {
+      long start = capture.start();
+      delegate.glDeleteProgram(program);
+      if (capture.begin(GlCall.DELETE_PROGRAM, start)) {
+         capture.putInt(program);
+         capture.end();
+      }
+   }
+
+   @Override public void glGenTextures(int n, int[] textures, int offset) {
+      long start = capture.start();
+      delegate.glGenTextures(n, textures, offset);
+      if (capture.begin(GlCall.GEN_TEXTURES, start)) {
+         capture.putInts(textures, offset, n);
+         capture.end();
+      }
+   }
+
+   @Override public void glDeleteTextures(int n, int[] textures, int offset) {
+      long start = capture.start();
+      delegate.glDeleteTextures(n, textures, offset);
+      if (capture.begin(GlCall.DELETE_TEXTURES, start)) {
+         capture.putInts(textures, offset, n);
+         capture.end();
+      }
+   }
+
+   @Override public void glBindTexture(int target, int texture) {
+      long start = capture.start();
+      delegate.glBindTexture(target, texture);
+      if (capture.begin(GlCall.BIND_TEXTURE, start)) {
+         capture.putInt(target);
+         capture.putInt(texture);
+         capture.end();
+      }
+   }
+
+   @Override public void glTexParameteri(int target, int name, int param) {
+      long start = capture.start();
+      delegate.glTexParameteri(target, name, param);
+      if (capture.begin(GlCall.TEX_PARAMETERI, start)) {
+         capture.putInt(target);
+         capture.putInt(name);
+         capture.putInt(param);
+         capture.end();
+      }
+   }
+
+   @Override
+   public void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+                            int border, int format, int type, Buffer pixels) {
+      long start = capture.start();
+      delegate.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+      if (capture.begin(GlCall.TEX_IMAGE_2D, start)) {
+         capture.putInt(target);
+         capture.putInt(level);
+         capture.putInt(internalFormat);
+         capture.putInt(width);
+         capture.putInt(height);
+         capture.putInt(border);
+         capture.putInt(format);
+         capture.putInt(type);
+         capture.putBuffer(pixels);
+         capture.end();
+      }
+   }
+
+   @Override
+   public void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth,
+                            int border, int format, int type, Buffer pixels) {
+      long start = capture.start();
+      delegate.glTexImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+      if (capture.begin(GlCall.TEX_IMAGE_3D, start)) {
+         capture.putInt(target);
+         capture.putInt(level);
+         capture.putInt(internalFormat);
+         capture.putInt(width);
+         capture.putInt(height);
+         capture.putInt(depth);
+         capture.putInt(border);
+         capture.putInt(format);
+         capture.putInt(type);
+         capture.putBuffer(pixels);
+         capture.end();
+      }
+   }
+
+   @Override public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+      long start = capture.start();
+      delegate.glGenFramebuffers(n, framebuffers, offset);
+      if (capture.begin(GlCall.GEN_FRAMEBUFFERS, start)) {
+         capture.putInts(framebuffers, offset, n);
+         capture.end();
+      }
+   }
+
+   @Override public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+      long start = capture.start();
+      delegate.glDeleteFramebuffers(n, framebuffers, offset);
+      if (capture.begin(GlCall.DELETE_FRAMEBUFFERS, start)) {
+         capture.putInts(framebuffers, offset, n);
+         capture.end();
+      }
+   }
+
+   @Override public void glBindFramebuffer(int target, int framebuffer) {
+      long start = capture.start();
+      delegate.glBindFramebuffer(target, framebuffer);
+      if (capture.begin(GlCall.BIND_FRAMEBUFFER, start)) {
+         capture.putInt(target);
+         capture.putInt(framebuffer);
+         capture.end();
+      }
+   }
+
+   @Override
+   public void glFramebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level) {
+      long start = capture.start();
+      delegate.glFramebufferTexture2D(target, attachment, textureTarget, texture, level);
+      if (capture.begin(GlCall.FRAMEBUFFER_TEXTURE_2D, start)) {
+         capture.putInt(target);
+         capture.putInt(attachment);
+         capture.putInt(textureTarget);
+         capture.putInt(texture);
+         capture.putInt(level);
+         capture.end();
+      }
+   }
+
+   @Override public int glCheckFramebufferStatus(int target) {
+      long start = capture.start();
+      int result = delegate.glCheckFramebufferStatus(target);
+      if (capture.begin(GlCall.CHECK_FRAMEBUFFER_STATUS, start)) {
+         capture.putInt(target);
+         capture.putInt(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override
+   public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                  int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+      long start = capture.start();
+      delegate.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+      if (capture.begin(GlCall.GET_PROGRAM_BINARY, start)) {
+         capture.putInt(program);
+         capture.putInt(bufSize);
+         capture.putInts(length, lengthOffset, 1);
+         capture.putInts(binaryFormat, binaryFormatOffset, 1);
+         capture.putBuffer(binary);
+         capture.end();
+      }
+   }
+
+   @Override public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+      long start = capture.start();
+      delegate.glProgramBinary(program, binaryFormat, binary, length);
+      if (capture.begin(GlCall.PROGRAM_BINARY, start)) {
+         capture.putInt(program);
+         capture.putInt(binaryFormat);
+         capture.putBuffer(binary);
+         capture.putInt(length);
+         capture.end();
+      }
+   }
+
+   @Override
+   public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+      long start = capture.start();
+      delegate.glReadPixels(x, y, width, height, format, type, pixels);
+      if (capture.begin(GlCall.READ_PIXELS, start)) {
+         capture.putInt(x);
+         capture.putInt(y);
+         capture.putInt(width);
+         capture.putInt(height);
+         capture.putInt(format);
+         capture.putInt(type);
+         capture.putBuffer(pixels);
+         capture.end();
+      }
+   }
+
+   @Override
+   public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+      long start = capture.start();
+      delegate.glReadPixels(x, y, width, height, format, type, offset);
+      if (capture.begin(GlCall.READ_PIXELS_OFFSET, start)) {
+         capture.putInt(x);
+         capture.putInt(y);
+         capture.putInt(width);
+         capture.putInt(height);
+         capture.putInt(format);
+         capture.putInt(type);
+         capture.putInt(offset);
+         capture.end();
+      }
+   }
+
+   @Override public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+      long start = capture.start();
+      Buffer result = delegate.glMapBufferRange(target, offset, length, access);
+      if (capture.begin(GlCall.MAP_BUFFER_RANGE, start)) {
+         capture.putInt(target);
+         capture.putInt(offset);
+         capture.putInt(length);
+         capture.putInt(access);
+         capture.putBuffer(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override public boolean glUnmapBuffer(int target) {
+      long start = capture.start();
+      boolean result = delegate.glUnmapBuffer(target);
+      if (capture.begin(GlCall.UNMAP_BUFFER, start)) {
+         capture.putInt(target);
+         capture.putBoolean(result);
+         capture.end();
+      }
+      return result;
+   }
+
+   @Override
+   public int glGetDebugMessageLogKHR(int count, int bufSize, int[] sources, int sourcesOffset,
+                                      int[] types, int typesOffset, int[] ids, int idsOffset,
+                                      int[] severities, int severitiesOffset, int[] lengths,
+                                      int lengthsOffset, byte[] messageLog, int messageLogOffset) {
+      //Read by the diagnostics only, it changes no state a replay would need
+      return delegate.glGetDebugMessageLogKHR(count, bufSize, sources, sourcesOffset, types, typesOffset, ids,
+         idsOffset, severities, severitiesOffset, lengths, lengthsOffset, messageLog, messageLogOffset);
+   }
+}
@@ -0,0 +1,359 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * {@link GlBackend} checking for errors after every call of the frames {@link GlDiagnostics}
+ * checks. Calls of the other frames cost one extra branch. <code>glGetError</code> itself, and
+ * the debug message log read, are forwarded unchecked.
+ */
+public class CheckingGlBackend extends ForwardingGlBackend {
+
+   private final GlDiagnostics diagnostics;
+
+   public CheckingGlBackend(GlBackend delegate, GlDiagnostics diagnostics) {
+      super(delegate);
+      this.diagnostics = diagnostics;
+   }
+
+   /**
+    * The backend checked by the diagnostics, or the backend itself when they are off, so
+    * release builds don't even pay the branch. Diagnostics off then stay off, see
+    * {@link GlDiagnostics#setLevel(GlDiagnostics.Level)}.
+    */
+   public static GlBackend wrap(GlBackend gl, GlDiagnostics diagnostics) {
+      if (diagnostics.getLevel() == GlDiagnostics.Level.OFF) return gl;
+      return new CheckingGlBackend(gl, diagnostics);
+   }
+
+   public GlDiagnostics getDiagnostics() {
+      return diagnostics;
+   }
+
+   @Override public void glUseProgram(int program) {
+      delegate.glUseProgram(program);
+      diagnostics.check(delegate, "glUseProgram");
+   }
+
+   @Override public void glViewport(int x, int y, int width, int height) {
+      delegate.glViewport(x, y, width, height);
+      diagnostics.check(delegate, "glViewport");
+   }
+
+   @Override public void glClearColor(float red, float green, float blue, float alpha) {
+      delegate.glClearColor(red, green, blue, alpha);
+      diagnostics.check(delegate, "glClearColor");
+   }
+
+   @Override public void glClear(int mask) {
+      delegate.glClear(mask);
+      diagnostics.check(delegate, "glClear");
+   }
+
+   @Override public void glActiveTexture(int texture) {
+      delegate.glActiveTexture(texture);
+      diagnostics.check(delegate, "glActiveTexture");
+   }
+
+   @Override public void glEnable(int capability) {
+      delegate.glEnable(capability);
+      diagnostics.check(delegate, "glEnable");
+   }
+
+   @Override public void glDisable(int capability) {
+      delegate.glDisable(capability);
+      diagnostics.check(delegate, "glDisable");
+   }
+
+   @Override public String glGetString(int name) {
+      String result = delegate.glGetString(name);
+      diagnostics.check(delegate, "glGetString");
+      return result;
+   }
+
+   @Override public int glGetUniformLocation(int program, String name) {
+      int result = delegate.glGetUniformLocation(program, name);
+      diagnostics.check(delegate, "glGetUniformLocation");
+      return result;
+   }
+
+   @Override public int glGetAttribLocation(int program, String name) {
+      int result = delegate.glGetAttribLocation(program, name);
+      diagnostics.check(delegate, "glGetAttribLocation");
+      return result;
+   }
+
+   @Override
+   public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+      delegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+      diagnostics.check(delegate, "glUniformMatrix4fv");
+   }
+
+   @Override public void glUniform1i(int location, int x) {
+      delegate.glUniform1i(location, x);
+      diagnostics.check(delegate, "glUniform1i");
+   }
+
+   @Override public void glUniform1fv(int location, int count, float[] value, int offset) {
+      delegate.glUniform1fv(location, count, value, offset);
+      diagnostics.check(delegate, "glUniform1fv");
+   }
+
+   @Override public void glUniform2fv(int location, int count, float[] value, int offset) {
+      delegate.glUniform2fv(location, count, value, offset);
+      diagnostics.check(delegate, "glUniform2fv");
+   }
+
+   @Override public void glUniform3fv(int location, int count, float[] value, int offset) {
+      delegate.glUniform3fv(location, count, value, offset);
+      diagnostics.check(delegate, "glUniform3fv");
+   }
+
+   @Override public void glUniform4fv(int location, int count, float[] value, int offset) {
+      delegate.glUniform4fv(location, count, value, offset);
+      diagnostics.check(delegate, "glUniform4fv");
+   }
+
+   @Override public void glEnableVertexAttribArray(int index) {
+      delegate.glEnableVertexAttribArray(index);
+      diagnostics.check(delegate, "glEnableVertexAttribArray");
+   }
+
+   @Override public void glDisableVertexAttribArray(int index) {
+      delegate.glDisableVertexAttribArray(index);
+      diagnostics.check(delegate, "glDisableVertexAttribArray");
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer buffer) {
+      delegate.glVertexAttribPointer(index, size, type, normalized, stride, buffer);
+      diagnostics.check(delegate, "glVertexAttribPointer");
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+      delegate.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+      diagnostics.check(delegate, "glVertexAttribPointer");
+   }
+
+   @Override public void glGenBuffers(int n, int[] buffers, int offset) {
+      delegate.glGenBuffers(n, buffers, offset);
+      diagnostics.check(delegate, "glGenBuffers");
+   }
+
+   @Override public void glDeleteBuffers(int n, int[] buffers, int offset) {
+      delegate.glDeleteBuffers(n, buffers, offset);
+      diagnostics.check(delegate, "glDeleteBuffers");
+   }
+
+   @Override public void glBindBuffer(int target, int buffer) {
+      delegate.glBindBuffer(target, buffer);
+      diagnostics.check(delegate, "glBindBuffer");
+   }
+
+   @Override public void glBufferData(int target, int size, Buffer data, int usage) {
+      delegate.glBufferData(target, size, data, usage);
+      diagnostics.check(delegate, "glBufferData");
+   }
+
+   @Override public void glGenVertexArrays(int n, int[] arrays, int offset) {
+      delegate.glGenVertexArrays(n, arrays, offset);
+      diagnostics.check(delegate, "glGenVertexArrays");
+   }
+
+   @Override public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+      delegate.glDeleteVertexArrays(n, arrays, offset);
+      diagnostics.check(delegate, "glDeleteVertexArrays");
+   }
+
+   @Override public void glBindVertexArray(int array) {
+      delegate.glBindVertexArray(array);
+      diagnostics.check(delegate, "glBindVertexArray");
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, Buffer indices) {
+      delegate.glDrawElements(mode, count, type, indices);
+      diagnostics.check(delegate, "glDrawElements");
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, int offset) {
+      delegate.glDrawElements(mode, count, type, offset);
+      diagnostics.check(delegate, "glDrawElements");
+   }
+
+   @Override public void glDrawArrays(int mode, int first, int count) {
+      delegate.glDrawArrays(mode, first, count);
+      diagnostics.check(delegate, "glDrawArrays");
+   }
+
+   @Override public int glCreateShader(int type) {
+      int result = delegate.glCreateShader(type);
+      diagnostics.check(delegate, "glCreateShader");
+      return result;
+   }
+
+   @Override public void glShaderSource(int shader, String source) {
+      delegate.glShaderSource(shader, source);
+      diagnostics.check(delegate, "glShaderSource");
+   }
+
+   @Override public void glCompileShader(int shader) {
+      delegate.glCompileShader(shader);
+      diagnostics.check(delegate, "glCompileShader");
+   }
+
+   @Override public void glGetShaderiv(int shader, int name, int[] params, int offset) {
+      delegate.glGetShaderiv(shader, name, params, offset);
+      diagnostics.check(delegate, "glGetShaderiv");
+   }
+
+   @Override public String glGetShaderInfoLog(int shader) {
+      String result = delegate.glGetShaderInfoLog(shader);
+      diagnostics.check(delegate, "glGetShaderInfoLog");
+      return result;
+   }
+
+   @Override public void glDeleteShader(int shader) {
+      delegate.glDeleteShader(shader);
+      diagnostics.check(delegate, "glDeleteShader");
+   }
+
+   @Override public int glCreateProgram() {
+      int result = delegate.glCreateProgram();
+      diagnostics.check(delegate, "glCreateProgram");
+      return result;
+   }
+
+   @Override public void glAttachShader(int program, int shader) {
+      delegate.glAttachShader(program, shader);
+      diagnostics.check(delegate, "glAttachShader");
+   }
+
+   @Override public void glLinkProgram(int program) {
+      delegate.glLinkProgram(program);
+      diagnostics.check(delegate, "glLinkProgram");
+   }
+
+   @Override public void glGetProgramiv(int program, int name, int[] params, int offset) {
+      delegate.glGetProgramiv(program, name, params, offset);
+      diagnostics.check(delegate, "glGetProgramiv");
+   }
+
+   @Override public String glGetProgramInfoLog(int program) {
+      String result = delegate.glGetProgramInfoLog(program);
+      diagnostics.check(delegate, "glGetProgramInfoLog");
+      return result;
+   }
+
+   @Override public void glDeleteProgram(int program) {
+      delegate.glDeleteProgram(program);
+      diagnostics.check(delegate, "glDeleteProgram");
+   }
+
+   @Override public void glGenTextures(int n, int[] textures, int offset) {
+      delegate.glGenTextures(n, textures, offset);
+      diagnostics.check(delegate, "glGenTextures");
+   }
+
+   @Override public void glDeleteTextures(int n, int[] textures, int offset) {
+      delegate.glDeleteTextures(n, textures, offset);
+      diagnostics.check(delegate, "glDeleteTextures");
+   }
+
+   @Override public void glBindTexture(int target, int texture) {
+      delegate.glBindTexture(target, texture);
+      diagnostics.check(delegate, "glBindTexture");
+   }
+
+   @Override public void glTexParameteri(int target, int name, int param) {
+      delegate.glTexParameteri(target, name, param);
+      diagnostics.check(delegate, "glTexParameteri");
+   }
+
+   @Override
+   public void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+                            int border, int format, int type, Buffer pixels) {
+      delegate.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+      diagnostics.check(delegate, "glTexImage2D");
+   }
+
+   @Override
+   public void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth,
+                            int border, int format, int type, Buffer pixels) {
+      delegate.glTexImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+      diagnostics.check(delegate, "glTexImage3D");
+   }
+
+   @Override public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+      delegate.glGenFramebuffers(n, framebuffers, offset);
+      diagnostics.check(delegate, "glGenFramebuffers");
+   }
+
+   @Override public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+      delegate.glDeleteFramebuffers(n, framebuffers, offset);
+      diagnostics.check(delegate, "glDeleteFramebuffers");
+   }
+
+   @Override public void glBindFramebuffer(int target, int framebuffer) {
+      delegate.glBindFramebuffer(target, framebuffer);
+      diagnostics.check(delegate, "glBindFramebuffer");
+   }
+
+   @Override
+   public void glFramebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level) {
+      delegate.glFramebufferTexture2D(target, attachment, textureTarget, texture, level);
+      diagnostics.check(delegate, "glFramebufferTexture2D");
+   }
+
+   @Override public int glCheckFramebufferStatus(int target) {
+      int result = delegate.glCheckFramebufferStatus(target);
+      diagnostics.check(delegate, "glCheckFramebufferStatus");
+      return result;
+   }
+
+   @Override public void glGetIntegerv(int name, int[] params, int offset) {
+      delegate.glGetIntegerv(name, params, offset);
+      diagnostics.check(delegate, "glGetIntegerv");
+   }
+
+   @Override public void glFinish() {
+      delegate.glFinish();
+      diagnostics.check(delegate, "glFinish");
+   }
+
+   @Override
+   public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                  int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+      delegate.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+      diagnostics.check(delegate, "glGetProgramBinary");
+   }
+
+   @Override public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+      delegate.glProgramBinary(program, binaryFormat, binary, length);
+      diagnostics.check(delegate, "glProgramBinary");
+   }
+
+   @Override
+   public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+      delegate.glReadPixels(x, y, width, height, format, type, pixels);
+      diagnostics.check(delegate, "glReadPixels");
+   }
+
+   @Override
+   public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+      delegate.glReadPixels(x, y, width, height, format, type, offset);
+      diagnostics.check(delegate, "glReadPixels");
+   }
+
+   @Override public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+      Buffer result = delegate.glMapBufferRange(target, offset, length, access);
+      diagnostics.check(delegate, "glMapBufferRange");
+      return result;
+   }
+
+   @Override public boolean glUnmapBuffer(int target) {
+      boolean result = delegate.glUnmapBuffer(target);
+      diagnostics.check(delegate, "glUnmapBuffer");
+      return result;
+   }
+}
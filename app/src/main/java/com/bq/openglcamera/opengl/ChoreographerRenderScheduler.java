@@ -0,0 +1,66 @@
+package com.bq.openglcamera.opengl;
+
+import android.view.Choreographer;
+
+/**
+ * Renders on display vsync, at most once per vsync and with the newest frame, optionally
+ * throttled to a lower frame rate to save power.
+ */
+public class ChoreographerRenderScheduler implements RenderScheduler, Choreographer.FrameCallback {
+
+   private final FramePacer pacer = new FramePacer();
+   private Choreographer choreographer;
+   private Callback callback;
+   private boolean callbackPosted;
+
+   public ChoreographerRenderScheduler() {
+      this(0);
+   }
+
+   /**
+    * @param targetFramesPerSecond Frame rate to pace renders to, 0 to render on every vsync.
+    */
+   public ChoreographerRenderScheduler(float targetFramesPerSecond) {
+      pacer.setTargetFrameRate(targetFramesPerSecond);
+   }
+
+   /**
+    * Change the target frame rate, from any thread.
+    */
+   public void setTargetFrameRate(float framesPerSecond) {
+      pacer.setTargetFrameRate(framesPerSecond);
+   }
+
+   @Override public void attach(Callback callback) {
+      //Choreographer instances belong to the calling thread's looper
+      this.choreographer = Choreographer.getInstance();
+      this.callback = callback;
+      pacer.reset();
+   }
+
+   @Override public void requestRender() {
+      if (callbackPosted || choreographer == null) return;
+      choreographer.postFrameCallback(this);
+      callbackPosted = true;
+   }
+
+   @Override public void detach() {
+      if (choreographer != null && callbackPosted) {
+         choreographer.removeFrameCallback(this);
+      }
+      callbackPosted = false;
+      choreographer = null;
+      callback = null;
+   }
+
+   @Override public void doFrame(long frameTimeNanos) {
+      callbackPosted = false;
+      if (callback == null) return;
+      if (pacer.onVsync(frameTimeNanos)) {
+         callback.render(frameTimeNanos);
+      } else {
+         //Not due yet, the frame keeps waiting for a later vsync
+         requestRender();
+      }
+   }
+}
@@ -0,0 +1,15 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Monotonic time source, replaceable in tests.
+ */
+public interface Clock {
+
+   Clock SYSTEM = new Clock() {
+      @Override public long nanoTime() {
+         return System.nanoTime();
+      }
+   };
+
+   long nanoTime();
+}
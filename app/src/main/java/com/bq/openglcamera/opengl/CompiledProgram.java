@@ -0,0 +1,73 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Program requested from a {@link ProgramCompiler}. {@link #get()} is 0 until the worker has
+ * linked it, then the program handle, published with a single state change once the program
+ * is complete, so the render thread can switch to it at any frame.
+ * <p>
+ * A published program belongs to the requester, who deletes it when done. Cancelling and
+ * publishing race through one compare and set: either the cancel wins and the worker deletes
+ * the program, or the publish wins and {@link #cancel()} says so.
+ */
+public final class CompiledProgram {
+
+   static final int PENDING = 0;
+   static final int READY = 1;
+   static final int FAILED = 2;
+   static final int CANCELLED = 3;
+
+   final String vertexSource;
+   final String fragmentSource;
+   private volatile int program;
+   private final AtomicInteger state = new AtomicInteger(PENDING);
+
+   CompiledProgram(String vertexSource, String fragmentSource) {
+      this.vertexSource = vertexSource;
+      this.fragmentSource = fragmentSource;
+   }
+
+   /**
+    * The linked program, or 0 while pending or if compilation failed.
+    */
+   public int get() {
+      return program;
+   }
+
+   public boolean isReady() {
+      return state.get() == READY;
+   }
+
+   public boolean isFailed() {
+      return state.get() == FAILED;
+   }
+
+   /**
+    * Not needed anymore, a pending compilation is skipped and a program linked meanwhile is
+    * deleted by the worker.
+    *
+    * @return false if the program was already published, the caller must delete it.
+    */
+   public boolean cancel() {
+      return state.compareAndSet(PENDING, CANCELLED) || state.get() != READY;
+   }
+
+   boolean isCancelled() {
+      return state.get() == CANCELLED;
+   }
+
+   /**
+    * @return false if the request was cancelled, the program is the worker's to delete.
+    */
+   boolean publish(int program) {
+      this.program = program;
+      if (state.compareAndSet(PENDING, READY)) return true;
+      this.program = 0;
+      return false;
+   }
+
+   void fail() {
+      state.compareAndSet(PENDING, FAILED);
+   }
+}
@@ -0,0 +1,173 @@
+package com.bq.openglcamera.opengl;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renderer composing the {@link CameraStream}s of a {@link TextureViewGLWrapper} into one
+ * output, each into its {@link CameraStream#setRegion(float, float, float, float) region} with
+ * its own {@link PreviewTransform}: picture-in-picture, side by side, or any other layout.
+ * <p>
+ * Streams without an image yet are left out, so are the ones stale for longer than
+ * {@link #setHideStaleAfter(long)}.
+ */
+public class CompositeRenderer implements TextureViewGLWrapper.MultiSurfaceRenderer,
+   TextureViewGLWrapper.MultiStreamRenderer {
+
+   private final Context context;
+   private final StateCachingGlBackend gl;
+   private final ProgramCache programCache;
+   private final TextureViewGLWrapper wrapper;
+
+   private volatile long hideStaleAfterNanos;
+
+   //Render thread only
+   private final Map<CameraStream, float[]> mvpMatrices = new HashMap<>();
+   private final int[] buffers = new int[1];
+   private int program;
+   private int positionHandle;
+   private int texturePositionHandle;
+   private int camTexMatrixHandle;
+   private int mvpMatrixHandle;
+   private int surfaceWidth;
+   private int surfaceHeight;
+
+   public CompositeRenderer(Context context, TextureViewGLWrapper wrapper) {
+      this(context, wrapper, AndroidGlBackend.INSTANCE);
+   }
+
+   public CompositeRenderer(Context context, TextureViewGLWrapper wrapper, GlBackend gl) {
+      this.context = context;
+      this.wrapper = wrapper;
+      this.gl = new StateCachingGlBackend(gl);
+      this.programCache = new ProgramCache(context);
+   }
+
+   /**
+    * Backend the renderer draws with, see {@link DefaultCameraRenderer#getGlBackend()}.
+    */
+   public GlBackend getGlBackend() {
+      return gl;
+   }
+
+   /**
+    * Stop drawing streams that got no new image for this long, 0 to always draw the last one.
+    */
+   public void setHideStaleAfter(long nanos) {
+      hideStaleAfterNanos = nanos;
+   }
+
+   @Override
+   public void onSurfaceCreated(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      this.surfaceWidth = surfaceWidth;
+      this.surfaceHeight = surfaceHeight;
+      gl.invalidate();
+
+      program = programCache.getProgram(context, gl, "vert.glsl", "frag.glsl");
+      if (program == 0) throw new IllegalStateException("Failed to create program");
+      camTexMatrixHandle = gl.glGetUniformLocation(program, "camTexMatrix");
+      mvpMatrixHandle = gl.glGetUniformLocation(program, "mvpMatrix");
+      positionHandle = gl.glGetAttribLocation(program, "position");
+      texturePositionHandle = gl.glGetAttribLocation(program, "texturePosition");
+      int camTexHandle = gl.glGetUniformLocation(program, "camTex");
+      gl.glUseProgram(program);
+      gl.glUniform1i(camTexHandle, 0);
+
+      //Triangle strip, positions followed by tex coordinates flipped vertically
+      float[] vertexData = {
+         -1, +1,
+         +1, +1,
+         -1, -1,
+         +1, -1,
+         0.0f, 1.0f,
+         1.0f, 1.0f,
+         0.0f, 0.0f,
+         1.0f, 0.0f,
+      };
+      FloatBuffer vertexBuffer = ByteBuffer.allocateDirect(vertexData.length * 4)
+         .order(ByteOrder.nativeOrder())
+         .asFloatBuffer();
+      vertexBuffer.put(vertexData).position(0);
+      gl.glGenBuffers(1, buffers, 0);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+      gl.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexData.length * 4, vertexBuffer, GLES20.GL_STATIC_DRAW);
+      GlUtil.checkGLError(gl, "CompositeRenderer setup");
+   }
+
+   @Override
+   public void onSurfaceChanged(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      this.surfaceWidth = surfaceWidth;
+      this.surfaceHeight = surfaceHeight;
+   }
+
+   @Override public void onStreamAdded(CameraStream stream) {
+      mvpMatrices.put(stream, new float[16]);
+   }
+
+   @Override public void onStreamRemoved(CameraStream stream) {
+      mvpMatrices.remove(stream);
+   }
+
+   @Override public void onFrameAvailable(SurfaceTexture eglSurfaceTexture) {
+      //The wrapper latched the streams already
+      onDrawFrame(surfaceWidth, surfaceHeight, null);
+   }
+
+   /**
+    * Draw the composition. Regions are relative to the surface, the transform is ignored.
+    */
+   @Override public void onDrawFrame(int surfaceWidth, int surfaceHeight, float[] transform) {
+      gl.glViewport(0, 0, surfaceWidth, surfaceHeight);
+      gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+      gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+      gl.glUseProgram(program);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+      gl.glEnableVertexAttribArray(positionHandle);
+      gl.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, 0);
+      gl.glEnableVertexAttribArray(texturePositionHandle);
+      gl.glVertexAttribPointer(texturePositionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, 4 * 2 * 4);
+      gl.glActiveTexture(GLES20.GL_TEXTURE0);
+
+      long hideStaleAfter = hideStaleAfterNanos;
+      for (CameraStream stream : wrapper.getCameraStreams()) {
+         float[] mvp = mvpMatrices.get(stream);
+         if (mvp == null || !stream.hasImage()) continue;
+         if (hideStaleAfter > 0 && stream.isStale(hideStaleAfter)) continue;
+
+         //Regions are from the top left, viewports from the bottom left
+         float[] region = stream.getRegion();
+         int x = Math.round(region[0] * surfaceWidth);
+         int width = Math.round(region[2] * surfaceWidth);
+         int height = Math.round(region[3] * surfaceHeight);
+         int y = surfaceHeight - Math.round(region[1] * surfaceHeight) - height;
+         if (width <= 0 || height <= 0) continue;
+
+         PreviewTransform previewTransform = stream.getPreviewTransform();
+         previewTransform.setSurfaceSize(width, height);
+         previewTransform.copyIfChanged(mvp);
+
+         gl.glViewport(x, y, width, height);
+         gl.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, stream.getTexture());
+         gl.glUniformMatrix4fv(camTexMatrixHandle, 1, false, stream.getTextureMatrix(), 0);
+         gl.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvp, 0);
+         gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      }
+   }
+
+   @Override public void onSurfaceDestroyed(SurfaceTexture eglSurfaceTexture) {
+      gl.glDeleteBuffers(buffers.length, buffers, 0);
+      buffers[0] = 0;
+      mvpMatrices.clear();
+      programCache.release(gl);
+      program = 0;
+   }
+}
@@ -0,0 +1,70 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Lifecycle of a render context that can outlive its window: attached, detached and waiting
+ * for the next window, or released. Decides the transitions, the render thread carries them
+ * out, so the rules can be checked without EGL or a looper.
+ * <p>
+ * Every detach hands out a token for its idle timeout, a timeout that fires after a reattach
+ * and a new detach is recognised as stale. Thread safe.
+ */
+final class ContextLifecycle {
+
+   //Guarded by this
+   private boolean detached;
+   private boolean releasing;
+   private int detachCount;
+
+   /**
+    * The window is gone, the context waits for the next one.
+    *
+    * @return Token to pass to {@link #idleTimeout(int)}.
+    */
+   synchronized int detach() {
+      detached = true;
+      return ++detachCount;
+   }
+
+   /**
+    * A new window takes the retained context.
+    *
+    * @return false if the context is attached, gone or going, a new one is needed.
+    */
+   synchronized boolean reattach() {
+      if (!detached || releasing) return false;
+      detached = false;
+      return true;
+   }
+
+   /**
+    * The idle timeout of a detach ran out.
+    *
+    * @return true if the context has to be released now.
+    */
+   synchronized boolean idleTimeout(int token) {
+      if (!detached || releasing || token != detachCount) return false;
+      releasing = true;
+      return true;
+   }
+
+   /**
+    * @return true if the context was detached, it has to be released now if it wasn't already.
+    */
+   synchronized boolean releaseIfDetached() {
+      if (!detached) return false;
+      releasing = true;
+      return true;
+   }
+
+   synchronized void release() {
+      releasing = true;
+   }
+
+   synchronized boolean isDetached() {
+      return detached;
+   }
+
+   synchronized boolean isReleasing() {
+      return releasing;
+   }
+}
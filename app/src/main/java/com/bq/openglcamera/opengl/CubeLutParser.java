@@ -0,0 +1,284 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming parser for Adobe / Resolve <code>.cube</code> 3D LUTs.
+ * <p>
+ * Reads the stream in blocks and scans numbers straight out of the bytes into the texel
+ * buffer, without a String per line or a float[] of the whole table: a 65<sup>3</sup> table
+ * is 274625 lines. Values are mapped from the domain to 0..1 and stored as RGBA8.
+ * <p>
+ * Supports <code>TITLE</code>, <code>LUT_3D_SIZE</code>, <code>DOMAIN_MIN</code>,
+ * <code>DOMAIN_MAX</code> and <code>LUT_3D_INPUT_RANGE</code>. Unknown keywords are skipped,
+ * 1D tables are rejected.
+ */
+public final class CubeLutParser {
+
+   public static final int MAX_SIZE = 256;
+
+   private static final int BLOCK_SIZE = 64 * 1024;
+   private static final double[] POWERS_OF_TEN = new double[19];
+
+   static {
+      POWERS_OF_TEN[0] = 1;
+      for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+         POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+      }
+   }
+
+   private final InputStream in;
+   private final byte[] block = new byte[BLOCK_SIZE];
+   private int position;
+   private int length;
+   private int line = 1;
+
+   private CubeLutParser(InputStream in) {
+      this.in = in;
+   }
+
+   /**
+    * Parse a whole table. Doesn't close the stream.
+    *
+    * @throws IOException On read errors or malformed content.
+    */
+   public static Lut parse(InputStream in) throws IOException {
+      return new CubeLutParser(in).parse();
+   }
+
+   private Lut parse() throws IOException {
+      String title = "";
+      int size = 0;
+      float[] domainMin = {0, 0, 0};
+      float[] domainMax = {1, 1, 1};
+      ByteBuffer data = null;
+      float[] scale = new float[3];
+      int entries = 0;
+
+      while (true) {
+         int c = skipBlanks();
+         if (c < 0) break;
+         if (c == '#') {
+            skipLine();
+         } else if (isNumberStart(c)) {
+            if (data == null) {
+               if (size == 0) throw error("Data before LUT_3D_SIZE");
+               data = Lut.allocate(size);
+               for (int i = 0; i < 3; i++) {
+                  scale[i] = 255f / (domainMax[i] - domainMin[i]);
+               }
+            }
+            if (entries == size * size * size) throw error("More than " + entries + " entries");
+            for (int i = 0; i < 3; i++) {
+               if (i > 0) skipSpaces();
+               float value = (readFloat() - domainMin[i]) * scale[i];
+               data.put((byte) (value <= 0 ? 0 : value >= 255 ? 255 : (int) (value + 0.5f)));
+            }
+            data.put((byte) 0xff);
+            entries++;
+            expectLineEnd();
+         } else {
+            if (data != null) throw error("Keyword after the table data");
+            String keyword = readWord();
+            switch (keyword) {
+               case "TITLE":
+                  title = readRestOfLine().trim();
+                  if (title.length() >= 2 && title.startsWith("\"") && title.endsWith("\"")) {
+                     title = title.substring(1, title.length() - 1);
+                  }
+                  break;
+               case "LUT_3D_SIZE":
+                  skipSpaces();
+                  size = (int) readFloat();
+                  if (size < 2 || size > MAX_SIZE) throw error("Unsupported size " + size);
+                  expectLineEnd();
+                  break;
+               case "DOMAIN_MIN":
+                  readFloats(domainMin);
+                  break;
+               case "DOMAIN_MAX":
+                  readFloats(domainMax);
+                  break;
+               case "LUT_3D_INPUT_RANGE":
+                  skipSpaces();
+                  domainMin[0] = domainMin[1] = domainMin[2] = readFloat();
+                  skipSpaces();
+                  domainMax[0] = domainMax[1] = domainMax[2] = readFloat();
+                  expectLineEnd();
+                  break;
+               case "LUT_1D_SIZE":
+                  throw error("1D LUTs are not supported");
+               default:
+                  skipLine();
+                  break;
+            }
+         }
+      }
+
+      if (size == 0) throw error("Missing LUT_3D_SIZE");
+      if (entries != size * size * size) {
+         throw error("Expected " + size * size * size + " entries, found " + entries);
+      }
+      data.flip();
+      return new Lut(title, size, data);
+   }
+
+   private void readFloats(float[] values) throws IOException {
+      for (int i = 0; i < values.length; i++) {
+         skipSpaces();
+         values[i] = readFloat();
+      }
+      expectLineEnd();
+   }
+
+   /**
+    * Parse a decimal number such as <code>-1.25e-3</code> at the current position.
+    */
+   private float readFloat() throws IOException {
+      int c = peek();
+      boolean negative = c == '-';
+      if (c == '-' || c == '+') {
+         position++;
+         c = peek();
+      }
+      long mantissa = 0;
+      int exponent = 0;
+      int digits = 0;
+      boolean fraction = false;
+      while (true) {
+         if (c >= '0' && c <= '9') {
+            //Digits past what a long holds don't matter for 8 bit output
+            if (mantissa < Long.MAX_VALUE / 10 - 10) {
+               mantissa = mantissa * 10 + (c - '0');
+               if (fraction) exponent--;
+            } else if (!fraction) {
+               exponent++;
+            }
+            digits++;
+         } else if (c == '.' && !fraction) {
+            fraction = true;
+         } else {
+            break;
+         }
+         position++;
+         c = peek();
+      }
+      if (digits == 0) throw error("Expected a number");
+      if (c == 'e' || c == 'E') {
+         position++;
+         c = peek();
+         boolean negativeExponent = c == '-';
+         if (c == '-' || c == '+') {
+            position++;
+            c = peek();
+         }
+         int value = 0;
+         if (c < '0' || c > '9') throw error("Expected an exponent");
+         while (c >= '0' && c <= '9') {
+            value = Math.min(value * 10 + (c - '0'), 1000);
+            position++;
+            c = peek();
+         }
+         exponent += negativeExponent ? -value : value;
+      }
+      double result = mantissa;
+      if (exponent < 0) {
+         result = -exponent < POWERS_OF_TEN.length ? result / POWERS_OF_TEN[-exponent] : result * Math.pow(10, exponent);
+      } else if (exponent > 0) {
+         result = exponent < POWERS_OF_TEN.length ? result * POWERS_OF_TEN[exponent] : result * Math.pow(10, exponent);
+      }
+      return (float) (negative ? -result : result);
+   }
+
+   private String readWord() throws IOException {
+      StringBuilder word = new StringBuilder();
+      int c = peek();
+      while (c > ' ') {
+         word.append((char) c);
+         position++;
+         c = peek();
+      }
+      return word.toString();
+   }
+
+   private String readRestOfLine() throws IOException {
+      StringBuilder rest = new StringBuilder();
+      int c = peek();
+      while (c >= 0 && c != '\n') {
+         rest.append((char) c);
+         position++;
+         c = peek();
+      }
+      return rest.toString();
+   }
+
+   /**
+    * Skip spaces, tabs and line breaks.
+    *
+    * @return The next byte, not consumed, or -1 at the end of the stream.
+    */
+   private int skipBlanks() throws IOException {
+      int c = peek();
+      while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+         if (c == '\n') line++;
+         position++;
+         c = peek();
+      }
+      return c;
+   }
+
+   private void skipSpaces() throws IOException {
+      int c = peek();
+      while (c == ' ' || c == '\t') {
+         position++;
+         c = peek();
+      }
+   }
+
+   private void skipLine() throws IOException {
+      int c = peek();
+      while (c >= 0 && c != '\n') {
+         position++;
+         c = peek();
+      }
+   }
+
+   /**
+    * Allow trailing blanks and a comment, nothing else, before the line break.
+    */
+   private void expectLineEnd() throws IOException {
+      skipSpaces();
+      int c = peek();
+      if (c == '\r') {
+         position++;
+         c = peek();
+      }
+      if (c == '#') {
+         skipLine();
+      } else if (c >= 0 && c != '\n') {
+         throw error("Unexpected '" + (char) c + "'");
+      }
+   }
+
+   private int peek() throws IOException {
+      if (position == length) {
+         length = in.read(block, 0, block.length);
+         position = 0;
+         if (length <= 0) {
+            length = 0;
+            return -1;
+         }
+      }
+      return block[position] & 0xff;
+   }
+
+   private static boolean isNumberStart(int c) {
+      return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+   }
+
+   private IOException error(String message) {
+      return new IOException("Line " + line + ": " + message);
+   }
+}
@@ -2,134 +2,297 @@ package com.bq.openglcamera.opengl;
 
 import android.content.Context;
 import android.graphics.SurfaceTexture;
-import android.opengl.GLES20;
-import android.renderscript.Matrix4f;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import timber.log.Timber;
 
 /**
  * Default camera renderer that simply draws a quad with the camera texture.
+ * <p>
+ * Custom shaders given to {@link #setShaderSources(String, String)} are compiled by a
+ * {@link ProgramCompiler} in the background, frames use the pass-through program until they
+ * are ready.
  */
-public class DefaultCameraRenderer implements TextureViewGLWrapper.GLRenderer {
-   private final Context context;
+public class DefaultCameraRenderer implements TextureViewGLWrapper.MultiSurfaceRenderer {
 
-   private FloatBuffer positionBuffer;
-   private FloatBuffer texturePositionBuffer;
-   private ShortBuffer drawOrderBuffer;
+   /**
+    * Sets the extra uniforms of custom shaders.
+    */
+   public interface UniformSource {
+      /**
+       * Called on the render thread before each draw, with the program already in use.
+       */
+      void onUseProgram(GlBackend gl, int program);
+   }
 
-   private int program = 0;
-   private int positionHandle;
-   private int texturePositionHandle;
-   private int camTexMatrixHandle;
-   private int mvpMatrixHandle;
+   private final Context context;
+   private final StateCachingGlBackend gl;
+   private final ProgramCache programCache;
+   private final CameraQuad quad;
 
+   private int passThroughProgram;
+   private int customProgram;
 
-   private Matrix4f cameraTextureMatrix = new Matrix4f();
-   private Matrix4f mvpMatrix = new Matrix4f();
+   private final float[] cameraTextureMatrix = new float[16];
+   private final float[] mvpMatrix = new float[16];
+   private final PreviewTransform previewTransform = new PreviewTransform();
 
    private int surfaceWidth;
    private int surfaceHeight;
 
+   //{vertex, fragment} of the pass-through program, read from the assets when first needed
+   private String[] passThroughSources;
+
+   private RenderMetrics renderMetrics = new RenderMetrics();
+
+   //{vertex, fragment}, replaced as a whole from any thread
+   private volatile String[] requestedSources;
+   //Render thread only
+   private String[] submittedSources;
+   private ProgramCompiler compiler;
+   private CompiledProgram pendingProgram;
+   private boolean sharedContextFailed;
+   private UniformSource uniformSource;
+
    public DefaultCameraRenderer(Context context) {
+      this(context, AndroidGlBackend.INSTANCE);
+   }
+
+   /**
+    * Renderer issuing its GL calls through the given backend. Calls that would not change the
+    * GL state are filtered before they reach it.
+    */
+   public DefaultCameraRenderer(Context context, GlBackend gl) {
+      this(context, gl, new ProgramCache(context), null);
+   }
+
+   /**
+    * Renderer that needs no Android context, for tests on a plain JVM.
+    */
+   DefaultCameraRenderer(GlBackend gl, ProgramCache programCache, String vertexSource, String fragmentSource) {
+      this(null, gl, programCache, new String[]{vertexSource, fragmentSource});
+   }
+
+   private DefaultCameraRenderer(Context context, GlBackend gl, ProgramCache programCache,
+                                 String[] passThroughSources) {
       this.context = context;
+      this.gl = new StateCachingGlBackend(gl);
+      this.quad = new CameraQuad(this.gl);
+      this.programCache = programCache;
+      this.passThroughSources = passThroughSources;
+   }
+
+   /**
+    * Metrics to record {@link RenderMetrics.Stage#UPDATE_TEX_IMAGE} into, usually
+    * {@link TextureViewGLWrapper#getRenderMetrics()}.
+    */
+   public void setRenderMetrics(RenderMetrics renderMetrics) {
+      this.renderMetrics = renderMetrics;
+   }
+
+   /**
+    * Backend the renderer draws with. Stages drawing in the same context between its frames
+    * must use it too, so its state cache sees their changes.
+    */
+   public GlBackend getGlBackend() {
+      return gl;
+   }
+
+   /**
+    * Placement of the camera image in the surface. Give it the camera buffer size and
+    * orientation, the surface size is kept up to date by the renderer.
+    */
+   public PreviewTransform getPreviewTransform() {
+      return previewTransform;
+   }
+
+   /**
+    * Draw with the given shaders once they are compiled, replacing the previous ones. Can be
+    * called again with edited sources to reload them while the preview runs. Null sources go
+    * back to the pass-through program.
+    * <p>
+    * The shaders take the same attributes and uniforms as <code>vert.glsl</code> and
+    * <code>frag.glsl</code>. Can be called from any thread.
+    */
+   public void setShaderSources(String vertexSource, String fragmentSource) {
+      requestedSources = vertexSource == null || fragmentSource == null
+         ? null
+         : new String[]{vertexSource, fragmentSource};
+   }
+
+   /**
+    * Source for the uniforms of the shaders given to {@link #setShaderSources(String, String)}.
+    * Set it before rendering starts.
+    */
+   public void setUniformSource(UniformSource uniformSource) {
+      this.uniformSource = uniformSource;
    }
 
    @Override
    public void onSurfaceCreated(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
       this.surfaceWidth = surfaceWidth;
       this.surfaceHeight = surfaceHeight;
+      previewTransform.setSurfaceSize(surfaceWidth, surfaceHeight);
+      //Fresh context, nothing we remember about the old one applies
+      gl.invalidate();
 
-      //We are drawing two triangles for the texture
-      short vertexOrder[] = {0, 1, 2, 1, 3, 2};
-      float vertexCoordinates[] = {
-         -1, +1,
-         +1, +1,
-         -1, -1,
-         +1, -1,
-      };
-
-      //Tex coordinates are flipped vertically
-      float vertexTextureCoordinates[] = {
-         0.0f, 1.0f,
-         1.0f, 1.0f,
-         0.0f, 0.0f,
-         1.0f, 0.0f,
-      };
-
-      ByteBuffer bb;
-
-      // Draw list buffer
-      bb = ByteBuffer.allocateDirect(vertexOrder.length * 2); //2 bytes short
-      bb.order(ByteOrder.nativeOrder());
-      drawOrderBuffer = bb.asShortBuffer();
-      drawOrderBuffer.put(vertexOrder);
-      drawOrderBuffer.position(0);
-
-      // Initialize the texture holder
-      bb = ByteBuffer.allocateDirect(vertexCoordinates.length * 4); //4 bytes/float
-      bb.order(ByteOrder.nativeOrder());
-      positionBuffer = bb.asFloatBuffer();
-      positionBuffer.put(vertexCoordinates);
-      positionBuffer.position(0);
-
-      bb = ByteBuffer.allocateDirect(vertexTextureCoordinates.length * 4); //4 bytes/float
-      bb.order(ByteOrder.nativeOrder());
-      texturePositionBuffer = bb.asFloatBuffer();
-      texturePositionBuffer.put(vertexTextureCoordinates);
-      texturePositionBuffer.position(0);
-
-      program = GlUtil.createProgram(context, "vert.glsl", "frag.glsl");
-      if (program == 0) throw new IllegalStateException("Failed to create program");
-
-      GLES20.glUseProgram(program);
-      camTexMatrixHandle = GLES20.glGetUniformLocation(program, "camTexMatrix");
-      mvpMatrixHandle = GLES20.glGetUniformLocation(program, "mvpMatrix");
-      positionHandle = GLES20.glGetAttribLocation(program, "position");
-      texturePositionHandle = GLES20.glGetAttribLocation(program, "texturePosition");
-      GlUtil.checkGLError("getLocations");
+      //Small enough to compile right away, shown until custom shaders are ready
+      if (passThroughSources == null) {
+         passThroughSources = new String[]{
+            GlUtil.getStringFromFileInAssets(context, "vert.glsl"),
+            GlUtil.getStringFromFileInAssets(context, "frag.glsl")};
+      }
+      passThroughProgram = programCache.getProgram(gl, passThroughSources[0], passThroughSources[1]);
+      if (passThroughProgram == 0) throw new IllegalStateException("Failed to create program");
+      switchProgram(passThroughProgram);
+
+      quad.upload(GlUtil.getGlesMajorVersion(gl) >= 3);
+      GlUtil.checkGLError(gl, "uploadQuad");
+      //Programs of the old context are gone, compile the requested shaders again
+      submittedSources = null;
+      sharedContextFailed = false;
+   }
+
+   /**
+    * Submit newly requested shaders and pick the program to draw with: the latest compiled
+    * one, the previous one while it compiles, or the pass-through program.
+    */
+   private void updateProgram() {
+      String[] requested = requestedSources;
+      if (requested != submittedSources) {
+         submittedSources = requested;
+         discardPendingProgram();
+         if (requested == null) {
+            replaceCustomProgram(0);
+         } else {
+            submit(requested[0], requested[1]);
+         }
+      }
+
+      if (pendingProgram != null) {
+         if (pendingProgram.isReady()) {
+            replaceCustomProgram(pendingProgram.get());
+            pendingProgram = null;
+         } else if (pendingProgram.isFailed()) {
+            //Keep showing the previous shaders
+            pendingProgram = null;
+         }
+      }
+
+      int next = customProgram != 0 ? customProgram : passThroughProgram;
+      if (next != quad.getProgram()) {
+         switchProgram(next);
+      }
+   }
+
+   private void submit(String vertexSource, String fragmentSource) {
+      if (compiler == null && !sharedContextFailed) {
+         try {
+            compiler = createCompiler();
+         } catch (IllegalStateException e) {
+            //It would fail the same way on every reload, until the next context
+            sharedContextFailed = true;
+            Timber.e(e, "No shared context, compiling on the render thread");
+         }
+      }
+      if (compiler == null) {
+         int compiled = programCache.takeProgram(gl, vertexSource, fragmentSource);
+         if (compiled != 0) replaceCustomProgram(compiled);
+         return;
+      }
+      pendingProgram = compiler.compile(vertexSource, fragmentSource);
+   }
+
+   /**
+    * Compiler for custom shaders, on a context shared with the current one.
+    *
+    * @throws IllegalStateException If the shared context can't be created.
+    */
+   ProgramCompiler createCompiler() {
+      //The worker's backend and cache are its own, GL state is per context
+      SharedEglContext workerContext = SharedEglContext.createFromCurrent();
+      return new ProgramCompiler(AndroidGlBackend.INSTANCE, new ProgramCache(context), workerContext);
+   }
+
+   /**
+    * Draw with a new custom program, 0 for the pass-through one, deleting the one it replaces.
+    */
+   private void replaceCustomProgram(int program) {
+      int previous = customProgram;
+      customProgram = program;
+      if (previous == 0 || previous == program) return;
+      //Switch away first, the state cache must not take a deleted program for the current one
+      switchProgram(program != 0 ? program : passThroughProgram);
+      gl.glDeleteProgram(previous);
+   }
+
+   /**
+    * Cancel the program being compiled, deleting it if it was published meanwhile.
+    */
+   private void discardPendingProgram() {
+      if (pendingProgram == null) return;
+      if (!pendingProgram.cancel()) {
+         gl.glDeleteProgram(pendingProgram.get());
+      }
+      pendingProgram = null;
+   }
+
+   private void switchProgram(int program) {
+      quad.setProgram(program);
+      GlUtil.checkGLError(gl, "getLocations");
    }
 
    @Override
    public void onSurfaceChanged(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
       this.surfaceWidth = surfaceWidth;
       this.surfaceHeight = surfaceHeight;
+      previewTransform.setSurfaceSize(surfaceWidth, surfaceHeight);
    }
 
    @Override public void onFrameAvailable(SurfaceTexture eglSurfaceTexture) {
-      //Update camera parameters
-      GLES20.glUseProgram(program);
-
-      //Make the texture available to the shader
-      GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
-      GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-      GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+      latchFrame(eglSurfaceTexture);
+      onDrawFrame(surfaceWidth, surfaceHeight, null);
+   }
 
+   /**
+    * Latch the new camera image and pick the program, without drawing. For renderers drawing
+    * the camera into their own targets.
+    */
+   void latchFrame(SurfaceTexture eglSurfaceTexture) {
       //Update texture
-      GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+      quad.activateCameraTexture();
+      long updateStart = renderMetrics.start();
       eglSurfaceTexture.updateTexImage();
+      renderMetrics.record(RenderMetrics.Stage.UPDATE_TEX_IMAGE, updateStart);
 
       //Update transform matrix
-      eglSurfaceTexture.getTransformMatrix(cameraTextureMatrix.getArray());
-      GLES20.glUniformMatrix4fv(camTexMatrixHandle, 1, false, cameraTextureMatrix.getArray(), 0);
-
-      //Send position
-      GLES20.glEnableVertexAttribArray(positionHandle);
-      GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, positionBuffer);
+      eglSurfaceTexture.getTransformMatrix(cameraTextureMatrix);
+      //Only does work when the surface or camera configuration changed
+      previewTransform.copyIfChanged(mvpMatrix);
 
-      //Send texture positions
-      GLES20.glEnableVertexAttribArray(texturePositionHandle);
-      GLES20.glVertexAttribPointer(texturePositionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, texturePositionBuffer);
+      updateProgram();
+   }
 
-      //Send Mvp Matrix
-      GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix.getArray(), 0);
-      //And draw
-      GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawOrderBuffer.remaining(), GLES20.GL_UNSIGNED_SHORT, drawOrderBuffer);
+   @Override public void onDrawFrame(int surfaceWidth, int surfaceHeight, float[] transform) {
+      //Update camera parameters
+      quad.useProgram();
+      if (uniformSource != null) {
+         uniformSource.onUseProgram(gl, quad.getProgram());
+      }
+      quad.draw(surfaceWidth, surfaceHeight, cameraTextureMatrix, transform != null ? transform : mvpMatrix);
    }
 
    @Override public void onSurfaceDestroyed(SurfaceTexture eglSurfaceTexture) {
-      //We have nothing to dispose
+      quad.release();
+      discardPendingProgram();
+      if (customProgram != 0) {
+         gl.glDeleteProgram(customProgram);
+         customProgram = 0;
+      }
+      if (compiler != null) {
+         compiler.release();
+         compiler = null;
+      }
+      programCache.release(gl);
+      passThroughProgram = 0;
    }
 }
@@ -0,0 +1,234 @@
+package com.bq.openglcamera.opengl;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import timber.log.Timber;
+
+/**
+ * Renders the camera image at 1/2, 1/4, 1/8... scale into framebuffer textures and reads the
+ * levels back for the consumers that {@link #subscribe(int, PixelReadback.Listener)} to them.
+ * <p>
+ * The first level is drawn by the camera renderer itself, each following level from the one
+ * above it with linear filtering, so every pass averages 2x2 pixels. Only the levels down to
+ * the deepest subscribed one are rendered, see {@link PyramidLevels}.
+ * <p>
+ * Must share the camera renderer's {@link GlBackend}, see
+ * {@link DefaultCameraRenderer#getGlBackend()}. GL methods are for the render thread only,
+ * subscriptions can change from any thread.
+ */
+public class DownsamplePyramid {
+
+   public static final int MAX_LEVEL = PyramidLevels.MAX_LEVEL;
+
+   //Camera image drawn without the preview rotation / scaling
+   private static final float[] IDENTITY = {
+      1, 0, 0, 0,
+      0, 1, 0, 0,
+      0, 0, 1, 0,
+      0, 0, 0, 1
+   };
+
+   private final Context context;
+   private final GlBackend gl;
+   private final ProgramCache programCache;
+   private final PyramidLevels levels = new PyramidLevels();
+   private final PixelReadback[] readbacks = new PixelReadback[MAX_LEVEL + 1];
+
+   private final int[] textures = new int[MAX_LEVEL];
+   private final int[] framebuffers = new int[MAX_LEVEL];
+   private final int[] quadBuffer = new int[1];
+   private boolean vertexArrays;
+
+   private int program;
+   private int positionHandle;
+   private int texturePositionHandle;
+   private int sourceTexHandle;
+   private int width;
+   private int height;
+
+   public DownsamplePyramid(Context context, GlBackend gl, FrameBufferPool pool) {
+      this.context = context;
+      this.gl = gl;
+      this.programCache = new ProgramCache(context);
+      for (int level = 1; level <= MAX_LEVEL; level++) {
+         readbacks[level] = new PixelReadback(gl, PixelReadback.DEFAULT_DEPTH, pool);
+      }
+   }
+
+   /**
+    * Receive the frames of a level, delivered as in {@link PixelReadback.Listener}.
+    *
+    * @param level 1 for half size, up to {@link #MAX_LEVEL}.
+    */
+   public Subscription subscribe(int level, PixelReadback.Listener listener) {
+      levels.subscribe(level);
+      readbacks[level].addListener(listener);
+      return new Subscription(level, listener);
+   }
+
+   public void unsubscribe(Subscription subscription) {
+      readbacks[subscription.level].removeListener(subscription.listener);
+      levels.unsubscribe(subscription.level);
+   }
+
+   /**
+    * Width of a level for the current frame size.
+    */
+   public int getLevelWidth(int level) {
+      return PyramidLevels.levelSize(width, level);
+   }
+
+   public int getLevelHeight(int level) {
+      return PyramidLevels.levelSize(height, level);
+   }
+
+   /**
+    * (Re)create the level textures for frames of the given size.
+    */
+   public void setup(int width, int height) {
+      release();
+      this.width = width;
+      this.height = height;
+      vertexArrays = GlUtil.getGlesMajorVersion(gl) >= 3;
+
+      program = programCache.getProgram(context, gl, "downsample_vert.glsl", "downsample_frag.glsl");
+      if (program == 0) throw new IllegalStateException("Failed to create downsample program");
+      positionHandle = gl.glGetAttribLocation(program, "position");
+      texturePositionHandle = gl.glGetAttribLocation(program, "texturePosition");
+      sourceTexHandle = gl.glGetUniformLocation(program, "sourceTex");
+
+      uploadQuad();
+
+      gl.glGenTextures(MAX_LEVEL, textures, 0);
+      gl.glGenFramebuffers(MAX_LEVEL, framebuffers, 0);
+      for (int level = 1; level <= MAX_LEVEL; level++) {
+         int levelWidth = getLevelWidth(level);
+         int levelHeight = getLevelHeight(level);
+         gl.glBindTexture(GLES20.GL_TEXTURE_2D, textures[level - 1]);
+         gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+         gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+         gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+         gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+         gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, levelWidth, levelHeight, 0,
+            GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+
+         gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffers[level - 1]);
+         gl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+            GLES20.GL_TEXTURE_2D, textures[level - 1], 0);
+         int status = gl.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+         if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("Level " + level + " framebuffer incomplete: 0x" + Integer.toHexString(status));
+         }
+         readbacks[level].setup(levelWidth, levelHeight);
+      }
+      gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+      gl.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+      GlUtil.checkGLError(gl, "DownsamplePyramid setup");
+      Timber.d("Downsample pyramid %dx%d, %d levels", width, height, MAX_LEVEL);
+   }
+
+   /**
+    * Render the subscribed levels of the frame the camera renderer just latched, and read them
+    * back. Leaves the default framebuffer bound.
+    */
+   public void render(TextureViewGLWrapper.MultiSurfaceRenderer cameraRenderer, long timestamp) {
+      int deepest = levels.deepestSubscribedLevel();
+      if (deepest == 0 || program == 0) return;
+
+      for (int level = 1; level <= deepest; level++) {
+         int levelWidth = getLevelWidth(level);
+         int levelHeight = getLevelHeight(level);
+         gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffers[level - 1]);
+         if (level == 1) {
+            cameraRenderer.onDrawFrame(levelWidth, levelHeight, IDENTITY);
+         } else {
+            drawLevel(textures[level - 2], levelWidth, levelHeight);
+         }
+         if (levels.isSubscribed(level)) {
+            readbacks[level].readFrame(timestamp);
+         }
+      }
+      gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+   }
+
+   /**
+    * Free the GL objects. Frames held by consumers stay valid.
+    */
+   public void release() {
+      for (int level = 1; level <= MAX_LEVEL; level++) {
+         readbacks[level].release();
+      }
+      if (framebuffers[0] != 0) {
+         gl.glDeleteFramebuffers(MAX_LEVEL, framebuffers, 0);
+         gl.glDeleteTextures(MAX_LEVEL, textures, 0);
+         for (int i = 0; i < MAX_LEVEL; i++) {
+            framebuffers[i] = textures[i] = 0;
+         }
+      }
+      if (quadBuffer[0] != 0) {
+         gl.glDeleteBuffers(1, quadBuffer, 0);
+         quadBuffer[0] = 0;
+      }
+      programCache.release(gl);
+      program = 0;
+   }
+
+   private void drawLevel(int sourceTexture, int width, int height) {
+      if (vertexArrays) {
+         //Don't record our pointers into the camera renderer's vertex array
+         gl.glBindVertexArray(0);
+      }
+      gl.glUseProgram(program);
+      gl.glViewport(0, 0, width, height);
+      gl.glBindTexture(GLES20.GL_TEXTURE_2D, sourceTexture);
+      gl.glUniform1i(sourceTexHandle, 0);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBuffer[0]);
+      gl.glEnableVertexAttribArray(positionHandle);
+      gl.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, 0);
+      gl.glEnableVertexAttribArray(texturePositionHandle);
+      gl.glVertexAttribPointer(texturePositionHandle, 2, GLES20.GL_FLOAT, false, 4 * 2, 4 * 2 * 4);
+      gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+   }
+
+   private void uploadQuad() {
+      //Triangle strip positions followed by tex coordinates, same orientation as the source
+      float vertexData[] = {
+         -1, -1,
+         +1, -1,
+         -1, +1,
+         +1, +1,
+         0.0f, 0.0f,
+         1.0f, 0.0f,
+         0.0f, 1.0f,
+         1.0f, 1.0f,
+      };
+      FloatBuffer vertices = ByteBuffer.allocateDirect(vertexData.length * 4) //4 bytes/float
+         .order(ByteOrder.nativeOrder())
+         .asFloatBuffer();
+      vertices.put(vertexData).position(0);
+
+      gl.glGenBuffers(1, quadBuffer, 0);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBuffer[0]);
+      gl.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexData.length * 4, vertices, GLES20.GL_STATIC_DRAW);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+   }
+
+   public static final class Subscription {
+      private final int level;
+      private final PixelReadback.Listener listener;
+
+      Subscription(int level, PixelReadback.Listener listener) {
+         this.level = level;
+         this.listener = listener;
+      }
+
+      public int getLevel() {
+         return level;
+      }
+   }
+}
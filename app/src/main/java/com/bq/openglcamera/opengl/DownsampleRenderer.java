@@ -0,0 +1,44 @@
+package com.bq.openglcamera.opengl;
+
+import android.graphics.SurfaceTexture;
+
+/**
+ * Renderer that draws with another renderer and then renders a {@link DownsamplePyramid} of
+ * the same camera frame.
+ */
+public class DownsampleRenderer implements TextureViewGLWrapper.MultiSurfaceRenderer {
+
+   private final TextureViewGLWrapper.MultiSurfaceRenderer renderer;
+   private final DownsamplePyramid pyramid;
+
+   public DownsampleRenderer(TextureViewGLWrapper.MultiSurfaceRenderer renderer, DownsamplePyramid pyramid) {
+      this.renderer = renderer;
+      this.pyramid = pyramid;
+   }
+
+   @Override
+   public void onSurfaceCreated(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      renderer.onSurfaceCreated(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      pyramid.setup(surfaceWidth, surfaceHeight);
+   }
+
+   @Override
+   public void onSurfaceChanged(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      renderer.onSurfaceChanged(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      pyramid.setup(surfaceWidth, surfaceHeight);
+   }
+
+   @Override public void onSurfaceDestroyed(SurfaceTexture eglSurfaceTexture) {
+      pyramid.release();
+      renderer.onSurfaceDestroyed(eglSurfaceTexture);
+   }
+
+   @Override public void onFrameAvailable(SurfaceTexture eglSurfaceTexture) {
+      renderer.onFrameAvailable(eglSurfaceTexture);
+      pyramid.render(renderer, eglSurfaceTexture.getTimestamp());
+   }
+
+   @Override public void onDrawFrame(int surfaceWidth, int surfaceHeight, float[] transform) {
+      renderer.onDrawFrame(surfaceWidth, surfaceHeight, transform);
+   }
+}
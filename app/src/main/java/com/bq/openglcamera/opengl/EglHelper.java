@@ -7,24 +7,42 @@ import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
 import android.opengl.EGLExt;
 import android.opengl.EGLSurface;
-import android.opengl.GLES20;
 
 import timber.log.Timber;
 
 
-class EglHelper {
+class EglHelper implements SurfaceFanout.TargetFactory {
 
+   private final GlBackend gl;
    private EGLContext eglContext;
    private EGLDisplay eglDisplay;
-   private EGLSurface eglSurface;
+   private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+   private EGLSurface pbufferSurface = EGL14.EGL_NO_SURFACE;
+   private EGLConfig eglConfig;
    private SurfaceTexture eglSurfaceTexture;
    private int[] eglTextures = new int[1];
+   private GlCapture capture;
+   private int nextTargetId = 1;
+
+   EglHelper(GlBackend gl) {
+      this.gl = gl;
+   }
 
    SurfaceTexture getEglSurfaceTexture() {
       return eglSurfaceTexture;
    }
 
    SurfaceTexture createSurface(SurfaceTexture surfaceTexture, boolean isVideo) {
+      createContext(isVideo);
+      attachWindow(surfaceTexture);
+      return eglSurfaceTexture;
+   }
+
+   /**
+    * Create the context and the camera texture, current on a 1x1 pbuffer until a window is
+    * attached.
+    */
+   SurfaceTexture createContext(boolean isVideo) {
       this.eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
       int[] unusedEglVersion = new int[2];
       if (!EGL14.eglInitialize(eglDisplay, unusedEglVersion, 0, unusedEglVersion, 1)) {
@@ -52,12 +70,38 @@ class EglHelper {
          eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, eglContextAttributes, 0);
       }
 
+      this.eglConfig = eglConfig;
+
       // Confirm with query.
       int[] values = new int[1];
       EGL14.eglQueryContext(eglDisplay, eglContext, EGL14.EGL_CONTEXT_CLIENT_VERSION, values, 0);
       Timber.d("EGLContext created, client version %d", values[0]);
 
-      // Prepare the surface
+      //Placeholder surface, keeps the context current while there is no window
+      int[] pbufferAttributes = {
+         EGL14.EGL_WIDTH, 1,
+         EGL14.EGL_HEIGHT, 1,
+         EGL14.EGL_NONE //Null
+      };
+      pbufferSurface = EGL14.eglCreatePbufferSurface(eglDisplay, eglConfig, pbufferAttributes, 0);
+      checkEGLError("eglCreatePbufferSurface");
+      if (!EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext)) {
+         throw new RuntimeException("eglMakeCurrent failed");
+      }
+
+      //Create eglTextures
+      gl.glGenTextures(eglTextures.length, eglTextures, 0);
+      GlUtil.checkGLError(gl, "Texture bind");
+      eglSurfaceTexture = new SurfaceTexture(eglTextures[0]);
+
+      return eglSurfaceTexture;
+   }
+
+   /**
+    * Render to the given window from now on. The context and camera texture are kept.
+    */
+   void attachWindow(SurfaceTexture surfaceTexture) {
+      detachWindow();
       int[] surfaceAttributes = {
          EGL14.EGL_NONE //Null
       };
@@ -66,13 +110,48 @@ class EglHelper {
       if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
          throw new RuntimeException("eglMakeCurrent failed");
       }
+   }
 
-      //Create eglTextures
-      GLES20.glGenTextures(eglTextures.length, eglTextures, 0);
-      GlUtil.checkGLError("Texture bind");
-      eglSurfaceTexture = new SurfaceTexture(eglTextures[0]);
+   /**
+    * Destroy the window surface only, the context stays current on the pbuffer.
+    */
+   void detachWindow() {
+      if (eglSurface == EGL14.EGL_NO_SURFACE) return;
+      EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+      EGL14.eglDestroySurface(eglDisplay, eglSurface);
+      eglSurface = EGL14.EGL_NO_SURFACE;
+   }
 
-      return eglSurfaceTexture;
+   /**
+    * Record the EGL calls of the render loop from now on, null to stop. Render thread only.
+    */
+   void setCapture(GlCapture capture) {
+      this.capture = capture;
+   }
+
+   /**
+    * Texture the camera SurfaceTexture is attached to.
+    */
+   int getTexture() {
+      return eglTextures[0];
+   }
+
+   /**
+    * Texture for the SurfaceTexture of an extra camera stream, on the current context.
+    */
+   int createStreamTexture() {
+      int[] textures = new int[1];
+      gl.glGenTextures(1, textures, 0);
+      GlUtil.checkGLError(gl, "Stream texture");
+      return textures[0];
+   }
+
+   void deleteStreamTexture(int texture) {
+      gl.glDeleteTextures(1, new int[]{texture}, 0);
+   }
+
+   boolean hasWindow() {
+      return eglSurface != EGL14.EGL_NO_SURFACE;
    }
 
    void destroySurface() {
@@ -92,9 +171,27 @@ class EglHelper {
       eglDisplay = EGL14.EGL_NO_DISPLAY;
       eglContext = EGL14.EGL_NO_CONTEXT;
       eglSurface = EGL14.EGL_NO_SURFACE;
+      pbufferSurface = EGL14.EGL_NO_SURFACE;
+      eglConfig = null;
       eglSurfaceTexture = null;
    }
 
+   /**
+    * Window surface on the current context for an extra output.
+    */
+   @Override public SurfaceFanout.Target create(Object nativeWindow) {
+      int[] surfaceAttributes = {
+         EGL14.EGL_NONE //Null
+      };
+      EGLSurface surface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, nativeWindow, surfaceAttributes, 0);
+      int error = EGL14.eglGetError();
+      if (surface == null || surface == EGL14.EGL_NO_SURFACE || error != EGL14.EGL_SUCCESS) {
+         Timber.e("eglCreateWindowSurface for output failed: 0x%x", error);
+         return null;
+      }
+      return new WindowTarget(surface);
+   }
+
    private EGLConfig createEGLConfig(int version, boolean isVideo) {
       // The actual surface is generally RGBA, so omitting alpha
       // doesn't really help.  It can also lead to a huge performance hit on glReadPixels()
@@ -108,6 +205,7 @@ class EglHelper {
          //EGL14.EGL_DEPTH_SIZE, 16, //We are not going to use depth buffers
          //EGL14.EGL_STENCIL_SIZE, 8,
          EGL14.EGL_RENDERABLE_TYPE, renderType,
+         EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
          EGL14.EGL_NONE, 0,      // placeholder for video, if set
          EGL14.EGL_NONE //Null terminated
       };
@@ -127,7 +225,10 @@ class EglHelper {
 
 
    boolean makeCurrent() {
-      boolean success = EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+      EGLSurface surface = hasWindow() ? eglSurface : pbufferSurface;
+      long start = capture != null ? capture.start() : 0;
+      boolean success = EGL14.eglMakeCurrent(eglDisplay, surface, surface, eglContext);
+      if (capture != null) capture.egl(GlCall.EGL_MAKE_CURRENT, start, 0, success);
       if (!success) {
          Timber.e("eglMakeCurrent failed");
       }
@@ -135,13 +236,50 @@ class EglHelper {
    }
 
    boolean swapBuffers() {
+      if (!hasWindow()) return false;
+      long start = capture != null ? capture.start() : 0;
       boolean success = EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+      if (capture != null) capture.egl(GlCall.EGL_SWAP_BUFFERS, start, 0, success);
       if (!success) {
          Timber.e("eglSwapBuffers failed");
       }
       return success;
    }
 
+   private class WindowTarget implements SurfaceFanout.Target {
+      private final EGLSurface surface;
+      private final int id = nextTargetId++;
+
+      WindowTarget(EGLSurface surface) {
+         this.surface = surface;
+      }
+
+      @Override public boolean makeCurrent() {
+         long start = capture != null ? capture.start() : 0;
+         boolean success = EGL14.eglMakeCurrent(eglDisplay, surface, surface, eglContext);
+         if (capture != null) capture.egl(GlCall.EGL_MAKE_CURRENT, start, id, success);
+         if (!success) {
+            Timber.e("eglMakeCurrent output failed");
+         }
+         return success;
+      }
+
+      @Override public void setPresentationTime(long nanos) {
+         EGLExt.eglPresentationTimeANDROID(eglDisplay, surface, nanos);
+      }
+
+      @Override public boolean swapBuffers() {
+         long start = capture != null ? capture.start() : 0;
+         boolean success = EGL14.eglSwapBuffers(eglDisplay, surface);
+         if (capture != null) capture.egl(GlCall.EGL_SWAP_BUFFERS, start, id, success);
+         return success;
+      }
+
+      @Override public void release() {
+         EGL14.eglDestroySurface(eglDisplay, surface);
+      }
+   }
+
    /**
     * Checks for EGL errors.  Throws an exception if an error has been raised.
     */
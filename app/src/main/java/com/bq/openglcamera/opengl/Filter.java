@@ -0,0 +1,144 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Image filter for a {@link FilterCompiler} chain: a GLSL function named <code>filter</code>
+ * and the uniforms it reads.
+ * <p>
+ * {@link Kind#POINT} filters map a color to a color, <code>vec4 filter(vec4 color)</code>, and
+ * are fused with their neighbours into one fragment shader. {@link Kind#NEIGHBOURHOOD} filters
+ * sample the output of the previous filters around each pixel,
+ * <code>vec4 filter(sampler2D source, vec2 coord, vec2 texelSize)</code>, so they start a new
+ * pass.
+ * <p>
+ * Uniforms, helper functions and constants are declared by plain name, the compiler renames
+ * them per chain position. Textures are listed as <code>"sampler name"</code> but declared by
+ * the function source itself, so it can pick the sampler type with the preprocessor (see
+ * {@link FilterCompiler#compile(List, Set)}). Filters are immutable and can be shared between
+ * chains.
+ */
+public final class Filter {
+
+   public enum Kind {
+      POINT,
+      NEIGHBOURHOOD
+   }
+
+   private static final Pattern UNIFORM = Pattern.compile("\\s*(float|vec2|vec3|vec4|sampler)\\s+([A-Za-z_][A-Za-z0-9_]*)\\s*");
+
+   private final String name;
+   private final Kind kind;
+   private final String function;
+   private final List<Uniform> uniforms;
+   private final String signature;
+
+   private Filter(String name, Kind kind, String function, List<Uniform> uniforms) {
+      this.name = name;
+      this.kind = kind;
+      this.function = function;
+      this.uniforms = uniforms;
+      StringBuilder signature = new StringBuilder().append(kind).append('\n');
+      for (Uniform uniform : uniforms) {
+         signature.append(uniform.type).append(' ').append(uniform.name).append('\n');
+      }
+      this.signature = signature.append(function).toString();
+   }
+
+   /**
+    * @param name     For logs and generated comments only.
+    * @param function GLSL declaring <code>vec4 filter(vec4 color)</code>.
+    * @param uniforms Declarations such as <code>"float amount"</code>, float, vecN or sampler.
+    */
+   public static Filter point(String name, String function, String... uniforms) {
+      return new Filter(name, Kind.POINT, function, parseUniforms(uniforms));
+   }
+
+   /**
+    * @param name     For logs and generated comments only.
+    * @param function GLSL declaring
+    *                 <code>vec4 filter(sampler2D source, vec2 coord, vec2 texelSize)</code>.
+    * @param uniforms Declarations such as <code>"float radius"</code>, float, vecN or sampler.
+    */
+   public static Filter neighbourhood(String name, String function, String... uniforms) {
+      return new Filter(name, Kind.NEIGHBOURHOOD, function, parseUniforms(uniforms));
+   }
+
+   private static List<Uniform> parseUniforms(String[] declarations) {
+      List<Uniform> uniforms = new ArrayList<>(declarations.length);
+      for (String declaration : declarations) {
+         Matcher matcher = UNIFORM.matcher(declaration);
+         if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unsupported uniform declaration: " + declaration);
+         }
+         uniforms.add(new Uniform(matcher.group(1), matcher.group(2)));
+      }
+      return Collections.unmodifiableList(uniforms);
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public Kind getKind() {
+      return kind;
+   }
+
+   public String getFunction() {
+      return function;
+   }
+
+   public List<Uniform> getUniforms() {
+      return uniforms;
+   }
+
+   /**
+    * Everything the generated code depends on, filters with the same signature generate the
+    * same shaders.
+    */
+   String getSignature() {
+      return signature;
+   }
+
+   @Override public String toString() {
+      return name + " " + kind + " " + Arrays.toString(uniforms.toArray());
+   }
+
+   /**
+    * Uniform of a filter, or of a generated pass once renamed.
+    */
+   public static final class Uniform {
+      public final String type;
+      public final String name;
+
+      Uniform(String type, String name) {
+         this.type = type;
+         this.name = name;
+      }
+
+      /**
+       * Number of floats, 1 for float up to 4 for vec4, 0 for textures.
+       */
+      public int getComponents() {
+         if (isSampler()) return 0;
+         return type.equals("float") ? 1 : type.charAt(3) - '0';
+      }
+
+      /**
+       * A texture, bound through {@link FilterRenderer#setTexture(int, String, FilterRenderer.TextureSource)}.
+       */
+      public boolean isSampler() {
+         return type.equals("sampler");
+      }
+
+      @Override public String toString() {
+         return type + " " + name;
+      }
+   }
+}
@@ -0,0 +1,233 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Turns a chain of {@link Filter}s into as few full screen passes as possible.
+ * <p>
+ * Consecutive point filters are fused into one fragment shader that calls them one after the
+ * other on the sampled color, so the image goes through the framebuffer once instead of once
+ * per filter. A neighbourhood filter needs the finished output of the filters before it, so
+ * the chain is split there and the filter becomes the head of a new pass.
+ * <p>
+ * Declarations of the filter at chain position <code>i</code> are renamed with an
+ * <code>f<i>i</i>_</code> prefix, so filters can repeat or share names. Results are cached by
+ * chain signature. Thread safe, pure Java.
+ * <p>
+ * Shaders are GLSL ES 1.00, or 3.00 where 3D textures are core but not offered as an extension
+ * to 1.00 shaders. Filters are written in 1.00, <code>texture2D</code> and
+ * <code>texture3D</code> are mapped to <code>texture</code> in 3.00 shaders.
+ */
+public class FilterCompiler {
+
+   public static final int DEFAULT_CACHE_SIZE = 16;
+   public static final int GLSL_ES_100 = 100;
+   public static final int GLSL_ES_300 = 300;
+
+   private final Map<String, List<FilterPass>> cache;
+
+   public FilterCompiler() {
+      this(DEFAULT_CACHE_SIZE);
+   }
+
+   /**
+    * @param cacheSize Chains kept, least recently used ones are evicted.
+    */
+   public FilterCompiler(final int cacheSize) {
+      this.cache = new LinkedHashMap<String, List<FilterPass>>(cacheSize, 0.75f, true) {
+         @Override protected boolean removeEldestEntry(Map.Entry<String, List<FilterPass>> eldest) {
+            return size() > cacheSize;
+         }
+      };
+   }
+
+   /**
+    * Generated name of a filter's uniform.
+    *
+    * @param index Position of the filter in the chain.
+    */
+   public static String uniformName(int index, String name) {
+      return "f" + index + "_" + name;
+   }
+
+   /**
+    * Passes drawing the chain, the first one reads the camera. An empty chain is a single pass
+    * copying the camera image.
+    *
+    * @throws IllegalArgumentException If a filter doesn't declare its <code>filter</code>
+    *                                  function.
+    */
+   public List<FilterPass> compile(List<Filter> filters) {
+      return compile(filters, Collections.<String>emptySet());
+   }
+
+   /**
+    * Passes drawing the chain, enabling optional GLSL extensions. Filters can test for them
+    * with <code>#ifdef</code>, the extension name is defined when the driver supports it.
+    *
+    * @param extensions Such as <code>GL_OES_texture_3D</code>.
+    */
+   public List<FilterPass> compile(List<Filter> filters, Set<String> extensions) {
+      return compile(filters, extensions, GLSL_ES_100);
+   }
+
+   /**
+    * Passes drawing the chain in the given GLSL version, to be linked with vertex shaders
+    * converted by {@link #vertexSource(String, int)}. Filters can test for 3.00 with
+    * <code>__VERSION__</code>.
+    *
+    * @param glslVersion {@link #GLSL_ES_100} or {@link #GLSL_ES_300}. 3.00 shaders read the
+    *                    camera through <code>GL_OES_EGL_image_external_essl3</code>.
+    */
+   public List<FilterPass> compile(List<Filter> filters, Set<String> extensions, int glslVersion) {
+      if (glslVersion != GLSL_ES_100 && glslVersion != GLSL_ES_300) {
+         throw new IllegalArgumentException("Unsupported GLSL version " + glslVersion);
+      }
+      Set<String> sorted = new TreeSet<>(extensions);
+      String signature = glslVersion + " " + sorted + signature(filters);
+      synchronized (cache) {
+         List<FilterPass> passes = cache.get(signature);
+         if (passes != null) return passes;
+      }
+      List<FilterPass> passes = Collections.unmodifiableList(generate(filters, sorted, glslVersion));
+      synchronized (cache) {
+         cache.put(signature, passes);
+      }
+      return passes;
+   }
+
+   /**
+    * GLSL ES 1.00 vertex shader converted to the given version, unchanged for 1.00.
+    */
+   public static String vertexSource(String source, int glslVersion) {
+      if (glslVersion == GLSL_ES_100) return source;
+      //#version has to come first, the rest stays as written
+      return "#version 300 es\n"
+         + "#define attribute in\n"
+         + "#define varying out\n"
+         + source;
+   }
+
+   static String signature(List<Filter> filters) {
+      StringBuilder signature = new StringBuilder();
+      for (Filter filter : filters) {
+         //Length prefixed so no two chains produce the same string
+         String filterSignature = filter.getSignature();
+         signature.append(filterSignature.length()).append(':').append(filterSignature);
+      }
+      return signature.toString();
+   }
+
+   static List<FilterPass> generate(List<Filter> filters, Set<String> extensions, int glslVersion) {
+      List<FilterPass> passes = new ArrayList<>();
+      int start = 0;
+      do {
+         //A pass runs up to the next neighbourhood filter, which heads the following one
+         int end = start + 1;
+         while (end < filters.size() && filters.get(end).getKind() == Filter.Kind.POINT) {
+            end++;
+         }
+         boolean readsCamera = passes.isEmpty();
+         if (readsCamera && !filters.isEmpty() && filters.get(0).getKind() == Filter.Kind.NEIGHBOURHOOD) {
+            //The camera texture is external, neighbourhood filters only sample 2D textures
+            end = 0;
+         }
+         end = Math.min(end, filters.size());
+         passes.add(generatePass(filters, start, end, readsCamera, extensions, glslVersion));
+         start = end;
+      } while (start < filters.size());
+      return passes;
+   }
+
+   private static FilterPass generatePass(List<Filter> filters, int start, int end, boolean readsCamera,
+                                          Set<String> extensions, int glslVersion) {
+      boolean neighbourhood = start < end && filters.get(start).getKind() == Filter.Kind.NEIGHBOURHOOD;
+      boolean glsl300 = glslVersion == GLSL_ES_300;
+      String sample = glsl300 ? "texture" : "texture2D";
+      List<Filter.Uniform> uniforms = new ArrayList<>();
+      StringBuilder source = new StringBuilder();
+
+      if (glsl300) {
+         source.append("#version 300 es\n");
+      }
+      if (readsCamera) {
+         source.append(glsl300
+            ? "#extension GL_OES_EGL_image_external_essl3 : require\n"
+            : "#extension GL_OES_EGL_image_external : require\n");
+      }
+      for (String extension : extensions) {
+         source.append("#extension ").append(extension).append(" : enable\n");
+      }
+      if (glsl300 || readsCamera || !extensions.isEmpty()) {
+         source.append('\n');
+      }
+      source.append("precision mediump float;\n\n");
+      if (glsl300) {
+         source.append("#define varying in\n");
+         source.append("#define texture2D texture\n");
+         source.append("#define texture3D texture\n");
+         source.append("out vec4 fragColor;\n\n");
+      }
+      if (readsCamera) {
+         source.append("uniform samplerExternalOES camTex;\n");
+         source.append("varying vec2 camTexCoordinate;\n");
+      } else {
+         source.append("uniform sampler2D sourceTex;\n");
+         if (neighbourhood) {
+            source.append("uniform vec2 texelSize;\n");
+         }
+         source.append("varying vec2 texCoordinate;\n");
+      }
+
+      for (int index = start; index < end; index++) {
+         Filter filter = filters.get(index);
+         Map<String, String> renames = new HashMap<>();
+         for (Filter.Uniform uniform : filter.getUniforms()) {
+            renames.put(uniform.name, uniformName(index, uniform.name));
+         }
+         for (String declared : GlslIdentifiers.globalDeclarations(filter.getFunction())) {
+            renames.put(declared, uniformName(index, declared));
+         }
+         if (!renames.containsKey("filter")) {
+            throw new IllegalArgumentException("Filter " + filter.getName() + " doesn't declare filter()");
+         }
+
+         source.append("\n//").append(index).append(": ").append(filter.getName()).append('\n');
+         for (Filter.Uniform uniform : filter.getUniforms()) {
+            Filter.Uniform renamed = new Filter.Uniform(uniform.type, uniformName(index, uniform.name));
+            uniforms.add(renamed);
+            if (!uniform.isSampler()) {
+               //Textures are declared by the filter
+               source.append("uniform ").append(renamed).append(";\n");
+            }
+         }
+         source.append(GlslIdentifiers.rename(filter.getFunction().trim(), renames)).append('\n');
+      }
+
+      source.append("\nvoid main () {\n");
+      int next = start;
+      if (readsCamera) {
+         source.append("    vec4 color = ").append(sample).append("(camTex, camTexCoordinate);\n");
+      } else if (neighbourhood) {
+         source.append("    vec4 color = ").append(uniformName(start, "filter"))
+            .append("(sourceTex, texCoordinate, texelSize);\n");
+         next++;
+      } else {
+         source.append("    vec4 color = ").append(sample).append("(sourceTex, texCoordinate);\n");
+      }
+      for (int index = next; index < end; index++) {
+         source.append("    color = ").append(uniformName(index, "filter")).append("(color);\n");
+      }
+      source.append(glsl300 ? "    fragColor = color;\n" : "    gl_FragColor = color;\n");
+      source.append("}\n");
+
+      return new FilterPass(readsCamera, neighbourhood, source.toString(), Collections.unmodifiableList(uniforms));
+   }
+}
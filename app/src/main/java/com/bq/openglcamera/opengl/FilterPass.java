@@ -0,0 +1,52 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.List;
+
+/**
+ * One full screen pass of a compiled filter chain, see {@link FilterCompiler}.
+ * <p>
+ * The first pass samples the camera texture with the varyings of <code>vert.glsl</code>, the
+ * following ones sample the previous pass through <code>sourceTex</code> with the varyings of
+ * <code>downsample_vert.glsl</code>, converted by {@link FilterCompiler#vertexSource(String, int)}
+ * to the version of the pass.
+ */
+public final class FilterPass {
+
+   private final boolean readsCamera;
+   private final boolean samplesNeighbourhood;
+   private final String fragmentSource;
+   private final List<Filter.Uniform> uniforms;
+
+   FilterPass(boolean readsCamera, boolean samplesNeighbourhood, String fragmentSource, List<Filter.Uniform> uniforms) {
+      this.readsCamera = readsCamera;
+      this.samplesNeighbourhood = samplesNeighbourhood;
+      this.fragmentSource = fragmentSource;
+      this.uniforms = uniforms;
+   }
+
+   /**
+    * True for the first pass, which samples <code>camTex</code>.
+    */
+   public boolean readsCamera() {
+      return readsCamera;
+   }
+
+   /**
+    * True if the pass declares <code>uniform vec2 texelSize</code>, the size of a source pixel.
+    */
+   public boolean samplesNeighbourhood() {
+      return samplesNeighbourhood;
+   }
+
+   public String getFragmentSource() {
+      return fragmentSource;
+   }
+
+   /**
+    * Uniforms of the fused filters, with their generated names, see
+    * {@link FilterCompiler#uniformName(int, String)}.
+    */
+   public List<Filter.Uniform> getUniforms() {
+      return uniforms;
+   }
+}
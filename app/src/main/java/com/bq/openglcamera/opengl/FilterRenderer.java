@@ -0,0 +1,457 @@
+package com.bq.openglcamera.opengl;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import timber.log.Timber;
+
+/**
+ * Renderer that draws the camera through a chain of {@link Filter}s, fused into as few passes
+ * as possible by a {@link FilterCompiler}.
+ * <p>
+ * The first pass is the camera renderer's own draw with the generated shader, compiled in the
+ * background (see {@link DefaultCameraRenderer#setShaderSources(String, String)}). Further
+ * passes, one per neighbourhood filter, draw from a texture the size of the surface.
+ * <p>
+ * Filters can use 3D textures on ES3 contexts: through <code>GL_OES_texture_3D</code> where
+ * the driver has it, else in GLSL ES 3.00 shaders, see
+ * {@link FilterCompiler#compile(List, Set, int)}.
+ * <p>
+ * With a {@link ResolutionGovernor} the intermediate textures follow its scale, the last pass
+ * upscales to the surface. It is fed the frame times the wrapper measures, swap included.
+ * <p>
+ * Filters, uniform values and textures can be set from any thread.
+ */
+public class FilterRenderer implements TextureViewGLWrapper.MultiSurfaceRenderer,
+   TextureViewGLWrapper.FrameTimeRenderer, DefaultCameraRenderer.UniformSource {
+
+   public static final String TEXTURE_3D_EXTENSION = "GL_OES_texture_3D";
+   public static final String IMAGE_EXTERNAL_ESSL3_EXTENSION = "GL_OES_EGL_image_external_essl3";
+
+   /**
+    * Texture for a sampler uniform of a filter. Called on the render thread.
+    */
+   public interface TextureSource {
+      /**
+       * GL_TEXTURE_2D or GL_TEXTURE_3D.
+       */
+      int getTarget();
+
+      /**
+       * Texture to bind for this draw, or 0 for none.
+       */
+      int getTexture(GlBackend gl);
+
+      /**
+       * The context is going away, delete the textures.
+       */
+      void release(GlBackend gl);
+   }
+
+   private final Context context;
+   private final DefaultCameraRenderer camera;
+   private final GlBackend gl;
+   private final FilterCompiler compiler;
+   private final ProgramCache programCache;
+   private final TransientTargetAllocator targets;
+   private final Map<String, float[]> uniformValues = new ConcurrentHashMap<>();
+   private final Map<String, TextureSource> textureSources = new ConcurrentHashMap<>();
+
+   private volatile List<Filter> requestedFilters = Collections.emptyList();
+
+   //Render thread only
+   private List<Filter> appliedFilters;
+   private List<FilterPass> passes = Collections.emptyList();
+   private Pass[] passPrograms = new Pass[0];
+   private int[] textures = new int[0];
+   private int[] framebuffers = new int[0];
+   private final int[] quadBuffer = new int[1];
+   private final int[] framebufferBinding = new int[1];
+   private final float[] texelSize = new float[2];
+   //Uniform locations of the camera programs, by program
+   private final Map<Integer, int[]> cameraLocations = new HashMap<>();
+   private final Set<String> extensions = new HashSet<>();
+   private String cameraVertexSource;
+   private String passVertexSource;
+   private boolean vertexArrays;
+   private int glslVersion = FilterCompiler.GLSL_ES_100;
+   private ResolutionGovernor governor;
+   private int surfaceWidth;
+   private int surfaceHeight;
+   private float scale = 1;
+   //Size of the intermediate targets
+   private int width;
+   private int height;
+
+   public FilterRenderer(Context context, DefaultCameraRenderer camera, FilterCompiler compiler) {
+      this.context = context;
+      this.camera = camera;
+      this.gl = camera.getGlBackend();
+      this.compiler = compiler;
+      this.programCache = new ProgramCache(context);
+      this.targets = new TransientTargetAllocator(gl);
+      camera.setUniformSource(this);
+   }
+
+   /**
+    * Draw through the given chain from the next frame on, an empty one draws the camera as is.
+    *
+    * @throws IllegalArgumentException If a filter can't be compiled.
+    */
+   public void setFilters(List<Filter> filters) {
+      List<Filter> copy = Collections.unmodifiableList(new ArrayList<>(filters));
+      //Fail here rather than on the render thread, the result is cached for it
+      compiler.compile(copy);
+      requestedFilters = copy;
+   }
+
+   /**
+    * Value of a float or vecN uniform of the filter at <code>filterIndex</code> in the chain.
+    * Kept across chain changes.
+    */
+   public void setUniform(int filterIndex, String name, float... value) {
+      uniformValues.put(FilterCompiler.uniformName(filterIndex, name), value.clone());
+   }
+
+   /**
+    * Texture for a <code>sampler</code> uniform of the filter at <code>filterIndex</code>.
+    * Textures are bound from unit 1 on, in the order the filters list them, before the other
+    * uniforms are set.
+    */
+   public void setTexture(int filterIndex, String name, TextureSource source) {
+      textureSources.put(FilterCompiler.uniformName(filterIndex, name), source);
+   }
+
+   /**
+    * Scale the intermediate targets as the governor decides, from the time each frame takes to
+    * render and swap. Frames only count while the chain has intermediate targets, without them
+    * there is nothing to scale. Set it before rendering starts.
+    */
+   public void setResolutionGovernor(ResolutionGovernor governor) {
+      this.governor = governor;
+   }
+
+   /**
+    * True if filters can sample 3D textures in the current context, with
+    * <code>GL_OES_texture_3D</code> or as GLSL ES 3.00 shaders. Render thread only.
+    */
+   public boolean isTexture3DEnabled() {
+      return extensions.contains(TEXTURE_3D_EXTENSION) || glslVersion == FilterCompiler.GLSL_ES_300;
+   }
+
+   @Override
+   public void onSurfaceCreated(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      camera.onSurfaceCreated(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      setSurfaceSize(surfaceWidth, surfaceHeight);
+      vertexArrays = GlUtil.getGlesMajorVersion(gl) >= 3;
+      extensions.clear();
+      glslVersion = FilterCompiler.GLSL_ES_100;
+      String supported = gl.glGetString(GLES20.GL_EXTENSIONS);
+      //3D textures can only be uploaded through the ES3 API
+      if (vertexArrays && supported != null) {
+         if (supported.contains(TEXTURE_3D_EXTENSION)) {
+            extensions.add(TEXTURE_3D_EXTENSION);
+         } else if (supported.contains(IMAGE_EXTERNAL_ESSL3_EXTENSION)) {
+            //Core in GLSL ES 3.00, where the camera can only be read through this extension
+            glslVersion = FilterCompiler.GLSL_ES_300;
+         }
+      }
+      if (cameraVertexSource == null) {
+         cameraVertexSource = GlUtil.getStringFromFileInAssets(context, "vert.glsl");
+         passVertexSource = GlUtil.getStringFromFileInAssets(context, "downsample_vert.glsl");
+      }
+      uploadQuad();
+      //Rebuild the chain in the new context
+      appliedFilters = null;
+   }
+
+   @Override
+   public void onSurfaceChanged(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      camera.onSurfaceChanged(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      setSurfaceSize(surfaceWidth, surfaceHeight);
+      if (appliedFilters != null) {
+         //New size, nothing in the pool fits
+         releaseTargets();
+         setupTargets();
+      }
+   }
+
+   @Override public void onSurfaceDestroyed(SurfaceTexture eglSurfaceTexture) {
+      releaseTargets();
+      if (quadBuffer[0] != 0) {
+         gl.glDeleteBuffers(1, quadBuffer, 0);
+         quadBuffer[0] = 0;
+      }
+      programCache.release(gl);
+      passPrograms = new Pass[0];
+      cameraLocations.clear();
+      for (TextureSource source : textureSources.values()) {
+         source.release(gl);
+      }
+      camera.onSurfaceDestroyed(eglSurfaceTexture);
+   }
+
+   @Override public void onFrameAvailable(SurfaceTexture eglSurfaceTexture) {
+      updateFilters();
+      if (passes.size() <= 1) {
+         camera.onFrameAvailable(eglSurfaceTexture);
+      } else {
+         camera.latchFrame(eglSurfaceTexture);
+         gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffers[0]);
+         camera.onDrawFrame(width, height, null);
+         drawPasses(0, surfaceWidth, surfaceHeight);
+      }
+   }
+
+   @Override public void onFrameRendered(long frameNanos) {
+      if (governor != null && passes.size() > 1 && governor.onFrame(frameNanos)) {
+         applyScale();
+      }
+   }
+
+   @Override public void onDrawFrame(int surfaceWidth, int surfaceHeight, float[] transform) {
+      if (passes.size() <= 1) {
+         camera.onDrawFrame(surfaceWidth, surfaceHeight, transform);
+         return;
+      }
+      //Could be an offscreen target, such as a pyramid level
+      gl.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, framebufferBinding, 0);
+      gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffers[0]);
+      camera.onDrawFrame(width, height, transform);
+      drawPasses(framebufferBinding[0], surfaceWidth, surfaceHeight);
+   }
+
+   @Override public void onUseProgram(GlBackend gl, int program) {
+      if (passes.isEmpty()) return;
+      List<Filter.Uniform> uniforms = passes.get(0).getUniforms();
+      int[] locations = cameraLocations.get(program);
+      if (locations == null) {
+         //Pass-through or the previous chain while the new one compiles, missing names are -1
+         locations = uniformLocations(program, uniforms);
+         cameraLocations.put(program, locations);
+      }
+      setUniforms(uniforms, locations);
+   }
+
+   private void setSurfaceSize(int surfaceWidth, int surfaceHeight) {
+      this.surfaceWidth = surfaceWidth;
+      this.surfaceHeight = surfaceHeight;
+      width = Math.max(1, Math.round(surfaceWidth * scale));
+      height = Math.max(1, Math.round(surfaceHeight * scale));
+   }
+
+   private void applyScale() {
+      scale = governor.getScale();
+      setSurfaceSize(surfaceWidth, surfaceHeight);
+      if (appliedFilters != null) {
+         //New size, nothing in the pool fits
+         releaseTargets();
+         setupTargets();
+      }
+      Timber.d("Filter targets at %dx%d", width, height);
+   }
+
+   private void updateFilters() {
+      List<Filter> requested = requestedFilters;
+      if (requested == appliedFilters) return;
+      appliedFilters = requested;
+
+      passes = compiler.compile(requested, extensions, glslVersion);
+      cameraLocations.clear();
+      if (requested.isEmpty()) {
+         camera.setShaderSources(null, null);
+      } else {
+         camera.setShaderSources(FilterCompiler.vertexSource(cameraVertexSource, glslVersion),
+            passes.get(0).getFragmentSource());
+      }
+
+      //Passes after the first one are rare and small, compiled here
+      passPrograms = new Pass[passes.size()];
+      String passVertex = FilterCompiler.vertexSource(passVertexSource, glslVersion);
+      for (int i = 1; i < passes.size(); i++) {
+         FilterPass pass = passes.get(i);
+         int program = programCache.getProgram(gl, passVertex, pass.getFragmentSource());
+         if (program == 0) throw new IllegalStateException("Failed to create filter pass " + i);
+         passPrograms[i] = new Pass(program, gl.glGetAttribLocation(program, "position"),
+            gl.glGetAttribLocation(program, "texturePosition"),
+            gl.glGetUniformLocation(program, "sourceTex"),
+            gl.glGetUniformLocation(program, "texelSize"),
+            uniformLocations(program, pass.getUniforms()));
+      }
+      setupTargets();
+      if (governor != null) {
+         //Frame times of the old chain say nothing about this one
+         governor.reset();
+      }
+      Timber.d("Filter chain of %d filters in %d passes", requested.size(), passes.size());
+   }
+
+   /**
+    * One target per pass output but the last, which goes to the target framebuffer. Outputs
+    * two passes apart share a texture, see {@link TransientTargetAllocator}.
+    */
+   private void setupTargets() {
+      int count = passes.size() - 1;
+      if (count <= 0) {
+         releaseTargets();
+         return;
+      }
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int[] outputs = new int[count];
+      for (int i = 0; i < count; i++) {
+         outputs[i] = plan.target(width, height, RenderTargetPlan.FORMAT_RGBA);
+      }
+      int[] none = new int[0];
+      plan.pass(none, new int[]{outputs[0]});
+      for (int i = 1; i < passes.size(); i++) {
+         plan.pass(new int[]{outputs[i - 1]}, i < count ? new int[]{outputs[i]} : none);
+      }
+      TransientTargetAllocator.Allocation allocation = targets.allocate(plan);
+      textures = new int[count];
+      framebuffers = new int[count];
+      for (int i = 0; i < count; i++) {
+         textures[i] = allocation.getTexture(outputs[i]);
+         framebuffers[i] = allocation.getFramebuffer(outputs[i]);
+      }
+   }
+
+   private void releaseTargets() {
+      targets.release();
+      framebuffers = new int[0];
+      textures = new int[0];
+   }
+
+   /**
+    * Draw the passes after the first one, whose output is in the first texture.
+    */
+   private void drawPasses(int targetFramebuffer, int targetWidth, int targetHeight) {
+      if (vertexArrays) {
+         //Don't record our pointers into the camera renderer's vertex array
+         gl.glBindVertexArray(0);
+      }
+      texelSize[0] = 1f / width;
+      texelSize[1] = 1f / height;
+      for (int i = 1; i < passes.size(); i++) {
+         boolean last = i == passes.size() - 1;
+         Pass pass = passPrograms[i];
+         gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, last ? targetFramebuffer : framebuffers[i]);
+         gl.glViewport(0, 0, last ? targetWidth : width, last ? targetHeight : height);
+         gl.glUseProgram(pass.program);
+         gl.glBindTexture(GLES20.GL_TEXTURE_2D, textures[i - 1]);
+         gl.glUniform1i(pass.sourceTex, 0);
+         if (pass.texelSize >= 0) {
+            gl.glUniform2fv(pass.texelSize, 1, texelSize, 0);
+         }
+         setUniforms(passes.get(i).getUniforms(), pass.uniforms);
+         gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBuffer[0]);
+         gl.glEnableVertexAttribArray(pass.position);
+         gl.glVertexAttribPointer(pass.position, 2, GLES20.GL_FLOAT, false, 4 * 2, 0);
+         gl.glEnableVertexAttribArray(pass.texturePosition);
+         gl.glVertexAttribPointer(pass.texturePosition, 2, GLES20.GL_FLOAT, false, 4 * 2, 4 * 2 * 4);
+         gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      }
+   }
+
+   private int[] uniformLocations(int program, List<Filter.Uniform> uniforms) {
+      int[] locations = new int[uniforms.size()];
+      for (int i = 0; i < locations.length; i++) {
+         locations[i] = gl.glGetUniformLocation(program, uniforms.get(i).name);
+      }
+      return locations;
+   }
+
+   private void setUniforms(List<Filter.Uniform> uniforms, int[] locations) {
+      int unit = 0;
+      for (int i = 0; i < locations.length; i++) {
+         Filter.Uniform uniform = uniforms.get(i);
+         if (!uniform.isSampler()) continue;
+         TextureSource source = textureSources.get(uniform.name);
+         int texture = source != null ? source.getTexture(gl) : 0;
+         if (locations[i] < 0 || texture == 0) continue;
+         //Unit 0 holds the camera or source texture
+         unit++;
+         gl.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+         gl.glBindTexture(source.getTarget(), texture);
+         gl.glUniform1i(locations[i], unit);
+      }
+      if (unit > 0) {
+         gl.glActiveTexture(GLES20.GL_TEXTURE0);
+      }
+
+      for (int i = 0; i < locations.length; i++) {
+         Filter.Uniform uniform = uniforms.get(i);
+         if (uniform.isSampler()) continue;
+         float[] value = uniformValues.get(uniform.name);
+         int components = uniform.getComponents();
+         if (locations[i] < 0 || value == null || value.length < components) continue;
+         switch (components) {
+            case 1:
+               gl.glUniform1fv(locations[i], 1, value, 0);
+               break;
+            case 2:
+               gl.glUniform2fv(locations[i], 1, value, 0);
+               break;
+            case 3:
+               gl.glUniform3fv(locations[i], 1, value, 0);
+               break;
+            default:
+               gl.glUniform4fv(locations[i], 1, value, 0);
+               break;
+         }
+      }
+   }
+
+   private void uploadQuad() {
+      //Triangle strip positions followed by tex coordinates, same orientation as the source
+      float vertexData[] = {
+         -1, -1,
+         +1, -1,
+         -1, +1,
+         +1, +1,
+         0.0f, 0.0f,
+         1.0f, 0.0f,
+         0.0f, 1.0f,
+         1.0f, 1.0f,
+      };
+      FloatBuffer vertices = ByteBuffer.allocateDirect(vertexData.length * 4) //4 bytes/float
+         .order(ByteOrder.nativeOrder())
+         .asFloatBuffer();
+      vertices.put(vertexData).position(0);
+
+      gl.glGenBuffers(1, quadBuffer, 0);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBuffer[0]);
+      gl.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexData.length * 4, vertices, GLES20.GL_STATIC_DRAW);
+      gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+   }
+
+   private static final class Pass {
+      final int program;
+      final int position;
+      final int texturePosition;
+      final int sourceTex;
+      final int texelSize;
+      final int[] uniforms;
+
+      Pass(int program, int position, int texturePosition, int sourceTex, int texelSize, int[] uniforms) {
+         this.program = program;
+         this.position = position;
+         this.texturePosition = texturePosition;
+         this.sourceTex = sourceTex;
+         this.texelSize = texelSize;
+         this.uniforms = uniforms;
+      }
+   }
+}
@@ -0,0 +1,285 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * {@link GlBackend} that forwards every call to another backend.
+ * Subclasses override only the calls they want to intercept.
+ */
+public abstract class ForwardingGlBackend implements GlBackend {
+
+   protected final GlBackend delegate;
+
+   protected ForwardingGlBackend(GlBackend delegate) {
+      this.delegate = delegate;
+   }
+
+   @Override public void glUseProgram(int program) {
+      delegate.glUseProgram(program);
+   }
+
+   @Override public void glViewport(int x, int y, int width, int height) {
+      delegate.glViewport(x, y, width, height);
+   }
+
+   @Override public void glClearColor(float red, float green, float blue, float alpha) {
+      delegate.glClearColor(red, green, blue, alpha);
+   }
+
+   @Override public void glClear(int mask) {
+      delegate.glClear(mask);
+   }
+
+   @Override public void glActiveTexture(int texture) {
+      delegate.glActiveTexture(texture);
+   }
+
+   @Override public void glEnable(int capability) {
+      delegate.glEnable(capability);
+   }
+
+   @Override public void glDisable(int capability) {
+      delegate.glDisable(capability);
+   }
+
+   @Override public int glGetError() {
+      return delegate.glGetError();
+   }
+
+   @Override public String glGetString(int name) {
+      return delegate.glGetString(name);
+   }
+
+   @Override public int glGetUniformLocation(int program, String name) {
+      return delegate.glGetUniformLocation(program, name);
+   }
+
+   @Override public int glGetAttribLocation(int program, String name) {
+      return delegate.glGetAttribLocation(program, name);
+   }
+
+   @Override
+   public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+      delegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+   }
+
+   @Override public void glUniform1i(int location, int x) {
+      delegate.glUniform1i(location, x);
+   }
+
+   @Override public void glUniform1fv(int location, int count, float[] value, int offset) {
+      delegate.glUniform1fv(location, count, value, offset);
+   }
+
+   @Override public void glUniform2fv(int location, int count, float[] value, int offset) {
+      delegate.glUniform2fv(location, count, value, offset);
+   }
+
+   @Override public void glUniform3fv(int location, int count, float[] value, int offset) {
+      delegate.glUniform3fv(location, count, value, offset);
+   }
+
+   @Override public void glUniform4fv(int location, int count, float[] value, int offset) {
+      delegate.glUniform4fv(location, count, value, offset);
+   }
+
+   @Override public void glEnableVertexAttribArray(int index) {
+      delegate.glEnableVertexAttribArray(index);
+   }
+
+   @Override public void glDisableVertexAttribArray(int index) {
+      delegate.glDisableVertexAttribArray(index);
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer buffer) {
+      delegate.glVertexAttribPointer(index, size, type, normalized, stride, buffer);
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+      delegate.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+   }
+
+   @Override public void glGenBuffers(int n, int[] buffers, int offset) {
+      delegate.glGenBuffers(n, buffers, offset);
+   }
+
+   @Override public void glDeleteBuffers(int n, int[] buffers, int offset) {
+      delegate.glDeleteBuffers(n, buffers, offset);
+   }
+
+   @Override public void glBindBuffer(int target, int buffer) {
+      delegate.glBindBuffer(target, buffer);
+   }
+
+   @Override public void glBufferData(int target, int size, Buffer data, int usage) {
+      delegate.glBufferData(target, size, data, usage);
+   }
+
+   @Override public void glGenVertexArrays(int n, int[] arrays, int offset) {
+      delegate.glGenVertexArrays(n, arrays, offset);
+   }
+
+   @Override public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+      delegate.glDeleteVertexArrays(n, arrays, offset);
+   }
+
+   @Override public void glBindVertexArray(int array) {
+      delegate.glBindVertexArray(array);
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, Buffer indices) {
+      delegate.glDrawElements(mode, count, type, indices);
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, int offset) {
+      delegate.glDrawElements(mode, count, type, offset);
+   }
+
+   @Override public void glDrawArrays(int mode, int first, int count) {
+      delegate.glDrawArrays(mode, first, count);
+   }
+
+   @Override public int glCreateShader(int type) {
+      return delegate.glCreateShader(type);
+   }
+
+   @Override public void glShaderSource(int shader, String source) {
+      delegate.glShaderSource(shader, source);
+   }
+
+   @Override public void glCompileShader(int shader) {
+      delegate.glCompileShader(shader);
+   }
+
+   @Override public void glGetShaderiv(int shader, int name, int[] params, int offset) {
+      delegate.glGetShaderiv(shader, name, params, offset);
+   }
+
+   @Override public String glGetShaderInfoLog(int shader) {
+      return delegate.glGetShaderInfoLog(shader);
+   }
+
+   @Override public void glDeleteShader(int shader) {
+      delegate.glDeleteShader(shader);
+   }
+
+   @Override public int glCreateProgram() {
+      return delegate.glCreateProgram();
+   }
+
+   @Override public void glAttachShader(int program, int shader) {
+      delegate.glAttachShader(program, shader);
+   }
+
+   @Override public void glLinkProgram(int program) {
+      delegate.glLinkProgram(program);
+   }
+
+   @Override public void glGetProgramiv(int program, int name, int[] params, int offset) {
+      delegate.glGetProgramiv(program, name, params, offset);
+   }
+
+   @Override public String glGetProgramInfoLog(int program) {
+      return delegate.glGetProgramInfoLog(program);
+   }
+
+   @Override public void glDeleteProgram(int program) {
+      delegate.glDeleteProgram(program);
+   }
+
+   @Override public void glGenTextures(int n, int[] textures, int offset) {
+      delegate.glGenTextures(n, textures, offset);
+   }
+
+   @Override public void glDeleteTextures(int n, int[] textures, int offset) {
+      delegate.glDeleteTextures(n, textures, offset);
+   }
+
+   @Override public void glBindTexture(int target, int texture) {
+      delegate.glBindTexture(target, texture);
+   }
+
+   @Override public void glTexParameteri(int target, int name, int param) {
+      delegate.glTexParameteri(target, name, param);
+   }
+
+   @Override
+   public void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+                            int border, int format, int type, Buffer pixels) {
+      delegate.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+   }
+
+   @Override
+   public void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth,
+                            int border, int format, int type, Buffer pixels) {
+      delegate.glTexImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+   }
+
+   @Override public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+      delegate.glGenFramebuffers(n, framebuffers, offset);
+   }
+
+   @Override public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+      delegate.glDeleteFramebuffers(n, framebuffers, offset);
+   }
+
+   @Override public void glBindFramebuffer(int target, int framebuffer) {
+      delegate.glBindFramebuffer(target, framebuffer);
+   }
+
+   @Override
+   public void glFramebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level) {
+      delegate.glFramebufferTexture2D(target, attachment, textureTarget, texture, level);
+   }
+
+   @Override public int glCheckFramebufferStatus(int target) {
+      return delegate.glCheckFramebufferStatus(target);
+   }
+
+   @Override public void glGetIntegerv(int name, int[] params, int offset) {
+      delegate.glGetIntegerv(name, params, offset);
+   }
+
+   @Override public void glFinish() {
+      delegate.glFinish();
+   }
+
+   @Override
+   public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                  int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+      delegate.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+   }
+
+   @Override public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+      delegate.glProgramBinary(program, binaryFormat, binary, length);
+   }
+
+   @Override
+   public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+      delegate.glReadPixels(x, y, width, height, format, type, pixels);
+   }
+
+   @Override
+   public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+      delegate.glReadPixels(x, y, width, height, format, type, offset);
+   }
+
+   @Override public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+      return delegate.glMapBufferRange(target, offset, length, access);
+   }
+
+   @Override public boolean glUnmapBuffer(int target) {
+      return delegate.glUnmapBuffer(target);
+   }
+
+   @Override
+   public int glGetDebugMessageLogKHR(int count, int bufSize, int[] sources, int sourcesOffset,
+                                      int[] types, int typesOffset, int[] ids, int idsOffset,
+                                      int[] severities, int severitiesOffset, int[] lengths,
+                                      int lengthsOffset, byte[] messageLog, int messageLogOffset) {
+      return delegate.glGetDebugMessageLogKHR(count, bufSize, sources, sourcesOffset, types, typesOffset, ids,
+         idsOffset, severities, severitiesOffset, lengths, lengthsOffset, messageLog, messageLogOffset);
+   }
+}
@@ -0,0 +1,143 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Runs a {@link FrameAnalyzer} on the frames of a {@link PixelReadback}, off the render thread.
+ * <p>
+ * Frames are retained and analyzed on the analyzer's pool. When <code>maxInFlight</code>
+ * frames are already being analyzed new frames are dropped, the render thread never waits.
+ * The motion score compares each frame with the previous analyzed one.
+ * Results are delivered on a pool thread.
+ */
+@SuppressWarnings("Convert2Lambda")
+public class FrameAnalysisStage implements PixelReadback.Listener {
+
+   public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+   private final FrameAnalyzer analyzer;
+   private final Executor executor;
+   private final int maxInFlight;
+   private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+   private final AtomicInteger inFlight = new AtomicInteger();
+   private final AtomicLong analyzedFrames = new AtomicLong();
+   private final AtomicLong droppedFrames = new AtomicLong();
+
+   //Render thread only, holds a reference of its own
+   private ReadbackFrame previousFrame;
+
+   public FrameAnalysisStage() {
+      this(new FrameAnalyzer(), DEFAULT_MAX_IN_FLIGHT);
+   }
+
+   public FrameAnalysisStage(FrameAnalyzer analyzer, int maxInFlight) {
+      this(analyzer, maxInFlight, analyzer.getPool());
+   }
+
+   /**
+    * @param executor Runs the analysis of each frame, the analyzer's pool outside of tests.
+    */
+   FrameAnalysisStage(FrameAnalyzer analyzer, int maxInFlight, Executor executor) {
+      if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+      this.analyzer = analyzer;
+      this.executor = executor;
+      this.maxInFlight = maxInFlight;
+   }
+
+   public void addListener(Listener listener) {
+      listeners.add(listener);
+   }
+
+   public void removeListener(Listener listener) {
+      listeners.remove(listener);
+   }
+
+   public long getAnalyzedFrames() {
+      return analyzedFrames.get();
+   }
+
+   /**
+    * Frames not analyzed because too many were in flight, or the pool was shut down.
+    */
+   public long getDroppedFrames() {
+      return droppedFrames.get();
+   }
+
+   @Override public void onFrame(final ReadbackFrame frame) {
+      if (inFlight.incrementAndGet() > maxInFlight) {
+         inFlight.decrementAndGet();
+         droppedFrames.incrementAndGet();
+         return;
+      }
+
+      final ReadbackFrame previous = previousFrame;
+      final boolean compare = previous != null && previous.getWidth() == frame.getWidth()
+         && previous.getHeight() == frame.getHeight();
+      //The stage's reference on the previous frame goes to the task, or is dropped
+      if (previous != null && !compare) {
+         previous.release();
+      }
+      //One reference for the task, one kept as the next frame's previous
+      frame.retain();
+      frame.retain();
+      previousFrame = frame;
+
+      Runnable task = new Runnable() {
+         @Override public void run() {
+            try {
+               FrameStatistics statistics = analyzer.analyze(frame.getPixels(),
+                  compare ? previous.getPixels() : null,
+                  frame.getWidth(), frame.getHeight(), frame.getTimestamp());
+               analyzedFrames.incrementAndGet();
+               for (Listener listener : listeners) {
+                  listener.onFrameAnalyzed(statistics);
+               }
+            } catch (RuntimeException e) {
+               Timber.e(e, "Frame analysis failed");
+            } finally {
+               frame.release();
+               if (compare) {
+                  previous.release();
+               }
+               inFlight.decrementAndGet();
+            }
+         }
+      };
+      try {
+         executor.execute(task);
+      } catch (RejectedExecutionException e) {
+         Timber.w("Frame analysis rejected: %s", e.getMessage());
+         frame.release();
+         if (compare) {
+            previous.release();
+         }
+         inFlight.decrementAndGet();
+         droppedFrames.incrementAndGet();
+      }
+   }
+
+   /**
+    * Drop the reference kept on the last frame. Render thread only.
+    */
+   public void release() {
+      if (previousFrame != null) {
+         previousFrame.release();
+         previousFrame = null;
+      }
+   }
+
+   public interface Listener {
+      /**
+       * Statistics of a frame. Called on a pool thread, possibly out of order when more than one
+       * frame is in flight.
+       */
+      void onFrameAnalyzed(FrameStatistics statistics);
+   }
+}
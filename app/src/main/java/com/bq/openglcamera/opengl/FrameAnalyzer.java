@@ -0,0 +1,165 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes {@link FrameStatistics} of RGBA8888 frames in direct buffers.
+ * <p>
+ * The frame is split into bands of rows that are analyzed in parallel on a
+ * {@link ForkJoinPool}. Each band fills its own partial result, partial results are summed as
+ * the tasks join, so nothing is shared between workers. Independent of Android so it can be
+ * run on synthetic frames.
+ */
+public final class FrameAnalyzer {
+
+   public static final int DEFAULT_TILE_ROWS = 64;
+
+   private final ForkJoinPool pool;
+   private final int tileRows;
+
+   /**
+    * Analyzer with its own pool, one worker per core.
+    */
+   public FrameAnalyzer() {
+      this(new ForkJoinPool(), DEFAULT_TILE_ROWS);
+   }
+
+   /**
+    * @param tileRows Rows of the band analyzed by a single task, bands are not split further.
+    */
+   public FrameAnalyzer(ForkJoinPool pool, int tileRows) {
+      if (tileRows < 1) throw new IllegalArgumentException("tileRows < 1: " + tileRows);
+      this.pool = pool;
+      this.tileRows = tileRows;
+   }
+
+   ForkJoinPool getPool() {
+      return pool;
+   }
+
+   /**
+    * Analyze a frame, blocking until done.
+    *
+    * @param pixels   Tightly packed RGBA8888 pixels, read from index 0. Not modified.
+    * @param previous Previous frame of the same size for the motion score, or null.
+    */
+   public FrameStatistics analyze(ByteBuffer pixels, ByteBuffer previous, int width, int height,
+                                  long timestamp) {
+      if (pixels.capacity() < width * height * 4) {
+         throw new IllegalArgumentException("Buffer too small for " + width + "x" + height);
+      }
+      if (previous != null && previous.capacity() < width * height * 4) {
+         previous = null;
+      }
+      //Pixels are read as ints, RGBA from the high byte whatever order the caller's views use
+      pixels = pixels.duplicate().order(ByteOrder.BIG_ENDIAN);
+      if (previous != null) {
+         previous = previous.duplicate().order(ByteOrder.BIG_ENDIAN);
+      }
+      TileTask task = new TileTask(pixels, previous, width, 0, height, tileRows);
+      //Already on a pool worker (an analysis stage task): fork into that pool directly
+      Tile total = ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+
+      long count = (long) width * height;
+      double mean = count == 0 ? 0 : (double) total.lumaSum / count;
+      double variance = count == 0 ? 0 : (double) total.lumaSquares / count - mean * mean;
+      double motion = previous == null || count == 0 ? -1 : total.differenceSum / (255.0 * count);
+      return new FrameStatistics(timestamp, count, total.histogram, mean,
+         Math.sqrt(Math.max(0, variance)), motion);
+   }
+
+   /**
+    * Partial statistics of a band of rows.
+    */
+   static final class Tile {
+      final int[] histogram = new int[FrameStatistics.HISTOGRAM_BINS];
+      long lumaSum;
+      long lumaSquares;
+      long differenceSum;
+
+      void merge(Tile other) {
+         for (int i = 0; i < histogram.length; i++) {
+            histogram[i] += other.histogram[i];
+         }
+         lumaSum += other.lumaSum;
+         lumaSquares += other.lumaSquares;
+         differenceSum += other.differenceSum;
+      }
+   }
+
+   /**
+    * Analyzes a tile, which is a band of full rows rather than a 2D block: rows are contiguous
+    * in the buffer, so every task reads one sequential range. Bands taller than
+    * <code>tileRows</code> are halved into two tasks.
+    */
+   //Tasks live for one analyze call, they are never serialized
+   @SuppressWarnings("serial")
+   static final class TileTask extends RecursiveTask<Tile> {
+      private final ByteBuffer pixels;
+      private final ByteBuffer previous;
+      private final int width;
+      private final int fromRow;
+      private final int toRow;
+      private final int tileRows;
+
+      TileTask(ByteBuffer pixels, ByteBuffer previous, int width, int fromRow, int toRow,
+               int tileRows) {
+         this.pixels = pixels;
+         this.previous = previous;
+         this.width = width;
+         this.fromRow = fromRow;
+         this.toRow = toRow;
+         this.tileRows = tileRows;
+      }
+
+      @Override protected Tile compute() {
+         if (toRow - fromRow <= tileRows) {
+            return analyzeRows();
+         }
+         int middle = (fromRow + toRow) >>> 1;
+         TileTask top = new TileTask(pixels, previous, width, fromRow, middle, tileRows);
+         TileTask bottom = new TileTask(pixels, previous, width, middle, toRow, tileRows);
+         top.fork();
+         Tile result = bottom.compute();
+         result.merge(top.join());
+         return result;
+      }
+
+      private Tile analyzeRows() {
+         Tile tile = new Tile();
+         int[] histogram = tile.histogram;
+         long lumaSum = 0;
+         long lumaSquares = 0;
+         long differenceSum = 0;
+         //Absolute gets, the buffers are shared between tasks
+         int end = toRow * width * 4;
+         for (int i = fromRow * width * 4; i < end; i += 4) {
+            int luma = luma(pixels.getInt(i));
+            histogram[luma]++;
+            lumaSum += luma;
+            lumaSquares += luma * luma;
+            if (previous != null) {
+               differenceSum += Math.abs(luma - luma(previous.getInt(i)));
+            }
+         }
+         tile.lumaSum = lumaSum;
+         tile.lumaSquares = lumaSquares;
+         tile.differenceSum = differenceSum;
+         return tile;
+      }
+   }
+
+   /**
+    * BT.601 luma of a pixel read as a big endian int, RGBA from the high byte.
+    */
+   static int luma(int rgba) {
+      int r = rgba >>> 24;
+      int g = (rgba >>> 16) & 0xff;
+      int b = (rgba >>> 8) & 0xff;
+      return (77 * r + 150 * g + 29 * b) >> 8;
+   }
+}
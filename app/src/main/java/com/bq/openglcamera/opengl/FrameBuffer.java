@@ -0,0 +1,81 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted lease on a direct buffer from a {@link FrameBufferPool}.
+ * <p>
+ * A lease starts with one reference. Every consumer that keeps the buffer calls {@link #retain()}
+ * and later {@link #release()}; the buffer goes back to the pool when the last reference is
+ * released. Using the buffer after that is a bug.
+ */
+public final class FrameBuffer {
+
+   private final FrameBufferPool pool;
+   private final ByteBuffer buffer;
+   private final int bucket;
+   private final AtomicInteger references = new AtomicInteger();
+   private int size;
+
+   //Set by the pool while the lease is out, when leak tracking is enabled
+   FrameBufferPool.LeakReference leakReference;
+
+   FrameBuffer(FrameBufferPool pool, ByteBuffer buffer, int bucket) {
+      this.pool = pool;
+      this.buffer = buffer;
+      this.bucket = bucket;
+   }
+
+   /**
+    * The leased memory, with its limit set to the requested size.
+    */
+   public ByteBuffer buffer() {
+      return buffer;
+   }
+
+   /**
+    * Requested size in bytes, the underlying capacity may be larger.
+    */
+   public int size() {
+      return size;
+   }
+
+   public void retain() {
+      if (references.getAndIncrement() <= 0) {
+         references.decrementAndGet();
+         throw new IllegalStateException("Buffer already released");
+      }
+   }
+
+   public void release() {
+      int left = references.decrementAndGet();
+      if (left == 0) {
+         pool.recycle(this);
+      } else if (left < 0) {
+         throw new IllegalStateException("Buffer released too many times");
+      }
+   }
+
+   /**
+    * References held, 0 once back in the pool.
+    */
+   int references() {
+      return references.get();
+   }
+
+   int capacity() {
+      return buffer.capacity();
+   }
+
+   int bucket() {
+      return bucket;
+   }
+
+   void lease(int size) {
+      this.size = size;
+      buffer.clear();
+      buffer.limit(size);
+      references.set(1);
+   }
+}
@@ -0,0 +1,269 @@
+package com.bq.openglcamera.opengl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import timber.log.Timber;
+
+/**
+ * Pool of direct buffers for CPU side frames, so frame paths don't allocate direct memory
+ * every frame.
+ * <p>
+ * <ul>
+ * <li>Requests are rounded up to a size class: four classes per power of two, so at most
+ * 25% of a buffer is wasted.</li>
+ * <li>Each size class keeps its free buffers in a fixed array of slots updated with CAS.
+ * Acquire and release never lock or allocate once the pool is warm.</li>
+ * <li>Total direct memory is capped. When a new buffer would go over the cap, free buffers are
+ * dropped first, largest first. If that isn't enough, {@link #tryAcquire(int)} returns null
+ * and the caller is expected to drop the frame.</li>
+ * <li>With leak tracking (debug builds) a lease that becomes unreachable without being released
+ * is reported with the stack trace of its acquisition, and its memory is given back to the cap.</li>
+ * </ul>
+ */
+public class FrameBufferPool {
+
+   public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+   private static final int MIN_SHIFT = 12;
+   private static final int MIN_CLASS = 1 << MIN_SHIFT;
+   private static final int MAX_SHIFT = 30;
+   private static final int BUCKET_COUNT = (MAX_SHIFT - MIN_SHIFT) * 4 + 1;
+   private static final int SLOTS_PER_BUCKET = 8;
+
+   private final long maxBytes;
+   private final boolean trackLeaks;
+   private final AtomicReferenceArray<FrameBuffer>[] buckets;
+
+   private final AtomicLong allocatedBytes = new AtomicLong();
+   private final AtomicLong hits = new AtomicLong();
+   private final AtomicLong misses = new AtomicLong();
+   private final AtomicLong rejections = new AtomicLong();
+   private final AtomicLong leaks = new AtomicLong();
+
+   private final ReferenceQueue<FrameBuffer> leakQueue = new ReferenceQueue<>();
+   private final Set<LeakReference> outstanding =
+      Collections.newSetFromMap(new ConcurrentHashMap<LeakReference, Boolean>());
+
+   /**
+    * Pool of {@link #DEFAULT_MAX_BYTES}, tracking leaks in debug builds only.
+    */
+   public static FrameBufferPool forBuild(boolean debug) {
+      return new FrameBufferPool(DEFAULT_MAX_BYTES, debug);
+   }
+
+   /**
+    * @param maxBytes   Cap on the direct memory owned by the pool, free and leased.
+    * @param trackLeaks Report leases that are garbage collected without being released.
+    */
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   public FrameBufferPool(long maxBytes, boolean trackLeaks) {
+      this.maxBytes = maxBytes;
+      this.trackLeaks = trackLeaks;
+      this.buckets = new AtomicReferenceArray[BUCKET_COUNT];
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         buckets[i] = new AtomicReferenceArray<>(SLOTS_PER_BUCKET);
+      }
+   }
+
+   /**
+    * Lease a buffer of at least <code>size</code> bytes.
+    *
+    * @return The lease, or null if the memory cap doesn't allow it.
+    */
+   public FrameBuffer tryAcquire(int size) {
+      if (size <= 0 || size > 1 << MAX_SHIFT) {
+         throw new IllegalArgumentException("Unsupported size " + size);
+      }
+      if (trackLeaks) reclaimLeaks();
+
+      int bucket = bucketIndex(size);
+      FrameBuffer buffer = pop(bucket);
+      if (buffer != null) {
+         hits.incrementAndGet();
+      } else {
+         buffer = allocate(bucket);
+         if (buffer == null) {
+            rejections.incrementAndGet();
+            return null;
+         }
+         misses.incrementAndGet();
+      }
+      buffer.lease(size);
+      if (trackLeaks) {
+         buffer.leakReference = new LeakReference(buffer, leakQueue);
+         outstanding.add(buffer.leakReference);
+      }
+      return buffer;
+   }
+
+   /**
+    * Drop every free buffer.
+    */
+   public void trim() {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         FrameBuffer buffer;
+         while ((buffer = pop(i)) != null) {
+            allocatedBytes.addAndGet(-buffer.capacity());
+         }
+      }
+   }
+
+   /**
+    * Report leaked leases now instead of on the next acquire.
+    *
+    * @return Total leaks found so far.
+    */
+   public long checkLeaks() {
+      reclaimLeaks();
+      return leaks.get();
+   }
+
+   public long getMaxBytes() {
+      return maxBytes;
+   }
+
+   public long getAllocatedBytes() {
+      return allocatedBytes.get();
+   }
+
+   /**
+    * Acquires served by a pooled buffer.
+    */
+   public long getHitCount() {
+      return hits.get();
+   }
+
+   /**
+    * Acquires that had to allocate.
+    */
+   public long getMissCount() {
+      return misses.get();
+   }
+
+   /**
+    * Acquires refused because of the memory cap.
+    */
+   public long getRejectedCount() {
+      return rejections.get();
+   }
+
+   public long getLeakCount() {
+      return leaks.get();
+   }
+
+   void recycle(FrameBuffer buffer) {
+      if (buffer.leakReference != null) {
+         outstanding.remove(buffer.leakReference);
+         buffer.leakReference.clear();
+         buffer.leakReference = null;
+      }
+      if (!push(buffer)) {
+         //Bucket full, let this one go
+         allocatedBytes.addAndGet(-buffer.capacity());
+      }
+   }
+
+   private FrameBuffer allocate(int bucket) {
+      int capacity = bucketCapacity(bucket);
+      if (!reserve(capacity) && !makeRoom(capacity)) {
+         return null;
+      }
+      ByteBuffer memory = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+      return new FrameBuffer(this, memory, bucket);
+   }
+
+   /**
+    * Drop free buffers, largest first, until <code>bytes</code> can be reserved.
+    */
+   private boolean makeRoom(int bytes) {
+      for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+         FrameBuffer free;
+         while ((free = pop(i)) != null) {
+            allocatedBytes.addAndGet(-free.capacity());
+            if (reserve(bytes)) return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Account for <code>bytes</code> more, if it fits under the cap.
+    */
+   private boolean reserve(int bytes) {
+      while (true) {
+         long current = allocatedBytes.get();
+         if (current + bytes > maxBytes) return false;
+         if (allocatedBytes.compareAndSet(current, current + bytes)) return true;
+      }
+   }
+
+   private FrameBuffer pop(int bucket) {
+      AtomicReferenceArray<FrameBuffer> slots = buckets[bucket];
+      for (int i = 0; i < SLOTS_PER_BUCKET; i++) {
+         FrameBuffer buffer = slots.get(i);
+         if (buffer != null && slots.compareAndSet(i, buffer, null)) {
+            return buffer;
+         }
+      }
+      return null;
+   }
+
+   private boolean push(FrameBuffer buffer) {
+      AtomicReferenceArray<FrameBuffer> slots = buckets[buffer.bucket()];
+      for (int i = 0; i < SLOTS_PER_BUCKET; i++) {
+         if (slots.get(i) == null && slots.compareAndSet(i, null, buffer)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void reclaimLeaks() {
+      LeakReference leak;
+      while ((leak = (LeakReference) leakQueue.poll()) != null) {
+         if (outstanding.remove(leak)) {
+            leaks.incrementAndGet();
+            allocatedBytes.addAndGet(-leak.capacity);
+            Timber.e(leak.acquiredAt, "FrameBuffer of %d bytes was never released", leak.capacity);
+         }
+      }
+   }
+
+   /**
+    * Size class for a request: 4096 and then four steps per power of two.
+    */
+   static int bucketIndex(int size) {
+      if (size <= MIN_CLASS) return 0;
+      //2^shift < size <= 2^(shift + 1)
+      int shift = 31 - Integer.numberOfLeadingZeros(size - 1);
+      int step = 1 << (shift - 2);
+      int j = (size - (1 << shift) + step - 1) / step;
+      return (shift - MIN_SHIFT) * 4 + j;
+   }
+
+   static int bucketCapacity(int bucket) {
+      if (bucket == 0) return MIN_CLASS;
+      int shift = (bucket - 1) / 4 + MIN_SHIFT;
+      int j = (bucket - 1) % 4 + 1;
+      return (1 << shift) + j * (1 << (shift - 2));
+   }
+
+   static final class LeakReference extends PhantomReference<FrameBuffer> {
+      final int capacity;
+      final Throwable acquiredAt;
+
+      LeakReference(FrameBuffer buffer, ReferenceQueue<FrameBuffer> queue) {
+         super(buffer, queue);
+         this.capacity = buffer.capacity();
+         this.acquiredAt = new Throwable("Acquired here");
+      }
+   }
+}
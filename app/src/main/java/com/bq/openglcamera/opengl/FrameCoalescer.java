@@ -0,0 +1,96 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses frame available signals so at most one render is queued at any time.
+ * <p>
+ * {@link #onFrameAvailable()} may be called from any thread and tells the caller whether a
+ * render has to be scheduled. The render calls {@link #beginRender()} before latching the
+ * newest image, every signal received since the previous render but one counts as skipped.
+ * Independent of Android so it can be driven by a fake {@link Clock}.
+ */
+final class FrameCoalescer {
+
+   private final Clock clock;
+   private final AtomicBoolean pending = new AtomicBoolean();
+   private final AtomicLong framesAvailable = new AtomicLong();
+   private final AtomicLong framesRendered = new AtomicLong();
+   private final AtomicLong framesSkipped = new AtomicLong();
+   private volatile long pendingSince;
+   private volatile long lastQueueDelay;
+   private volatile long maxQueueDelay;
+
+   //Render thread only
+   private long signalsAtLastRender;
+
+   FrameCoalescer(Clock clock) {
+      this.clock = clock;
+   }
+
+   /**
+    * A new image is available.
+    *
+    * @return True if no render is pending and the caller has to schedule one.
+    */
+   boolean onFrameAvailable() {
+      framesAvailable.incrementAndGet();
+      if (pending.compareAndSet(false, true)) {
+         pendingSince = clock.nanoTime();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * The scheduled render starts, call before latching the image.
+    *
+    * @return Number of images that were replaced by a newer one before they could be rendered.
+    */
+   long beginRender() {
+      //Clear first: a frame arriving from now on schedules a new render
+      pending.set(false);
+      long delay = clock.nanoTime() - pendingSince;
+      lastQueueDelay = delay;
+      if (delay > maxQueueDelay) maxQueueDelay = delay;
+
+      long signals = framesAvailable.get();
+      long skipped = Math.max(0, signals - signalsAtLastRender - 1);
+      signalsAtLastRender = signals;
+      framesSkipped.addAndGet(skipped);
+      framesRendered.incrementAndGet();
+      return skipped;
+   }
+
+   /**
+    * The scheduled render is dropped, with nowhere to show it. Every signal since the previous
+    * render counts as skipped.
+    */
+   void skipRender() {
+      pending.set(false);
+      long signals = framesAvailable.get();
+      framesSkipped.addAndGet(signals - signalsAtLastRender);
+      signalsAtLastRender = signals;
+   }
+
+   /**
+    * Time the last render waited between being scheduled and starting.
+    */
+   long lastQueueDelay() {
+      return lastQueueDelay;
+   }
+
+   /**
+    * Forget the pending render, used when the render thread goes away with a render queued.
+    */
+   void reset() {
+      pending.set(false);
+      signalsAtLastRender = framesAvailable.get();
+   }
+
+   FrameStats stats() {
+      return new FrameStats(framesAvailable.get(), framesRendered.get(), framesSkipped.get(),
+         lastQueueDelay, maxQueueDelay);
+   }
+}
@@ -0,0 +1,48 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Picks the vsyncs to render on so frames are presented at a target rate.
+ * <p>
+ * A vsync is used when at least the target interval, minus some slack for vsync jitter, has
+ * passed since the last render. Without a target rate every vsync is used. Pure logic, time is
+ * given by the caller. The target rate can be changed from any thread, the rest is for the
+ * thread driving the vsyncs.
+ */
+final class FramePacer {
+
+   //Fraction of the interval a vsync may come early and still be used
+   private static final int SLACK_DIVISOR = 8;
+
+   private volatile long intervalNanos;
+   private long lastRenderNanos;
+   private boolean rendered;
+
+   /**
+    * @param framesPerSecond Target rate, 0 or less to render on every vsync.
+    */
+   void setTargetFrameRate(float framesPerSecond) {
+      intervalNanos = framesPerSecond > 0 ? (long) (1e9 / framesPerSecond) : 0;
+   }
+
+   /**
+    * A vsync with a frame waiting.
+    *
+    * @return True to render on this vsync, false to wait for a later one.
+    */
+   boolean onVsync(long frameTimeNanos) {
+      long interval = intervalNanos;
+      if (interval > 0 && rendered) {
+         long elapsed = frameTimeNanos - lastRenderNanos;
+         if (elapsed < interval - interval / SLACK_DIVISOR) {
+            return false;
+         }
+      }
+      lastRenderNanos = frameTimeNanos;
+      rendered = true;
+      return true;
+   }
+
+   void reset() {
+      rendered = false;
+   }
+}
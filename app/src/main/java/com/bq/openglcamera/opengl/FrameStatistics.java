@@ -0,0 +1,93 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Luminance and motion statistics of one frame, computed by a {@link FrameAnalyzer}.
+ */
+public final class FrameStatistics {
+
+   public static final int HISTOGRAM_BINS = 256;
+   //Bins at the ends of the histogram counted as under / over exposed
+   private static final int CLIPPED_BINS = 8;
+
+   private final long timestamp;
+   private final long pixelCount;
+   private final int[] histogram;
+   private final double meanLuma;
+   private final double lumaStdDev;
+   private final double motionScore;
+
+   FrameStatistics(long timestamp, long pixelCount, int[] histogram, double meanLuma,
+                   double lumaStdDev, double motionScore) {
+      this.timestamp = timestamp;
+      this.pixelCount = pixelCount;
+      this.histogram = histogram;
+      this.meanLuma = meanLuma;
+      this.lumaStdDev = lumaStdDev;
+      this.motionScore = motionScore;
+   }
+
+   /**
+    * Camera timestamp of the frame, in nanoseconds.
+    */
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   public long getPixelCount() {
+      return pixelCount;
+   }
+
+   /**
+    * Number of pixels per luma value, 0 to 255. A copy.
+    */
+   public int[] getHistogram() {
+      return histogram.clone();
+   }
+
+   /**
+    * Average luma, 0 to 255.
+    */
+   public double getMeanLuma() {
+      return meanLuma;
+   }
+
+   public double getLumaStdDev() {
+      return lumaStdDev;
+   }
+
+   /**
+    * Fraction of pixels in the darkest bins of the histogram.
+    */
+   public double getUnderexposedFraction() {
+      return fraction(0, CLIPPED_BINS);
+   }
+
+   /**
+    * Fraction of pixels in the brightest bins of the histogram.
+    */
+   public double getOverexposedFraction() {
+      return fraction(HISTOGRAM_BINS - CLIPPED_BINS, HISTOGRAM_BINS);
+   }
+
+   /**
+    * Mean absolute luma difference with the previous analyzed frame, 0 (static) to 1, or -1
+    * when there was no previous frame of the same size.
+    */
+   public double getMotionScore() {
+      return motionScore;
+   }
+
+   private double fraction(int fromBin, int toBin) {
+      if (pixelCount == 0) return 0;
+      long count = 0;
+      for (int i = fromBin; i < toBin; i++) {
+         count += histogram[i];
+      }
+      return (double) count / pixelCount;
+   }
+
+   @Override public String toString() {
+      return String.format("FrameStatistics{mean=%.1f, stdDev=%.1f, under=%.3f, over=%.3f, motion=%.3f}",
+         meanLuma, lumaStdDev, getUnderexposedFraction(), getOverexposedFraction(), motionScore);
+   }
+}
@@ -0,0 +1,59 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Snapshot of the frame counters of a {@link TextureViewGLWrapper}.
+ */
+public final class FrameStats {
+
+   private final long framesAvailable;
+   private final long framesRendered;
+   private final long framesSkipped;
+   private final long lastQueueDelayNanos;
+   private final long maxQueueDelayNanos;
+
+   FrameStats(long framesAvailable, long framesRendered, long framesSkipped,
+              long lastQueueDelayNanos, long maxQueueDelayNanos) {
+      this.framesAvailable = framesAvailable;
+      this.framesRendered = framesRendered;
+      this.framesSkipped = framesSkipped;
+      this.lastQueueDelayNanos = lastQueueDelayNanos;
+      this.maxQueueDelayNanos = maxQueueDelayNanos;
+   }
+
+   /**
+    * Frame available callbacks received from the camera.
+    */
+   public long getFramesAvailable() {
+      return framesAvailable;
+   }
+
+   public long getFramesRendered() {
+      return framesRendered;
+   }
+
+   /**
+    * Images replaced by a newer one before they could be rendered.
+    */
+   public long getFramesSkipped() {
+      return framesSkipped;
+   }
+
+   /**
+    * Time the last render waited in the render thread queue.
+    */
+   public long getLastQueueDelayNanos() {
+      return lastQueueDelayNanos;
+   }
+
+   public long getMaxQueueDelayNanos() {
+      return maxQueueDelayNanos;
+   }
+
+   @Override public String toString() {
+      return "FrameStats{available=" + framesAvailable
+         + ", rendered=" + framesRendered
+         + ", skipped=" + framesSkipped
+         + ", lastQueueDelay=" + lastQueueDelayNanos / 1000 + "us"
+         + ", maxQueueDelay=" + maxQueueDelayNanos / 1000 + "us}";
+   }
+}
@@ -0,0 +1,192 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * The GLES entry points used by this package.
+ * <p>
+ * Every GL call made by the renderers goes through a backend so calls can be filtered
+ * (see {@link StateCachingGlBackend}) or replaced by a fake when running on a plain JVM.
+ * Method names and arguments mirror {@link android.opengl.GLES20}.
+ */
+public interface GlBackend {
+
+   //State
+   void glUseProgram(int program);
+
+   void glViewport(int x, int y, int width, int height);
+
+   void glClearColor(float red, float green, float blue, float alpha);
+
+   void glClear(int mask);
+
+   void glActiveTexture(int texture);
+
+   void glEnable(int capability);
+
+   void glDisable(int capability);
+
+   int glGetError();
+
+   String glGetString(int name);
+
+   void glGetIntegerv(int name, int[] params, int offset);
+
+   /**
+    * Block until every command issued so far has completed.
+    */
+   void glFinish();
+
+   //Uniforms and attributes
+   int glGetUniformLocation(int program, String name);
+
+   int glGetAttribLocation(int program, String name);
+
+   void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+   void glUniform1i(int location, int x);
+
+   void glUniform1fv(int location, int count, float[] value, int offset);
+
+   void glUniform2fv(int location, int count, float[] value, int offset);
+
+   void glUniform3fv(int location, int count, float[] value, int offset);
+
+   void glUniform4fv(int location, int count, float[] value, int offset);
+
+   void glEnableVertexAttribArray(int index);
+
+   void glDisableVertexAttribArray(int index);
+
+   void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer buffer);
+
+   /**
+    * Attribute sourced from the buffer bound to GL_ARRAY_BUFFER, starting at <code>offset</code>.
+    */
+   void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+   //Buffers
+   void glGenBuffers(int n, int[] buffers, int offset);
+
+   void glDeleteBuffers(int n, int[] buffers, int offset);
+
+   void glBindBuffer(int target, int buffer);
+
+   void glBufferData(int target, int size, Buffer data, int usage);
+
+   /**
+    * ES3 only.
+    */
+   void glGenVertexArrays(int n, int[] arrays, int offset);
+
+   /**
+    * ES3 only.
+    */
+   void glDeleteVertexArrays(int n, int[] arrays, int offset);
+
+   /**
+    * ES3 only.
+    */
+   void glBindVertexArray(int array);
+
+   //Drawing
+   void glDrawElements(int mode, int count, int type, Buffer indices);
+
+   /**
+    * Indices sourced from the buffer bound to GL_ELEMENT_ARRAY_BUFFER, starting at <code>offset</code>.
+    */
+   void glDrawElements(int mode, int count, int type, int offset);
+
+   void glDrawArrays(int mode, int first, int count);
+
+   //Shaders and programs
+   int glCreateShader(int type);
+
+   void glShaderSource(int shader, String source);
+
+   void glCompileShader(int shader);
+
+   void glGetShaderiv(int shader, int name, int[] params, int offset);
+
+   String glGetShaderInfoLog(int shader);
+
+   void glDeleteShader(int shader);
+
+   int glCreateProgram();
+
+   void glAttachShader(int program, int shader);
+
+   void glLinkProgram(int program);
+
+   void glGetProgramiv(int program, int name, int[] params, int offset);
+
+   String glGetProgramInfoLog(int program);
+
+   void glDeleteProgram(int program);
+
+   //Textures
+   void glGenTextures(int n, int[] textures, int offset);
+
+   void glDeleteTextures(int n, int[] textures, int offset);
+
+   void glBindTexture(int target, int texture);
+
+   void glTexParameteri(int target, int name, int param);
+
+   void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+                     int border, int format, int type, Buffer pixels);
+
+   /**
+    * ES3 only.
+    */
+   void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth,
+                     int border, int format, int type, Buffer pixels);
+
+   //Framebuffers
+   void glGenFramebuffers(int n, int[] framebuffers, int offset);
+
+   void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+
+   void glBindFramebuffer(int target, int framebuffer);
+
+   void glFramebufferTexture2D(int target, int attachment, int textureTarget, int texture, int level);
+
+   int glCheckFramebufferStatus(int target);
+
+   //Program binaries (ES3 only)
+   void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                           int[] binaryFormat, int binaryFormatOffset, Buffer binary);
+
+   void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+
+   //Pixel transfer
+   void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels);
+
+   /**
+    * Read into the buffer bound to GL_PIXEL_PACK_BUFFER, starting at <code>offset</code>. ES3 only.
+    */
+   void glReadPixels(int x, int y, int width, int height, int format, int type, int offset);
+
+   /**
+    * ES3 only.
+    */
+   Buffer glMapBufferRange(int target, int offset, int length, int access);
+
+   /**
+    * ES3 only.
+    */
+   boolean glUnmapBuffer(int target);
+
+   //Debug output (KHR_debug)
+   /**
+    * Take up to <code>count</code> messages out of the debug message log. Their texts go
+    * one after the other into <code>messageLog</code>, each with its terminating zero counted
+    * in its length.
+    *
+    * @return The number of messages taken.
+    */
+   int glGetDebugMessageLogKHR(int count, int bufSize, int[] sources, int sourcesOffset,
+                               int[] types, int typesOffset, int[] ids, int idsOffset,
+                               int[] severities, int severitiesOffset, int[] lengths,
+                               int lengthsOffset, byte[] messageLog, int messageLogOffset);
+}
@@ -0,0 +1,108 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * The calls a {@link GlCapture} records, in {@link GlBackend} order followed by the EGL calls
+ * and frame markers. The opcode in the log is the ordinal plus one, 0 marks the end.
+ * <p>
+ * The signature lists the recorded fields, arguments then result: <code>i</code> int,
+ * <code>l</code> long, <code>f</code> float, <code>z</code> boolean, <code>s</code> string,
+ * <code>I</code> int array, <code>F</code> float array and <code>b</code> the size of a buffer
+ * (its content is not recorded). Array arguments are recorded as the elements the call reads or
+ * writes, without their offset; array lengths passed alongside (<code>n</code>) are implied.
+ */
+public enum GlCall {
+   USE_PROGRAM("glUseProgram", "i"),
+   VIEWPORT("glViewport", "iiii"),
+   CLEAR_COLOR("glClearColor", "ffff"),
+   CLEAR("glClear", "i"),
+   ACTIVE_TEXTURE("glActiveTexture", "i"),
+   ENABLE("glEnable", "i"),
+   DISABLE("glDisable", "i"),
+   GET_ERROR("glGetError", "i"),
+   GET_STRING("glGetString", "is"),
+   GET_INTEGERV("glGetIntegerv", "iI"),
+   FINISH("glFinish", ""),
+   GET_UNIFORM_LOCATION("glGetUniformLocation", "isi"),
+   GET_ATTRIB_LOCATION("glGetAttribLocation", "isi"),
+   UNIFORM_MATRIX4FV("glUniformMatrix4fv", "iizF"),
+   UNIFORM1I("glUniform1i", "ii"),
+   UNIFORM1FV("glUniform1fv", "iiF"),
+   UNIFORM2FV("glUniform2fv", "iiF"),
+   UNIFORM3FV("glUniform3fv", "iiF"),
+   UNIFORM4FV("glUniform4fv", "iiF"),
+   ENABLE_VERTEX_ATTRIB_ARRAY("glEnableVertexAttribArray", "i"),
+   DISABLE_VERTEX_ATTRIB_ARRAY("glDisableVertexAttribArray", "i"),
+   VERTEX_ATTRIB_POINTER("glVertexAttribPointer", "iiizib"),
+   VERTEX_ATTRIB_POINTER_OFFSET("glVertexAttribPointer", "iiizii"),
+   GEN_BUFFERS("glGenBuffers", "I"),
+   DELETE_BUFFERS("glDeleteBuffers", "I"),
+   BIND_BUFFER("glBindBuffer", "ii"),
+   BUFFER_DATA("glBufferData", "iibi"),
+   GEN_VERTEX_ARRAYS("glGenVertexArrays", "I"),
+   DELETE_VERTEX_ARRAYS("glDeleteVertexArrays", "I"),
+   BIND_VERTEX_ARRAY("glBindVertexArray", "i"),
+   DRAW_ELEMENTS("glDrawElements", "iiib"),
+   DRAW_ELEMENTS_OFFSET("glDrawElements", "iiii"),
+   DRAW_ARRAYS("glDrawArrays", "iii"),
+   CREATE_SHADER("glCreateShader", "ii"),
+   SHADER_SOURCE("glShaderSource", "is"),
+   COMPILE_SHADER("glCompileShader", "i"),
+   GET_SHADERIV("glGetShaderiv", "iiI"),
+   GET_SHADER_INFO_LOG("glGetShaderInfoLog", "is"),
+   DELETE_SHADER("glDeleteShader", "i"),
+   CREATE_PROGRAM("glCreateProgram", "i"),
+   ATTACH_SHADER("glAttachShader", "ii"),
+   LINK_PROGRAM("glLinkProgram", "i"),
+   GET_PROGRAMIV("glGetProgramiv", "iiI"),
+   GET_PROGRAM_INFO_LOG("glGetProgramInfoLog", "is"),
+   DELETE_PROGRAM("glDeleteProgram", "i"),
+   GEN_TEXTURES("glGenTextures", "I"),
+   DELETE_TEXTURES("glDeleteTextures", "I"),
+   BIND_TEXTURE("glBindTexture", "ii"),
+   TEX_PARAMETERI("glTexParameteri", "iii"),
+   TEX_IMAGE_2D("glTexImage2D", "iiiiiiiib"),
+   TEX_IMAGE_3D("glTexImage3D", "iiiiiiiiib"),
+   GEN_FRAMEBUFFERS("glGenFramebuffers", "I"),
+   DELETE_FRAMEBUFFERS("glDeleteFramebuffers", "I"),
+   BIND_FRAMEBUFFER("glBindFramebuffer", "ii"),
+   FRAMEBUFFER_TEXTURE_2D("glFramebufferTexture2D", "iiiii"),
+   CHECK_FRAMEBUFFER_STATUS("glCheckFramebufferStatus", "ii"),
+   GET_PROGRAM_BINARY("glGetProgramBinary", "iiIIb"),
+   PROGRAM_BINARY("glProgramBinary", "iibi"),
+   READ_PIXELS("glReadPixels", "iiiiiib"),
+   READ_PIXELS_OFFSET("glReadPixels", "iiiiiii"),
+   MAP_BUFFER_RANGE("glMapBufferRange", "iiiib"),
+   UNMAP_BUFFER("glUnmapBuffer", "iz"),
+   /** Surface id, 0 for the window, and success. */
+   EGL_MAKE_CURRENT("eglMakeCurrent", "iz"),
+   /** Surface id, 0 for the window, and success. */
+   EGL_SWAP_BUFFERS("eglSwapBuffers", "iz"),
+   /** End of a frame, with its frame time. */
+   FRAME("frame", "l");
+
+   private static final GlCall[] CALLS = values();
+
+   private final String function;
+   private final String signature;
+
+   GlCall(String function, String signature) {
+      this.function = function;
+      this.signature = signature;
+   }
+
+   public String getFunction() {
+      return function;
+   }
+
+   String getSignature() {
+      return signature;
+   }
+
+   int opcode() {
+      return ordinal() + 1;
+   }
+
+   static GlCall fromOpcode(int opcode) {
+      return opcode > 0 && opcode <= CALLS.length ? CALLS[opcode - 1] : null;
+   }
+}
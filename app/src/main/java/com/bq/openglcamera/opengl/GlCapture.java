@@ -0,0 +1,264 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Binary log of the GL and EGL calls of the render loop, with their arguments and CPU time,
+ * for {@link GlCaptureReport} to analyze offline.
+ * <p>
+ * Renderers are captured by giving them a {@link CapturingGlBackend} over their usual backend,
+ * under any {@link StateCachingGlBackend} so only the calls reaching the driver are logged. EGL
+ * calls and frame ends come from {@link TextureViewGLWrapper#setCapture(GlCapture)}.
+ * <p>
+ * The log is written straight into a memory mapped file of fixed size: recording a call is a
+ * few stores, the kernel writes the pages back on its own, and a crash loses nothing already
+ * recorded. Once the file is full further calls are dropped. Calls are recorded from one thread,
+ * the one the context is current on.
+ * <p>
+ * Format, little endian: the magic <code>GLCP</code>, a version int and the start time as a
+ * long, then records of an opcode byte (see {@link GlCall}), the start time relative to the
+ * previous record, the CPU duration and the fields of the call's signature. Ints and longs are
+ * zigzag varints, floats 4 bytes, strings and arrays are prefixed by their length.
+ */
+public final class GlCapture implements Closeable {
+
+   static final int MAGIC = 0x50434c47; //"GLCP"
+   //2: glEnable and glDisable
+   static final int VERSION = 2;
+   static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   private final Clock clock;
+   private final RandomAccessFile file;
+   private final MappedByteBuffer buffer;
+   private volatile boolean stopped;
+
+   //Recording thread only
+   private long previousStart;
+   private int recordStart;
+   private boolean overflow;
+   private long recordedCalls;
+   private long droppedCalls;
+
+   private GlCapture(Clock clock, RandomAccessFile file, MappedByteBuffer buffer) {
+      this.clock = clock;
+      this.file = file;
+      this.buffer = buffer;
+   }
+
+   /**
+    * Start a capture, replacing the file.
+    *
+    * @param capacityBytes Size of the mapping. The file is cut to what was used on close.
+    */
+   public static GlCapture open(File file, int capacityBytes) throws IOException {
+      return open(file, capacityBytes, Clock.SYSTEM);
+   }
+
+   static GlCapture open(File file, int capacityBytes, Clock clock) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         raf.setLength(0);
+         raf.setLength(capacityBytes);
+         MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+         buffer.order(ByteOrder.LITTLE_ENDIAN);
+         GlCapture capture = new GlCapture(clock, raf, buffer);
+         long now = clock.nanoTime();
+         buffer.putInt(MAGIC);
+         buffer.putInt(VERSION);
+         buffer.putLong(now);
+         capture.previousStart = now;
+         return capture;
+      } catch (IOException | RuntimeException e) {
+         raf.close();
+         throw e;
+      }
+   }
+
+   /**
+    * Stop recording, from any thread. Calls in progress still complete.
+    */
+   public void stop() {
+      stopped = true;
+   }
+
+   public boolean isRecording() {
+      return !stopped && !overflow;
+   }
+
+   /**
+    * Calls recorded so far. Recording thread only.
+    */
+   public long getRecordedCalls() {
+      return recordedCalls;
+   }
+
+   /**
+    * Calls that didn't fit in the file. Recording thread only.
+    */
+   public long getDroppedCalls() {
+      return droppedCalls;
+   }
+
+   /**
+    * Bytes of log written. Recording thread only.
+    */
+   public int getUsedBytes() {
+      return buffer.position();
+   }
+
+   /**
+    * Stop and cut the file to the recorded length. Call it on the recording thread, or once that
+    * thread stopped issuing calls.
+    */
+   @Override public void close() throws IOException {
+      stopped = true;
+      try {
+         file.getChannel().truncate(buffer.position());
+      } finally {
+         file.close();
+      }
+   }
+
+   /**
+    * Start time of a call, taken before issuing it.
+    */
+   long start() {
+      return clock.nanoTime();
+   }
+
+   /**
+    * Start the record of a call issued at <code>startNanos</code> that just returned. Put its
+    * fields and {@link #end()} it if this returns true.
+    */
+   boolean begin(GlCall call, long startNanos) {
+      if (stopped) return false;
+      if (overflow) {
+         droppedCalls++;
+         return false;
+      }
+      long now = clock.nanoTime();
+      recordStart = buffer.position();
+      if (buffer.remaining() < 1) {
+         overflow = true;
+         droppedCalls++;
+         return false;
+      }
+      buffer.put((byte) call.opcode());
+      putLong(startNanos - previousStart);
+      putLong(now - startNanos);
+      previousStart = startNanos;
+      return true;
+   }
+
+   void end() {
+      if (overflow) {
+         //Partial record, leave the end marker in its place
+         buffer.position(recordStart);
+         buffer.put(recordStart, (byte) 0);
+         droppedCalls++;
+         return;
+      }
+      recordedCalls++;
+   }
+
+   void putInt(int value) {
+      putLong(value);
+   }
+
+   void putLong(long value) {
+      long zigzag = (value << 1) ^ (value >> 63);
+      while (true) {
+         if (overflow || !buffer.hasRemaining()) {
+            overflow = true;
+            return;
+         }
+         if ((zigzag & ~0x7fL) == 0) {
+            buffer.put((byte) zigzag);
+            return;
+         }
+         buffer.put((byte) ((zigzag & 0x7f) | 0x80));
+         zigzag >>>= 7;
+      }
+   }
+
+   void putFloat(float value) {
+      if (!ensure(4)) return;
+      buffer.putFloat(value);
+   }
+
+   void putBoolean(boolean value) {
+      if (!ensure(1)) return;
+      buffer.put((byte) (value ? 1 : 0));
+   }
+
+   void putString(String value) {
+      if (value == null) {
+         putInt(-1);
+         return;
+      }
+      byte[] bytes = value.getBytes(UTF_8);
+      putInt(bytes.length);
+      if (!ensure(bytes.length)) return;
+      buffer.put(bytes);
+   }
+
+   /**
+    * Size of the buffer's remaining content, -1 for null.
+    */
+   void putBuffer(Buffer value) {
+      putInt(value == null ? -1 : value.remaining());
+   }
+
+   void putInts(int[] values, int offset, int count) {
+      putInt(count);
+      for (int i = 0; i < count; i++) {
+         putInt(values[offset + i]);
+      }
+   }
+
+   void putFloats(float[] values, int offset, int count) {
+      putInt(count);
+      if (!ensure(4 * count)) return;
+      for (int i = 0; i < count; i++) {
+         buffer.putFloat(values[offset + i]);
+      }
+   }
+
+   /**
+    * A frame was presented, at the end of the render loop.
+    */
+   void frame(long frameTimeNanos) {
+      long start = start();
+      if (begin(GlCall.FRAME, start)) {
+         putLong(frameTimeNanos);
+         end();
+      }
+   }
+
+   /**
+    * An EGL call that returned, see {@link GlCall#EGL_MAKE_CURRENT}.
+    */
+   void egl(GlCall call, long startNanos, int surfaceId, boolean success) {
+      if (begin(call, startNanos)) {
+         putInt(surfaceId);
+         putBoolean(success);
+         end();
+      }
+   }
+
+   private boolean ensure(int bytes) {
+      if (overflow || buffer.remaining() < bytes) {
+         overflow = true;
+         return false;
+      }
+      return true;
+   }
+}
@@ -0,0 +1,188 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back the records of a {@link GlCapture} log, one at a time.
+ */
+public final class GlCaptureReader implements Closeable {
+
+   private final RandomAccessFile file;
+   private final MappedByteBuffer buffer;
+   private final long startNanos;
+   private long previousStart;
+   private boolean truncated;
+
+   private GlCaptureReader(RandomAccessFile file, MappedByteBuffer buffer) throws IOException {
+      this.file = file;
+      this.buffer = buffer;
+      if (buffer.remaining() < 16 || buffer.getInt() != GlCapture.MAGIC) {
+         throw new IOException("Not a GL capture");
+      }
+      int version = buffer.getInt();
+      if (version != GlCapture.VERSION) {
+         throw new IOException("Unsupported capture version " + version);
+      }
+      startNanos = buffer.getLong();
+      previousStart = startNanos;
+   }
+
+   public static GlCaptureReader open(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+         buffer.order(ByteOrder.LITTLE_ENDIAN);
+         return new GlCaptureReader(raf, buffer);
+      } catch (IOException | RuntimeException e) {
+         raf.close();
+         throw e;
+      }
+   }
+
+   /**
+    * Time the capture started, in the recording device's {@link System#nanoTime()} base.
+    */
+   public long getStartNanos() {
+      return startNanos;
+   }
+
+   /**
+    * True if the log ended in the middle of a record, as when the app died while writing it.
+    */
+   public boolean isTruncated() {
+      return truncated;
+   }
+
+   /**
+    * @return The next record, or null at the end of the log.
+    * @throws IOException On an unknown opcode.
+    */
+   public Record next() throws IOException {
+      if (!buffer.hasRemaining()) return null;
+      int position = buffer.position();
+      int opcode = buffer.get() & 0xff;
+      if (opcode == 0) return null;
+      GlCall call = GlCall.fromOpcode(opcode);
+      if (call == null) {
+         throw new IOException("Unknown opcode " + opcode + " at " + position);
+      }
+      try {
+         long start = previousStart + getLong();
+         long duration = getLong();
+         String signature = call.getSignature();
+         Object[] fields = new Object[signature.length()];
+         for (int i = 0; i < fields.length; i++) {
+            fields[i] = getField(signature.charAt(i));
+         }
+         previousStart = start;
+         return new Record(call, start, duration, fields);
+      } catch (BufferUnderflowException e) {
+         truncated = true;
+         return null;
+      }
+   }
+
+   @Override public void close() throws IOException {
+      file.close();
+   }
+
+   private Object getField(char type) {
+      switch (type) {
+         case 'i':
+         case 'b':
+            return (int) getLong();
+         case 'l':
+            return getLong();
+         case 'f':
+            return buffer.getFloat();
+         case 'z':
+            return buffer.get() != 0;
+         case 's': {
+            int length = (int) getLong();
+            if (length < 0) return null;
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, GlCapture.UTF_8);
+         }
+         case 'I': {
+            int[] values = new int[(int) getLong()];
+            for (int i = 0; i < values.length; i++) {
+               values[i] = (int) getLong();
+            }
+            return values;
+         }
+         case 'F': {
+            float[] values = new float[(int) getLong()];
+            for (int i = 0; i < values.length; i++) {
+               values[i] = buffer.getFloat();
+            }
+            return values;
+         }
+         default:
+            throw new IllegalStateException("Unknown field type " + type);
+      }
+   }
+
+   private long getLong() {
+      long zigzag = 0;
+      int shift = 0;
+      while (true) {
+         byte b = buffer.get();
+         zigzag |= (long) (b & 0x7f) << shift;
+         if ((b & 0x80) == 0) break;
+         shift += 7;
+      }
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+   }
+
+   /**
+    * One recorded call.
+    */
+   public static final class Record {
+      private final GlCall call;
+      private final long startNanos;
+      private final long durationNanos;
+      private final Object[] fields;
+
+      Record(GlCall call, long startNanos, long durationNanos, Object[] fields) {
+         this.call = call;
+         this.startNanos = startNanos;
+         this.durationNanos = durationNanos;
+         this.fields = fields;
+      }
+
+      public GlCall getCall() {
+         return call;
+      }
+
+      public long getStartNanos() {
+         return startNanos;
+      }
+
+      /**
+       * CPU time spent in the call.
+       */
+      public long getDurationNanos() {
+         return durationNanos;
+      }
+
+      /**
+       * A field of the call's signature: Integer, Long, Float, Boolean, String, int[] or
+       * float[]. Buffer sizes are Integers.
+       */
+      public Object getField(int index) {
+         return fields[index];
+      }
+
+      public int getFieldCount() {
+         return fields.length;
+      }
+   }
+}
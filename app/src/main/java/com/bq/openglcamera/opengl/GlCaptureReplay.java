@@ -0,0 +1,265 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Issues the calls of a capture again on a {@link GlBackend}, to reproduce a recorded stream on
+ * another backend or compare it with the calls that were made. Buffers are replaced by zeroed
+ * ones of the recorded size, EGL calls and frame markers are skipped.
+ */
+final class GlCaptureReplay {
+
+   private final GlBackend gl;
+   private ByteBuffer scratch = ByteBuffer.allocate(0);
+
+   GlCaptureReplay(GlBackend gl) {
+      this.gl = gl;
+   }
+
+   void replay(GlCaptureReader.Record record) {
+      switch (record.getCall()) {
+         case USE_PROGRAM:
+            gl.glUseProgram(intArg(record, 0));
+            break;
+         case VIEWPORT:
+            gl.glViewport(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               intArg(record, 3));
+            break;
+         case CLEAR_COLOR:
+            gl.glClearColor(floatArg(record, 0), floatArg(record, 1), floatArg(record, 2),
+               floatArg(record, 3));
+            break;
+         case CLEAR:
+            gl.glClear(intArg(record, 0));
+            break;
+         case ACTIVE_TEXTURE:
+            gl.glActiveTexture(intArg(record, 0));
+            break;
+         case ENABLE:
+            gl.glEnable(intArg(record, 0));
+            break;
+         case DISABLE:
+            gl.glDisable(intArg(record, 0));
+            break;
+         case GET_ERROR:
+            gl.glGetError();
+            break;
+         case GET_STRING:
+            gl.glGetString(intArg(record, 0));
+            break;
+         case GET_INTEGERV:
+            gl.glGetIntegerv(intArg(record, 0), ints(record, 1), 0);
+            break;
+         case FINISH:
+            gl.glFinish();
+            break;
+         case GET_UNIFORM_LOCATION:
+            gl.glGetUniformLocation(intArg(record, 0), stringArg(record, 1));
+            break;
+         case GET_ATTRIB_LOCATION:
+            gl.glGetAttribLocation(intArg(record, 0), stringArg(record, 1));
+            break;
+         case UNIFORM_MATRIX4FV:
+            gl.glUniformMatrix4fv(intArg(record, 0), intArg(record, 1), booleanArg(record, 2),
+               floats(record, 3), 0);
+            break;
+         case UNIFORM1I:
+            gl.glUniform1i(intArg(record, 0), intArg(record, 1));
+            break;
+         case UNIFORM1FV:
+            gl.glUniform1fv(intArg(record, 0), intArg(record, 1), floats(record, 2), 0);
+            break;
+         case UNIFORM2FV:
+            gl.glUniform2fv(intArg(record, 0), intArg(record, 1), floats(record, 2), 0);
+            break;
+         case UNIFORM3FV:
+            gl.glUniform3fv(intArg(record, 0), intArg(record, 1), floats(record, 2), 0);
+            break;
+         case UNIFORM4FV:
+            gl.glUniform4fv(intArg(record, 0), intArg(record, 1), floats(record, 2), 0);
+            break;
+         case ENABLE_VERTEX_ATTRIB_ARRAY:
+            gl.glEnableVertexAttribArray(intArg(record, 0));
+            break;
+         case DISABLE_VERTEX_ATTRIB_ARRAY:
+            gl.glDisableVertexAttribArray(intArg(record, 0));
+            break;
+         case VERTEX_ATTRIB_POINTER:
+            gl.glVertexAttribPointer(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               booleanArg(record, 3), intArg(record, 4), bufferArg(record, 5));
+            break;
+         case VERTEX_ATTRIB_POINTER_OFFSET:
+            gl.glVertexAttribPointer(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               booleanArg(record, 3), intArg(record, 4), intArg(record, 5));
+            break;
+         case GEN_BUFFERS:
+            gl.glGenBuffers(ints(record, 0).length, ints(record, 0), 0);
+            break;
+         case DELETE_BUFFERS:
+            gl.glDeleteBuffers(ints(record, 0).length, ints(record, 0), 0);
+            break;
+         case BIND_BUFFER:
+            gl.glBindBuffer(intArg(record, 0), intArg(record, 1));
+            break;
+         case BUFFER_DATA:
+            gl.glBufferData(intArg(record, 0), intArg(record, 1), bufferArg(record, 2),
+               intArg(record, 3));
+            break;
+         case GEN_VERTEX_ARRAYS:
+            gl.glGenVertexArrays(ints(record, 0).length, ints(record, 0), 0);
+            break;
+         case DELETE_VERTEX_ARRAYS:
+            gl.glDeleteVertexArrays(ints(record, 0).length, ints(record, 0), 0);
+            break;
+         case BIND_VERTEX_ARRAY:
+            gl.glBindVertexArray(intArg(record, 0));
+            break;
+         case DRAW_ELEMENTS:
+            gl.glDrawElements(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               bufferArg(record, 3));
+            break;
+         case DRAW_ELEMENTS_OFFSET:
+            gl.glDrawElements(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               intArg(record, 3));
+            break;
+         case DRAW_ARRAYS:
+            gl.glDrawArrays(intArg(record, 0), intArg(record, 1), intArg(record, 2));
+            break;
+         case CREATE_SHADER:
+            gl.glCreateShader(intArg(record, 0));
+            break;
+         case SHADER_SOURCE:
+            gl.glShaderSource(intArg(record, 0), stringArg(record, 1));
+            break;
+         case COMPILE_SHADER:
+            gl.glCompileShader(intArg(record, 0));
+            break;
+         case GET_SHADERIV:
+            gl.glGetShaderiv(intArg(record, 0), intArg(record, 1), ints(record, 2), 0);
+            break;
+         case GET_SHADER_INFO_LOG:
+            gl.glGetShaderInfoLog(intArg(record, 0));
+            break;
+         case DELETE_SHADER:
+            gl.glDeleteShader(intArg(record, 0));
+            break;
+         case CREATE_PROGRAM:
+            gl.glCreateProgram();
+            break;
+         case ATTACH_SHADER:
+            gl.glAttachShader(intArg(record, 0), intArg(record, 1));
+            break;
+         case LINK_PROGRAM:
+            gl.glLinkProgram(intArg(record, 0));
+            break;
+         case GET_PROGRAMIV:
+            gl.glGetProgramiv(intArg(record, 0), intArg(record, 1), ints(record, 2), 0);
+            break;
+         case GET_PROGRAM_INFO_LOG:
+            gl.glGetProgramInfoLog(intArg(record, 0));
+            break;
+         case DELETE_PROGRAM:
+            gl.glDeleteProgram(intArg(record, 0));
+            break;
+         case GEN_TEXTURES:
+            gl.glGenTextures(ints(record, 0).length, ints(record, 0), 0);
+            break;
+         case DELETE_TEXTURES:
+            gl.glDeleteTextures(ints(record, 0).length, ints(record, 0), 0);
+            break;
+         case BIND_TEXTURE:
+            gl.glBindTexture(intArg(record, 0), intArg(record, 1));
+            break;
+         case TEX_PARAMETERI:
+            gl.glTexParameteri(intArg(record, 0), intArg(record, 1), intArg(record, 2));
+            break;
+         case TEX_IMAGE_2D:
+            gl.glTexImage2D(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               intArg(record, 3), intArg(record, 4), intArg(record, 5), intArg(record, 6),
+               intArg(record, 7), bufferArg(record, 8));
+            break;
+         case TEX_IMAGE_3D:
+            gl.glTexImage3D(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               intArg(record, 3), intArg(record, 4), intArg(record, 5), intArg(record, 6),
+               intArg(record, 7), intArg(record, 8), bufferArg(record, 9));
+            break;
+         case GEN_FRAMEBUFFERS:
+            gl.glGenFramebuffers(ints(record, 0).length, ints(record, 0), 0);
+            break;
+         case DELETE_FRAMEBUFFERS:
+            gl.glDeleteFramebuffers(ints(record, 0).length, ints(record, 0), 0);
+            break;
+         case BIND_FRAMEBUFFER:
+            gl.glBindFramebuffer(intArg(record, 0), intArg(record, 1));
+            break;
+         case FRAMEBUFFER_TEXTURE_2D:
+            gl.glFramebufferTexture2D(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               intArg(record, 3), intArg(record, 4));
+            break;
+         case CHECK_FRAMEBUFFER_STATUS:
+            gl.glCheckFramebufferStatus(intArg(record, 0));
+            break;
+         case GET_PROGRAM_BINARY:
+            gl.glGetProgramBinary(intArg(record, 0), intArg(record, 1), ints(record, 2), 0,
+               ints(record, 3), 0, bufferArg(record, 4));
+            break;
+         case PROGRAM_BINARY:
+            gl.glProgramBinary(intArg(record, 0), intArg(record, 1), bufferArg(record, 2),
+               intArg(record, 3));
+            break;
+         case READ_PIXELS:
+            gl.glReadPixels(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               intArg(record, 3), intArg(record, 4), intArg(record, 5), bufferArg(record, 6));
+            break;
+         case READ_PIXELS_OFFSET:
+            gl.glReadPixels(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               intArg(record, 3), intArg(record, 4), intArg(record, 5), intArg(record, 6));
+            break;
+         case MAP_BUFFER_RANGE:
+            gl.glMapBufferRange(intArg(record, 0), intArg(record, 1), intArg(record, 2),
+               intArg(record, 3));
+            break;
+         case UNMAP_BUFFER:
+            gl.glUnmapBuffer(intArg(record, 0));
+            break;
+         default:
+            break;
+      }
+   }
+
+   private static int intArg(GlCaptureReader.Record record, int field) {
+      return (Integer) record.getField(field);
+   }
+
+   private static float floatArg(GlCaptureReader.Record record, int field) {
+      return (Float) record.getField(field);
+   }
+
+   private static boolean booleanArg(GlCaptureReader.Record record, int field) {
+      return (Boolean) record.getField(field);
+   }
+
+   private static String stringArg(GlCaptureReader.Record record, int field) {
+      return (String) record.getField(field);
+   }
+
+   private static int[] ints(GlCaptureReader.Record record, int field) {
+      return ((int[]) record.getField(field)).clone();
+   }
+
+   private static float[] floats(GlCaptureReader.Record record, int field) {
+      return (float[]) record.getField(field);
+   }
+
+   private Buffer bufferArg(GlCaptureReader.Record record, int field) {
+      int size = (Integer) record.getField(field);
+      if (size < 0) return null;
+      if (scratch.capacity() < size) {
+         scratch = ByteBuffer.allocate(size);
+      }
+      scratch.clear();
+      scratch.limit(size);
+      return scratch;
+   }
+}
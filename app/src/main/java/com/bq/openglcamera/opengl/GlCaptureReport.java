@@ -0,0 +1,136 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Offline analysis of {@link GlCapture} logs on a plain JVM, no GPU needed.
+ * <p>
+ * <code>report &lt;capture&gt;</code> prints per frame call counts and CPU time, by call, and how
+ * many calls were redundant: the ones setting GL state to the value it already had, found by a
+ * {@link GlRedundancyTracker} on the recorded calls. <code>diff &lt;before&gt; &lt;after&gt;</code>
+ * compares two captures per frame. See the <code>glCaptureReport</code> task of the benchmarks
+ * project.
+ */
+public final class GlCaptureReport {
+
+   private static final GlCall[] CALLS = GlCall.values();
+
+   private GlCaptureReport() {
+   }
+
+   public static void main(String[] args) throws IOException {
+      if (args.length == 2 && args[0].equals("report")) {
+         print(summarize(new File(args[1])), System.out);
+      } else if (args.length == 3 && args[0].equals("diff")) {
+         diff(summarize(new File(args[1])), summarize(new File(args[2])), System.out);
+      } else {
+         System.err.println("Usage: report <capture> | diff <before> <after>");
+         System.exit(2);
+      }
+   }
+
+   static Summary summarize(File file) throws IOException {
+      GlRedundancyTracker tracker = new GlRedundancyTracker();
+      Summary summary = new Summary();
+      try (GlCaptureReader reader = GlCaptureReader.open(file)) {
+         GlCaptureReader.Record record;
+         long frameNanos = 0;
+         while ((record = reader.next()) != null) {
+            GlCall call = record.getCall();
+            if (call == GlCall.FRAME) {
+               summary.addFrame(frameNanos);
+               frameNanos = 0;
+               continue;
+            }
+            if (tracker.track(record)) {
+               summary.redundant[call.ordinal()]++;
+            }
+            summary.counts[call.ordinal()]++;
+            summary.nanos[call.ordinal()] += record.getDurationNanos();
+            frameNanos += record.getDurationNanos();
+         }
+         summary.truncated = reader.isTruncated();
+      }
+      return summary;
+   }
+
+   static void print(Summary summary, PrintStream out) {
+      int frames = Math.max(1, summary.frames);
+      out.printf("%d frames, %.1f calls and %.1f redundant per frame%s%n", summary.frames,
+         (double) summary.totalCalls() / frames, (double) summary.totalRedundant() / frames,
+         summary.truncated ? ", truncated" : "");
+      out.printf("CPU per frame: median %.3f ms, p90 %.3f ms, max %.3f ms%n",
+         summary.framePercentile(0.5) / 1e6, summary.framePercentile(0.9) / 1e6,
+         summary.framePercentile(1) / 1e6);
+      out.printf("%-28s %12s %12s %12s%n", "call", "calls/frame", "redundant", "us/frame");
+      for (GlCall call : CALLS) {
+         int i = call.ordinal();
+         if (summary.counts[i] == 0) continue;
+         out.printf("%-28s %12.2f %12.2f %12.2f%n", call.name(), (double) summary.counts[i] / frames,
+            (double) summary.redundant[i] / frames, summary.nanos[i] / 1e3 / frames);
+      }
+   }
+
+   static void diff(Summary before, Summary after, PrintStream out) {
+      int framesBefore = Math.max(1, before.frames);
+      int framesAfter = Math.max(1, after.frames);
+      out.printf("calls/frame %.1f -> %.1f, redundant/frame %.1f -> %.1f%n",
+         (double) before.totalCalls() / framesBefore, (double) after.totalCalls() / framesAfter,
+         (double) before.totalRedundant() / framesBefore, (double) after.totalRedundant() / framesAfter);
+      out.printf("median CPU/frame %.3f ms -> %.3f ms, p90 %.3f ms -> %.3f ms%n",
+         before.framePercentile(0.5) / 1e6, after.framePercentile(0.5) / 1e6,
+         before.framePercentile(0.9) / 1e6, after.framePercentile(0.9) / 1e6);
+      out.printf("%-28s %18s %18s%n", "call", "calls/frame", "us/frame");
+      for (GlCall call : CALLS) {
+         int i = call.ordinal();
+         if (before.counts[i] == 0 && after.counts[i] == 0) continue;
+         double countBefore = (double) before.counts[i] / framesBefore;
+         double countAfter = (double) after.counts[i] / framesAfter;
+         double microsBefore = before.nanos[i] / 1e3 / framesBefore;
+         double microsAfter = after.nanos[i] / 1e3 / framesAfter;
+         out.printf("%-28s %8.2f %+8.2f  %8.2f %+8.2f%n", call.name(), countAfter,
+            countAfter - countBefore, microsAfter, microsAfter - microsBefore);
+      }
+   }
+
+   static final class Summary {
+      final long[] counts = new long[CALLS.length];
+      final long[] nanos = new long[CALLS.length];
+      final long[] redundant = new long[CALLS.length];
+      int frames;
+      boolean truncated;
+      private long[] frameNanos = new long[256];
+
+      void addFrame(long nanos) {
+         if (frames == frameNanos.length) {
+            frameNanos = Arrays.copyOf(frameNanos, frames * 2);
+         }
+         frameNanos[frames++] = nanos;
+      }
+
+      long totalCalls() {
+         long total = 0;
+         for (long count : counts) total += count;
+         return total;
+      }
+
+      long totalRedundant() {
+         long total = 0;
+         for (long count : redundant) total += count;
+         return total;
+      }
+
+      /**
+       * CPU time of the frame at the given fraction of the sorted frame times.
+       */
+      long framePercentile(double fraction) {
+         if (frames == 0) return 0;
+         long[] sorted = Arrays.copyOf(frameNanos, frames);
+         Arrays.sort(sorted);
+         return sorted[(int) Math.min(frames - 1, Math.floor(fraction * frames))];
+      }
+   }
+}
@@ -0,0 +1,312 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GL error checking at a configurable cost, with the errors counted instead of thrown.
+ * <ul>
+ * <li>{@link Level#OFF}: no <code>glGetError</code> at all, for release builds. The call can
+ * stall the pipeline until the driver catches up.</li>
+ * <li>{@link Level#SAMPLED}: every call of one frame out of <code>sampleInterval</code> is
+ * checked, the others run unchecked.</li>
+ * <li>{@link Level#FULL}: every call of every frame is checked, errors are reported with the
+ * call that raised them.</li>
+ * </ul>
+ * Per call checks come from a {@link CheckingGlBackend}, setup code calls
+ * {@link #checkpoint(GlBackend, String)} which checks at any level but OFF. When the context
+ * has <code>KHR_debug</code> (see {@link KhrDebugOutput}) the checks drain the driver's debug
+ * message log instead, and no <code>glGetError</code> is issued: in synchronous mode the
+ * messages raised by a checked call are reported with it. Reading the log doesn't wait for the
+ * GPU, so every frame drains it before it fills up.
+ * <p>
+ * Counters can be read from any thread. Checks and {@link #beginFrame(GlBackend)} are made on the thread
+ * the context is current on.
+ */
+public final class GlDiagnostics {
+
+   public enum Level {
+      OFF, SAMPLED, FULL
+   }
+
+   public static final int DEFAULT_SAMPLE_INTERVAL = 60;
+
+   //glGetError codes, GL_INVALID_ENUM to GL_INVALID_FRAMEBUFFER_OPERATION
+   private static final int FIRST_ERROR = 0x0500;
+   private static final int ERROR_CODES = 7;
+   //Enough for every error flag the driver may have set
+   private static final int MAX_ERRORS_PER_CHECK = 8;
+   //Debug log messages taken per read, in a buffer fitting the longest message most drivers allow
+   private static final int LOG_MESSAGES = 16;
+   private static final int LOG_BYTES = 16 * 1024;
+   private static final int MAX_LOG_READS_PER_CHECK = 8;
+
+   static final String UNCHECKED_SITE = "unchecked frames";
+
+   static final int DEBUG_TYPE_ERROR = 0x824C;
+   static final int DEBUG_SEVERITY_NOTIFICATION = 0x826B;
+
+   private volatile Level level;
+   private final boolean createdOff;
+   private final int sampleInterval;
+   private volatile Listener listener;
+   private volatile boolean debugOutput;
+   private volatile boolean synchronousDebugOutput;
+
+   private final AtomicLong errors = new AtomicLong();
+   private final AtomicLong warnings = new AtomicLong();
+   private final AtomicLong checks = new AtomicLong();
+   private final AtomicLong checkedFrames = new AtomicLong();
+   private final AtomicLong[] errorsByCode = new AtomicLong[ERROR_CODES + 1];
+
+   //Checking thread only
+   private long frame;
+   private boolean checking;
+   private int[] logTypes, logSources, logIds, logSeverities, logLengths;
+   private byte[] logText;
+
+   public GlDiagnostics(Level level) {
+      this(level, DEFAULT_SAMPLE_INTERVAL);
+   }
+
+   /**
+    * @param sampleInterval Frames per checked frame at {@link Level#SAMPLED}.
+    */
+   public GlDiagnostics(Level level, int sampleInterval) {
+      if (sampleInterval < 1) throw new IllegalArgumentException("Invalid interval " + sampleInterval);
+      this.level = level;
+      this.createdOff = level == Level.OFF;
+      this.sampleInterval = sampleInterval;
+      for (int i = 0; i < errorsByCode.length; i++) {
+         errorsByCode[i] = new AtomicLong();
+      }
+      updateChecking();
+   }
+
+   /**
+    * Full checks for debug builds, none for release ones.
+    */
+   public static GlDiagnostics forBuild(boolean debug) {
+      return new GlDiagnostics(debug ? Level.FULL : Level.OFF);
+   }
+
+   public Level getLevel() {
+      return level;
+   }
+
+   /**
+    * Change the level from any thread, it applies from the next frame. Diagnostics created
+    * {@link Level#OFF} stay off, {@link CheckingGlBackend#wrap(GlBackend, GlDiagnostics)} gave
+    * their backends out unchecked.
+    *
+    * @throws IllegalStateException If turning on diagnostics created off.
+    */
+   public void setLevel(Level level) {
+      if (createdOff && level != Level.OFF) {
+         throw new IllegalStateException("Diagnostics created OFF can't be turned on");
+      }
+      this.level = level;
+   }
+
+   public void setListener(Listener listener) {
+      this.listener = listener;
+   }
+
+   /**
+    * Start of a frame: decides whether its calls are checked. Errors left over by unchecked
+    * frames are reported before a checked one starts, as the driver keeps them until read.
+    * With debug output the log is drained on every frame.
+    */
+   public void beginFrame(GlBackend gl) {
+      boolean wasChecking = checking;
+      frame++;
+      updateChecking();
+      if (debugOutput && level != Level.OFF) {
+         drainDebugLog(gl, wasChecking ? null : UNCHECKED_SITE);
+      }
+      if (!checking) return;
+      checkedFrames.incrementAndGet();
+      if (!wasChecking && !debugOutput) {
+         drainErrors(gl, UNCHECKED_SITE);
+      }
+   }
+
+   /**
+    * True if the calls of the current frame are checked.
+    */
+   public boolean isChecking() {
+      return checking;
+   }
+
+   /**
+    * Check after a call of the frame, if the frame is checked.
+    *
+    * @param site The call, reported along with its errors.
+    */
+   public void check(GlBackend gl, String site) {
+      if (!checking) return;
+      if (debugOutput) {
+         drainDebugLog(gl, synchronousDebugOutput ? site : null);
+      } else {
+         drainErrors(gl, site);
+      }
+   }
+
+   /**
+    * Check after a group of calls outside the frame loop, such as resource creation. Checks at
+    * every level but {@link Level#OFF}.
+    */
+   public void checkpoint(GlBackend gl, String site) {
+      if (level == Level.OFF) return;
+      if (debugOutput) {
+         drainDebugLog(gl, synchronousDebugOutput ? site : null);
+      } else {
+         drainErrors(gl, site);
+      }
+   }
+
+   /**
+    * Messages come from the driver's debug message log from now on, instead of
+    * <code>glGetError</code>. Called on the thread the context is current on.
+    *
+    * @param synchronous True if the driver logs messages before the call raising them returns,
+    *                    so they can be attributed to it.
+    */
+   public void setDebugOutput(boolean enabled, boolean synchronous) {
+      if (enabled && logText == null) {
+         logTypes = new int[LOG_MESSAGES];
+         logSources = new int[LOG_MESSAGES];
+         logIds = new int[LOG_MESSAGES];
+         logSeverities = new int[LOG_MESSAGES];
+         logLengths = new int[LOG_MESSAGES];
+         logText = new byte[LOG_BYTES];
+      }
+      this.synchronousDebugOutput = enabled && synchronous;
+      this.debugOutput = enabled;
+   }
+
+   public boolean hasDebugOutput() {
+      return debugOutput;
+   }
+
+   /**
+    * Errors from <code>glGetError</code> and debug output.
+    */
+   public long getErrorCount() {
+      return errors.get();
+   }
+
+   /**
+    * Errors of one <code>glGetError</code> code, such as <code>GL_INVALID_OPERATION</code>.
+    */
+   public long getErrorCount(int glError) {
+      return errorsByCode[codeIndex(glError)].get();
+   }
+
+   /**
+    * Non error debug output messages, notifications excluded.
+    */
+   public long getWarningCount() {
+      return warnings.get();
+   }
+
+   /**
+    * <code>glGetError</code> calls issued, each a potential pipeline sync.
+    */
+   public long getCheckCount() {
+      return checks.get();
+   }
+
+   /**
+    * Frames whose calls were checked.
+    */
+   public long getCheckedFrameCount() {
+      return checkedFrames.get();
+   }
+
+   public void resetCounters() {
+      errors.set(0);
+      warnings.set(0);
+      checks.set(0);
+      checkedFrames.set(0);
+      for (AtomicLong count : errorsByCode) {
+         count.set(0);
+      }
+   }
+
+   @Override public String toString() {
+      return "GlDiagnostics{" + level + ", errors=" + errors.get() + ", warnings=" + warnings.get()
+         + ", checks=" + checks.get() + ", checkedFrames=" + checkedFrames.get() + "}";
+   }
+
+   private void updateChecking() {
+      switch (level) {
+         case FULL:
+            checking = true;
+            break;
+         case SAMPLED:
+            checking = frame % sampleInterval == 0;
+            break;
+         default:
+            checking = false;
+      }
+   }
+
+   private void drainErrors(GlBackend gl, String site) {
+      Listener listener = this.listener;
+      for (int i = 0; i < MAX_ERRORS_PER_CHECK; i++) {
+         checks.incrementAndGet();
+         int error = gl.glGetError();
+         if (error == 0) return;
+         errors.incrementAndGet();
+         errorsByCode[codeIndex(error)].incrementAndGet();
+         if (listener != null) listener.onGlError(error, site);
+      }
+   }
+
+   /**
+    * Report the messages in the debug log. Errors count as errors, other types as warnings
+    * unless they are notifications, which are dropped.
+    */
+   private void drainDebugLog(GlBackend gl, String site) {
+      Listener listener = this.listener;
+      for (int i = 0; i < MAX_LOG_READS_PER_CHECK; i++) {
+         int count = gl.glGetDebugMessageLogKHR(LOG_MESSAGES, logText.length, logSources, 0, logTypes, 0,
+            logIds, 0, logSeverities, 0, logLengths, 0, logText, 0);
+         int start = 0;
+         for (int message = 0; message < count; message++) {
+            //Lengths count the terminating zero
+            int length = logLengths[message];
+            if (logSeverities[message] != DEBUG_SEVERITY_NOTIFICATION) {
+               boolean error = logTypes[message] == DEBUG_TYPE_ERROR;
+               (error ? errors : warnings).incrementAndGet();
+               if (listener != null) {
+                  String text = new String(logText, start, Math.max(0, length - 1), GlCapture.UTF_8);
+                  listener.onMessage(error, logIds[message], text, site);
+               }
+            }
+            start += length;
+         }
+         if (count < LOG_MESSAGES) return;
+      }
+   }
+
+   private static int codeIndex(int glError) {
+      int index = glError - FIRST_ERROR;
+      return index >= 0 && index < ERROR_CODES ? index : ERROR_CODES;
+   }
+
+   /**
+    * Told about each error as it is counted, on the thread that found it.
+    */
+   public interface Listener {
+      /**
+       * @param site Call after which <code>glGetError</code> returned the error.
+       */
+      void onGlError(int error, String site);
+
+      /**
+       * @param site Call that raised the message, null if unknown.
+       */
+      void onMessage(boolean error, int id, String message, String site);
+   }
+}
@@ -0,0 +1,198 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Follows the GL state set by the calls of a {@link GlCapture} and finds the redundant ones,
+ * which set state to the value it already had.
+ * <p>
+ * It works on the recorded calls themselves, so it finds what got past a
+ * {@link StateCachingGlBackend} the capture was recorded under, as well as the state that cache
+ * leaves alone: texture and framebuffer bindings, the active texture unit, enabled
+ * capabilities and non matrix uniforms. State is unknown until a call sets it, and a capture
+ * is assumed to hold the calls of a single context.
+ */
+final class GlRedundancyTracker {
+
+   private Integer program;
+   private int[] viewport;
+   private float[] clearColor;
+   private Integer activeTexture;
+   private Integer vertexArray;
+   //Texture bindings by unit in the high and target in the low half
+   private final Map<Long, Integer> textures = new HashMap<>();
+   private final Map<Integer, Integer> buffers = new HashMap<>();
+   private final Map<Integer, Integer> framebuffers = new HashMap<>();
+   private final Map<Integer, Boolean> attributeArrays = new HashMap<>();
+   private final Map<Integer, Boolean> capabilities = new HashMap<>();
+   //Values by location, by program
+   private final Map<Integer, Map<Integer, Object[]>> uniforms = new HashMap<>();
+
+   /**
+    * Apply a call to the tracked state.
+    *
+    * @return True if the call left the state as it was.
+    */
+   boolean track(GlCaptureReader.Record record) {
+      switch (record.getCall()) {
+         case USE_PROGRAM: {
+            int value = intArg(record, 0);
+            if (program != null && program == value) return true;
+            program = value;
+            return false;
+         }
+         case VIEWPORT: {
+            int[] value = {intArg(record, 0), intArg(record, 1), intArg(record, 2), intArg(record, 3)};
+            if (Arrays.equals(viewport, value)) return true;
+            viewport = value;
+            return false;
+         }
+         case CLEAR_COLOR: {
+            float[] value = {floatArg(record, 0), floatArg(record, 1), floatArg(record, 2),
+               floatArg(record, 3)};
+            if (Arrays.equals(clearColor, value)) return true;
+            clearColor = value;
+            return false;
+         }
+         case ACTIVE_TEXTURE: {
+            int value = intArg(record, 0);
+            if (activeTexture != null && activeTexture == value) return true;
+            activeTexture = value;
+            return false;
+         }
+         case ENABLE:
+            return bind(capabilities, intArg(record, 0), true);
+         case DISABLE:
+            return bind(capabilities, intArg(record, 0), false);
+         case BIND_TEXTURE:
+            //Bindings are per unit, nothing to compare against while the unit is unknown
+            if (activeTexture == null) return false;
+            return bind(textures, (long) activeTexture << 32 | intArg(record, 0), intArg(record, 1));
+         case BIND_BUFFER:
+            return bind(buffers, intArg(record, 0), intArg(record, 1));
+         case BIND_FRAMEBUFFER:
+            return bindFramebuffer(intArg(record, 0), intArg(record, 1));
+         case BIND_VERTEX_ARRAY: {
+            int value = intArg(record, 0);
+            if (vertexArray != null && vertexArray == value) return true;
+            bindVertexArray(value);
+            return false;
+         }
+         case ENABLE_VERTEX_ATTRIB_ARRAY:
+            return bind(attributeArrays, intArg(record, 0), true);
+         case DISABLE_VERTEX_ATTRIB_ARRAY:
+            return bind(attributeArrays, intArg(record, 0), false);
+         case UNIFORM1I:
+         case UNIFORM1FV:
+         case UNIFORM2FV:
+         case UNIFORM3FV:
+         case UNIFORM4FV:
+         case UNIFORM_MATRIX4FV:
+            return trackUniform(record);
+         case LINK_PROGRAM:
+            //Linking resets the uniforms
+         case DELETE_PROGRAM:
+            uniforms.remove(intArg(record, 0));
+            return false;
+         case DELETE_TEXTURES:
+            unbind(textures, ints(record, 0));
+            return false;
+         case DELETE_BUFFERS:
+            unbind(buffers, ints(record, 0));
+            return false;
+         case DELETE_FRAMEBUFFERS:
+            unbind(framebuffers, ints(record, 0));
+            return false;
+         case DELETE_VERTEX_ARRAYS:
+            if (vertexArray != null) {
+               for (int array : ints(record, 0)) {
+                  if (array == vertexArray) bindVertexArray(0);
+               }
+            }
+            return false;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * Uniforms set to the values they have in the current program, or set at location -1 which
+    * the driver ignores.
+    */
+   private boolean trackUniform(GlCaptureReader.Record record) {
+      int location = intArg(record, 0);
+      if (location == -1) return true;
+      if (program == null) return false;
+      Map<Integer, Object[]> values = uniforms.get(program);
+      if (values == null) {
+         values = new HashMap<>();
+         uniforms.put(program, values);
+      }
+      GlCall call = record.getCall();
+      if (call != GlCall.UNIFORM1I && intArg(record, 1) != 1) {
+         //Arrays set the locations after theirs too, which are not tracked
+         values.clear();
+         return false;
+      }
+      Object[] value = new Object[record.getFieldCount()];
+      value[0] = call;
+      for (int i = 1; i < value.length; i++) {
+         value[i] = record.getField(i);
+      }
+      Object[] previous = values.put(location, value);
+      return previous != null && Arrays.deepEquals(previous, value);
+   }
+
+   private boolean bindFramebuffer(int target, int framebuffer) {
+      if (target != GLES20.GL_FRAMEBUFFER) {
+         return bind(framebuffers, target, framebuffer);
+      }
+      //Both the draw and read bindings
+      boolean draw = bind(framebuffers, GLES30.GL_DRAW_FRAMEBUFFER, framebuffer);
+      boolean read = bind(framebuffers, GLES30.GL_READ_FRAMEBUFFER, framebuffer);
+      return draw && read;
+   }
+
+   /**
+    * The element buffer and attribute arrays belong to the vertex array.
+    */
+   private void bindVertexArray(int array) {
+      vertexArray = array;
+      buffers.remove(GLES20.GL_ELEMENT_ARRAY_BUFFER);
+      attributeArrays.clear();
+   }
+
+   private static <K, V> boolean bind(Map<K, V> bindings, K key, V value) {
+      V previous = bindings.put(key, value);
+      return value.equals(previous);
+   }
+
+   /**
+    * Deleted objects still bound are replaced by 0.
+    */
+   private static <K> void unbind(Map<K, Integer> bindings, int[] names) {
+      for (int name : names) {
+         if (name == 0) continue;
+         for (Map.Entry<K, Integer> binding : bindings.entrySet()) {
+            if (binding.getValue() == name) binding.setValue(0);
+         }
+      }
+   }
+
+   private static int intArg(GlCaptureReader.Record record, int field) {
+      return (Integer) record.getField(field);
+   }
+
+   private static float floatArg(GlCaptureReader.Record record, int field) {
+      return (Float) record.getField(field);
+   }
+
+   private static int[] ints(GlCaptureReader.Record record, int field) {
+      return (int[]) record.getField(field);
+   }
+}
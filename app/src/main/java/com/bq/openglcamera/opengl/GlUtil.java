@@ -20,10 +20,9 @@ import android.content.Context;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
-import java.io.BufferedReader;
+import com.bq.openglcamera.BuildConfig;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 
 import timber.log.Timber;
@@ -36,9 +35,31 @@ public final class GlUtil {
     /** Identity matrix for general use.  Don't modify or life will get weird. */
     public static final float[] IDENTITY_MATRIX;
 
+    /**
+     * Logs what the diagnostics find.
+     */
+    @SuppressWarnings("Convert2Lambda")
+    public static final GlDiagnostics.Listener LOG_LISTENER = new GlDiagnostics.Listener() {
+        @Override public void onGlError(int error, String site) {
+            Timber.e("%s: glError 0x%s", site, Integer.toHexString(error));
+        }
+
+        @Override public void onMessage(boolean error, int id, String message, String site) {
+            if (error) {
+                Timber.e("GL debug %d at %s: %s", id, site, message);
+            } else {
+                Timber.w("GL debug %d at %s: %s", id, site, message);
+            }
+        }
+    };
+
+    private static volatile GlDiagnostics diagnostics;
+
     static {
         IDENTITY_MATRIX = new float[16];
         Matrix.setIdentityM(IDENTITY_MATRIX, 0);
+        diagnostics = GlDiagnostics.forBuild(BuildConfig.DEBUG);
+        diagnostics.setListener(LOG_LISTENER);
     }
 
     private GlUtil() {
@@ -50,36 +71,48 @@ public final class GlUtil {
      *
      * @return A handle to the program, or 0 on failure.
      */
-    public static int createProgram(Context context, String vertexAssetFile, String fragmentAssetFile) {
+    public static int createProgram(Context context, GlBackend gl,
+                                    String vertexAssetFile, String fragmentAssetFile) {
         String vertexSource = getStringFromFileInAssets(context, vertexAssetFile);
         String fragmentSource = getStringFromFileInAssets(context, fragmentAssetFile);
-        int vertexShader = compileShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int program = createProgram(gl, vertexSource, fragmentSource);
+        if (program == 0) {
+            Timber.e("Could not create program from %s, %s", fragmentAssetFile, vertexAssetFile);
+        }
+        return program;
+    }
+
+    /**
+     * Creates a new program from the supplied vertex and fragment shader sources.
+     *
+     * @return A handle to the program, or 0 on failure.
+     */
+    public static int createProgram(GlBackend gl, String vertexSource, String fragmentSource) {
+        int vertexShader = compileShader(gl, GLES20.GL_VERTEX_SHADER, vertexSource);
         if (vertexShader == 0) {
             return 0;
         }
-        Timber.d("vertexShader log: %s", GLES20.glGetShaderInfoLog(vertexShader));
+        Timber.d("vertexShader log: %s", gl.glGetShaderInfoLog(vertexShader));
 
-        int fragmentShader = compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        int fragmentShader = compileShader(gl, GLES20.GL_FRAGMENT_SHADER, fragmentSource);
         if (fragmentShader == 0) {
             return 0;
         }
-        Timber.d("fragmentShader log: %s", GLES20.glGetShaderInfoLog(fragmentShader));
-
-        int program = GLES20.glCreateProgram();
-        checkGLError("glCreateProgram");
-        if (program == 0) {
-            Timber.e("Could not create program from %s, %s", fragmentAssetFile, vertexAssetFile);
-        } else {
-            GLES20.glAttachShader(program, vertexShader);
-            checkGLError("glAttachShader");
-            GLES20.glAttachShader(program, fragmentShader);
-            checkGLError("glAttachShader");
-            GLES20.glLinkProgram(program);
+        Timber.d("fragmentShader log: %s", gl.glGetShaderInfoLog(fragmentShader));
+
+        int program = gl.glCreateProgram();
+        checkGLError(gl, "glCreateProgram");
+        if (program != 0) {
+            gl.glAttachShader(program, vertexShader);
+            checkGLError(gl, "glAttachShader");
+            gl.glAttachShader(program, fragmentShader);
+            checkGLError(gl, "glAttachShader");
+            gl.glLinkProgram(program);
             int[] linkStatus = new int[1];
-            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+            gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
             if (linkStatus[0] != GLES20.GL_TRUE) {
-                Timber.e("Could not link program: %s", GLES20.glGetProgramInfoLog(program));
-                GLES20.glDeleteProgram(program);
+                Timber.e("Could not link program: %s", gl.glGetProgramInfoLog(program));
+                gl.glDeleteProgram(program);
                 program = 0;
             }
         }
@@ -91,49 +124,71 @@ public final class GlUtil {
      *
      * @return A handle to the shader, or 0 on failure.
      */
-    private static int compileShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
-        checkGLError("glCreateShader type=" + shaderType);
-        GLES20.glShaderSource(shader, source);
-        GLES20.glCompileShader(shader);
+    private static int compileShader(GlBackend gl, int shaderType, String source) {
+        int shader = gl.glCreateShader(shaderType);
+        checkGLError(gl, "glCreateShader type=" + shaderType);
+        gl.glShaderSource(shader, source);
+        gl.glCompileShader(shader);
         int[] compiled = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        gl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
         if (compiled[0] == 0) {
             Timber.e("Could not compile shader %d", shaderType);
-            Timber.e(GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
+            Timber.e(gl.glGetShaderInfoLog(shader));
+            gl.glDeleteShader(shader);
             shader = 0;
         }
         return shader;
     }
 
 
-    private static String getStringFromFileInAssets(Context ctx, String filename) {
+    /**
+     * Reads a whole asset as UTF-8 text.
+     */
+    static String getStringFromFileInAssets(Context ctx, String filename) {
         try {
-            InputStream is = ctx.getAssets().open(filename);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-            StringBuilder builder = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                builder.append(line).append("\n");
-            }
-            is.close();
-            return builder.toString();
+            return TextStreams.readUtf8(ctx.getAssets().open(filename));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Checks to see if a GLES error has been raised.
+     * Major version of the current context, parsed from <code>GL_VERSION</code>
+     * ("OpenGL ES 3.0 ..."). Falls back to 2 when the string can't be understood.
      */
-    public static void checkGLError(String op) {
-        int error = GLES20.glGetError();
-        if (error != GLES20.GL_NO_ERROR) {
-            String msg = op + ": glError 0x" + Integer.toHexString(error);
-            Timber.e(msg);
-            throw new RuntimeException(msg);
+    public static int getGlesMajorVersion(GlBackend gl) {
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        String prefix = "OpenGL ES ";
+        if (version != null && version.startsWith(prefix) && version.length() > prefix.length()) {
+            char major = version.charAt(prefix.length());
+            if (Character.isDigit(major)) {
+                return major - '0';
+            }
         }
+        return 2;
+    }
+
+    /**
+     * Checks to see if a GLES error has been raised, through the shared diagnostics: errors are
+     * logged and counted, not thrown, and release builds don't check at all.
+     */
+    public static void checkGLError(GlBackend gl, String op) {
+        diagnostics.checkpoint(gl, op);
+    }
+
+    /**
+     * Diagnostics shared by the renderers, {@link GlDiagnostics.Level#FULL} in debug builds and
+     * {@link GlDiagnostics.Level#OFF} in release ones, logging what they find.
+     */
+    public static GlDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Replace the shared diagnostics, before the renderers are created.
+     */
+    public static void setDiagnostics(GlDiagnostics diagnostics) {
+        GlUtil.diagnostics = diagnostics;
     }
 
 }
\ No newline at end of file
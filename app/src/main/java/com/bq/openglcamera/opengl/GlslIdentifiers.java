@@ -0,0 +1,132 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Just enough of a GLSL tokenizer to rename identifiers, skipping comments.
+ */
+final class GlslIdentifiers {
+
+   private GlslIdentifiers() {
+   }
+
+   /**
+    * Names declared at global scope: functions, constants and variables. A declaration is an
+    * identifier right after another identifier (its type) and followed by <code>( = ; [ ,</code>,
+    * or one after a comma of such a declaration, outside of any braces or parentheses.
+    * Preprocessor lines and precision statements are skipped.
+    */
+   static Set<String> globalDeclarations(String source) {
+      Set<String> declared = new LinkedHashSet<>();
+      int depth = 0;
+      String previous = null;
+      String pending = null;
+      boolean declaring = false;
+      int i = 0;
+      while (i < source.length()) {
+         int skipped = skipComment(source, i);
+         if (skipped != i) {
+            i = skipped;
+            continue;
+         }
+         char c = source.charAt(i);
+         if (c == '#' || (depth == 0 && previous == null && source.startsWith("precision", i))) {
+            int end = source.indexOf(c == '#' ? '\n' : ';', i);
+            i = end < 0 ? source.length() : end + 1;
+            previous = pending = null;
+            continue;
+         }
+         if (isIdentifierStart(c)) {
+            int end = identifierEnd(source, i);
+            String identifier = source.substring(i, end);
+            pending = depth == 0 && previous != null ? identifier : null;
+            previous = depth == 0 ? identifier : null;
+            i = end;
+            continue;
+         }
+         if (!Character.isWhitespace(c)) {
+            if (pending != null && "(=;[,".indexOf(c) >= 0) {
+               declared.add(pending);
+               declaring = true;
+            }
+            if (c == '{' || c == '(') depth++;
+            if (c == '}' || c == ')') depth--;
+            if (c == ';' || c == '{' || c == '}') declaring = false;
+            pending = null;
+            //The next name of "float a = 1.0, b[2];" follows a comma, after any initializer
+            previous = depth == 0 && c == ',' && declaring ? "," : null;
+         }
+         i++;
+      }
+      return declared;
+   }
+
+   /**
+    * Replace whole identifiers found in <code>renames</code>. Comments are kept as they are, and
+    * so are fields and swizzles after a '.', such as the <code>x</code> of <code>color.x</code>.
+    */
+   static String rename(String source, Map<String, String> renames) {
+      StringBuilder renamed = new StringBuilder(source.length() + 16 * renames.size());
+      //A '.' came last, whitespace and comments aside
+      boolean member = false;
+      int i = 0;
+      while (i < source.length()) {
+         int skipped = skipComment(source, i);
+         if (skipped != i) {
+            renamed.append(source, i, skipped);
+            i = skipped;
+            continue;
+         }
+         char c = source.charAt(i);
+         if (isIdentifierStart(c)) {
+            int end = identifierEnd(source, i);
+            String identifier = source.substring(i, end);
+            String replacement = member ? null : renames.get(identifier);
+            renamed.append(replacement != null ? replacement : identifier);
+            member = false;
+            i = end;
+         } else if (Character.isDigit(c)) {
+            //Number suffixes and exponents are not identifiers
+            int end = identifierEnd(source, i);
+            renamed.append(source, i, end);
+            member = false;
+            i = end;
+         } else {
+            renamed.append(c);
+            if (!Character.isWhitespace(c)) member = c == '.';
+            i++;
+         }
+      }
+      return renamed.toString();
+   }
+
+   private static int skipComment(String source, int i) {
+      if (!source.startsWith("/", i) || i + 1 >= source.length()) return i;
+      char next = source.charAt(i + 1);
+      if (next == '/') {
+         int end = source.indexOf('\n', i);
+         return end < 0 ? source.length() : end;
+      }
+      if (next == '*') {
+         int end = source.indexOf("*/", i + 2);
+         return end < 0 ? source.length() : end + 2;
+      }
+      return i;
+   }
+
+   private static boolean isIdentifierStart(char c) {
+      return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+   }
+
+   private static int identifierEnd(String source, int start) {
+      int end = start + 1;
+      while (end < source.length()) {
+         char c = source.charAt(end);
+         if (!isIdentifierStart(c) && !Character.isDigit(c)) break;
+         end++;
+      }
+      return end;
+   }
+}
@@ -0,0 +1,43 @@
+package com.bq.openglcamera.opengl;
+
+import android.os.Handler;
+
+/**
+ * Renders as soon as the render thread is free, not aligned to vsync. Lowest latency, but
+ * frames may be presented unevenly.
+ */
+public class ImmediateRenderScheduler implements RenderScheduler {
+
+   private Handler handler;
+   private Callback callback;
+   private boolean posted;
+
+   @Override public void attach(Callback callback) {
+      this.handler = new Handler();
+      this.callback = callback;
+   }
+
+   @Override public void requestRender() {
+      //Posted behind the frame callbacks already queued, so they all land in the same render
+      if (posted || handler == null) return;
+      posted = handler.post(render);
+   }
+
+   @Override public void detach() {
+      if (handler != null) {
+         handler.removeCallbacks(render);
+      }
+      posted = false;
+      handler = null;
+      callback = null;
+   }
+
+   private final Runnable render = new Runnable() {
+      @Override public void run() {
+         posted = false;
+         if (callback != null) {
+            callback.render(System.nanoTime());
+         }
+      }
+   };
+}
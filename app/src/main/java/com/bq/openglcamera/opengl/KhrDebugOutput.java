@@ -0,0 +1,46 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES31Ext;
+
+import timber.log.Timber;
+
+/**
+ * Turns on the driver's <code>KHR_debug</code> output for a {@link GlDiagnostics}, which then
+ * drains the debug message log instead of issuing <code>glGetError</code>.
+ * <p>
+ * The log rather than a callback: <code>GLES31Ext.glDebugMessageCallbackKHR</code> has no
+ * implementation in any platform release, its binding always throws.
+ */
+final class KhrDebugOutput {
+
+   static final String EXTENSION = "GL_KHR_debug";
+
+   private KhrDebugOutput() {
+      //No instances
+   }
+
+   /**
+    * Enable debug output on the current context if it has the extension and the diagnostics
+    * are on. At {@link GlDiagnostics.Level#FULL} output is synchronous, so the messages in the
+    * log after a call are the ones it raised, at the cost of the driver's own threading.
+    *
+    * @return True if messages now come from the log.
+    */
+   static boolean install(GlBackend gl, GlDiagnostics diagnostics) {
+      if (diagnostics.getLevel() == GlDiagnostics.Level.OFF) return false;
+      String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+      if (extensions == null || !extensions.contains(EXTENSION)) return false;
+
+      gl.glEnable(GLES31Ext.GL_DEBUG_OUTPUT_KHR);
+      boolean synchronous = diagnostics.getLevel() == GlDiagnostics.Level.FULL;
+      if (synchronous) {
+         gl.glEnable(GLES31Ext.GL_DEBUG_OUTPUT_SYNCHRONOUS_KHR);
+      } else {
+         gl.glDisable(GLES31Ext.GL_DEBUG_OUTPUT_SYNCHRONOUS_KHR);
+      }
+      diagnostics.setDebugOutput(true, synchronous);
+      Timber.d("KHR_debug output enabled, synchronous: %b", synchronous);
+      return true;
+   }
+}
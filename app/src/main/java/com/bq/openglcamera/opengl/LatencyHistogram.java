@@ -0,0 +1,120 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log bucketed histogram of durations in nanoseconds.
+ * <p>
+ * Eight buckets per power of two from 1us to about a minute, so a reported value is at most
+ * 12.5% above the real one. Recording is a couple of atomic increments with no allocation or
+ * locking; readers copy the counters without stopping writers, which can make a snapshot
+ * taken mid-frame a single sample off.
+ */
+public final class LatencyHistogram {
+
+   private static final int MIN_SHIFT = 10; //~1us
+   private static final int MAX_SHIFT = 36; //~68s
+   private static final int SUB_BUCKET_BITS = 3;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   static final int BUCKET_COUNT = (MAX_SHIFT - MIN_SHIFT) * SUB_BUCKETS + 1;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+   private final AtomicLong total = new AtomicLong();
+   private final AtomicLong sum = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+
+   public void record(long nanos) {
+      if (nanos < 0) return;
+      counts.incrementAndGet(bucketIndex(nanos));
+      total.incrementAndGet();
+      sum.addAndGet(nanos);
+      long currentMax;
+      while (nanos > (currentMax = max.get())) {
+         if (max.compareAndSet(currentMax, nanos)) break;
+      }
+   }
+
+   public void reset() {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         counts.set(i, 0);
+      }
+      total.set(0);
+      sum.set(0);
+      max.set(0);
+   }
+
+   public Summary summarize() {
+      long[] copy = new long[BUCKET_COUNT];
+      long count = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+         copy[i] = counts.get(i);
+         count += copy[i];
+      }
+      long mean = count == 0 ? 0 : sum.get() / count;
+      return new Summary(count, mean,
+         percentile(copy, count, 0.50),
+         percentile(copy, count, 0.90),
+         percentile(copy, count, 0.99),
+         max.get());
+   }
+
+   static int bucketIndex(long nanos) {
+      if (nanos < (1L << MIN_SHIFT)) return 0;
+      int shift = 63 - Long.numberOfLeadingZeros(nanos);
+      if (shift >= MAX_SHIFT) return BUCKET_COUNT - 1;
+      int sub = (int) (nanos >>> (shift - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (shift - MIN_SHIFT) * SUB_BUCKETS + sub + 1;
+   }
+
+   /**
+    * Largest value that falls in the bucket.
+    */
+   static long bucketUpperBound(int index) {
+      if (index == 0) return (1L << MIN_SHIFT) - 1;
+      int shift = (index - 1) / SUB_BUCKETS + MIN_SHIFT;
+      int sub = (index - 1) % SUB_BUCKETS;
+      return ((long) (SUB_BUCKETS + sub + 1) << (shift - SUB_BUCKET_BITS)) - 1;
+   }
+
+   private static long percentile(long[] counts, long total, double fraction) {
+      if (total == 0) return 0;
+      long rank = (long) Math.ceil(total * fraction);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+         seen += counts[i];
+         if (seen >= rank) return bucketUpperBound(i);
+      }
+      return bucketUpperBound(counts.length - 1);
+   }
+
+   /**
+    * Summary of the recorded values, in nanoseconds.
+    */
+   public static final class Summary {
+      public final long count;
+      public final long mean;
+      public final long p50;
+      public final long p90;
+      public final long p99;
+      public final long max;
+
+      Summary(long count, long mean, long p50, long p90, long p99, long max) {
+         this.count = count;
+         this.mean = mean;
+         this.p50 = p50;
+         this.p90 = p90;
+         this.p99 = p99;
+         this.max = max;
+      }
+
+      @Override public String toString() {
+         return "n=" + count
+            + " mean=" + mean / 1000 + "us"
+            + " p50=" + p50 / 1000 + "us"
+            + " p90=" + p90 / 1000 + "us"
+            + " p99=" + p99 / 1000 + "us"
+            + " max=" + max / 1000 + "us";
+      }
+   }
+}
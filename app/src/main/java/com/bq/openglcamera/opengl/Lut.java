@@ -0,0 +1,72 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 3D color lookup table, RGBA8 texels in <code>.cube</code> order: red changes fastest, then
+ * green, then blue.
+ */
+public final class Lut {
+
+   public static final int BYTES_PER_TEXEL = 4;
+
+   private final String title;
+   private final int size;
+   private final ByteBuffer data;
+
+   /**
+    * @param data Direct buffer of <code>size<sup>3</sup></code> texels.
+    */
+   Lut(String title, int size, ByteBuffer data) {
+      this.title = title;
+      this.size = size;
+      this.data = data;
+   }
+
+   /**
+    * Table that leaves colors as they are.
+    */
+   public static Lut identity(int size) {
+      ByteBuffer data = allocate(size);
+      for (int b = 0; b < size; b++) {
+         for (int g = 0; g < size; g++) {
+            for (int r = 0; r < size; r++) {
+               data.put(toByte(r, size)).put(toByte(g, size)).put(toByte(b, size)).put((byte) 0xff);
+            }
+         }
+      }
+      data.flip();
+      return new Lut("Identity", size, data);
+   }
+
+   static ByteBuffer allocate(int size) {
+      return ByteBuffer.allocateDirect(size * size * size * BYTES_PER_TEXEL).order(ByteOrder.nativeOrder());
+   }
+
+   private static byte toByte(int index, int size) {
+      return (byte) ((index * 255 + (size - 1) / 2) / (size - 1));
+   }
+
+   public String getTitle() {
+      return title;
+   }
+
+   /**
+    * Entries per axis.
+    */
+   public int getSize() {
+      return size;
+   }
+
+   /**
+    * The texels, read only view.
+    */
+   public ByteBuffer getData() {
+      return data.asReadOnlyBuffer().order(data.order());
+   }
+
+   public int getByteSize() {
+      return data.capacity();
+   }
+}
@@ -0,0 +1,248 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Parsed and uploaded {@link Lut}s by key, least recently used first out once over a memory
+ * budget, so switching between recent looks doesn't parse or upload anything.
+ * <p>
+ * Tables are parsed on the loader executor. The render thread uploads them on first use, as a
+ * 3D texture or in the {@link LutLayout tiled layout}, and deletes the textures of evicted
+ * entries on its next call. The budget counts the parsed tables plus their textures. The entry
+ * used last is never evicted, even if it alone is over budget.
+ */
+public class LutCache {
+
+   public static final long DEFAULT_BUDGET_BYTES = 32 * 1024 * 1024;
+
+   public interface Source {
+      InputStream open() throws IOException;
+   }
+
+   private final long budgetBytes;
+   private final ExecutorService loader;
+
+   //Guarded by this
+   private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+   private final Map<String, Future<Lut>> loading = new HashMap<>();
+   private final List<Integer> evictedTextures = new ArrayList<>();
+   private long usedBytes;
+
+   //Render thread only
+   private final int[] textureIds = new int[1];
+   private ByteBuffer tiled;
+
+   public LutCache(long budgetBytes, ExecutorService loader) {
+      this.budgetBytes = budgetBytes;
+      this.loader = loader;
+   }
+
+   /**
+    * Parse the table in the background unless it is cached or loading already.
+    *
+    * @return The parsed table, or the parse error.
+    */
+   public synchronized Future<Lut> load(final String key, final Source source) {
+      Entry entry = entries.get(key);
+      if (entry != null) return done(entry.lut);
+      Future<Lut> pending = loading.get(key);
+      if (pending != null) return pending;
+
+      FutureTask<Lut> task = new FutureTask<>(new Callable<Lut>() {
+         @Override public Lut call() throws Exception {
+            Lut lut = null;
+            try (InputStream in = source.open()) {
+               lut = CubeLutParser.parse(in);
+            } finally {
+               synchronized (LutCache.this) {
+                  //Cached before it stops loading, a load in between must find one or the other
+                  if (lut != null) put(key, lut);
+                  loading.remove(key);
+               }
+            }
+            return lut;
+         }
+      });
+      //Registered before it can run, a direct executor would finish it right away
+      loading.put(key, task);
+      try {
+         loader.execute(task);
+      } catch (RejectedExecutionException e) {
+         loading.remove(key);
+         throw e;
+      }
+      return task;
+   }
+
+   /**
+    * Add an already parsed table.
+    */
+   public synchronized void put(String key, Lut lut) {
+      Entry previous = entries.put(key, new Entry(lut));
+      if (previous != null) remove(previous);
+      usedBytes += lut.getByteSize();
+      trim();
+   }
+
+   public synchronized Lut get(String key) {
+      Entry entry = entries.get(key);
+      return entry != null ? entry.lut : null;
+   }
+
+   public synchronized long getUsedBytes() {
+      return usedBytes;
+   }
+
+   public synchronized int size() {
+      return entries.size();
+   }
+
+   /**
+    * Texture of a parsed table, uploaded now if needed. Render thread only.
+    *
+    * @param texture3D A GL_TEXTURE_3D texture if true, else a tiled GL_TEXTURE_2D one. Use the
+    *                  same value for the life of a context.
+    * @return The texture, or 0 if the table isn't parsed (yet).
+    */
+   public int getTexture(GlBackend gl, String key, boolean texture3D) {
+      deleteEvicted(gl);
+      Entry entry;
+      synchronized (this) {
+         entry = entries.get(key);
+         if (entry == null) return 0;
+         if (entry.texture != 0) return entry.texture;
+      }
+      //Upload outside the lock, loaders can keep adding meanwhile
+      int texture = upload(gl, entry.lut, texture3D);
+      synchronized (this) {
+         if (entries.get(key) != entry) {
+            //Replaced or evicted while uploading
+            gl.glDeleteTextures(1, new int[]{texture}, 0);
+            return 0;
+         }
+         entry.texture = texture;
+         entry.textureBytes = texture3D ? entry.lut.getByteSize()
+            : LutLayout.width(entry.lut.getSize()) * LutLayout.height(entry.lut.getSize()) * Lut.BYTES_PER_TEXEL;
+         usedBytes += entry.textureBytes;
+         trim();
+      }
+      return texture;
+   }
+
+   /**
+    * Delete every texture, before the context goes away. Parsed tables are kept and upload
+    * again on next use. Render thread only.
+    */
+   public void releaseTextures(GlBackend gl) {
+      synchronized (this) {
+         for (Entry entry : entries.values()) {
+            if (entry.texture != 0) {
+               evictedTextures.add(entry.texture);
+               usedBytes -= entry.textureBytes;
+               entry.texture = 0;
+               entry.textureBytes = 0;
+            }
+         }
+      }
+      deleteEvicted(gl);
+      tiled = null;
+   }
+
+   private int upload(GlBackend gl, Lut lut, boolean texture3D) {
+      int size = lut.getSize();
+      int target = texture3D ? GLES30.GL_TEXTURE_3D : GLES20.GL_TEXTURE_2D;
+      gl.glGenTextures(1, textureIds, 0);
+      gl.glBindTexture(target, textureIds[0]);
+      gl.glTexParameteri(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+      gl.glTexParameteri(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+      gl.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+      gl.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+      if (texture3D) {
+         gl.glTexParameteri(target, GLES30.GL_TEXTURE_WRAP_R, GLES20.GL_CLAMP_TO_EDGE);
+         gl.glTexImage3D(target, 0, GLES20.GL_RGBA, size, size, size, 0,
+            GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, lut.getData());
+      } else {
+         int width = LutLayout.width(size);
+         int height = LutLayout.height(size);
+         if (tiled == null || tiled.capacity() < width * height * Lut.BYTES_PER_TEXEL) {
+            tiled = LutLayout.allocateTiled(size);
+         }
+         LutLayout.toTiled(lut, tiled);
+         tiled.position(0);
+         gl.glTexImage2D(target, 0, GLES20.GL_RGBA, width, height, 0,
+            GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, tiled);
+      }
+      gl.glBindTexture(target, 0);
+      return textureIds[0];
+   }
+
+   private void deleteEvicted(GlBackend gl) {
+      int[] textures;
+      synchronized (this) {
+         if (evictedTextures.isEmpty()) return;
+         textures = new int[evictedTextures.size()];
+         for (int i = 0; i < textures.length; i++) {
+            textures[i] = evictedTextures.get(i);
+         }
+         evictedTextures.clear();
+      }
+      gl.glDeleteTextures(textures.length, textures, 0);
+   }
+
+   //Guarded by this
+   private void trim() {
+      Iterator<Entry> iterator = entries.values().iterator();
+      //Access order, the last entry is the one used last
+      int evictable = entries.size() - 1;
+      while (usedBytes > budgetBytes && evictable-- > 0) {
+         Entry eldest = iterator.next();
+         iterator.remove();
+         remove(eldest);
+      }
+   }
+
+   //Guarded by this
+   private void remove(Entry entry) {
+      usedBytes -= entry.lut.getByteSize() + entry.textureBytes;
+      if (entry.texture != 0) {
+         evictedTextures.add(entry.texture);
+      }
+   }
+
+   private static Future<Lut> done(final Lut lut) {
+      FutureTask<Lut> done = new FutureTask<>(new Callable<Lut>() {
+         @Override public Lut call() {
+            return lut;
+         }
+      });
+      done.run();
+      return done;
+   }
+
+   private static final class Entry {
+      final Lut lut;
+      //Guarded by the cache
+      int texture;
+      int textureBytes;
+
+      Entry(Lut lut) {
+         this.lut = lut;
+      }
+   }
+}
@@ -0,0 +1,61 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 2D texture layout of a {@link Lut} for contexts without 3D textures.
+ * <p>
+ * Each blue slice is a <code>size x size</code> tile, red along x and green along y. Tiles
+ * fill a grid of {@link #columns(int)} columns left to right, bottom to top, so a 65 entry
+ * table is 585x520 rather than a single 4225 pixel wide strip over the usual 4096 limit.
+ */
+final class LutLayout {
+
+   private LutLayout() {
+   }
+
+   static int columns(int size) {
+      return (int) Math.ceil(Math.sqrt(size));
+   }
+
+   static int rows(int size) {
+      int columns = columns(size);
+      return (size + columns - 1) / columns;
+   }
+
+   static int width(int size) {
+      return columns(size) * size;
+   }
+
+   static int height(int size) {
+      return rows(size) * size;
+   }
+
+   static ByteBuffer allocateTiled(int size) {
+      return ByteBuffer.allocateDirect(width(size) * height(size) * Lut.BYTES_PER_TEXEL);
+   }
+
+   /**
+    * Copy the table into <code>tiled</code>, a buffer of {@link #width(int)} x
+    * {@link #height(int)} texels. Texels of the unused tiles are left as they are.
+    */
+   static void toTiled(Lut lut, ByteBuffer tiled) {
+      int size = lut.getSize();
+      int columns = columns(size);
+      int rowBytes = size * Lut.BYTES_PER_TEXEL;
+      int stride = width(size) * Lut.BYTES_PER_TEXEL;
+      ByteBuffer source = lut.getData();
+      ByteBuffer target = tiled.duplicate();
+      for (int b = 0; b < size; b++) {
+         int tileX = (b % columns) * rowBytes;
+         int tileY = (b / columns) * size;
+         for (int g = 0; g < size; g++) {
+            //One run of reds, contiguous in both layouts
+            int from = (b * size + g) * rowBytes;
+            source.limit(from + rowBytes).position(from);
+            target.position((tileY + g) * stride + tileX);
+            target.put(source);
+         }
+      }
+   }
+}
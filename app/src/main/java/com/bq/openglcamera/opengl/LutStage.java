@@ -0,0 +1,121 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Color grading with 3D LUTs from a {@link LutCache}, as a point {@link Filter} of a
+ * {@link FilterRenderer} chain so it costs no extra pass.
+ * <p>
+ * Samples a 3D texture where the renderer has them (see
+ * {@link FilterRenderer#isTexture3DEnabled()}), the {@link LutLayout tiled} 2D texture blending
+ * two blue slices otherwise. Until the requested
+ * look is parsed the previous one stays on screen, the identity table before any.
+ */
+public class LutStage implements FilterRenderer.TextureSource {
+
+   /**
+    * The filter to put in the chain, at the index given to the constructor.
+    */
+   public static final Filter FILTER = Filter.point("lut", ""
+         + "#if defined(GL_OES_texture_3D) || __VERSION__ >= 300\n"
+         + "precision mediump sampler3D;\n"
+         + "uniform sampler3D lut;\n"
+         + "#else\n"
+         + "uniform sampler2D lut;\n"
+         + "#endif\n"
+         + "\n"
+         + "vec4 filter(vec4 color) {\n"
+         + "    vec3 c = clamp(color.rgb, 0.0, 1.0) * (lutSize - 1.0);\n"
+         + "#if defined(GL_OES_texture_3D) || __VERSION__ >= 300\n"
+         + "    vec3 graded = texture3D(lut, (c + 0.5) / lutSize).rgb;\n"
+         + "#else\n"
+         + "    //Red and green interpolated by the sampler inside a slice, blue between slices\n"
+         + "    float b0 = floor(c.b);\n"
+         + "    float b1 = min(b0 + 1.0, lutSize - 1.0);\n"
+         + "    vec2 inTile = (c.rg + 0.5) / (lutTiles * lutSize);\n"
+         + "    vec2 tile0 = vec2(mod(b0, lutTiles.x), floor(b0 / lutTiles.x)) / lutTiles;\n"
+         + "    vec2 tile1 = vec2(mod(b1, lutTiles.x), floor(b1 / lutTiles.x)) / lutTiles;\n"
+         + "    vec3 graded = mix(texture2D(lut, tile0 + inTile).rgb, texture2D(lut, tile1 + inTile).rgb, c.b - b0);\n"
+         + "#endif\n"
+         + "    return vec4(graded, color.a);\n"
+         + "}\n",
+      "sampler lut", "float lutSize", "vec2 lutTiles");
+
+   private static final String IDENTITY_KEY = "LutStage.identity";
+
+   private final FilterRenderer renderer;
+   private final LutCache cache;
+   private final int filterIndex;
+   private volatile String look = IDENTITY_KEY;
+
+   //Render thread only
+   private String shownLook;
+   private String uniformsLook;
+
+   /**
+    * @param filterIndex Position of {@link #FILTER} in the renderer's chain.
+    */
+   public LutStage(FilterRenderer renderer, LutCache cache, int filterIndex) {
+      this.renderer = renderer;
+      this.cache = cache;
+      this.filterIndex = filterIndex;
+      cache.put(IDENTITY_KEY, Lut.identity(2));
+      renderer.setTexture(filterIndex, "lut", this);
+   }
+
+   /**
+    * Grade with the given table from the frame it is ready on, loading it if needed.
+    */
+   public void setLook(String key, LutCache.Source source) {
+      cache.load(key, source);
+      look = key;
+   }
+
+   /**
+    * Stop grading.
+    */
+   public void clearLook() {
+      look = IDENTITY_KEY;
+   }
+
+   @Override public int getTarget() {
+      return renderer.isTexture3DEnabled() ? GLES30.GL_TEXTURE_3D : GLES20.GL_TEXTURE_2D;
+   }
+
+   @Override public int getTexture(GlBackend gl) {
+      boolean texture3D = renderer.isTexture3DEnabled();
+      String requested = look;
+      int texture = cache.getTexture(gl, requested, texture3D);
+      if (texture != 0) {
+         shownLook = requested;
+      } else {
+         //Still loading, or failed to
+         if (shownLook != null) {
+            texture = cache.getTexture(gl, shownLook, texture3D);
+         }
+         if (texture == 0) {
+            //Evicted meanwhile
+            if (cache.get(IDENTITY_KEY) == null) {
+               cache.put(IDENTITY_KEY, Lut.identity(2));
+            }
+            shownLook = IDENTITY_KEY;
+            texture = cache.getTexture(gl, IDENTITY_KEY, texture3D);
+         }
+      }
+
+      //Sampler uniforms are bound first, these are set right after for the same draw
+      Lut lut = shownLook.equals(uniformsLook) ? null : cache.get(shownLook);
+      if (lut != null) {
+         uniformsLook = shownLook;
+         int size = lut.getSize();
+         renderer.setUniform(filterIndex, "lutSize", size);
+         renderer.setUniform(filterIndex, "lutTiles", LutLayout.columns(size), LutLayout.rows(size));
+      }
+      return texture;
+   }
+
+   @Override public void release(GlBackend gl) {
+      cache.releaseTextures(gl);
+   }
+}
@@ -0,0 +1,48 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Deterministic scheduler driven by the caller: renders only from {@link #vsync(long)}, with
+ * the same pacing as {@link ChoreographerRenderScheduler}. For tests and offline rendering
+ * with a simulated clock.
+ */
+public class ManualRenderScheduler implements RenderScheduler {
+
+   private final FramePacer pacer = new FramePacer();
+   private Callback callback;
+   private boolean pending;
+
+   public ManualRenderScheduler(float targetFramesPerSecond) {
+      pacer.setTargetFrameRate(targetFramesPerSecond);
+   }
+
+   @Override public void attach(Callback callback) {
+      this.callback = callback;
+      pacer.reset();
+   }
+
+   @Override public void requestRender() {
+      pending = true;
+   }
+
+   @Override public void detach() {
+      callback = null;
+      pending = false;
+   }
+
+   public boolean isRenderPending() {
+      return pending;
+   }
+
+   /**
+    * Simulate a vsync at the given time. Call on the render thread.
+    *
+    * @return True if a frame was rendered.
+    */
+   public boolean vsync(long frameTimeNanos) {
+      if (!pending || callback == null) return false;
+      if (!pacer.onVsync(frameTimeNanos)) return false;
+      pending = false;
+      callback.render(frameTimeNanos);
+      return true;
+   }
+}
@@ -0,0 +1,87 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * An extra window the camera frames are presented to, such as a MediaCodec input surface or a
+ * secondary display. Created by {@link TextureViewGLWrapper#addOutputSurface(Object, int, int)}.
+ * <p>
+ * Every frame is drawn with the viewport and transform of the output and presented with the
+ * camera timestamp of the image, so encoders get correct presentation times.
+ */
+public final class OutputSurface {
+
+   final Object nativeWindow;
+   private volatile Size size;
+   private volatile float[] transform;
+   private volatile long framesPresented;
+   private volatile long lastPresentationTime;
+
+   //Render thread only
+   SurfaceFanout.Target target;
+   volatile boolean removed;
+
+   OutputSurface(Object nativeWindow, int width, int height) {
+      this.nativeWindow = nativeWindow;
+      this.size = new Size(width, height);
+   }
+
+   public void setSize(int width, int height) {
+      this.size = new Size(width, height);
+   }
+
+   /**
+    * Transform applied to the quad drawn into this output, in place of the renderer's own.
+    *
+    * @param transform Column major 4x4 matrix, or null to use the renderer's.
+    */
+   public void setTransform(float[] transform) {
+      this.transform = transform == null ? null : transform.clone();
+   }
+
+   public int getWidth() {
+      return size.width;
+   }
+
+   public int getHeight() {
+      return size.height;
+   }
+
+   /**
+    * Width and height as last set together, for the render thread.
+    */
+   Size getSize() {
+      return size;
+   }
+
+   float[] getTransform() {
+      return transform;
+   }
+
+   public long getFramesPresented() {
+      return framesPresented;
+   }
+
+   /**
+    * Presentation time of the last frame sent to this output, in nanoseconds.
+    */
+   public long getLastPresentationTime() {
+      return lastPresentationTime;
+   }
+
+   void presented(long timestamp) {
+      lastPresentationTime = timestamp;
+      framesPresented++;
+   }
+
+   /**
+    * Immutable, so a resize is published as a whole and never seen half applied.
+    */
+   static final class Size {
+      final int width;
+      final int height;
+
+      Size(int width, int height) {
+         this.width = width;
+         this.height = height;
+      }
+   }
+}
@@ -0,0 +1,188 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.bq.openglcamera.BuildConfig;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Reads rendered frames back to CPU memory and hands them to {@link Listener}s.
+ * <p>
+ * On ES3 contexts pixels go through a ring of pixel buffer objects: each frame is read into
+ * one buffer and the buffer filled <code>depth - 1</code> frames earlier is mapped, so the render
+ * thread never waits for the transfer. Frames are delivered that many frames late.
+ * ES2 contexts fall back to a blocking <code>glReadPixels</code>.
+ * <p>
+ * Pixels are leased from a {@link FrameBufferPool}. When its memory cap is reached, because
+ * listeners hold on to frames, the frame is dropped instead of waiting.
+ * Frame methods must be called from the render thread.
+ */
+public class PixelReadback {
+
+   public static final int DEFAULT_DEPTH = 3;
+
+   private final GlBackend gl;
+   private final ReadbackRing ring;
+   private final FrameBufferPool pool;
+   private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+   private final AtomicLong deliveredFrames = new AtomicLong();
+   private final AtomicLong droppedFrames = new AtomicLong();
+
+   private final int[] pixelBuffers;
+   private boolean asynchronous;
+   private int width;
+   private int height;
+
+   public PixelReadback(GlBackend gl) {
+      this(gl, DEFAULT_DEPTH, FrameBufferPool.forBuild(BuildConfig.DEBUG));
+   }
+
+   /**
+    * @param depth Number of pixel buffers in the ring, at least 2.
+    * @param pool  Pool frames are leased from, may be shared with other stages.
+    */
+   public PixelReadback(GlBackend gl, int depth, FrameBufferPool pool) {
+      this.gl = gl;
+      this.ring = new ReadbackRing(depth);
+      this.pool = pool;
+      this.pixelBuffers = new int[depth];
+   }
+
+   public void addListener(Listener listener) {
+      listeners.add(listener);
+   }
+
+   public void removeListener(Listener listener) {
+      listeners.remove(listener);
+   }
+
+   public long getDeliveredFrames() {
+      return deliveredFrames.get();
+   }
+
+   public long getDroppedFrames() {
+      return droppedFrames.get();
+   }
+
+   /**
+    * (Re)create the pixel buffers for frames of the given size.
+    */
+   public void setup(int width, int height) {
+      deleteBuffers();
+      this.width = width;
+      this.height = height;
+      this.asynchronous = GlUtil.getGlesMajorVersion(gl) >= 3;
+      ring.reset();
+      if (asynchronous) {
+         gl.glGenBuffers(pixelBuffers.length, pixelBuffers, 0);
+         for (int buffer : pixelBuffers) {
+            gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+            gl.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, frameSize(), null, GLES30.GL_STREAM_READ);
+         }
+         gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+         GlUtil.checkGLError(gl, "PixelReadback setup");
+      }
+      Timber.d("Readback %dx%d, %s", width, height, asynchronous ? "pbo ring" : "synchronous");
+   }
+
+   /**
+    * Read the frame just drawn to the current framebuffer.
+    *
+    * @param timestamp Timestamp of the camera image, see {@link ReadbackFrame#getTimestamp()}.
+    */
+   public void readFrame(long timestamp) {
+      if (listeners.isEmpty()) {
+         //Nobody is listening, don't pay for the transfer
+         ring.reset();
+         return;
+      }
+      if (asynchronous) {
+         readAsynchronous(timestamp);
+      } else {
+         readSynchronous(timestamp);
+      }
+   }
+
+   /**
+    * Free the pixel buffers. Frames held by listeners stay valid.
+    */
+   public void release() {
+      deleteBuffers();
+      ring.reset();
+   }
+
+   private void readAsynchronous(long timestamp) {
+      int slot = ring.beginWrite(timestamp);
+      gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[slot]);
+      gl.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+
+      int completed = ring.completedSlot();
+      if (completed >= 0) {
+         FrameBuffer buffer = pool.tryAcquire(frameSize());
+         if (buffer == null) {
+            droppedFrames.incrementAndGet();
+         } else {
+            gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[completed]);
+            Buffer mapped = gl.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, frameSize(), GLES30.GL_MAP_READ_BIT);
+            if (mapped == null) {
+               Timber.e("glMapBufferRange failed");
+               buffer.release();
+               droppedFrames.incrementAndGet();
+            } else {
+               buffer.buffer().put((ByteBuffer) mapped);
+               gl.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+               deliver(new ReadbackFrame(buffer, width, height, ring.timestampOf(completed)));
+            }
+         }
+      }
+      gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+   }
+
+   private void readSynchronous(long timestamp) {
+      FrameBuffer buffer = pool.tryAcquire(frameSize());
+      if (buffer == null) {
+         droppedFrames.incrementAndGet();
+         return;
+      }
+      gl.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer.buffer());
+      deliver(new ReadbackFrame(buffer, width, height, timestamp));
+   }
+
+   private void deliver(ReadbackFrame frame) {
+      for (Listener listener : listeners) {
+         listener.onFrame(frame);
+      }
+      deliveredFrames.incrementAndGet();
+      //Drop our own reference, listeners that retained it keep it alive
+      frame.release();
+   }
+
+   private void deleteBuffers() {
+      if (pixelBuffers[0] != 0) {
+         gl.glDeleteBuffers(pixelBuffers.length, pixelBuffers, 0);
+         for (int i = 0; i < pixelBuffers.length; i++) {
+            pixelBuffers[i] = 0;
+         }
+      }
+   }
+
+   private int frameSize() {
+      return width * height * 4;
+   }
+
+   public interface Listener {
+      /**
+       * A frame is available. Called on the render thread, hand the work off quickly.
+       * The frame is only valid until this returns unless {@link ReadbackFrame#retain()} is called.
+       */
+      void onFrame(ReadbackFrame frame);
+   }
+}
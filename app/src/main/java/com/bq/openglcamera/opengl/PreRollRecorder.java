@@ -0,0 +1,109 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import timber.log.Timber;
+
+/**
+ * Keeps the last seconds of rendered frames in a {@link PreRollRing}, to save what happened
+ * before the operator pressed the button.
+ * <p>
+ * Add it to a {@link PixelReadback} of a downscaled target (see {@link ReadbackRenderer}) to
+ * record small RGBA frames, or feed it encoded packets with
+ * {@link #onPacket(ByteBuffer, long, boolean)}. Recording copies each frame into the ring on
+ * the calling thread, without locks or allocations. {@link #save(File, long)} writes a
+ * snapshot on a background thread while recording goes on.
+ */
+@SuppressWarnings("Convert2Lambda")
+public class PreRollRecorder implements PixelReadback.Listener {
+
+   private static final String PARTIAL_SUFFIX = ".part";
+
+   private final PreRollRing ring;
+   private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override public Thread newThread(Runnable runnable) {
+         Thread thread = new Thread(runnable, "PreRollSaver");
+         thread.setPriority(Thread.MIN_PRIORITY);
+         return thread;
+      }
+   });
+
+   public PreRollRecorder(PreRollRing ring) {
+      this.ring = ring;
+   }
+
+   /**
+    * Recorder keeping <code>seconds</code> of frames at <code>fps</code>, in a ring of
+    * <code>seconds * fps * maxFrameBytes</code> off heap bytes.
+    */
+   public static PreRollRecorder forDuration(int seconds, int fps, int maxFrameBytes) {
+      return new PreRollRecorder(new PreRollRing(seconds * fps, maxFrameBytes));
+   }
+
+   public PreRollRing getRing() {
+      return ring;
+   }
+
+   /**
+    * Record a read back frame, every one of them stands alone.
+    */
+   @Override public void onFrame(ReadbackFrame frame) {
+      ring.write(frame.getTimestamp(), PreRollRing.FLAG_KEY_FRAME, frame.getWidth(), frame.getHeight(),
+         frame.pixelsInPlace());
+   }
+
+   /**
+    * Record an encoded packet, such as a <code>MediaCodec</code> output buffer positioned on
+    * its data. Call from a single thread, the one feeding read back frames if any.
+    *
+    * @param keyFrame True for sync frames, snapshots start at one.
+    */
+   public void onPacket(ByteBuffer data, long timestampNanos, boolean keyFrame) {
+      ring.write(timestampNanos, keyFrame ? PreRollRing.FLAG_KEY_FRAME : 0, 0, 0, data);
+   }
+
+   /**
+    * Write the last <code>durationNanos</code> of frames to the file, through a
+    * <code>.part</code> file renamed once synced. Can be called while a previous save runs.
+    */
+   public Future<PreRollRing.Snapshot> save(final File file, final long durationNanos) {
+      return executor.submit(new Callable<PreRollRing.Snapshot>() {
+         @Override public PreRollRing.Snapshot call() throws IOException {
+            File partial = new File(file.getPath() + PARTIAL_SUFFIX);
+            PreRollRing.Snapshot snapshot;
+            FileOutputStream stream = new FileOutputStream(partial);
+            try {
+               FileChannel channel = stream.getChannel();
+               snapshot = ring.snapshot(durationNanos, channel);
+               channel.force(false);
+            } catch (IOException | RuntimeException e) {
+               stream.close();
+               if (!partial.delete()) Timber.w("Can't delete %s", partial);
+               throw e;
+            }
+            stream.close();
+            if (!partial.renameTo(file)) {
+               throw new IOException("Can't rename " + partial + " to " + file);
+            }
+            Timber.d("Pre-roll saved to %s: %s", file, snapshot);
+            return snapshot;
+         }
+      });
+   }
+
+   /**
+    * Finish the pending saves and stop. The ring keeps its memory until collected.
+    */
+   public void release() {
+      executor.shutdown();
+   }
+}
@@ -0,0 +1,259 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, off heap ring keeping the last frames of a stream (encoded packets or small
+ * RGBA frames), from which snapshots of the last seconds are written out while recording
+ * goes on.
+ * <p>
+ * Frames go into slots of a single direct buffer, the oldest slot is overwritten by the next
+ * frame. One thread writes, without locks or allocations. Each slot is guarded by a sequence
+ * number (a seqlock): odd while the writer fills it, then even. Readers copy a slot and keep
+ * the copy only if its sequence didn't change meanwhile, so any number of snapshots can run
+ * along the writer and each one writes only whole frames. A frame lost to the writer during
+ * a snapshot, only possible for the oldest ones, makes the snapshot skip to the next key frame.
+ * <p>
+ * Snapshot format, little endian: the magic <code>PRRL</code> and a version int, then up to
+ * the end per frame its timestamp long, flags, payload length, width and height ints and the
+ * payload.
+ */
+public final class PreRollRing {
+
+   public static final int FLAG_KEY_FRAME = 1;
+
+   static final int MAGIC = 0x4c525250; //"PRRL"
+   static final int VERSION = 1;
+   static final int FILE_HEADER_BYTES = 8;
+   //timestamp, flags, length, width, height
+   static final int RECORD_HEADER_BYTES = 24;
+
+   private final int slotCount;
+   private final int slotBytes;
+   private final ByteBuffer ring;
+   private final AtomicLongArray sequences;
+   //Frames written so far, the newest one is written - 1
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong dropped = new AtomicLong();
+   //Written by readers between a copy and the second sequence read
+   private final AtomicLong readFence = new AtomicLong();
+
+   //Writer only, positioned on the slot being filled
+   private final ByteBuffer writerView;
+
+   /**
+    * @param slotCount    Frames kept, the pre-roll duration times the frame rate.
+    * @param maxFrameBytes Largest payload, bigger frames are dropped.
+    */
+   public PreRollRing(int slotCount, int maxFrameBytes) {
+      if (slotCount < 2) throw new IllegalArgumentException("Invalid slot count " + slotCount);
+      this.slotCount = slotCount;
+      this.slotBytes = RECORD_HEADER_BYTES + maxFrameBytes;
+      long capacity = (long) slotCount * slotBytes;
+      if (capacity > Integer.MAX_VALUE) throw new IllegalArgumentException("Ring of " + capacity + " bytes");
+      this.ring = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+      this.sequences = new AtomicLongArray(slotCount);
+      this.writerView = ring.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+   }
+
+   public int getSlotCount() {
+      return slotCount;
+   }
+
+   public int getMaxFrameBytes() {
+      return slotBytes - RECORD_HEADER_BYTES;
+   }
+
+   /**
+    * Off heap memory taken by the ring.
+    */
+   public int getCapacityBytes() {
+      return ring.capacity();
+   }
+
+   public long getWrittenFrames() {
+      return written.get();
+   }
+
+   /**
+    * Frames larger than the slots.
+    */
+   public long getDroppedFrames() {
+      return dropped.get();
+   }
+
+   /**
+    * Append a frame, overwriting the oldest one. Writer thread only.
+    *
+    * @param data   Its remaining bytes are copied, its position and limit are left as they were.
+    * @param width  Of RGBA frames, 0 for encoded packets.
+    * @return False if the frame doesn't fit in a slot.
+    */
+   public boolean write(long timestampNanos, int flags, int width, int height, ByteBuffer data) {
+      int length = data.remaining();
+      if (length > slotBytes - RECORD_HEADER_BYTES) {
+         dropped.incrementAndGet();
+         return false;
+      }
+      long frame = written.get();
+      int slot = (int) (frame % slotCount);
+      int base = slot * slotBytes;
+
+      //Odd: readers copying the old frame will discard their copy. An atomic swap so the
+      //payload stores can't be seen before it
+      sequences.getAndSet(slot, 2 * frame + 1);
+      writerView.putLong(base, timestampNanos);
+      writerView.putInt(base + 8, flags);
+      writerView.putInt(base + 12, length);
+      writerView.putInt(base + 16, width);
+      writerView.putInt(base + 20, height);
+      int position = data.position();
+      writerView.limit(base + RECORD_HEADER_BYTES + length).position(base + RECORD_HEADER_BYTES);
+      writerView.put(data);
+      data.position(position);
+      writerView.clear();
+      sequences.set(slot, 2 * frame + 2);
+      written.lazySet(frame + 1);
+      return true;
+   }
+
+   /**
+    * Write the frames of the last <code>durationNanos</code> before the newest one, from the
+    * last key frame at or before that window. From any thread, along the writer and other
+    * snapshots.
+    */
+   public Snapshot snapshot(long durationNanos, WritableByteChannel channel) throws IOException {
+      ByteBuffer source = ring.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      ByteBuffer staging = ByteBuffer.allocateDirect(slotBytes).order(ByteOrder.LITTLE_ENDIAN);
+      long newest = written.get() - 1;
+      long first = findStart(newest, durationNanos, source, staging);
+
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      writeFully(channel, header);
+
+      Snapshot snapshot = new Snapshot();
+      boolean needKeyFrame = false;
+      for (long frame = first; frame >= 0 && frame <= newest; frame++) {
+         if (!copy(frame, source, staging, slotBytes)) {
+            //Overwritten while we got to it, what follows depends on it
+            snapshot.lostFrames++;
+            needKeyFrame = true;
+            continue;
+         }
+         int flags = staging.getInt(8);
+         if (needKeyFrame) {
+            if ((flags & FLAG_KEY_FRAME) == 0) {
+               snapshot.lostFrames++;
+               continue;
+            }
+            needKeyFrame = false;
+         }
+         long timestamp = staging.getLong(0);
+         if (snapshot.frames == 0) snapshot.firstTimestamp = timestamp;
+         snapshot.lastTimestamp = timestamp;
+         snapshot.frames++;
+         staging.limit(RECORD_HEADER_BYTES + staging.getInt(12)).position(0);
+         snapshot.bytes += staging.remaining();
+         writeFully(channel, staging);
+      }
+      snapshot.bytes += FILE_HEADER_BYTES;
+      return snapshot;
+   }
+
+   /**
+    * Frame the snapshot starts at, -1 if the ring holds none.
+    */
+   private long findStart(long newest, long durationNanos, ByteBuffer source, ByteBuffer staging) {
+      if (newest < 0 || !copy(newest, source, staging, RECORD_HEADER_BYTES)) return -1;
+      long windowStart = staging.getLong(0) - durationNanos;
+      long oldest = Math.max(0, newest - slotCount + 1);
+      long start = -1;
+      for (long frame = newest; frame >= oldest; frame--) {
+         //Older frames are being overwritten already
+         if (!copy(frame, source, staging, RECORD_HEADER_BYTES)) break;
+         if ((staging.getInt(8) & FLAG_KEY_FRAME) != 0) {
+            start = frame;
+            if (staging.getLong(0) <= windowStart) break;
+         }
+      }
+      return start;
+   }
+
+   /**
+    * Copy up to <code>bytes</code> of the frame's slot into the staging buffer, through the
+    * snapshot's own view of the ring.
+    *
+    * @return False if the slot doesn't hold the frame anymore, or not yet.
+    */
+   private boolean copy(long frame, ByteBuffer source, ByteBuffer staging, int bytes) {
+      int slot = (int) (frame % slotCount);
+      long expected = 2 * frame + 2;
+      if (sequences.get(slot) != expected) return false;
+      int base = slot * slotBytes;
+      source.clear();
+      int length = bytes;
+      if (bytes > RECORD_HEADER_BYTES) {
+         //Only as much payload as the frame has, a torn length is caught below
+         length = RECORD_HEADER_BYTES + Math.min(slotBytes - RECORD_HEADER_BYTES,
+            Math.max(0, source.getInt(base + 12)));
+      }
+      source.limit(base + length).position(base);
+      staging.clear();
+      staging.put(source);
+      //Keeps the copy from moving past the second sequence read
+      readFence.set(frame);
+      return sequences.get(slot) == expected;
+   }
+
+   private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+   }
+
+   /**
+    * What a snapshot wrote.
+    */
+   public static final class Snapshot {
+      private int frames;
+      private int lostFrames;
+      private long bytes;
+      private long firstTimestamp;
+      private long lastTimestamp;
+
+      public int getFrames() {
+         return frames;
+      }
+
+      /**
+       * Frames skipped because the writer overwrote them, or a frame they depend on, before
+       * they were copied.
+       */
+      public int getLostFrames() {
+         return lostFrames;
+      }
+
+      public long getBytes() {
+         return bytes;
+      }
+
+      public long getFirstTimestamp() {
+         return firstTimestamp;
+      }
+
+      public long getLastTimestamp() {
+         return lastTimestamp;
+      }
+
+      @Override public String toString() {
+         return "Snapshot{" + frames + " frames, " + bytes + " bytes, "
+            + (lastTimestamp - firstTimestamp) / 1000000 + " ms, lost " + lostFrames + "}";
+      }
+   }
+}
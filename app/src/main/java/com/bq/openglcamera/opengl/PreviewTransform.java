@@ -0,0 +1,173 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Model view projection matrix that fits the camera image in the preview surface.
+ * <p>
+ * Applied on top of the <code>SurfaceTexture</code> transform matrix, which already turns the
+ * image upright for the device's natural orientation and mirrors front cameras. What is left
+ * is to rotate it against the display rotation and scale it to fill the surface
+ * ({@link ScaleMode#CENTER_CROP}) or to fit inside it ({@link ScaleMode#FIT_CENTER}) keeping
+ * its aspect ratio. The matrix is recomputed only when an
+ * input changes. {@link #copyIfChanged(float[])} costs a volatile read per frame otherwise.
+ * <p>
+ * Setters can be called from any thread, {@link #copyIfChanged(float[])} from the render thread.
+ */
+public final class PreviewTransform {
+
+   public enum ScaleMode {
+      /** Fill the surface, cropping the image edges that don't fit. */
+      CENTER_CROP,
+      /** Show the whole image, leaving bars where the aspect ratios differ. */
+      FIT_CENTER
+   }
+
+   private final float[] matrix = new float[16];
+
+   //Guarded by this
+   private int surfaceWidth;
+   private int surfaceHeight;
+   private int bufferWidth;
+   private int bufferHeight;
+   private int rotation;
+   private ScaleMode scaleMode = ScaleMode.CENTER_CROP;
+
+   private volatile int revision = 1;
+   //Render thread only
+   private int copiedRevision;
+
+   public PreviewTransform() {
+      compute();
+   }
+
+   /**
+    * Clockwise rotation that keeps the camera image upright on a rotated display.
+    *
+    * @param displayRotation Display rotation in degrees, 0, 90, 180 or 270.
+    */
+   public static int previewRotation(int displayRotation) {
+      return (360 - displayRotation % 360) % 360;
+   }
+
+   /**
+    * Width of the camera image once the <code>SurfaceTexture</code> transform has turned it
+    * upright: the buffer height when the sensor is mounted sideways.
+    *
+    * @param sensorOrientation <code>CameraCharacteristics.SENSOR_ORIENTATION</code>.
+    */
+   public static int uprightWidth(int bufferWidth, int bufferHeight, int sensorOrientation) {
+      return sensorOrientation % 180 == 0 ? bufferWidth : bufferHeight;
+   }
+
+   /**
+    * Height counterpart of {@link #uprightWidth(int, int, int)}.
+    */
+   public static int uprightHeight(int bufferWidth, int bufferHeight, int sensorOrientation) {
+      return sensorOrientation % 180 == 0 ? bufferHeight : bufferWidth;
+   }
+
+   public synchronized void setSurfaceSize(int width, int height) {
+      if (width == surfaceWidth && height == surfaceHeight) return;
+      surfaceWidth = width;
+      surfaceHeight = height;
+      compute();
+   }
+
+   /**
+    * Size of the camera image after the <code>SurfaceTexture</code> transform, see
+    * {@link #uprightWidth(int, int, int)}. The sides of the buffers given to
+    * <code>SurfaceTexture.setDefaultBufferSize</code>, swapped for sideways sensors.
+    */
+   public synchronized void setBufferSize(int width, int height) {
+      if (width == bufferWidth && height == bufferHeight) return;
+      bufferWidth = width;
+      bufferHeight = height;
+      compute();
+   }
+
+   /**
+    * @param rotation Clockwise rotation of the upright image in degrees, a multiple of 90. See
+    *                 {@link #previewRotation(int)}.
+    */
+   public synchronized void setRotation(int rotation) {
+      if (rotation % 90 != 0) {
+         throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotation);
+      }
+      rotation = (rotation % 360 + 360) % 360;
+      if (rotation == this.rotation) return;
+      this.rotation = rotation;
+      compute();
+   }
+
+   public synchronized void setScaleMode(ScaleMode scaleMode) {
+      if (scaleMode == this.scaleMode) return;
+      this.scaleMode = scaleMode;
+      compute();
+   }
+
+   /**
+    * Copy the matrix into <code>destination</code> if it changed since the last copy.
+    *
+    * @param destination Column major 4x4 matrix, as taken by <code>glUniformMatrix4fv</code>.
+    * @return True if the matrix was copied.
+    */
+   public boolean copyIfChanged(float[] destination) {
+      if (revision == copiedRevision) return false;
+      synchronized (this) {
+         System.arraycopy(matrix, 0, destination, 0, matrix.length);
+         copiedRevision = revision;
+      }
+      return true;
+   }
+
+   /**
+    * Copy the current matrix into <code>destination</code>.
+    */
+   public synchronized void getMatrix(float[] destination) {
+      System.arraycopy(matrix, 0, destination, 0, matrix.length);
+   }
+
+   private void compute() {
+      //Upright image size once rotated into display orientation
+      boolean swapped = rotation == 90 || rotation == 270;
+      int contentWidth = swapped ? bufferHeight : bufferWidth;
+      int contentHeight = swapped ? bufferWidth : bufferHeight;
+
+      //The quad covers the whole surface, scale one axis so the image keeps its aspect ratio
+      float scaleX = 1;
+      float scaleY = 1;
+      if (contentWidth > 0 && contentHeight > 0 && surfaceWidth > 0 && surfaceHeight > 0) {
+         //Compare contentWidth / contentHeight with surfaceWidth / surfaceHeight without dividing
+         long content = (long) contentWidth * surfaceHeight;
+         long surface = (long) surfaceWidth * contentHeight;
+         boolean wider = content > surface;
+         if (wider == (scaleMode == ScaleMode.CENTER_CROP)) {
+            scaleX = (float) content / surface;
+         } else {
+            scaleY = (float) surface / content;
+         }
+      }
+
+      //Rotating the quad clockwise, y points up in clip space
+      int cos = rotation == 0 ? 1 : rotation == 180 ? -1 : 0;
+      int sin = rotation == 90 ? 1 : rotation == 270 ? -1 : 0;
+
+      //scale * rotation, column major
+      matrix[0] = scaleX * cos;
+      matrix[1] = -scaleY * sin;
+      matrix[2] = 0;
+      matrix[3] = 0;
+      matrix[4] = scaleX * sin;
+      matrix[5] = scaleY * cos;
+      matrix[6] = 0;
+      matrix[7] = 0;
+      matrix[8] = 0;
+      matrix[9] = 0;
+      matrix[10] = 1;
+      matrix[11] = 0;
+      matrix[12] = 0;
+      matrix[13] = 0;
+      matrix[14] = 0;
+      matrix[15] = 1;
+      revision++;
+   }
+}
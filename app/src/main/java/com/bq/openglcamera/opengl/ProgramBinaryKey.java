@@ -0,0 +1,76 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Identifies a linked program binary: the shader sources plus the driver that produced it.
+ * A binary is only valid for the exact GL vendor / renderer / version it was created with.
+ */
+final class ProgramBinaryKey {
+
+   final String sourceHash;
+   final String vendor;
+   final String renderer;
+   final String version;
+
+   ProgramBinaryKey(String sourceHash, String vendor, String renderer, String version) {
+      this.sourceHash = sourceHash;
+      this.vendor = nonNull(vendor);
+      this.renderer = nonNull(renderer);
+      this.version = nonNull(version);
+   }
+
+   /**
+    * Stable hash of a vertex / fragment source pair.
+    */
+   static String hashSources(String vertexSource, String fragmentSource) {
+      //The separator keeps ("ab", "c") and ("a", "bc") apart
+      return sha1(vertexSource + '\u0000' + fragmentSource);
+   }
+
+   /**
+    * Everything the binary depends on, stored in the file header to detect stale entries
+    * and hash collisions.
+    */
+   String descriptor() {
+      return sourceHash + '\n' + vendor + '\n' + renderer + '\n' + version;
+   }
+
+   String fileName() {
+      return sha1(descriptor()) + ".bin";
+   }
+
+   @Override public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ProgramBinaryKey)) return false;
+      return descriptor().equals(((ProgramBinaryKey) o).descriptor());
+   }
+
+   @Override public int hashCode() {
+      return descriptor().hashCode();
+   }
+
+   @Override public String toString() {
+      return "ProgramBinaryKey{" + sourceHash + ", " + vendor + ", " + renderer + ", " + version + "}";
+   }
+
+   private static String nonNull(String value) {
+      return value == null ? "" : value;
+   }
+
+   private static String sha1(String value) {
+      try {
+         byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+         StringBuilder hex = new StringBuilder(digest.length * 2);
+         for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+         }
+         return hex.toString();
+      } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+}
@@ -0,0 +1,187 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * On-disk store of program binaries, one file per {@link ProgramBinaryKey}.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int    magic ("GLPB")
+ * int    file format version
+ * int    descriptor length, followed by the UTF-8 key descriptor
+ * int    GL binary format
+ * int    binary length
+ * int    CRC32 of the binary
+ * byte[] binary
+ * </pre>
+ * Files are written to a temporary file and renamed into place, so readers never see a
+ * partial entry. Entries are read back through a memory map and handed to GL without a copy.
+ * Any entry that doesn't match the expected key or checksum is deleted.
+ */
+final class ProgramBinaryStore {
+
+   static final int MAGIC = 0x474C5042; //GLPB
+   static final int FORMAT_VERSION = 1;
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   private final File directory;
+
+   ProgramBinaryStore(File directory) {
+      this.directory = directory;
+   }
+
+   /**
+    * @return The stored binary, or null if there is no valid entry for the key.
+    */
+   Entry read(ProgramBinaryKey key) {
+      File file = fileFor(key);
+      if (!file.isFile()) return null;
+
+      Entry entry = null;
+      try {
+         RandomAccessFile raf = new RandomAccessFile(file, "r");
+         try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            entry = parse(mapped, key);
+         } finally {
+            raf.close();
+         }
+      } catch (IOException e) {
+         Timber.w(e, "Failed to read program binary %s", file);
+      }
+      if (entry == null) {
+         Timber.d("Discarding invalid program binary %s", file);
+         delete(file);
+      }
+      return entry;
+   }
+
+   /**
+    * Atomically replace the entry for the key.
+    *
+    * @return True if the binary is now on disk.
+    */
+   boolean write(ProgramBinaryKey key, int binaryFormat, ByteBuffer binary) {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         Timber.w("Can't create program cache dir %s", directory);
+         return false;
+      }
+      File file = fileFor(key);
+      File tmp = new File(directory, file.getName() + ".tmp");
+      try {
+         FileOutputStream out = new FileOutputStream(tmp);
+         try {
+            FileChannel channel = out.getChannel();
+            channel.write(encodeHeader(key, binaryFormat, binary));
+            ByteBuffer body = binary.duplicate();
+            while (body.hasRemaining()) {
+               channel.write(body);
+            }
+            channel.force(true);
+         } finally {
+            out.close();
+         }
+         if (!tmp.renameTo(file)) {
+            throw new IOException("rename failed");
+         }
+         return true;
+      } catch (IOException e) {
+         Timber.w(e, "Failed to write program binary %s", file);
+         delete(tmp);
+         return false;
+      }
+   }
+
+   /**
+    * Drop the entry for the key, used when the driver rejects a stored binary.
+    */
+   void remove(ProgramBinaryKey key) {
+      delete(fileFor(key));
+   }
+
+   File fileFor(ProgramBinaryKey key) {
+      return new File(directory, key.fileName());
+   }
+
+   static ByteBuffer encodeHeader(ProgramBinaryKey key, int binaryFormat, ByteBuffer binary) {
+      byte[] descriptor = key.descriptor().getBytes(UTF_8);
+      ByteBuffer header = ByteBuffer.allocate(6 * 4 + descriptor.length);
+      header.putInt(MAGIC);
+      header.putInt(FORMAT_VERSION);
+      header.putInt(descriptor.length);
+      header.put(descriptor);
+      header.putInt(binaryFormat);
+      header.putInt(binary.remaining());
+      header.putInt(crc(binary));
+      header.flip();
+      return header;
+   }
+
+   /**
+    * Validate an entry against the expected key.
+    *
+    * @return The entry, with its binary as a view on <code>data</code>, or null if invalid.
+    */
+   static Entry parse(ByteBuffer data, ProgramBinaryKey key) {
+      try {
+         if (data.getInt() != MAGIC) return null;
+         if (data.getInt() != FORMAT_VERSION) return null;
+         int descriptorLength = data.getInt();
+         if (descriptorLength < 0 || descriptorLength > data.remaining()) return null;
+         byte[] descriptor = new byte[descriptorLength];
+         data.get(descriptor);
+         if (!key.descriptor().equals(new String(descriptor, UTF_8))) return null;
+         int binaryFormat = data.getInt();
+         int length = data.getInt();
+         int crc = data.getInt();
+         if (length <= 0 || length != data.remaining()) return null;
+         ByteBuffer binary = data.slice();
+         if (crc(binary) != crc) return null;
+         return new Entry(binaryFormat, binary);
+      } catch (RuntimeException e) {
+         //BufferUnderflowException and friends, the file is truncated
+         return null;
+      }
+   }
+
+   private static int crc(ByteBuffer buffer) {
+      CRC32 crc = new CRC32();
+      ByteBuffer view = buffer.duplicate();
+      byte[] chunk = new byte[4096];
+      while (view.hasRemaining()) {
+         int n = Math.min(chunk.length, view.remaining());
+         view.get(chunk, 0, n);
+         crc.update(chunk, 0, n);
+      }
+      return (int) crc.getValue();
+   }
+
+   private static void delete(File file) {
+      if (file.exists() && !file.delete()) {
+         Timber.w("Failed to delete %s", file);
+      }
+   }
+
+   static final class Entry {
+      final int binaryFormat;
+      final ByteBuffer binary;
+
+      Entry(int binaryFormat, ByteBuffer binary) {
+         this.binaryFormat = binaryFormat;
+         this.binary = binary;
+      }
+   }
+}
@@ -0,0 +1,145 @@
+package com.bq.openglcamera.opengl;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Two level cache in front of {@link GlUtil#createProgram(GlBackend, String, String)}.
+ * <ol>
+ * <li>Linked programs of the current context, by source hash.</li>
+ * <li>Program binaries on disk (ES3 only), by source hash and GL driver, see
+ * {@link ProgramBinaryStore}.</li>
+ * </ol>
+ * Programs are owned by the cache, call {@link #release(GlBackend)} before the context goes away.
+ * Not thread safe, use it from the thread the context is current on.
+ */
+public class ProgramCache {
+
+   private final Map<String, Integer> programs = new HashMap<>();
+   private final ProgramBinaryStore store;
+
+   /**
+    * Cache that keeps program binaries under <code>directory</code>.
+    */
+   public ProgramCache(File directory) {
+      this.store = new ProgramBinaryStore(directory);
+   }
+
+   /**
+    * Cache that keeps program binaries in the app cache dir.
+    */
+   public ProgramCache(Context context) {
+      this(new File(context.getCacheDir(), "gl_programs"));
+   }
+
+   /**
+    * Program for a pair of shaders in the assets folder.
+    *
+    * @return A handle to the program, or 0 on failure.
+    */
+   public int getProgram(Context context, GlBackend gl, String vertexAssetFile, String fragmentAssetFile) {
+      return getProgram(gl,
+         GlUtil.getStringFromFileInAssets(context, vertexAssetFile),
+         GlUtil.getStringFromFileInAssets(context, fragmentAssetFile));
+   }
+
+   /**
+    * Program for a pair of shader sources, linked from a stored binary when possible.
+    *
+    * @return A handle to the program, or 0 on failure.
+    */
+   public int getProgram(GlBackend gl, String vertexSource, String fragmentSource) {
+      String sourceHash = ProgramBinaryKey.hashSources(vertexSource, fragmentSource);
+      Integer cached = programs.get(sourceHash);
+      if (cached != null) return cached;
+
+      ProgramBinaryKey key = supportsBinaries(gl)
+         ? new ProgramBinaryKey(sourceHash,
+         gl.glGetString(GLES20.GL_VENDOR), gl.glGetString(GLES20.GL_RENDERER), gl.glGetString(GLES20.GL_VERSION))
+         : null;
+
+      int program = key == null ? 0 : loadBinary(gl, key);
+      if (program == 0) {
+         program = GlUtil.createProgram(gl, vertexSource, fragmentSource);
+         if (program != 0 && key != null) {
+            storeBinary(gl, key, program);
+         }
+      }
+      if (program != 0) {
+         programs.put(sourceHash, program);
+      }
+      return program;
+   }
+
+   /**
+    * Program for a pair of shader sources, owned by the caller from now on: the cache forgets
+    * it, deleting it is up to the caller. Stored binaries still make it cheap.
+    *
+    * @return A handle to the program, or 0 on failure.
+    */
+   public int takeProgram(GlBackend gl, String vertexSource, String fragmentSource) {
+      int program = getProgram(gl, vertexSource, fragmentSource);
+      programs.remove(ProgramBinaryKey.hashSources(vertexSource, fragmentSource));
+      return program;
+   }
+
+   /**
+    * Delete every program of the current context. Stored binaries are kept.
+    */
+   public void release(GlBackend gl) {
+      for (int program : programs.values()) {
+         gl.glDeleteProgram(program);
+      }
+      programs.clear();
+   }
+
+   private int loadBinary(GlBackend gl, ProgramBinaryKey key) {
+      ProgramBinaryStore.Entry entry = store.read(key);
+      if (entry == null) return 0;
+
+      int program = gl.glCreateProgram();
+      if (program == 0) return 0;
+      gl.glProgramBinary(program, entry.binaryFormat, entry.binary, entry.binary.remaining());
+      int[] linkStatus = new int[1];
+      gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+      //Clear any error raised by a rejected binary, we recover by compiling
+      gl.glGetError();
+      if (linkStatus[0] != GLES20.GL_TRUE) {
+         //Driver update or a binary from another device, compile from source instead
+         Timber.d("Program binary rejected, recompiling %s", key);
+         gl.glDeleteProgram(program);
+         store.remove(key);
+         return 0;
+      }
+      return program;
+   }
+
+   private void storeBinary(GlBackend gl, ProgramBinaryKey key, int program) {
+      int[] length = new int[1];
+      gl.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+      if (length[0] <= 0) return;
+
+      ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+      int[] format = new int[1];
+      gl.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+      if (gl.glGetError() != GLES20.GL_NO_ERROR || length[0] <= 0) return;
+      binary.limit(length[0]);
+      store.write(key, format[0], binary);
+   }
+
+   private static boolean supportsBinaries(GlBackend gl) {
+      if (GlUtil.getGlesMajorVersion(gl) < 3) return false;
+      int[] formats = new int[1];
+      gl.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+      return formats[0] > 0;
+   }
+}
@@ -0,0 +1,118 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import timber.log.Timber;
+
+/**
+ * Compiles and links programs on a worker thread that owns a context shared with the render
+ * context, so the render thread never waits for the shader compiler.
+ * <p>
+ * Requests run in order. A request cancelled before the worker gets to it, because a newer
+ * one replaced it (shader hot reload), is skipped, one cancelled while compiling has its
+ * program deleted. Published programs belong to the requester, who deletes them once replaced;
+ * the compiler's {@link ProgramCache} only keeps their binaries.
+ */
+@SuppressWarnings("Convert2Lambda")
+public class ProgramCompiler {
+
+   /**
+    * Context the worker makes current before compiling, sharing objects with the render context.
+    */
+   public interface WorkerContext {
+      boolean makeCurrent();
+
+      void release();
+   }
+
+   private final GlBackend gl;
+   private final ProgramCache cache;
+   private final WorkerContext context;
+   private final ExecutorService executor;
+   private boolean released;
+
+   /**
+    * @param gl    Backend for the worker thread, not shared with the render thread.
+    * @param cache Cache used only by the worker.
+    */
+   public ProgramCompiler(GlBackend gl, ProgramCache cache, WorkerContext context) {
+      this(gl, cache, context, Executors.newSingleThreadExecutor(new ThreadFactory() {
+         @Override public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "ProgramCompiler");
+         }
+      }));
+   }
+
+   /**
+    * @param executor Must run tasks one at a time on the same thread.
+    */
+   ProgramCompiler(GlBackend gl, ProgramCache cache, WorkerContext context, ExecutorService executor) {
+      this.gl = gl;
+      this.cache = cache;
+      this.context = context;
+      this.executor = executor;
+      executor.execute(new Runnable() {
+         @Override public void run() {
+            if (!ProgramCompiler.this.context.makeCurrent()) {
+               Timber.e("Can't make the compiler context current");
+            }
+         }
+      });
+   }
+
+   /**
+    * Queue a program for compilation.
+    */
+   public CompiledProgram compile(String vertexSource, String fragmentSource) {
+      final CompiledProgram request = new CompiledProgram(vertexSource, fragmentSource);
+      if (released) {
+         request.fail();
+         return request;
+      }
+      executor.execute(new Runnable() {
+         @Override public void run() {
+            if (request.isCancelled()) return;
+            int program = cache.takeProgram(gl, request.vertexSource, request.fragmentSource);
+            if (program == 0) {
+               Timber.e("Background program compilation failed");
+               request.fail();
+               return;
+            }
+            //Objects created in one context are only safe to use from another once complete
+            gl.glFinish();
+            if (!request.publish(program)) {
+               //Replaced while compiling, nobody will ever use it
+               gl.glDeleteProgram(program);
+            }
+         }
+      });
+      return request;
+   }
+
+   /**
+    * Release the worker context once the queued requests are done, blocking until then. The
+    * published programs stay valid in the render context.
+    */
+   public void release() {
+      if (released) return;
+      released = true;
+      Future<?> done = executor.submit(new Runnable() {
+         @Override public void run() {
+            cache.release(gl);
+            context.release();
+         }
+      });
+      executor.shutdown();
+      try {
+         done.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         Timber.e(e.getCause(), "Releasing the compiler failed");
+      }
+   }
+}
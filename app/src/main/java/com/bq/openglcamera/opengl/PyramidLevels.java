@@ -0,0 +1,60 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Level sizes and subscriber counts of a {@link DownsamplePyramid}, without any GL.
+ * <p>
+ * Level <code>n</code> is the frame scaled by <code>1 / 2^n</code>, levels go from 1 to
+ * {@link #MAX_LEVEL}. Each level is rendered from the one above it, so a frame renders every
+ * level down to the deepest one somebody subscribed to, and nothing below it.
+ * Subscriptions can change from any thread.
+ */
+final class PyramidLevels {
+
+   static final int MAX_LEVEL = 4;
+
+   private final AtomicIntegerArray subscribers = new AtomicIntegerArray(MAX_LEVEL + 1);
+
+   /**
+    * Size of one dimension at the given level, rounded up and at least 1.
+    */
+   static int levelSize(int size, int level) {
+      checkLevel(level);
+      int scale = 1 << level;
+      return Math.max(1, (size + scale - 1) / scale);
+   }
+
+   static void checkLevel(int level) {
+      if (level < 1 || level > MAX_LEVEL) {
+         throw new IllegalArgumentException("Level must be between 1 and " + MAX_LEVEL + ": " + level);
+      }
+   }
+
+   void subscribe(int level) {
+      checkLevel(level);
+      subscribers.incrementAndGet(level);
+   }
+
+   void unsubscribe(int level) {
+      checkLevel(level);
+      if (subscribers.decrementAndGet(level) < 0) {
+         subscribers.incrementAndGet(level);
+         throw new IllegalStateException("Level " + level + " has no subscribers");
+      }
+   }
+
+   boolean isSubscribed(int level) {
+      return subscribers.get(level) > 0;
+   }
+
+   /**
+    * Levels to render this frame: 1 to the returned level, 0 for none.
+    */
+   int deepestSubscribedLevel() {
+      for (int level = MAX_LEVEL; level >= 1; level--) {
+         if (subscribers.get(level) > 0) return level;
+      }
+      return 0;
+   }
+}
@@ -0,0 +1,67 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame read back to CPU memory: tightly packed RGBA8888 rows, bottom row first (GL order).
+ * <p>
+ * The pixels live in a pooled {@link FrameBuffer}. A listener that keeps a frame after
+ * {@link PixelReadback.Listener#onFrame(ReadbackFrame)} returns must {@link #retain()} it and
+ * {@link #release()} it once done, from any thread.
+ */
+public final class ReadbackFrame {
+
+   private final FrameBuffer buffer;
+   private final int width;
+   private final int height;
+   private final long timestamp;
+
+   ReadbackFrame(FrameBuffer buffer, int width, int height, long timestamp) {
+      this.buffer = buffer;
+      this.width = width;
+      this.height = height;
+      this.timestamp = timestamp;
+   }
+
+   /**
+    * A new view on the pixels, positioned at the first byte of the frame.
+    */
+   public ByteBuffer getPixels() {
+      ByteBuffer view = buffer.buffer().duplicate();
+      view.position(0).limit(width * height * 4);
+      return view;
+   }
+
+   /**
+    * The pooled buffer itself positioned on the pixels, for listeners copying them on the
+    * render thread without allocating. Only valid during the listener call.
+    */
+   ByteBuffer pixelsInPlace() {
+      ByteBuffer pixels = buffer.buffer();
+      pixels.limit(width * height * 4).position(0);
+      return pixels;
+   }
+
+   public int getWidth() {
+      return width;
+   }
+
+   public int getHeight() {
+      return height;
+   }
+
+   /**
+    * {@link android.graphics.SurfaceTexture#getTimestamp()} of the camera image, in nanoseconds.
+    */
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   public void retain() {
+      buffer.retain();
+   }
+
+   public void release() {
+      buffer.release();
+   }
+}
@@ -0,0 +1,40 @@
+package com.bq.openglcamera.opengl;
+
+import android.graphics.SurfaceTexture;
+
+/**
+ * Renderer that draws with another renderer and then reads the result back with a
+ * {@link PixelReadback}.
+ */
+public class ReadbackRenderer implements TextureViewGLWrapper.GLRenderer {
+
+   private final TextureViewGLWrapper.GLRenderer renderer;
+   private final PixelReadback readback;
+
+   public ReadbackRenderer(TextureViewGLWrapper.GLRenderer renderer, PixelReadback readback) {
+      this.renderer = renderer;
+      this.readback = readback;
+   }
+
+   @Override
+   public void onSurfaceCreated(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      renderer.onSurfaceCreated(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      readback.setup(surfaceWidth, surfaceHeight);
+   }
+
+   @Override
+   public void onSurfaceChanged(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      renderer.onSurfaceChanged(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      readback.setup(surfaceWidth, surfaceHeight);
+   }
+
+   @Override public void onSurfaceDestroyed(SurfaceTexture eglSurfaceTexture) {
+      readback.release();
+      renderer.onSurfaceDestroyed(eglSurfaceTexture);
+   }
+
+   @Override public void onFrameAvailable(SurfaceTexture eglSurfaceTexture) {
+      renderer.onFrameAvailable(eglSurfaceTexture);
+      readback.readFrame(eglSurfaceTexture.getTimestamp());
+   }
+}
@@ -0,0 +1,57 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Bookkeeping for a ring of pixel buffers used to read frames back without stalling.
+ * <p>
+ * Every frame is written into the next slot, and the slot written <code>depth - 1</code> frames
+ * earlier is the one that gets mapped, giving the GPU that long to finish the transfer.
+ * Plain Java, the GL side lives in {@link PixelReadback}.
+ */
+final class ReadbackRing {
+
+   private final int depth;
+   private final long[] timestamps;
+   private int head;
+   private int pending;
+
+   ReadbackRing(int depth) {
+      if (depth < 2) throw new IllegalArgumentException("A ring needs at least 2 slots: " + depth);
+      this.depth = depth;
+      this.timestamps = new long[depth];
+   }
+
+   int depth() {
+      return depth;
+   }
+
+   /**
+    * Claim the slot the frame with the given timestamp is written into.
+    */
+   int beginWrite(long timestamp) {
+      int slot = head;
+      timestamps[slot] = timestamp;
+      head = (head + 1) % depth;
+      if (pending < depth) pending++;
+      return slot;
+   }
+
+   /**
+    * The oldest written slot, ready to be mapped, or -1 while the ring is still filling up.
+    * It is overwritten by the next {@link #beginWrite(long)}, so consume it before that.
+    */
+   int completedSlot() {
+      return pending < depth ? -1 : head;
+   }
+
+   long timestampOf(int slot) {
+      return timestamps[slot];
+   }
+
+   /**
+    * Forget every written slot, used when the frame size changes or readback pauses.
+    */
+   void reset() {
+      head = 0;
+      pending = 0;
+   }
+}
@@ -0,0 +1,173 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Per stage timings of the render loop.
+ * <p>
+ * The render thread brackets each stage with {@link #start()} and {@link #record(Stage, long)}.
+ * Both are allocation free, and do nothing but a volatile read while metrics are disabled
+ * (the default). {@link #snapshot()} can be called from any thread.
+ */
+public final class RenderMetrics {
+
+   public enum Stage {
+      /** From the frame available signal to the start of the render. */
+      QUEUE,
+      /** {@link android.graphics.SurfaceTexture#updateTexImage()}. */
+      UPDATE_TEX_IMAGE,
+      /**
+       * The renderer's frame callback. Includes UPDATE_TEX_IMAGE for renderers that latch the
+       * camera image themselves, but not for a {@link MultiStreamRenderer}, latched before it.
+       */
+      DRAW,
+      /** eglSwapBuffers. */
+      SWAP,
+      /** The whole render, draw and swap. */
+      FRAME,
+      /** From the camera timestamp of the image to the end of its swap. */
+      CAMERA_TO_PRESENT
+   }
+
+   private static final Stage[] STAGES = Stage.values();
+   //Weight of the newest frame interval in the frame rate average
+   private static final double FPS_SMOOTHING = 0.1;
+
+   private final Clock clock;
+   private volatile Clock cameraClock;
+   private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+   private volatile boolean enabled;
+
+   //Written by the render thread only
+   private volatile long lastPresentNanos;
+   private volatile double averageFrameIntervalNanos;
+
+   public RenderMetrics() {
+      this(Clock.SYSTEM);
+   }
+
+   public RenderMetrics(Clock clock) {
+      this.clock = clock;
+      this.cameraClock = clock;
+      for (int i = 0; i < histograms.length; i++) {
+         histograms[i] = new LatencyHistogram();
+      }
+   }
+
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   /**
+    * Clock in the time base of the camera timestamps given to {@link #framePresented(long)}.
+    * Defaults to the metrics clock, right for cameras with an UNKNOWN
+    * <code>SENSOR_INFO_TIMESTAMP_SOURCE</code>. REALTIME ones need a clock reading
+    * <code>SystemClock.elapsedRealtimeNanos()</code>, which keeps counting in deep sleep.
+    */
+   public void setCameraClock(Clock cameraClock) {
+      this.cameraClock = cameraClock;
+   }
+
+   /**
+    * Start time for a stage, or 0 when disabled.
+    */
+   public long start() {
+      return enabled ? clock.nanoTime() : 0;
+   }
+
+   /**
+    * End the stage started at <code>startNanos</code>.
+    */
+   public void record(Stage stage, long startNanos) {
+      if (!enabled || startNanos == 0) return;
+      histograms[stage.ordinal()].record(clock.nanoTime() - startNanos);
+   }
+
+   /**
+    * Record an already measured duration.
+    */
+   public void recordDuration(Stage stage, long nanos) {
+      if (!enabled) return;
+      histograms[stage.ordinal()].record(nanos);
+   }
+
+   /**
+    * A frame was presented. Feeds the frame rate and, when the camera timestamp is known,
+    * the {@link Stage#CAMERA_TO_PRESENT} latency.
+    *
+    * @param cameraTimestampNanos {@link android.graphics.SurfaceTexture#getTimestamp()}, in the
+    *                             time base of {@link #setCameraClock(Clock)}, or 0 if unknown.
+    */
+   public void framePresented(long cameraTimestampNanos) {
+      if (!enabled) return;
+      long now = clock.nanoTime();
+      if (cameraTimestampNanos > 0) {
+         Clock cameraClock = this.cameraClock;
+         long cameraNow = cameraClock == clock ? now : cameraClock.nanoTime();
+         if (cameraTimestampNanos <= cameraNow) {
+            histograms[Stage.CAMERA_TO_PRESENT.ordinal()].record(cameraNow - cameraTimestampNanos);
+         }
+      }
+      long last = lastPresentNanos;
+      if (last != 0) {
+         double interval = now - last;
+         double average = averageFrameIntervalNanos;
+         averageFrameIntervalNanos = average == 0
+            ? interval
+            : average + (interval - average) * FPS_SMOOTHING;
+      }
+      lastPresentNanos = now;
+   }
+
+   public void reset() {
+      for (LatencyHistogram histogram : histograms) {
+         histogram.reset();
+      }
+      lastPresentNanos = 0;
+      averageFrameIntervalNanos = 0;
+   }
+
+   public Snapshot snapshot() {
+      Map<Stage, LatencyHistogram.Summary> stages = new EnumMap<>(Stage.class);
+      for (Stage stage : STAGES) {
+         stages.put(stage, histograms[stage.ordinal()].summarize());
+      }
+      double interval = averageFrameIntervalNanos;
+      return new Snapshot(stages, interval == 0 ? 0 : 1e9 / interval);
+   }
+
+   public static final class Snapshot {
+      private final Map<Stage, LatencyHistogram.Summary> stages;
+      private final double framesPerSecond;
+
+      Snapshot(Map<Stage, LatencyHistogram.Summary> stages, double framesPerSecond) {
+         this.stages = stages;
+         this.framesPerSecond = framesPerSecond;
+      }
+
+      public LatencyHistogram.Summary get(Stage stage) {
+         return stages.get(stage);
+      }
+
+      /**
+       * Presented frames per second, smoothed over the last frames.
+       */
+      public double getFramesPerSecond() {
+         return framesPerSecond;
+      }
+
+      @Override public String toString() {
+         StringBuilder builder = new StringBuilder("RenderMetrics{fps=")
+            .append(String.format("%.1f", framesPerSecond));
+         for (Map.Entry<Stage, LatencyHistogram.Summary> entry : stages.entrySet()) {
+            builder.append(", ").append(entry.getKey()).append(": ").append(entry.getValue());
+         }
+         return builder.append('}').toString();
+      }
+   }
+}
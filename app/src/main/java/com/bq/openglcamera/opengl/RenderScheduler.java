@@ -0,0 +1,31 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * Decides when the render thread draws the pending camera frame.
+ * <p>
+ * All methods are called on the render thread: {@link #attach(Callback)} once the context is
+ * ready, {@link #requestRender()} whenever a new camera frame is waiting and {@link #detach()}
+ * before the context goes away. The scheduler calls {@link Callback#render(long)} at most once
+ * per request, later requests before the render is due are merged with it.
+ */
+public interface RenderScheduler {
+
+   void attach(Callback callback);
+
+   void requestRender();
+
+   /**
+    * Forget pending renders, no callback may follow.
+    */
+   void detach();
+
+   interface Callback {
+      /**
+       * Draw and present the newest camera frame.
+       *
+       * @param frameTimeNanos Time the frame is aimed at, the vsync time for vsync driven
+       *                       schedulers, in {@link System#nanoTime()} base.
+       */
+      void render(long frameTimeNanos);
+   }
+}
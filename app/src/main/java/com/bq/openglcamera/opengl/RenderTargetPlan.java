@@ -0,0 +1,112 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The intermediate targets of a frame and the passes reading and writing them, in drawing
+ * order. Built once per pipeline and given to {@link TransientTargetAllocator#allocate}, which
+ * backs targets whose uses don't overlap with the same texture.
+ * <p>
+ * Targets are transient: their content doesn't outlive the frame, and each one has to be
+ * written before it is read.
+ */
+public final class RenderTargetPlan {
+
+   //GLES20 values, this class stays Android free
+   public static final int FORMAT_RGBA = 0x1908;
+   public static final int FORMAT_RGB = 0x1907;
+   public static final int FORMAT_LUMINANCE = 0x1909;
+
+   private final List<int[]> targets = new ArrayList<>();
+   private final List<int[]> reads = new ArrayList<>();
+   private final List<int[]> writes = new ArrayList<>();
+
+   /**
+    * Declare a target.
+    *
+    * @param format One of the <code>FORMAT_</code> constants, unsigned bytes per component.
+    * @return The target's id in this plan.
+    */
+   public int target(int width, int height, int format) {
+      if (width <= 0 || height <= 0) {
+         throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+      }
+      bytesPerPixel(format);
+      targets.add(new int[]{width, height, format});
+      return targets.size() - 1;
+   }
+
+   /**
+    * Add the next pass.
+    *
+    * @param reads  Targets it samples.
+    * @param writes Targets it renders into.
+    */
+   public RenderTargetPlan pass(int[] reads, int[] writes) {
+      for (int target : reads) check(target);
+      for (int target : writes) check(target);
+      this.reads.add(reads.clone());
+      this.writes.add(writes.clone());
+      return this;
+   }
+
+   public int getTargetCount() {
+      return targets.size();
+   }
+
+   public int getPassCount() {
+      return reads.size();
+   }
+
+   public int getWidth(int target) {
+      return targets.get(target)[0];
+   }
+
+   public int getHeight(int target) {
+      return targets.get(target)[1];
+   }
+
+   public int getFormat(int target) {
+      return targets.get(target)[2];
+   }
+
+   public long getByteSize(int target) {
+      int[] desc = targets.get(target);
+      return (long) desc[0] * desc[1] * bytesPerPixel(desc[2]);
+   }
+
+   int[] getReads(int pass) {
+      return reads.get(pass);
+   }
+
+   int[] getWrites(int pass) {
+      return writes.get(pass);
+   }
+
+   /**
+    * True if both targets could be backed by the same texture.
+    */
+   boolean isCompatible(int a, int b) {
+      return getWidth(a) == getWidth(b) && getHeight(a) == getHeight(b) && getFormat(a) == getFormat(b);
+   }
+
+   static int bytesPerPixel(int format) {
+      switch (format) {
+         case FORMAT_RGBA:
+            return 4;
+         case FORMAT_RGB:
+            return 3;
+         case FORMAT_LUMINANCE:
+            return 1;
+         default:
+            throw new IllegalArgumentException("Unsupported format 0x" + Integer.toHexString(format));
+      }
+   }
+
+   private void check(int target) {
+      if (target < 0 || target >= targets.size()) {
+         throw new IllegalArgumentException("Unknown target " + target);
+      }
+   }
+}
@@ -0,0 +1,238 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Picks the resolution scale of offscreen render targets, and of the camera buffers, that holds
+ * a target frame time as the device heats up or cools down.
+ * <p>
+ * Frame times are collected in windows. When the 90th percentile of a window goes over
+ * {@value #DOWN_THRESHOLD} of the budget the scale goes one step down. It goes one step up
+ * after {@value #UP_WINDOWS} windows in a row whose time, scaled by the pixel count of the next
+ * step, would stay under {@value #UP_THRESHOLD} of the budget. The gap between both, and the
+ * window dropped after every change, keep it from oscillating.
+ * <p>
+ * Pure Java, so it can be fed recorded frame time traces. {@link #onFrame(long)} is meant for
+ * a single thread, the scale and decisions can be read from any.
+ */
+public final class ResolutionGovernor {
+
+   public static final float[] DEFAULT_SCALES = {1f, 0.85f, 0.7f, 0.5f};
+   public static final int DEFAULT_WINDOW_FRAMES = 30;
+
+   static final double DOWN_THRESHOLD = 0.9;
+   static final double UP_THRESHOLD = 0.75;
+   static final int UP_WINDOWS = 4;
+   private static final int MAX_DECISIONS = 16;
+
+   public enum Reason {
+      /** Frames took longer than the budget allows. */
+      OVER_BUDGET,
+      /** Frames would fit in the budget at the next scale up. */
+      UNDER_BUDGET
+   }
+
+   public interface Listener {
+      /**
+       * The scale changed, on the thread calling {@link #onFrame(long)}. Camera buffers follow
+       * with {@link #scale(int)} once the app reconfigures its capture session.
+       */
+      void onDecision(Decision decision);
+   }
+
+   private final long targetFrameNanos;
+   private final float[] scales;
+   private final long[] window;
+   private final long[] sorted;
+   private final ArrayDeque<Decision> decisions = new ArrayDeque<>(MAX_DECISIONS);
+   private volatile int level;
+   private volatile Listener listener;
+
+   //Caller thread only
+   private int windowSize;
+   private int upWindows;
+   private boolean settling;
+   private long frames;
+
+   /**
+    * Governor with the {@link #DEFAULT_SCALES}, deciding every {@link #DEFAULT_WINDOW_FRAMES}.
+    */
+   public ResolutionGovernor(long targetFrameNanos) {
+      this(targetFrameNanos, DEFAULT_SCALES, DEFAULT_WINDOW_FRAMES);
+   }
+
+   /**
+    * @param scales       Decreasing scales to step through, the first one is the initial one.
+    * @param windowFrames Frames per decision.
+    */
+   public ResolutionGovernor(long targetFrameNanos, float[] scales, int windowFrames) {
+      if (targetFrameNanos <= 0) throw new IllegalArgumentException("Target must be positive");
+      if (scales.length == 0) throw new IllegalArgumentException("No scales");
+      for (int i = 1; i < scales.length; i++) {
+         if (scales[i] >= scales[i - 1]) {
+            throw new IllegalArgumentException("Scales must decrease: " + Arrays.toString(scales));
+         }
+      }
+      if (windowFrames <= 0) throw new IllegalArgumentException("Window must be positive");
+      this.targetFrameNanos = targetFrameNanos;
+      this.scales = scales.clone();
+      this.window = new long[windowFrames];
+      this.sorted = new long[windowFrames];
+   }
+
+   public void setListener(Listener listener) {
+      this.listener = listener;
+   }
+
+   public long getTargetFrameNanos() {
+      return targetFrameNanos;
+   }
+
+   /**
+    * Current scale of the target width and height.
+    */
+   public float getScale() {
+      return scales[level];
+   }
+
+   /**
+    * <code>size</code> at the current scale, rounded to an even number of pixels as camera
+    * buffers and video encoders want.
+    */
+   public int scale(int size) {
+      return Math.max(2, Math.round(size * getScale() / 2) * 2);
+   }
+
+   /**
+    * Most recent decisions, oldest first.
+    */
+   public synchronized List<Decision> getDecisions() {
+      return new ArrayList<>(decisions);
+   }
+
+   /**
+    * Record the time a frame took to render.
+    *
+    * @return True if the scale changed.
+    */
+   public boolean onFrame(long frameNanos) {
+      frames++;
+      window[windowSize++] = frameNanos;
+      if (windowSize < window.length) return false;
+      windowSize = 0;
+      if (settling) {
+         //Frames rendered across the change tell little about the new scale
+         settling = false;
+         return false;
+      }
+
+      System.arraycopy(window, 0, sorted, 0, window.length);
+      Arrays.sort(sorted);
+      long percentile90 = sorted[(sorted.length * 9 - 1) / 10];
+
+      int current = level;
+      if (percentile90 > targetFrameNanos * DOWN_THRESHOLD) {
+         upWindows = 0;
+         if (current < scales.length - 1) {
+            return change(current + 1, Reason.OVER_BUDGET, percentile90);
+         }
+      } else if (current > 0) {
+         float ratio = scales[current - 1] / scales[current];
+         //Render time follows the pixel count
+         double predicted = percentile90 * (double) ratio * ratio;
+         if (predicted < targetFrameNanos * UP_THRESHOLD) {
+            if (++upWindows >= UP_WINDOWS) {
+               return change(current - 1, Reason.UNDER_BUDGET, percentile90);
+            }
+         } else {
+            upWindows = 0;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Forget the frames of the current window, e.g. after the pipeline changed. The scale is kept.
+    */
+   public void reset() {
+      windowSize = 0;
+      upWindows = 0;
+      settling = false;
+   }
+
+   private boolean change(int newLevel, Reason reason, long windowNanos) {
+      Decision decision = new Decision(frames, scales[level], scales[newLevel], reason, windowNanos,
+         targetFrameNanos);
+      level = newLevel;
+      upWindows = 0;
+      settling = true;
+      synchronized (this) {
+         if (decisions.size() == MAX_DECISIONS) decisions.removeFirst();
+         decisions.addLast(decision);
+      }
+      Listener listener = this.listener;
+      if (listener != null) {
+         listener.onDecision(decision);
+      }
+      return true;
+   }
+
+   /**
+    * A scale change and what led to it.
+    */
+   public static final class Decision {
+      private final long frame;
+      private final float fromScale;
+      private final float toScale;
+      private final Reason reason;
+      private final long windowNanos;
+      private final long targetNanos;
+
+      Decision(long frame, float fromScale, float toScale, Reason reason, long windowNanos, long targetNanos) {
+         this.frame = frame;
+         this.fromScale = fromScale;
+         this.toScale = toScale;
+         this.reason = reason;
+         this.windowNanos = windowNanos;
+         this.targetNanos = targetNanos;
+      }
+
+      /**
+       * Number of frames recorded when the decision was taken.
+       */
+      public long getFrame() {
+         return frame;
+      }
+
+      public float getFromScale() {
+         return fromScale;
+      }
+
+      public float getToScale() {
+         return toScale;
+      }
+
+      public Reason getReason() {
+         return reason;
+      }
+
+      /**
+       * 90th percentile frame time of the window that triggered the decision.
+       */
+      public long getWindowNanos() {
+         return windowNanos;
+      }
+
+      public long getTargetNanos() {
+         return targetNanos;
+      }
+
+      @Override public String toString() {
+         return String.format("Decision{frame=%d, %.2f -> %.2f, %s, p90=%.2fms, target=%.2fms}",
+            frame, fromScale, toScale, reason, windowNanos / 1e6, targetNanos / 1e6);
+      }
+   }
+}
@@ -0,0 +1,86 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+
+import timber.log.Timber;
+
+/**
+ * Context sharing objects with the one current on the calling thread, with a 1x1 pbuffer so
+ * another thread can make it current.
+ */
+final class SharedEglContext implements ProgramCompiler.WorkerContext {
+
+   private final EGLDisplay display;
+   private final EGLContext context;
+   private final EGLSurface surface;
+
+   private SharedEglContext(EGLDisplay display, EGLContext context, EGLSurface surface) {
+      this.display = display;
+      this.context = context;
+      this.surface = surface;
+   }
+
+   /**
+    * Create a context shared with the current one, same config and client version.
+    */
+   static SharedEglContext createFromCurrent() {
+      EGLDisplay display = EGL14.eglGetCurrentDisplay();
+      EGLContext current = EGL14.eglGetCurrentContext();
+      if (current == null || current == EGL14.EGL_NO_CONTEXT) {
+         throw new IllegalStateException("No current context to share");
+      }
+
+      int[] values = new int[1];
+      EGL14.eglQueryContext(display, current, EGL14.EGL_CONFIG_ID, values, 0);
+      int[] configAttributes = {
+         EGL14.EGL_CONFIG_ID, values[0],
+         EGL14.EGL_NONE //Null
+      };
+      EGLConfig[] configs = new EGLConfig[1];
+      int[] numConfigs = new int[1];
+      if (!EGL14.eglChooseConfig(display, configAttributes, 0, configs, 0, 1, numConfigs, 0) || numConfigs[0] == 0) {
+         throw new IllegalStateException("Can't find the current EGLConfig");
+      }
+
+      EGL14.eglQueryContext(display, current, EGL14.EGL_CONTEXT_CLIENT_VERSION, values, 0);
+      int[] contextAttributes = {
+         EGL14.EGL_CONTEXT_CLIENT_VERSION, values[0],
+         EGL14.EGL_NONE //Null
+      };
+      EGLContext context = EGL14.eglCreateContext(display, configs[0], current, contextAttributes, 0);
+      if (context == null || context == EGL14.EGL_NO_CONTEXT) {
+         throw new IllegalStateException("eglCreateContext failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+      }
+
+      int[] pbufferAttributes = {
+         EGL14.EGL_WIDTH, 1,
+         EGL14.EGL_HEIGHT, 1,
+         EGL14.EGL_NONE //Null
+      };
+      EGLSurface surface = EGL14.eglCreatePbufferSurface(display, configs[0], pbufferAttributes, 0);
+      if (surface == null || surface == EGL14.EGL_NO_SURFACE) {
+         EGL14.eglDestroyContext(display, context);
+         throw new IllegalStateException("eglCreatePbufferSurface failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+      }
+      return new SharedEglContext(display, context, surface);
+   }
+
+   @Override public boolean makeCurrent() {
+      return EGL14.eglMakeCurrent(display, surface, surface, context);
+   }
+
+   /**
+    * Release the context, from the thread it is current on.
+    */
+   @Override public void release() {
+      EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+      EGL14.eglDestroySurface(display, surface);
+      boolean released = EGL14.eglDestroyContext(display, context);
+      Timber.d("Shared context destroyed: %b", released);
+      EGL14.eglReleaseThread();
+   }
+}
@@ -0,0 +1,348 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GlBackend} that remembers the last value set for the bound program, viewport,
+ * clear color, buffer / vertex array bindings, vertex attribute arrays and matrix uniforms,
+ * and drops calls that would not change them.
+ * <p>
+ * The cached state belongs to one GL context. Call {@link #invalidate()} whenever the context
+ * is (re)created or somebody else may have touched its state behind our back.
+ * Not thread safe, use it only from the thread the context is current on.
+ */
+public class StateCachingGlBackend extends ForwardingGlBackend {
+
+   private static final int MAX_CACHED_ATTRIBUTES = 16;
+
+   private int currentProgram;
+   private ProgramUniforms currentUniforms;
+   private final Map<Integer, ProgramUniforms> uniformsByProgram = new HashMap<>();
+
+   private final int[] viewport = new int[4];
+   private final float[] clearColor = new float[4];
+   private boolean viewportValid;
+   private boolean clearColorValid;
+
+   private int boundArrayBuffer;
+   private int boundElementBuffer;
+   private int boundVertexArray;
+
+   private int enabledAttributes;
+   private int knownAttributes;
+   private final VertexPointer[] vertexPointers = new VertexPointer[MAX_CACHED_ATTRIBUTES];
+
+   private long droppedCalls;
+
+   public StateCachingGlBackend(GlBackend delegate) {
+      super(delegate);
+      for (int i = 0; i < vertexPointers.length; i++) {
+         vertexPointers[i] = new VertexPointer();
+      }
+      invalidate();
+   }
+
+   /**
+    * Forget everything we know about the context state, the next call of each kind will
+    * always reach the driver.
+    */
+   public void invalidate() {
+      currentProgram = -1;
+      currentUniforms = null;
+      uniformsByProgram.clear();
+      viewportValid = false;
+      clearColorValid = false;
+      boundArrayBuffer = -1;
+      boundVertexArray = -1;
+      forgetVertexArrayState();
+   }
+
+   /**
+    * Attribute arrays and the element buffer binding live in the bound vertex array object.
+    */
+   private void forgetVertexArrayState() {
+      boundElementBuffer = -1;
+      enabledAttributes = 0;
+      knownAttributes = 0;
+      for (VertexPointer pointer : vertexPointers) {
+         pointer.valid = false;
+         pointer.buffer = null;
+      }
+   }
+
+   /**
+    * Number of calls that were not forwarded because they would not change the state.
+    */
+   public long getDroppedCalls() {
+      return droppedCalls;
+   }
+
+   @Override public void glUseProgram(int program) {
+      if (program == currentProgram) {
+         droppedCalls++;
+         return;
+      }
+      delegate.glUseProgram(program);
+      currentProgram = program;
+      currentUniforms = uniformsFor(program);
+   }
+
+   @Override public void glViewport(int x, int y, int width, int height) {
+      if (viewportValid
+         && viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height) {
+         droppedCalls++;
+         return;
+      }
+      delegate.glViewport(x, y, width, height);
+      viewport[0] = x;
+      viewport[1] = y;
+      viewport[2] = width;
+      viewport[3] = height;
+      viewportValid = true;
+   }
+
+   @Override public void glClearColor(float red, float green, float blue, float alpha) {
+      if (clearColorValid
+         && clearColor[0] == red && clearColor[1] == green
+         && clearColor[2] == blue && clearColor[3] == alpha) {
+         droppedCalls++;
+         return;
+      }
+      delegate.glClearColor(red, green, blue, alpha);
+      clearColor[0] = red;
+      clearColor[1] = green;
+      clearColor[2] = blue;
+      clearColor[3] = alpha;
+      clearColorValid = true;
+   }
+
+   @Override
+   public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+      if (currentUniforms == null || count != 1 || transpose) {
+         //Unknown program or uncommon upload, don't try to be smart
+         delegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+         return;
+      }
+      if (currentUniforms.matrixEquals(location, value, offset)) {
+         droppedCalls++;
+         return;
+      }
+      delegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+      currentUniforms.storeMatrix(location, value, offset);
+   }
+
+   @Override public void glEnableVertexAttribArray(int index) {
+      if (isCached(index)) {
+         int bit = 1 << index;
+         if ((knownAttributes & bit) != 0 && (enabledAttributes & bit) != 0) {
+            droppedCalls++;
+            return;
+         }
+         knownAttributes |= bit;
+         enabledAttributes |= bit;
+      }
+      delegate.glEnableVertexAttribArray(index);
+   }
+
+   @Override public void glDisableVertexAttribArray(int index) {
+      if (isCached(index)) {
+         int bit = 1 << index;
+         if ((knownAttributes & bit) != 0 && (enabledAttributes & bit) == 0) {
+            droppedCalls++;
+            return;
+         }
+         knownAttributes |= bit;
+         enabledAttributes &= ~bit;
+      }
+      delegate.glDisableVertexAttribArray(index);
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer buffer) {
+      if (isCached(index)) {
+         VertexPointer pointer = vertexPointers[index];
+         //The same buffer at the same position points to the same memory
+         if (pointer.matches(size, type, normalized, stride, buffer)) {
+            droppedCalls++;
+            return;
+         }
+         pointer.set(size, type, normalized, stride, buffer);
+      }
+      delegate.glVertexAttribPointer(index, size, type, normalized, stride, buffer);
+   }
+
+   @Override
+   public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+      if (isCached(index) && boundArrayBuffer >= 0) {
+         VertexPointer pointer = vertexPointers[index];
+         if (pointer.matches(size, type, normalized, stride, boundArrayBuffer, offset)) {
+            droppedCalls++;
+            return;
+         }
+         pointer.set(size, type, normalized, stride, boundArrayBuffer, offset);
+      } else if (isCached(index)) {
+         vertexPointers[index].valid = false;
+      }
+      delegate.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+   }
+
+   @Override public void glBindBuffer(int target, int buffer) {
+      if (target == GLES20.GL_ARRAY_BUFFER) {
+         if (buffer == boundArrayBuffer) {
+            droppedCalls++;
+            return;
+         }
+         boundArrayBuffer = buffer;
+      } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+         if (buffer == boundElementBuffer) {
+            droppedCalls++;
+            return;
+         }
+         boundElementBuffer = buffer;
+      }
+      delegate.glBindBuffer(target, buffer);
+   }
+
+   @Override public void glDeleteBuffers(int n, int[] buffers, int offset) {
+      //Deleted names unbind themselves and may be handed out again, start over
+      boundArrayBuffer = -1;
+      forgetVertexArrayState();
+      delegate.glDeleteBuffers(n, buffers, offset);
+   }
+
+   @Override public void glBindVertexArray(int array) {
+      if (array == boundVertexArray) {
+         droppedCalls++;
+         return;
+      }
+      delegate.glBindVertexArray(array);
+      boundVertexArray = array;
+      forgetVertexArrayState();
+   }
+
+   @Override public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+      boundVertexArray = -1;
+      forgetVertexArrayState();
+      delegate.glDeleteVertexArrays(n, arrays, offset);
+   }
+
+   @Override public void glLinkProgram(int program) {
+      //Linking resets every uniform of the program
+      uniformsByProgram.remove(program);
+      if (program == currentProgram) {
+         currentUniforms = uniformsFor(program);
+      }
+      delegate.glLinkProgram(program);
+   }
+
+   @Override public void glDeleteProgram(int program) {
+      uniformsByProgram.remove(program);
+      if (program == currentProgram) {
+         //Deleting the bound program leaves it in use, but its uniforms are gone with it
+         currentUniforms = null;
+      }
+      delegate.glDeleteProgram(program);
+   }
+
+   private ProgramUniforms uniformsFor(int program) {
+      if (program == 0) return null;
+      ProgramUniforms uniforms = uniformsByProgram.get(program);
+      if (uniforms == null) {
+         uniforms = new ProgramUniforms();
+         uniformsByProgram.put(program, uniforms);
+      }
+      return uniforms;
+   }
+
+   private static boolean isCached(int index) {
+      return index >= 0 && index < MAX_CACHED_ATTRIBUTES;
+   }
+
+   /**
+    * Source of a vertex attribute, either client memory (<code>buffer</code>) or an offset
+    * into a buffer object (<code>bufferObject</code>).
+    */
+   private static final class VertexPointer {
+      boolean valid;
+      int size;
+      int type;
+      boolean normalized;
+      int stride;
+      Buffer buffer;
+      int bufferObject;
+      int position;
+
+      boolean matches(int size, int type, boolean normalized, int stride, Buffer buffer) {
+         return valid && matchesFormat(size, type, normalized, stride)
+            && this.buffer == buffer && buffer != null && this.position == buffer.position();
+      }
+
+      boolean matches(int size, int type, boolean normalized, int stride, int bufferObject, int offset) {
+         return valid && matchesFormat(size, type, normalized, stride)
+            && this.buffer == null && this.bufferObject == bufferObject && this.position == offset;
+      }
+
+      void set(int size, int type, boolean normalized, int stride, Buffer buffer) {
+         setFormat(size, type, normalized, stride);
+         this.buffer = buffer;
+         this.bufferObject = 0;
+         this.position = buffer == null ? 0 : buffer.position();
+      }
+
+      void set(int size, int type, boolean normalized, int stride, int bufferObject, int offset) {
+         setFormat(size, type, normalized, stride);
+         this.buffer = null;
+         this.bufferObject = bufferObject;
+         this.position = offset;
+      }
+
+      private boolean matchesFormat(int size, int type, boolean normalized, int stride) {
+         return this.size == size && this.type == type && this.normalized == normalized
+            && this.stride == stride;
+      }
+
+      private void setFormat(int size, int type, boolean normalized, int stride) {
+         this.valid = true;
+         this.size = size;
+         this.type = type;
+         this.normalized = normalized;
+         this.stride = stride;
+      }
+   }
+
+   /**
+    * Last matrix uploaded to each uniform location of a program.
+    */
+   private static final class ProgramUniforms {
+      private float[][] matrices = new float[4][];
+
+      boolean matrixEquals(int location, float[] value, int offset) {
+         if (location < 0 || location >= matrices.length) return false;
+         float[] cached = matrices[location];
+         if (cached == null) return false;
+         for (int i = 0; i < 16; i++) {
+            if (cached[i] != value[offset + i]) return false;
+         }
+         return true;
+      }
+
+      void storeMatrix(int location, float[] value, int offset) {
+         if (location < 0) return;
+         if (location >= matrices.length) {
+            float[][] grown = new float[Math.max(location + 1, matrices.length * 2)][];
+            System.arraycopy(matrices, 0, grown, 0, matrices.length);
+            matrices = grown;
+         }
+         float[] cached = matrices[location];
+         if (cached == null) {
+            cached = new float[16];
+            matrices[location] = cached;
+         }
+         System.arraycopy(value, offset, cached, 0, 16);
+      }
+   }
+}
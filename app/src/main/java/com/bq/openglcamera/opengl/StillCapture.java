@@ -0,0 +1,155 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.File;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A still requested from a {@link StillCaptureRenderer}, completed once the image has been
+ * encoded and written to its file.
+ * <p>
+ * Cancelling a capture that was already drawn stops it at the next stage, its file isn't
+ * written.
+ */
+public final class StillCapture implements Future<StillCapture.Result> {
+
+   public enum Format {
+      JPEG, PNG
+   }
+
+   private final File file;
+   private final Format format;
+   private final int quality;
+   private final CountDownLatch done = new CountDownLatch(1);
+
+   //Guarded by this
+   private Result result;
+   private Throwable failure;
+   private boolean cancelled;
+   private boolean finished;
+
+   /**
+    * @param quality 0 to 100, ignored by PNG.
+    */
+   StillCapture(File file, Format format, int quality) {
+      if (quality < 0 || quality > 100) throw new IllegalArgumentException("Invalid quality " + quality);
+      this.file = file;
+      this.format = format;
+      this.quality = quality;
+   }
+
+   public File getFile() {
+      return file;
+   }
+
+   public Format getFormat() {
+      return format;
+   }
+
+   public int getQuality() {
+      return quality;
+   }
+
+   @Override public boolean cancel(boolean mayInterruptIfRunning) {
+      synchronized (this) {
+         if (finished) return false;
+         finished = true;
+         cancelled = true;
+      }
+      done.countDown();
+      return true;
+   }
+
+   @Override public synchronized boolean isCancelled() {
+      return cancelled;
+   }
+
+   @Override public boolean isDone() {
+      return done.getCount() == 0;
+   }
+
+   @Override public Result get() throws InterruptedException, ExecutionException {
+      done.await();
+      return report();
+   }
+
+   @Override public Result get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+      if (!done.await(timeout, unit)) throw new TimeoutException();
+      return report();
+   }
+
+   /**
+    * @return False if the capture was cancelled or failed first, atomically with
+    * {@link #cancel(boolean)}.
+    */
+   boolean complete(Result result) {
+      synchronized (this) {
+         if (finished) return false;
+         finished = true;
+         this.result = result;
+      }
+      done.countDown();
+      return true;
+   }
+
+   void fail(Throwable failure) {
+      synchronized (this) {
+         if (finished) return;
+         finished = true;
+         this.failure = failure;
+      }
+      done.countDown();
+   }
+
+   private synchronized Result report() throws ExecutionException {
+      if (cancelled) throw new CancellationException();
+      if (failure != null) throw new ExecutionException(failure);
+      return result;
+   }
+
+   /**
+    * The written still.
+    */
+   public static final class Result {
+      private final File file;
+      private final long timestamp;
+      private final int width;
+      private final int height;
+
+      Result(File file, long timestamp, int width, int height) {
+         this.file = file;
+         this.timestamp = timestamp;
+         this.width = width;
+         this.height = height;
+      }
+
+      public File getFile() {
+         return file;
+      }
+
+      /**
+       * {@link android.graphics.SurfaceTexture#getTimestamp()} of the camera image, in
+       * nanoseconds.
+       */
+      public long getTimestamp() {
+         return timestamp;
+      }
+
+      public int getWidth() {
+         return width;
+      }
+
+      public int getHeight() {
+         return height;
+      }
+
+      @Override public String toString() {
+         return "Result{" + file + ", " + width + "x" + height + ", timestamp=" + timestamp + "}";
+      }
+   }
+}
@@ -0,0 +1,395 @@
+package com.bq.openglcamera.opengl;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.Matrix;
+
+import com.bq.openglcamera.BuildConfig;
+
+import java.io.File;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import timber.log.Timber;
+
+/**
+ * Renderer taking full resolution stills of what another renderer draws, effects included,
+ * without stalling the preview it keeps drawing.
+ * <p>
+ * A requested still is drawn with the renderer's current program and uniforms into an
+ * offscreen target of the capture size, on the frame after the request. Its pixels are read
+ * back a strip at a time, one strip per frame, through a ring of pixel buffer objects mapped
+ * two frames after the read, so the render thread neither waits for the GPU nor copies more
+ * than {@link #DEFAULT_STRIP_BYTES} per frame. Complete stills go to a
+ * {@link StillEncoderPool}. ES2 contexts read each strip with a blocking
+ * <code>glReadPixels</code>.
+ * <p>
+ * Up to <code>maxInFlight</code> stills are drawn before the first one is read out, enough
+ * for bursts of consecutive frames. Further requests wait for a target, for the encoders to
+ * catch up and for memory in the {@link FrameBufferPool}: size its cap for the stills of a
+ * burst. Multi-pass effects draw their intermediate passes at the preview size.
+ */
+public class StillCaptureRenderer implements TextureViewGLWrapper.MultiSurfaceRenderer {
+
+   public static final int DEFAULT_STRIP_BYTES = 4 * 1024 * 1024;
+   public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+   public static final int DEFAULT_QUALITY = 95;
+
+   //A strip is mapped this many frames after it was read
+   private static final int MAP_DELAY = 2;
+   private static final int PIXEL_BUFFER_COUNT = MAP_DELAY + 1;
+
+   private final TextureViewGLWrapper.MultiSurfaceRenderer renderer;
+   private final GlBackend gl;
+   private final StillEncoderPool encoders;
+   private final FrameBufferPool bufferPool;
+   private final TransientTargetAllocator targets;
+   private final int stripBytes;
+   private final int maxInFlight;
+   private final Queue<StillCapture> requests = new ConcurrentLinkedQueue<>();
+
+   //Replaced as a whole from any thread
+   private volatile Placement placement;
+
+   //Render thread only
+   private final ArrayDeque<Drawn> drawn = new ArrayDeque<>();
+   private final ArrayDeque<Strip> strips = new ArrayDeque<>();
+   private final int[] pixelBuffers = new int[PIXEL_BUFFER_COUNT];
+   private final int[] framebufferBinding = new int[1];
+   private final float[] flip = new float[16];
+   private final float[] transform = new float[16];
+   private int pixelBufferBytes;
+   private int nextPixelBuffer;
+   private boolean asynchronous;
+   private int maxTextureSize;
+   private TransientTargetAllocator.Allocation allocation;
+   private int allocationWidth;
+   private int allocationHeight;
+   private boolean[] busyTargets;
+   private long frame;
+
+   /**
+    * @param gl The renderer's backend, such as {@link DefaultCameraRenderer#getGlBackend()}, so
+    *           its state cache sees the framebuffer changes.
+    */
+   public StillCaptureRenderer(TextureViewGLWrapper.MultiSurfaceRenderer renderer, GlBackend gl,
+                               StillEncoderPool encoders) {
+      this(renderer, gl, encoders, FrameBufferPool.forBuild(BuildConfig.DEBUG), DEFAULT_MAX_IN_FLIGHT, DEFAULT_STRIP_BYTES);
+   }
+
+   /**
+    * @param bufferPool  Pool the pixels are leased from, held until encoded.
+    * @param maxInFlight Stills drawn and not yet encoded, each with its own target.
+    * @param stripBytes  Most bytes read back per frame.
+    */
+   public StillCaptureRenderer(TextureViewGLWrapper.MultiSurfaceRenderer renderer, GlBackend gl,
+                               StillEncoderPool encoders, FrameBufferPool bufferPool,
+                               int maxInFlight, int stripBytes) {
+      if (maxInFlight < 1) throw new IllegalArgumentException("Invalid maxInFlight " + maxInFlight);
+      this.renderer = renderer;
+      this.gl = gl;
+      this.encoders = encoders;
+      this.bufferPool = bufferPool;
+      this.targets = new TransientTargetAllocator(gl);
+      this.maxInFlight = maxInFlight;
+      this.stripBytes = stripBytes;
+      Matrix.setIdentityM(flip, 0);
+      //Drawn upside down, so rows read bottom first come out top first
+      flip[5] = -1;
+   }
+
+   /**
+    * Size of the stills, usually the camera buffer size, and the transform placing the camera
+    * image in them, null to fill them in the buffer orientation. Can be called from any thread,
+    * stills already requested use the new size.
+    */
+   public void setCaptureSize(int width, int height, float[] transform) {
+      if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+      this.placement = new Placement(width, height, transform == null ? null : transform.clone());
+   }
+
+   /**
+    * Capture the next frame, from any thread.
+    */
+   public StillCapture capture(File file, StillCapture.Format format) {
+      return capture(file, format, DEFAULT_QUALITY);
+   }
+
+   public StillCapture capture(File file, StillCapture.Format format, int quality) {
+      StillCapture capture = new StillCapture(file, format, quality);
+      requests.add(capture);
+      return capture;
+   }
+
+   @Override
+   public void onSurfaceCreated(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      renderer.onSurfaceCreated(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      asynchronous = GlUtil.getGlesMajorVersion(gl) >= 3;
+      int[] value = new int[1];
+      gl.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, value, 0);
+      maxTextureSize = value[0];
+   }
+
+   @Override
+   public void onSurfaceChanged(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      renderer.onSurfaceChanged(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+   }
+
+   @Override public void onSurfaceDestroyed(SurfaceTexture eglSurfaceTexture) {
+      abortInFlight(new IllegalStateException("Context destroyed during capture"));
+      deletePixelBuffers();
+      targets.release();
+      allocation = null;
+      renderer.onSurfaceDestroyed(eglSurfaceTexture);
+   }
+
+   @Override public void onFrameAvailable(SurfaceTexture eglSurfaceTexture) {
+      renderer.onFrameAvailable(eglSurfaceTexture);
+      if (drawn.isEmpty() && requests.isEmpty()) return;
+
+      frame++;
+      gl.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, framebufferBinding, 0);
+      if (asynchronous) {
+         completeStrips();
+      }
+      drawRequest(eglSurfaceTexture.getTimestamp());
+      readStrip();
+      gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferBinding[0]);
+   }
+
+   @Override public void onDrawFrame(int surfaceWidth, int surfaceHeight, float[] transform) {
+      renderer.onDrawFrame(surfaceWidth, surfaceHeight, transform);
+   }
+
+   /**
+    * Draw the first request into a free target, if the pipeline has room for it.
+    */
+   private void drawRequest(long timestamp) {
+      Placement placement = this.placement;
+      StillCapture capture;
+      while ((capture = requests.peek()) != null) {
+         if (capture.isCancelled()) {
+            requests.poll();
+         } else if (placement == null || placement.width > maxTextureSize || placement.height > maxTextureSize) {
+            requests.poll();
+            capture.fail(new IllegalStateException(placement == null ? "No capture size"
+               : "Capture size " + placement.width + "x" + placement.height
+               + " over the texture limit " + maxTextureSize));
+         } else {
+            break;
+         }
+      }
+      if (capture == null) return;
+
+      int width = placement.width;
+      int height = placement.height;
+      if (width != allocationWidth || height != allocationHeight) {
+         //Targets of the old size are still being read
+         if (!drawn.isEmpty()) return;
+         allocate(width, height);
+      }
+      //The encoders are behind, their stills hold memory
+      if (encoders.getPendingCount() >= maxInFlight) return;
+      int target = freeTarget();
+      if (target < 0) return;
+      FrameBuffer pixels = bufferPool.tryAcquire(width * height * 4);
+      if (pixels == null) return;
+      requests.poll();
+
+      if (placement.transform == null) {
+         System.arraycopy(flip, 0, transform, 0, 16);
+      } else {
+         Matrix.multiplyMM(transform, 0, flip, 0, placement.transform, 0);
+      }
+      gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, allocation.getFramebuffer(target));
+      renderer.onDrawFrame(width, height, transform);
+      busyTargets[target] = true;
+      drawn.add(new Drawn(capture, target, pixels, width, height, timestamp));
+   }
+
+   /**
+    * Read the next strip of the oldest drawn still.
+    */
+   private void readStrip() {
+      Drawn still = null;
+      for (Drawn candidate : drawn) {
+         if (candidate.nextRow < candidate.height) {
+            still = candidate;
+            break;
+         }
+      }
+      if (still == null) return;
+
+      int rows = Math.min(still.height - still.nextRow, Math.max(1, stripBytes / (still.width * 4)));
+      int bytes = rows * still.width * 4;
+      Strip strip = new Strip(still, still.nextRow, rows, frame);
+      still.nextRow += rows;
+      gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, allocation.getFramebuffer(still.target));
+      if (asynchronous) {
+         ensurePixelBuffers(Math.max(1, stripBytes / (still.width * 4)) * still.width * 4);
+         strip.pixelBuffer = pixelBuffers[nextPixelBuffer];
+         nextPixelBuffer = (nextPixelBuffer + 1) % PIXEL_BUFFER_COUNT;
+         gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, strip.pixelBuffer);
+         gl.glReadPixels(0, strip.firstRow, still.width, rows, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+         gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+         strips.add(strip);
+      } else {
+         ByteBuffer destination = still.pixels.buffer().duplicate();
+         destination.limit(strip.firstRow * still.width * 4 + bytes).position(strip.firstRow * still.width * 4);
+         gl.glReadPixels(0, strip.firstRow, still.width, rows, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, destination);
+         stripDone(strip);
+      }
+   }
+
+   /**
+    * Copy the strips read {@link #MAP_DELAY} frames ago, their transfer is over by now.
+    */
+   private void completeStrips() {
+      while (!strips.isEmpty() && strips.peek().frame <= frame - MAP_DELAY) {
+         Strip strip = strips.poll();
+         Drawn still = strip.still;
+         if (!still.capture.isCancelled()) {
+            int bytes = strip.rows * still.width * 4;
+            gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, strip.pixelBuffer);
+            Buffer mapped = gl.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, bytes, GLES30.GL_MAP_READ_BIT);
+            if (mapped == null) {
+               still.failure = new IllegalStateException("glMapBufferRange failed");
+            } else {
+               ByteBuffer destination = still.pixels.buffer().duplicate();
+               destination.limit(strip.firstRow * still.width * 4 + bytes).position(strip.firstRow * still.width * 4);
+               destination.put((ByteBuffer) mapped);
+               gl.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            }
+            gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+         }
+         stripDone(strip);
+      }
+   }
+
+   private void stripDone(Strip strip) {
+      Drawn still = strip.still;
+      still.completedRows += strip.rows;
+      if (still.completedRows < still.height) return;
+
+      drawn.remove(still);
+      busyTargets[still.target] = false;
+      if (still.failure != null) {
+         still.pixels.release();
+         still.capture.fail(still.failure);
+      } else if (still.capture.isCancelled()) {
+         still.pixels.release();
+      } else {
+         encoders.submit(still.capture, still.pixels, still.width, still.height, still.timestamp);
+      }
+   }
+
+   private void allocate(int width, int height) {
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int[] outputs = new int[maxInFlight];
+      for (int i = 0; i < maxInFlight; i++) {
+         outputs[i] = plan.target(width, height, RenderTargetPlan.FORMAT_RGBA);
+      }
+      //Written together, so none of them alias
+      plan.pass(new int[0], outputs);
+      allocation = targets.allocate(plan);
+      allocationWidth = width;
+      allocationHeight = height;
+      busyTargets = new boolean[maxInFlight];
+      Timber.d("Still targets %dx%d, %d KB", width, height, allocation.getByteSize() / 1024);
+   }
+
+   private int freeTarget() {
+      for (int i = 0; i < busyTargets.length; i++) {
+         if (!busyTargets[i]) return i;
+      }
+      return -1;
+   }
+
+   private void ensurePixelBuffers(int bytes) {
+      if (pixelBufferBytes == bytes) return;
+      deletePixelBuffers();
+      gl.glGenBuffers(PIXEL_BUFFER_COUNT, pixelBuffers, 0);
+      for (int buffer : pixelBuffers) {
+         gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+         gl.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, bytes, null, GLES30.GL_STREAM_READ);
+      }
+      gl.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+      GlUtil.checkGLError(gl, "Still pixel buffers");
+      pixelBufferBytes = bytes;
+   }
+
+   private void deletePixelBuffers() {
+      if (pixelBuffers[0] != 0) {
+         gl.glDeleteBuffers(PIXEL_BUFFER_COUNT, pixelBuffers, 0);
+         for (int i = 0; i < PIXEL_BUFFER_COUNT; i++) {
+            pixelBuffers[i] = 0;
+         }
+      }
+      pixelBufferBytes = 0;
+   }
+
+   private void abortInFlight(Exception reason) {
+      for (Drawn still : drawn) {
+         still.pixels.release();
+         still.capture.fail(reason);
+      }
+      drawn.clear();
+      strips.clear();
+      allocationWidth = allocationHeight = 0;
+   }
+
+   private static final class Placement {
+      final int width;
+      final int height;
+      final float[] transform;
+
+      Placement(int width, int height, float[] transform) {
+         this.width = width;
+         this.height = height;
+         this.transform = transform;
+      }
+   }
+
+   /**
+    * A still drawn into its target, being read back.
+    */
+   private static final class Drawn {
+      final StillCapture capture;
+      final int target;
+      final FrameBuffer pixels;
+      final int width;
+      final int height;
+      final long timestamp;
+      int nextRow;
+      int completedRows;
+      Exception failure;
+
+      Drawn(StillCapture capture, int target, FrameBuffer pixels, int width, int height, long timestamp) {
+         this.capture = capture;
+         this.target = target;
+         this.pixels = pixels;
+         this.width = width;
+         this.height = height;
+         this.timestamp = timestamp;
+      }
+   }
+
+   private static final class Strip {
+      final Drawn still;
+      final int firstRow;
+      final int rows;
+      final long frame;
+      int pixelBuffer;
+
+      Strip(Drawn still, int firstRow, int rows, long frame) {
+         this.still = still;
+         this.firstRow = firstRow;
+         this.rows = rows;
+         this.frame = frame;
+      }
+   }
+}
@@ -0,0 +1,177 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Background threads encoding captured stills and writing them out, so neither the render
+ * thread nor the camera waits for the encoder.
+ * <p>
+ * Each still is written through a {@link FileChannel} to a <code>.part</code> file next to its
+ * destination and renamed once synced, readers never see half written images. The capture
+ * completes with the file and frame timestamp, or fails with the I/O error.
+ */
+@SuppressWarnings("Convert2Lambda")
+public class StillEncoderPool {
+
+   public static final int DEFAULT_THREADS = 2;
+
+   private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+   private static final String PARTIAL_SUFFIX = ".part";
+
+   /**
+    * Compresses RGBA pixels, tightly packed rows with the top one first.
+    */
+   public interface Encoder {
+      void encode(ByteBuffer pixels, int width, int height, StillCapture.Format format, int quality,
+                  OutputStream out) throws IOException;
+   }
+
+   private final Encoder encoder;
+   private final ExecutorService executor;
+   private final AtomicInteger pending = new AtomicInteger();
+   private final AtomicLong written = new AtomicLong();
+   private final AtomicLong failed = new AtomicLong();
+
+   public StillEncoderPool(Encoder encoder) {
+      this(encoder, DEFAULT_THREADS);
+   }
+
+   /**
+    * @param threads Stills encoded at once, each holding a frame of pixels and the encoder's
+    *                own copy.
+    */
+   public StillEncoderPool(Encoder encoder, int threads) {
+      this(encoder, createExecutor(threads));
+   }
+
+   StillEncoderPool(Encoder encoder, ExecutorService executor) {
+      this.encoder = encoder;
+      this.executor = executor;
+   }
+
+   private static ExecutorService createExecutor(int threads) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+         new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+         private final AtomicInteger count = new AtomicInteger();
+
+         @Override public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "StillEncoder-" + count.incrementAndGet());
+            //Below the render and camera threads
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+         }
+      });
+      //Idle between bursts
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
+   /**
+    * Stills queued or being encoded. Producers stop drawing new ones while it's high.
+    */
+   public int getPendingCount() {
+      return pending.get();
+   }
+
+   public long getWrittenCount() {
+      return written.get();
+   }
+
+   public long getFailedCount() {
+      return failed.get();
+   }
+
+   /**
+    * Encode the pixels into the capture's file. Takes over the caller's reference to the
+    * buffer, released once encoded.
+    */
+   public void submit(final StillCapture capture, final FrameBuffer pixels, final int width,
+                      final int height, final long timestamp) {
+      pending.incrementAndGet();
+      Runnable task = new Runnable() {
+         @Override public void run() {
+            try {
+               if (capture.isCancelled()) return;
+               if (!write(capture, pixels.buffer(), width, height)) return;
+               if (capture.complete(new StillCapture.Result(capture.getFile(), timestamp, width, height))) {
+                  written.incrementAndGet();
+               } else if (!capture.getFile().delete()) {
+                  //Cancelled after the rename
+                  Timber.w("Can't delete %s", capture.getFile());
+               }
+            } catch (IOException | RuntimeException e) {
+               Timber.e(e, "Still capture to %s failed", capture.getFile());
+               failed.incrementAndGet();
+               capture.fail(e);
+            } finally {
+               pixels.release();
+               pending.decrementAndGet();
+            }
+         }
+      };
+      try {
+         executor.execute(task);
+      } catch (RejectedExecutionException e) {
+         pixels.release();
+         pending.decrementAndGet();
+         capture.fail(e);
+      }
+   }
+
+   /**
+    * Stop once the queued stills are written.
+    */
+   public void shutdown() {
+      executor.shutdown();
+   }
+
+   /**
+    * @return False if the capture was cancelled while encoding, nothing is left on disk. A
+    * cancel after the rename makes {@link StillCapture#complete} fail, the caller deletes the
+    * file then.
+    */
+   private boolean write(StillCapture capture, ByteBuffer pixels, int width, int height) throws IOException {
+      File file = capture.getFile();
+      File partial = new File(file.getPath() + PARTIAL_SUFFIX);
+      ByteBuffer view = pixels.duplicate();
+      view.position(0).limit(width * height * 4);
+      FileOutputStream stream = new FileOutputStream(partial);
+      try {
+         FileChannel channel = stream.getChannel();
+         OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_BYTES);
+         encoder.encode(view, width, height, capture.getFormat(), capture.getQuality(), out);
+         out.flush();
+         channel.force(false);
+      } catch (IOException | RuntimeException e) {
+         stream.close();
+         if (!partial.delete()) Timber.w("Can't delete %s", partial);
+         throw e;
+      }
+      stream.close();
+      if (capture.isCancelled()) {
+         if (!partial.delete()) Timber.w("Can't delete %s", partial);
+         return false;
+      }
+      if (!partial.renameTo(file)) {
+         throw new IOException("Can't rename " + partial + " to " + file);
+      }
+      return true;
+   }
+}
@@ -0,0 +1,283 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the camera output size and AE frame rate range for the stream feeding the renderer,
+ * from what the device supports and what its consumers (preview, encoder, analysis) need.
+ * <p>
+ * Every supported size and range pair that runs at the frame rate the consumers ask for is
+ * scored, the cheapest wins:
+ * <ul>
+ * <li>Bandwidth: pixels per second at the top of the range, relative to what the largest
+ * consumer needs.</li>
+ * <li>Upscaling: consumers larger than the output in either dimension, weighted by
+ * {@value #UPSCALE_WEIGHT} per extra pixel area.</li>
+ * <li>Cropping: share of the output a consumer of another aspect ratio throws away.</li>
+ * </ul>
+ * If no pair reaches the frame rate, the fastest one is picked and
+ * {@link Config#meetsFrameRate()} is false.
+ * <p>
+ * Pure Java, capability tables captured from devices can be fed to
+ * {@link Capabilities#addOutputSize(int, int, long)} and
+ * {@link Capabilities#addFpsRange(int, int)} as they are.
+ */
+public final class StreamConfigNegotiator {
+
+   public static final int DEFAULT_FPS = 30;
+
+   static final double UPSCALE_WEIGHT = 4;
+   static final double CROP_WEIGHT = 1;
+
+   private StreamConfigNegotiator() {
+   }
+
+   /**
+    * Best configuration for the consumers.
+    *
+    * @throws IllegalArgumentException If there are no consumers, sizes or ranges.
+    */
+   public static Config negotiate(Capabilities capabilities, List<Consumer> consumers) {
+      if (consumers.isEmpty()) throw new IllegalArgumentException("No consumers");
+      if (capabilities.sizes.isEmpty()) throw new IllegalArgumentException("No output sizes");
+      if (capabilities.fpsRanges.isEmpty()) throw new IllegalArgumentException("No FPS ranges");
+
+      int targetFps = 0;
+      boolean fixed = false;
+      long largestArea = 0;
+      for (Consumer consumer : consumers) {
+         targetFps = Math.max(targetFps, consumer.fps);
+         fixed |= consumer.fixedFrameRate;
+         largestArea = Math.max(largestArea, (long) consumer.width * consumer.height);
+      }
+      if (targetFps == 0) targetFps = DEFAULT_FPS;
+
+      Config best = null;
+      Config fastest = null;
+      for (long[] size : capabilities.sizes) {
+         int width = (int) size[0];
+         int height = (int) size[1];
+         //Ranges above what the size can deliver would run slower than they claim
+         double sizeMaxFps = size[2] > 0 ? 1e9 / size[2] : Double.MAX_VALUE;
+         double imageCost = imageCost(width, height, consumers);
+         for (int[] range : capabilities.fpsRanges) {
+            if (range[1] > sizeMaxFps + 0.5) continue;
+            //Faster than the consumers need costs like the bandwidth it takes
+            double bandwidth = (double) width * height * range[1] / ((double) largestArea * targetFps);
+            double score = bandwidth + imageCost + rangeCost(range, targetFps, fixed);
+            Config config = new Config(width, height, range[0], range[1], score, range[1] >= targetFps);
+            if (config.meetsFrameRate) {
+               if (best == null || score < best.score) best = config;
+            } else if (fastest == null || range[1] > fastest.fpsMax
+               || (range[1] == fastest.fpsMax && score < fastest.score)) {
+               fastest = config;
+            }
+         }
+      }
+      if (best != null) return best;
+      if (fastest != null) return fastest;
+      throw new IllegalArgumentException("No FPS range runs at any output size");
+   }
+
+   /**
+    * True if the display is rotated 90 or 270 degrees from the sensor, so sizes in the display
+    * orientation have to be swapped to compare them with output sizes.
+    *
+    * @param sensorOrientation <code>SENSOR_ORIENTATION</code> in degrees.
+    * @param displayRotation   Display rotation in degrees.
+    */
+   static boolean isSideways(int sensorOrientation, int displayRotation) {
+      return (sensorOrientation - displayRotation) % 180 != 0;
+   }
+
+   /**
+    * Upscaling and cropping of the consumers for an output size.
+    */
+   static double imageCost(int width, int height, List<Consumer> consumers) {
+      double cost = 0;
+      double aspect = (double) width / height;
+      for (Consumer consumer : consumers) {
+         double upscale = Math.max((double) consumer.width / width, (double) consumer.height / height);
+         if (upscale > 1) {
+            cost += UPSCALE_WEIGHT * (upscale * upscale - 1);
+         }
+         double consumerAspect = (double) consumer.width / consumer.height;
+         double kept = Math.min(aspect / consumerAspect, consumerAspect / aspect);
+         cost += CROP_WEIGHT * (1 - kept);
+      }
+      return cost;
+   }
+
+   /**
+    * Preference between ranges reaching the target: the top at the target, and a fixed rate for
+    * encoders or the lowest bottom otherwise, which lets AE lengthen exposures in low light.
+    */
+   static double rangeCost(int[] range, int targetFps, boolean fixed) {
+      if (range[1] < targetFps) return 0;
+      double cost = 0;
+      if (fixed) {
+         cost += 0.01 * (range[1] - range[0]);
+      } else {
+         cost += 0.001 * range[0];
+      }
+      return cost;
+   }
+
+   /**
+    * What the device supports for the stream's output class.
+    */
+   public static final class Capabilities {
+      //width, height, minimum frame duration in nanoseconds
+      private final List<long[]> sizes = new ArrayList<>();
+      private final List<int[]> fpsRanges = new ArrayList<>();
+
+      /**
+       * @param minFrameDurationNanos From <code>StreamConfigurationMap.getOutputMinFrameDuration</code>,
+       *                              0 if unknown.
+       */
+      public Capabilities addOutputSize(int width, int height, long minFrameDurationNanos) {
+         sizes.add(new long[]{width, height, minFrameDurationNanos});
+         return this;
+      }
+
+      /**
+       * A range from <code>CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES</code>.
+       */
+      public Capabilities addFpsRange(int min, int max) {
+         if (min > max || min <= 0) throw new IllegalArgumentException("Invalid range " + min + "-" + max);
+         fpsRanges.add(new int[]{min, max});
+         return this;
+      }
+   }
+
+   /**
+    * A user of the camera images, with the size it displays, encodes or analyzes them at.
+    */
+   public static final class Consumer {
+      private final String name;
+      private final int width;
+      private final int height;
+      private final int fps;
+      private final boolean fixedFrameRate;
+
+      /**
+       * @param width  In the sensor orientation, as output sizes are: swap the view's size when
+       *               the display is rotated 90 or 270 degrees from the sensor.
+       * @param fps    Frame rate it needs, 0 for any.
+       * @param fixedFrameRate True for consumers such as encoders that want evenly spaced frames.
+       */
+      public Consumer(String name, int width, int height, int fps, boolean fixedFrameRate) {
+         if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height + " for " + name);
+         }
+         this.name = name;
+         this.width = width;
+         this.height = height;
+         this.fps = fps;
+         this.fixedFrameRate = fixedFrameRate;
+      }
+
+      public static Consumer preview(int width, int height) {
+         return new Consumer("preview", width, height, 0, false);
+      }
+
+      /**
+       * Preview of a view laid out in the display orientation.
+       *
+       * @param sensorOrientation <code>SENSOR_ORIENTATION</code> in degrees.
+       * @param displayRotation   Display rotation in degrees.
+       */
+      public static Consumer preview(int viewWidth, int viewHeight, int sensorOrientation,
+                                     int displayRotation) {
+         boolean sideways = isSideways(sensorOrientation, displayRotation);
+         return preview(sideways ? viewHeight : viewWidth, sideways ? viewWidth : viewHeight);
+      }
+
+      public static Consumer encoder(int width, int height, int fps) {
+         return new Consumer("encoder", width, height, fps, true);
+      }
+
+      public static Consumer analysis(int width, int height, int fps) {
+         return new Consumer("analysis", width, height, fps, false);
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public int getWidth() {
+         return width;
+      }
+
+      public int getHeight() {
+         return height;
+      }
+
+      @Override public String toString() {
+         return name + " " + width + "x" + height + (fps > 0 ? "@" + fps : "");
+      }
+   }
+
+   /**
+    * The negotiated output size and AE target FPS range.
+    */
+   public static final class Config {
+      private final int width;
+      private final int height;
+      private final int fpsMin;
+      private final int fpsMax;
+      private final double score;
+      private final boolean meetsFrameRate;
+
+      Config(int width, int height, int fpsMin, int fpsMax, double score, boolean meetsFrameRate) {
+         this.width = width;
+         this.height = height;
+         this.fpsMin = fpsMin;
+         this.fpsMax = fpsMax;
+         this.score = score;
+         this.meetsFrameRate = meetsFrameRate;
+      }
+
+      /**
+       * For <code>SurfaceTexture.setDefaultBufferSize</code>.
+       */
+      public int getWidth() {
+         return width;
+      }
+
+      public int getHeight() {
+         return height;
+      }
+
+      /**
+       * For <code>CONTROL_AE_TARGET_FPS_RANGE</code>.
+       */
+      public int getFpsMin() {
+         return fpsMin;
+      }
+
+      public int getFpsMax() {
+         return fpsMax;
+      }
+
+      /**
+       * Cost of the configuration, lower is better.
+       */
+      public double getScore() {
+         return score;
+      }
+
+      /**
+       * False if no configuration runs as fast as the consumers asked for.
+       */
+      public boolean meetsFrameRate() {
+         return meetsFrameRate;
+      }
+
+      @Override public String toString() {
+         return String.format("Config{%dx%d, fps=[%d, %d], score=%.3f%s}", width, height, fpsMin,
+            fpsMax, score, meetsFrameRate ? "" : ", too slow");
+      }
+   }
+}
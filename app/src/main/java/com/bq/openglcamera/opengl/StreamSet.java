@@ -0,0 +1,74 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The camera streams composed into each frame, and when to compose.
+ * <p>
+ * A frame from any stream asks for one composed render through the shared
+ * {@link FrameCoalescer}, further frames from any stream before it runs ride along. The render
+ * latches every stream with a new image and reuses the last image of the others. Independent
+ * of Android so it can be driven by fake {@link CameraStream.Image}s and a fake {@link Clock}.
+ */
+final class StreamSet {
+
+   private final Clock clock;
+   private final FrameCoalescer coalescer;
+   //Copy on write, rendering iterates while streams come and go
+   private volatile List<CameraStream> streams = Collections.emptyList();
+   private int nextId;
+
+   StreamSet(Clock clock, FrameCoalescer coalescer) {
+      this.clock = clock;
+      this.coalescer = coalescer;
+   }
+
+   synchronized CameraStream add(int texture, CameraStream.Image image) {
+      CameraStream stream = new CameraStream(nextId++, texture, image, clock);
+      List<CameraStream> updated = new ArrayList<>(streams);
+      updated.add(stream);
+      streams = Collections.unmodifiableList(updated);
+      return stream;
+   }
+
+   synchronized boolean remove(CameraStream stream) {
+      List<CameraStream> updated = new ArrayList<>(streams);
+      boolean removed = updated.remove(stream);
+      streams = Collections.unmodifiableList(updated);
+      return removed;
+   }
+
+   synchronized void clear() {
+      streams = Collections.emptyList();
+      nextId = 0;
+   }
+
+   List<CameraStream> getStreams() {
+      return streams;
+   }
+
+   /**
+    * A stream has a new image.
+    *
+    * @return True if no composed render is pending and the caller has to schedule one.
+    */
+   boolean onFrameAvailable(CameraStream stream) {
+      stream.onFrameAvailable();
+      return coalescer.onFrameAvailable();
+   }
+
+   /**
+    * Latch the streams with a new image, at the start of a composed render.
+    *
+    * @return Number of streams latched.
+    */
+   int latchPending() {
+      int latched = 0;
+      for (CameraStream stream : streams) {
+         if (stream.latchIfPending()) latched++;
+      }
+      return latched;
+   }
+}
@@ -0,0 +1,130 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import timber.log.Timber;
+
+/**
+ * Presents every frame to a set of {@link OutputSurface}s that share the render context.
+ * <p>
+ * Outputs can be added and removed from any thread. Their EGL surfaces are created lazily on
+ * the render thread and released there once removed, through a {@link TargetFactory}, so the
+ * logic can run against a stand-in EGL.
+ */
+final class SurfaceFanout {
+
+   private final List<OutputSurface> outputs = new CopyOnWriteArrayList<>();
+
+   OutputSurface add(Object nativeWindow, int width, int height) {
+      OutputSurface output = new OutputSurface(nativeWindow, width, height);
+      outputs.add(output);
+      return output;
+   }
+
+   /**
+    * The output stops receiving frames. Its surface is released by {@link #releaseRemoved()},
+    * or by the next render if that comes first.
+    */
+   void remove(OutputSurface output) {
+      output.removed = true;
+   }
+
+   /**
+    * Release the surfaces of the removed outputs, on the render thread.
+    */
+   void releaseRemoved() {
+      for (OutputSurface output : outputs) {
+         if (output.removed) {
+            release(output);
+            outputs.remove(output);
+         }
+      }
+   }
+
+   boolean isEmpty() {
+      return outputs.isEmpty();
+   }
+
+   /**
+    * Draw and present the current frame to every output. Leaves the last output current.
+    *
+    * @param timestamp Camera timestamp of the frame, used as presentation time.
+    * @return Number of outputs the frame was presented to.
+    */
+   int render(long timestamp, Drawer drawer, TargetFactory factory) {
+      int presented = 0;
+      for (OutputSurface output : outputs) {
+         if (output.removed) {
+            release(output);
+            outputs.remove(output);
+            continue;
+         }
+         if (output.target == null) {
+            output.target = factory.create(output.nativeWindow);
+            if (output.target == null) {
+               Timber.e("Can't create output surface, dropping it");
+               outputs.remove(output);
+               continue;
+            }
+         }
+         SurfaceFanout.Target target = output.target;
+         if (!target.makeCurrent()) continue;
+         OutputSurface.Size size = output.getSize();
+         drawer.draw(size.width, size.height, output.getTransform());
+         target.setPresentationTime(timestamp);
+         if (target.swapBuffers()) {
+            output.presented(timestamp);
+            presented++;
+         }
+      }
+      return presented;
+   }
+
+   /**
+    * Release every EGL surface, the context is going away. Outputs stay registered and get new
+    * surfaces on the next context.
+    */
+   void releaseTargets() {
+      for (OutputSurface output : outputs) {
+         release(output);
+         if (output.removed) {
+            outputs.remove(output);
+         }
+      }
+   }
+
+   private static void release(OutputSurface output) {
+      if (output.target != null) {
+         output.target.release();
+         output.target = null;
+      }
+   }
+
+   /**
+    * A window surface of the render context.
+    */
+   interface Target {
+      boolean makeCurrent();
+
+      void setPresentationTime(long nanos);
+
+      boolean swapBuffers();
+
+      void release();
+   }
+
+   interface TargetFactory {
+      /**
+       * @return A surface for the window, or null if it can't be created.
+       */
+      Target create(Object nativeWindow);
+   }
+
+   interface Drawer {
+      /**
+       * Draw the current frame into the current surface.
+       */
+      void draw(int width, int height, float[] transform);
+   }
+}
@@ -0,0 +1,145 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lifetime analysis of the targets of a {@link RenderTargetPlan}, and their assignment to as
+ * few physical textures as it allows.
+ * <p>
+ * A target lives from the first to the last pass using it. Targets are visited by the start of
+ * their lifetime and take the first physical texture of the same size and format whose previous
+ * target is dead by then, a new one otherwise. Two targets used by the same pass never share.
+ * Independent of Android.
+ */
+@SuppressWarnings("Convert2Lambda")
+final class TargetAliasing {
+
+   private final int[] firstUse;
+   private final int[] lastUse;
+   private final int[] physicalOf;
+   //Index of a target backed by each physical texture, for its size and format
+   private final int[] physicalTargets;
+   private final long aliasedBytes;
+   private final long unaliasedBytes;
+
+   private TargetAliasing(int[] firstUse, int[] lastUse, int[] physicalOf, int[] physicalTargets,
+                          long aliasedBytes, long unaliasedBytes) {
+      this.firstUse = firstUse;
+      this.lastUse = lastUse;
+      this.physicalOf = physicalOf;
+      this.physicalTargets = physicalTargets;
+      this.aliasedBytes = aliasedBytes;
+      this.unaliasedBytes = unaliasedBytes;
+   }
+
+   /**
+    * @throws IllegalArgumentException If a target is read before any pass writes it.
+    */
+   static TargetAliasing assign(final RenderTargetPlan plan) {
+      int targetCount = plan.getTargetCount();
+      final int[] firstUse = new int[targetCount];
+      int[] lastUse = new int[targetCount];
+      boolean[] written = new boolean[targetCount];
+      Arrays.fill(firstUse, -1);
+      Arrays.fill(lastUse, -1);
+      for (int pass = 0; pass < plan.getPassCount(); pass++) {
+         for (int target : plan.getReads(pass)) {
+            if (!written[target]) {
+               throw new IllegalArgumentException("Target " + target + " read by pass " + pass + " before written");
+            }
+            lastUse[target] = pass;
+         }
+         for (int target : plan.getWrites(pass)) {
+            if (firstUse[target] < 0) firstUse[target] = pass;
+            written[target] = true;
+            lastUse[target] = pass;
+         }
+      }
+
+      List<Integer> order = new ArrayList<>(targetCount);
+      for (int target = 0; target < targetCount; target++) {
+         if (firstUse[target] >= 0) order.add(target);
+      }
+      Collections.sort(order, new Comparator<Integer>() {
+         @Override public int compare(Integer a, Integer b) {
+            return firstUse[a] != firstUse[b] ? firstUse[a] - firstUse[b] : a - b;
+         }
+      });
+
+      int[] physicalOf = new int[targetCount];
+      Arrays.fill(physicalOf, -1);
+      List<Integer> physicalTargets = new ArrayList<>();
+      List<Integer> physicalLastUse = new ArrayList<>();
+      long aliasedBytes = 0;
+      long unaliasedBytes = 0;
+      for (int target : order) {
+         unaliasedBytes += plan.getByteSize(target);
+         int physical = -1;
+         for (int i = 0; i < physicalTargets.size(); i++) {
+            if (physicalLastUse.get(i) < firstUse[target] && plan.isCompatible(physicalTargets.get(i), target)) {
+               physical = i;
+               break;
+            }
+         }
+         if (physical < 0) {
+            physical = physicalTargets.size();
+            physicalTargets.add(target);
+            physicalLastUse.add(lastUse[target]);
+            aliasedBytes += plan.getByteSize(target);
+         } else {
+            physicalLastUse.set(physical, lastUse[target]);
+         }
+         physicalOf[target] = physical;
+      }
+
+      int[] physicalTargetArray = new int[physicalTargets.size()];
+      for (int i = 0; i < physicalTargetArray.length; i++) {
+         physicalTargetArray[i] = physicalTargets.get(i);
+      }
+      return new TargetAliasing(firstUse, lastUse, physicalOf, physicalTargetArray, aliasedBytes, unaliasedBytes);
+   }
+
+   /**
+    * Physical texture backing the target, -1 if no pass uses it.
+    */
+   int getPhysical(int target) {
+      return physicalOf[target];
+   }
+
+   int getPhysicalCount() {
+      return physicalTargets.length;
+   }
+
+   /**
+    * A target backed by the physical texture, to read its size and format from the plan.
+    */
+   int getPhysicalTarget(int physical) {
+      return physicalTargets[physical];
+   }
+
+   int getFirstUse(int target) {
+      return firstUse[target];
+   }
+
+   int getLastUse(int target) {
+      return lastUse[target];
+   }
+
+   /**
+    * Memory of the physical textures.
+    */
+   long getAliasedBytes() {
+      return aliasedBytes;
+   }
+
+   /**
+    * Memory of one texture per used target.
+    */
+   long getUnaliasedBytes() {
+      return unaliasedBytes;
+   }
+}
@@ -0,0 +1,31 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads text resources in bulk. Free of Android types so it can be benchmarked on the JVM.
+ */
+final class TextStreams {
+
+   private TextStreams() {
+   }
+
+   /**
+    * Read the whole stream as UTF-8 and close it.
+    */
+   static String readUtf8(InputStream is) throws IOException {
+      try {
+         ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(is.available(), 1024));
+         byte[] chunk = new byte[4096];
+         int read;
+         while ((read = is.read(chunk)) != -1) {
+            out.write(chunk, 0, read);
+         }
+         return new String(out.toByteArray(), "UTF-8");
+      } finally {
+         is.close();
+      }
+   }
+}
@@ -3,36 +3,102 @@ package com.bq.openglcamera.opengl;
 
 import android.graphics.SurfaceTexture;
 import android.os.Handler;
-import android.os.Looper;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.view.TextureView;
 
-import java.util.concurrent.Semaphore;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import timber.log.Timber;
 
 /**
  * Wrapper for TextureView that allows attaching a {@link GLRenderer}.
  * Forward all {@link TextureView.SurfaceTextureListener} callbacks to this class
  * and use {@link #getEglSurfaceTexture()} in place of {@link TextureView#getSurfaceTexture()}.
  * <p>
- * Egl context is created and destroyed when the underlying TextureView is created / destroyed.
+ * Egl context is created and destroyed when the underlying TextureView is created / destroyed,
+ * unless {@link #setRetainContext(boolean, long)} keeps it alive for the next TextureView.
+ * <p>
+ * Frames are coalesced: when rendering falls behind the camera only the newest image is
+ * rendered, see {@link #getFrameStats()}. When the render happens is up to a
+ * {@link RenderScheduler}, by default once per display vsync.
+ * <p>
+ * With a {@link MultiSurfaceRenderer} each frame can also be presented to extra windows that
+ * share the context and the camera texture, see {@link #addOutputSurface(Object, int, int)}.
+ * <p>
+ * With a {@link MultiStreamRenderer} several cameras can feed the same context, see
+ * {@link #addCameraStream(StreamListener, Handler)}. A frame from any of them triggers one
+ * composed render with the newest image of each.
  */
 @SuppressWarnings("Convert2Lambda")
 public class TextureViewGLWrapper
    implements SurfaceTexture.OnFrameAvailableListener, TextureView.SurfaceTextureListener {
 
-   private final EglHelper eglHelper = new EglHelper();
+   public static final long DEFAULT_IDLE_TIMEOUT_MS = 10000;
+
+   //Time base of cameras with a REALTIME SENSOR_INFO_TIMESTAMP_SOURCE
+   private static final Clock ELAPSED_REALTIME = new Clock() {
+      @Override public long nanoTime() {
+         return SystemClock.elapsedRealtimeNanos();
+      }
+   };
+
+   private final GlBackend gl;
+   private final EglHelper eglHelper;
+   private final FrameCoalescer frameCoalescer = new FrameCoalescer(Clock.SYSTEM);
+   private final RenderMetrics renderMetrics = new RenderMetrics();
+   private final SurfaceFanout surfaceFanout = new SurfaceFanout();
+   private final StreamSet streams = new StreamSet(Clock.SYSTEM, frameCoalescer);
+   private final RenderScheduler scheduler;
+   private boolean recordable;
+   private boolean retainContext;
+   private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MS;
 
-   private RenderThread renderThread;
+   private volatile RenderThread renderThread;
+   private volatile GlCapture capture;
+   private volatile GlDiagnostics diagnostics = GlUtil.getDiagnostics();
+   private volatile ResolutionGovernor resolutionGovernor;
    private SurfaceTexture surfaceTexture;
    private SurfaceTexture eglSurfaceTexture;
    private EGLSurfaceTextureListener listener;
    private Handler listenerHandler;
    private int surfaceWidth, surfaceHeight;
 
+   //Render thread only
+   private CameraStream primaryStream;
+   private final Map<CameraStream, SurfaceTexture> extraStreams = new HashMap<>();
+   private GlDiagnostics contextDiagnostics;
+
    //Drawing
    private GLRenderer renderer;
 
    public TextureViewGLWrapper(GLRenderer renderer) {
+      this(renderer, AndroidGlBackend.INSTANCE);
+   }
+
+   /**
+    * Wrapper whose own GL calls (texture creation) go through the given backend.
+    */
+   public TextureViewGLWrapper(GLRenderer renderer, GlBackend gl) {
+      this(renderer, gl, new ChoreographerRenderScheduler());
+   }
+
+   /**
+    * @param scheduler Decides when frames are rendered, see {@link ChoreographerRenderScheduler}
+    *                  and {@link ImmediateRenderScheduler}.
+    */
+   public TextureViewGLWrapper(GLRenderer renderer, GlBackend gl, RenderScheduler scheduler) {
+      this(renderer, gl, scheduler, new EglHelper(gl));
+   }
+
+   TextureViewGLWrapper(GLRenderer renderer, GlBackend gl, RenderScheduler scheduler, EglHelper eglHelper) {
       this.renderer = renderer;
+      this.gl = gl;
+      this.eglHelper = eglHelper;
+      this.scheduler = scheduler;
    }
 
    /**
@@ -44,15 +110,140 @@ public class TextureViewGLWrapper
       this.listenerHandler = handler;
    }
 
-   @Override public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
-      if (renderThread != null) {
-         throw new IllegalStateException("Already have a context");
+   /**
+    * Pick an EGL config that can render into MediaCodec input surfaces
+    * (<code>EGL_RECORDABLE_ANDROID</code>). Takes effect the next time the context is created.
+    */
+   public void setRecordable(boolean recordable) {
+      this.recordable = recordable;
+   }
+
+   /**
+    * Present every frame to an extra window as well, sharing the context and camera texture.
+    * Needs a {@link MultiSurfaceRenderer}. The EGL surface is created on the render thread.
+    *
+    * @param nativeWindow A {@link android.view.Surface} or {@link SurfaceTexture}. For encoder
+    *                     input surfaces call {@link #setRecordable(boolean)} first.
+    */
+   public OutputSurface addOutputSurface(Object nativeWindow, int width, int height) {
+      if (!(renderer instanceof MultiSurfaceRenderer)) {
+         throw new IllegalStateException("Renderer can't draw to several surfaces: " + renderer);
       }
+      return surfaceFanout.add(nativeWindow, width, height);
+   }
+
+   /**
+    * Stop presenting to the output. Its EGL surface is released on the render thread as soon
+    * as the message posted there runs, without waiting for the next frame.
+    */
+   public void removeOutputSurface(OutputSurface output) {
+      surfaceFanout.remove(output);
+      RenderThread thread = renderThread;
+      //Without a context there is no surface, the output is dropped with the next one
+      if (thread == null) return;
+      if (Thread.currentThread() == thread) {
+         surfaceFanout.releaseRemoved();
+         return;
+      }
+      thread.handler.post(new Runnable() {
+         @Override public void run() {
+            surfaceFanout.releaseRemoved();
+         }
+      });
+   }
+
+   /**
+    * Add a camera stream to the context, composed into every frame along with the primary one.
+    * Needs a {@link MultiStreamRenderer} and a context, the texture is created on the render
+    * thread and handed to the listener. Streams live as long as the context.
+    */
+   public void addCameraStream(final StreamListener listener, final Handler handler) {
+      if (!(renderer instanceof MultiStreamRenderer)) {
+         throw new IllegalStateException("Renderer can't compose several streams: " + renderer);
+      }
+      final RenderThread thread = renderThread;
+      if (thread == null) {
+         throw new IllegalStateException("Context not ready");
+      }
+      thread.handler.post(new Runnable() {
+         @Override public void run() {
+            int textureId = eglHelper.createStreamTexture();
+            final SurfaceTexture texture = new SurfaceTexture(textureId);
+            final CameraStream stream = addStream(texture, textureId);
+            texture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+               @Override public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                  if (streams.onFrameAvailable(stream)) {
+                     scheduler.requestRender();
+                  }
+               }
+            }, thread.handler);
+            extraStreams.put(stream, texture);
+            handler.post(new Runnable() {
+               @Override public void run() {
+                  listener.onStreamReady(stream, texture);
+               }
+            });
+         }
+      });
+   }
+
+   /**
+    * Stop composing the stream and release its SurfaceTexture, on the render thread.
+    */
+   public void removeCameraStream(final CameraStream stream) {
+      RenderThread thread = renderThread;
+      if (thread == null) return;
+      thread.handler.post(new Runnable() {
+         @Override public void run() {
+            SurfaceTexture texture = extraStreams.remove(stream);
+            if (texture == null) return;
+            streams.remove(stream);
+            ((MultiStreamRenderer) renderer).onStreamRemoved(stream);
+            texture.release();
+            eglHelper.deleteStreamTexture(stream.getTexture());
+         }
+      });
+   }
+
+   /**
+    * Keep the render thread, context, camera texture and renderer resources when the
+    * TextureView is destroyed, only its window surface is released. The next TextureView
+    * passed to {@link #onSurfaceTextureAvailable(SurfaceTexture, int, int)} reuses them,
+    * {@link GLRenderer#onSurfaceCreated(SurfaceTexture, int, int)} is not called again.
+    * <p>
+    * Camera frames arriving without a window are latched and dropped, nothing is drawn. A
+    * context left without a window for <code>idleTimeoutMillis</code> is released.
+    * Call from the main thread.
+    */
+   public void setRetainContext(boolean retain, long idleTimeoutMillis) {
+      this.retainContext = retain;
+      this.idleTimeoutMillis = idleTimeoutMillis;
+   }
+
+   /**
+    * Release a context kept by {@link #setRetainContext(boolean, long)} now instead of waiting
+    * for the idle timeout. Does nothing while a TextureView is attached.
+    */
+   public void releaseRetainedContext() {
+      RenderThread thread = renderThread;
+      if (thread != null && thread.releaseIfDetached()) {
+         renderThread = null;
+      }
+   }
+
+   @Override public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+      RenderThread thread = renderThread;
       this.surfaceTexture = surface;
-      this.renderThread = new RenderThread();
-      this.renderThread.start();
       this.surfaceWidth = width;
       this.surfaceHeight = height;
+      if (thread != null && thread.reattach(surface, width, height)) {
+         return;
+      }
+      if (thread != null && !thread.isReleasing()) {
+         throw new IllegalStateException("Already have a context");
+      }
+      this.renderThread = new RenderThread(thread);
+      this.renderThread.startRendering();
    }
 
    @Override
@@ -62,7 +253,7 @@ public class TextureViewGLWrapper
       }
       this.surfaceWidth = width;
       this.surfaceHeight = height;
-      this.renderThread.blockingHandler().post(new Runnable() {
+      this.renderThread.handler.post(new Runnable() {
          @Override public void run() {
             renderer.onSurfaceChanged(eglSurfaceTexture, surfaceWidth, surfaceHeight);
          }
@@ -70,17 +261,16 @@ public class TextureViewGLWrapper
    }
 
    @Override public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-      if (renderThread == null) return true;
+      RenderThread thread = renderThread;
+      if (thread == null) return true;
 
-      renderThread.handler.post(new Runnable() {
-         @Override public void run() {
-            Looper looper = Looper.myLooper();
-            if (looper != null) {
-               looper.quit();
-            }
-         }
-      });
-      renderThread = null;
+      if (retainContext) {
+         //The TextureView releases the window as soon as we return
+         thread.detach(idleTimeoutMillis);
+      } else {
+         thread.release();
+         renderThread = null;
+      }
       return true; //Unused
    }
 
@@ -88,11 +278,41 @@ public class TextureViewGLWrapper
       //Nothing to do
    }
 
-   private void configure() {
+   /**
+    * Create the context for its first window. This and the methods below run on the render
+    * thread.
+    */
+   void configure(Handler handler, SurfaceTexture window, int width, int height) {
       //Configure the display
-      eglSurfaceTexture = eglHelper.createSurface(surfaceTexture, false);
-      renderer.onSurfaceCreated(eglSurfaceTexture, surfaceWidth, surfaceHeight);
-      eglSurfaceTexture.setOnFrameAvailableListener(this, renderThread.handler);
+      eglSurfaceTexture = eglHelper.createSurface(window, recordable);
+      contextDiagnostics = diagnostics;
+      KhrDebugOutput.install(gl, contextDiagnostics);
+      renderer.onSurfaceCreated(eglSurfaceTexture, width, height);
+      if (renderer instanceof MultiStreamRenderer) {
+         primaryStream = addStream(eglSurfaceTexture, eglHelper.getTexture());
+      }
+      eglSurfaceTexture.setOnFrameAvailableListener(this, handler);
+      scheduler.attach(renderFrame);
+      notifyReady();
+   }
+
+   /**
+    * Give a retained context its next window.
+    */
+   void reattach(SurfaceTexture window, int width, int height) {
+      eglHelper.attachWindow(window);
+      renderer.onSurfaceChanged(eglSurfaceTexture, width, height);
+      notifyReady();
+   }
+
+   /**
+    * Release the window, the context and everything in it are kept.
+    */
+   void detachWindow() {
+      eglHelper.detachWindow();
+   }
+
+   private void notifyReady() {
       //At this point we should be ready to accept frames from the camera
       listenerHandler.post(new Runnable() {
          @Override public void run() {
@@ -101,35 +321,281 @@ public class TextureViewGLWrapper
       });
    }
 
+   /**
+    * The composed streams in drawing order, the primary one first. Empty unless the renderer
+    * is a {@link MultiStreamRenderer}. Can be called from any thread.
+    */
+   public List<CameraStream> getCameraStreams() {
+      return streams.getStreams();
+   }
+
+   /**
+    * Counters of received, rendered and skipped frames. Can be called from any thread.
+    */
+   public FrameStats getFrameStats() {
+      return frameCoalescer.stats();
+   }
+
    @Override public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-      renderer.onFrameAvailable(eglSurfaceTexture);
-      eglHelper.makeCurrent();
-      eglHelper.swapBuffers();
+      //Delivered on the render thread. Only the first frame since the last render asks the
+      //scheduler for one, the ones arriving before it runs are skipped.
+      boolean schedule = primaryStream != null
+         ? streams.onFrameAvailable(primaryStream)
+         : frameCoalescer.onFrameAvailable();
+      if (schedule) {
+         scheduler.requestRender();
+      }
+   }
+
+   /**
+    * Record the EGL calls and frame ends of the render loop into the capture, null to stop.
+    * GL calls are recorded by giving the renderer a {@link CapturingGlBackend}.
+    */
+   public void setCapture(GlCapture capture) {
+      this.capture = capture;
    }
 
-   private void dispose() {
+   /**
+    * Diagnostics ticked at the start of every frame, so the calls of the frames they sample are
+    * checked, and fed by <code>KHR_debug</code> where the context has it. Defaults to
+    * {@link GlUtil#getDiagnostics()}, give the renderers a {@link CheckingGlBackend} using the
+    * same ones. Takes effect when the next context is created.
+    */
+   public void setDiagnostics(GlDiagnostics diagnostics) {
+      this.diagnostics = diagnostics;
+   }
+
+   /**
+    * Governor fed with the time of every frame rendered, null to stop. Its listener runs on the
+    * render thread.
+    */
+   public void setResolutionGovernor(ResolutionGovernor governor) {
+      this.resolutionGovernor = governor;
+   }
+
+   public ResolutionGovernor getResolutionGovernor() {
+      return resolutionGovernor;
+   }
+
+   /**
+    * Timings of the render loop, disabled until {@link RenderMetrics#setEnabled(boolean)}.
+    */
+   public RenderMetrics getRenderMetrics() {
+      return renderMetrics;
+   }
+
+   /**
+    * Whether the camera timestamps are in the <code>elapsedRealtimeNanos</code> base, that is
+    * its <code>SENSOR_INFO_TIMESTAMP_SOURCE</code> is REALTIME. Otherwise they are taken to be
+    * in the {@link System#nanoTime()} one, which is what UNKNOWN means.
+    */
+   public void setCameraTimestampsRealtime(boolean realtime) {
+      renderMetrics.setCameraClock(realtime ? ELAPSED_REALTIME : Clock.SYSTEM);
+   }
+
+   private final RenderScheduler.Callback renderFrame = new RenderScheduler.Callback() {
+      @Override public void render(long frameTimeNanos) {
+         if (!eglHelper.hasWindow()) {
+            //Detached, nobody would see it. Latch the image so the camera isn't held up, but
+            //draw, swap and measure nothing
+            frameCoalescer.skipRender();
+            if (primaryStream != null) {
+               streams.latchPending();
+            } else {
+               eglSurfaceTexture.updateTexImage();
+            }
+            return;
+         }
+         GlCapture capture = TextureViewGLWrapper.this.capture;
+         eglHelper.setCapture(capture);
+         contextDiagnostics.beginFrame(gl);
+         //Always timed, frame time renderers need it with metrics off
+         long frameStart = Clock.SYSTEM.nanoTime();
+         frameCoalescer.beginRender();
+         renderMetrics.recordDuration(RenderMetrics.Stage.QUEUE, frameCoalescer.lastQueueDelay());
+         if (primaryStream != null) {
+            //Multi stream renderers draw what the wrapper latched
+            long updateStart = renderMetrics.start();
+            streams.latchPending();
+            renderMetrics.record(RenderMetrics.Stage.UPDATE_TEX_IMAGE, updateStart);
+         }
+
+         long drawStart = renderMetrics.start();
+         renderer.onFrameAvailable(eglSurfaceTexture);
+         renderMetrics.record(RenderMetrics.Stage.DRAW, drawStart);
+
+         eglHelper.makeCurrent();
+         long swapStart = renderMetrics.start();
+         eglHelper.swapBuffers();
+         renderMetrics.record(RenderMetrics.Stage.SWAP, swapStart);
+         long frameNanos = Clock.SYSTEM.nanoTime() - frameStart;
+         renderMetrics.recordDuration(RenderMetrics.Stage.FRAME, frameNanos);
+         if (renderer instanceof FrameTimeRenderer) {
+            ((FrameTimeRenderer) renderer).onFrameRendered(frameNanos);
+         }
+         ResolutionGovernor governor = resolutionGovernor;
+         if (governor != null) {
+            governor.onFrame(frameNanos);
+         }
+         if (renderMetrics.isEnabled()) {
+            renderMetrics.framePresented(eglSurfaceTexture.getTimestamp());
+         }
+
+         if (!surfaceFanout.isEmpty()) {
+            //Same latched image, redrawn with each output's viewport and transform
+            surfaceFanout.render(eglSurfaceTexture.getTimestamp(), fanoutDrawer, eglHelper);
+            eglHelper.makeCurrent();
+         }
+         if (capture != null) {
+            capture.frame(frameTimeNanos);
+         }
+      }
+   };
+
+   private final SurfaceFanout.Drawer fanoutDrawer = new SurfaceFanout.Drawer() {
+      @Override public void draw(int width, int height, float[] transform) {
+         ((MultiSurfaceRenderer) renderer).onDrawFrame(width, height, transform);
+      }
+   };
+
+   private CameraStream addStream(SurfaceTexture texture, int textureId) {
+      CameraStream stream = streams.add(textureId, new SurfaceTextureImage(texture));
+      ((MultiStreamRenderer) renderer).onStreamAdded(stream);
+      return stream;
+   }
+
+   void dispose() {
+      scheduler.detach();
+      frameCoalescer.reset();
+      surfaceFanout.releaseTargets();
+      for (Map.Entry<CameraStream, SurfaceTexture> extra : extraStreams.entrySet()) {
+         extra.getValue().release();
+         eglHelper.deleteStreamTexture(extra.getKey().getTexture());
+      }
+      extraStreams.clear();
+      streams.clear();
+      primaryStream = null;
       renderer.onSurfaceDestroyed(eglSurfaceTexture);
       eglHelper.destroySurface();
+      contextDiagnostics.setDebugOutput(false, false);
    }
 
-   private class RenderThread extends Thread {
-      private Semaphore eglContextReadyLock = new Semaphore(0);
+   private class RenderThread extends HandlerThread {
+      private final Thread previous;
+      //Set by startRendering, before anybody else can use it
       private Handler handler;
+      private volatile boolean configured;
+      private final ContextLifecycle lifecycle = new ContextLifecycle();
+
+      /**
+       * @param previous Thread of a released context, still tearing down, or null.
+       */
+      RenderThread(Thread previous) {
+         super("GLRender");
+         this.previous = previous;
+      }
+
+      /**
+       * Start the thread and queue the context creation. Messages posted to {@link #handler}
+       * afterwards run with the context ready.
+       */
+      void startRendering() {
+         start();
+         handler = new Handler(getLooper());
+         handler.post(new Runnable() {
+            @Override public void run() {
+               awaitPrevious();
+               configure(handler, surfaceTexture, surfaceWidth, surfaceHeight);
+               configured = true;
+            }
+         });
+      }
 
       @Override public void run() {
-         Looper.prepare();
-         handler = new Handler();
-         configure();
-         eglContextReadyLock.release();
-         Looper.loop();
-         dispose();
+         super.run();
+         //The looper quit
+         if (configured) {
+            dispose();
+         }
+      }
+
+      /**
+       * Release the window surface, blocking until it is gone, and start the idle timeout.
+       */
+      void detach(long idleTimeoutMillis) {
+         final CountDownLatch windowReleased = new CountDownLatch(1);
+         handler.post(new Runnable() {
+            @Override public void run() {
+               detachWindow();
+               windowReleased.countDown();
+            }
+         });
+         awaitUninterruptibly(windowReleased);
+         final int token = lifecycle.detach();
+         handler.postDelayed(new Runnable() {
+            @Override public void run() {
+               if (lifecycle.idleTimeout(token)) {
+                  Timber.d("Releasing idle context");
+                  quit();
+               }
+            }
+         }, idleTimeoutMillis);
+      }
+
+      /**
+       * Attach a new window to the retained context.
+       *
+       * @return false if the context is gone or going, a new thread is needed.
+       */
+      boolean reattach(final SurfaceTexture window, final int width, final int height) {
+         if (!lifecycle.reattach()) return false;
+         //The pending idle timeout finds the context attached, or a newer detach
+         handler.post(new Runnable() {
+            @Override public void run() {
+               TextureViewGLWrapper.this.reattach(window, width, height);
+            }
+         });
+         return true;
       }
 
-      Handler blockingHandler() {
-         //Block until the EGL context is ready to accept messages
-         eglContextReadyLock.acquireUninterruptibly();
-         eglContextReadyLock.release();
-         return this.handler;
+      boolean releaseIfDetached() {
+         if (!lifecycle.releaseIfDetached()) return false;
+         quit();
+         return true;
+      }
+
+      boolean isReleasing() {
+         return lifecycle.isReleasing();
+      }
+
+      void release() {
+         lifecycle.release();
+         quit();
+      }
+
+      private void awaitPrevious() {
+         //Two threads tearing down and creating contexts on the same display don't mix
+         while (previous != null && previous.isAlive()) {
+            try {
+               previous.join();
+            } catch (InterruptedException ignored) {
+               //Keep waiting
+            }
+         }
+      }
+   }
+
+   private static void awaitUninterruptibly(CountDownLatch latch) {
+      boolean interrupted = false;
+      while (latch.getCount() > 0) {
+         try {
+            latch.await();
+         } catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
       }
    }
 
@@ -137,6 +603,17 @@ public class TextureViewGLWrapper
       return eglSurfaceTexture;
    }
 
+   public GLRenderer getRenderer() {
+      return renderer;
+   }
+
+   public interface StreamListener {
+      /**
+       * The stream's texture is ready, give the SurfaceTexture to the camera.
+       */
+      void onStreamReady(CameraStream stream, SurfaceTexture surfaceTexture);
+   }
+
    public interface EGLSurfaceTextureListener {
       /**
        * Underlying EGL Context is ready.
@@ -175,4 +652,68 @@ public class TextureViewGLWrapper
        */
       void onFrameAvailable(SurfaceTexture eglSurfaceTexture);
    }
+
+   /**
+    * Renderer that can draw the image latched by {@link #onFrameAvailable(SurfaceTexture)}
+    * again, into other surfaces of the same context.
+    */
+   public interface MultiSurfaceRenderer extends GLRenderer {
+
+      /**
+       * Draw the last latched camera image into the current surface.
+       *
+       * @param transform Transform for this surface, or null to use the renderer's own.
+       */
+      void onDrawFrame(int surfaceWidth, int surfaceHeight, float[] transform);
+   }
+
+   /**
+    * Renderer composing several camera streams. The wrapper latches the streams with a new
+    * image before {@link #onFrameAvailable(SurfaceTexture)}, the primary one included, so the
+    * renderer draws with {@link CameraStream#getTexture()} and
+    * {@link CameraStream#getTextureMatrix()} instead of calling <code>updateTexImage</code>.
+    */
+   public interface MultiStreamRenderer extends GLRenderer {
+
+      /**
+       * A stream joined, on the render thread. The primary one right after
+       * {@link #onSurfaceCreated(SurfaceTexture, int, int)}.
+       */
+      void onStreamAdded(CameraStream stream);
+
+      void onStreamRemoved(CameraStream stream);
+   }
+
+   /**
+    * Renderer told how long each frame took, such as to adapt its resolution.
+    */
+   public interface FrameTimeRenderer extends GLRenderer {
+
+      /**
+       * The frame just rendered took <code>frameNanos</code>, from the start of the render to
+       * the end of the swap. The swap blocks once the GPU falls behind, so GPU time shows up
+       * too. Same as {@link RenderMetrics.Stage#FRAME}.
+       */
+      void onFrameRendered(long frameNanos);
+   }
+
+   private static final class SurfaceTextureImage implements CameraStream.Image {
+      private final SurfaceTexture texture;
+
+      SurfaceTextureImage(SurfaceTexture texture) {
+         this.texture = texture;
+      }
+
+      @Override public void update() {
+         texture.updateTexImage();
+      }
+
+      @Override public long getTimestamp() {
+         return texture.getTimestamp();
+      }
+
+      @Override public void getTransformMatrix(float[] matrix) {
+         texture.getTransformMatrix(matrix);
+      }
+   }
 }
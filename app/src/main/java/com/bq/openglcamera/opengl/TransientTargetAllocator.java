@@ -0,0 +1,175 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Textures and framebuffers for the intermediate targets of multi-pass effects, shared by
+ * targets whose lifetimes within the frame don't overlap (see {@link TargetAliasing}).
+ * <p>
+ * The textures are pooled across frames and plans: a new plan takes the ones of the right size
+ * and format it finds, creates the missing ones and deletes those left over. Call
+ * {@link #release()} when the surface size changes or the context goes away. Render thread only.
+ */
+public class TransientTargetAllocator {
+
+   private final GlBackend gl;
+   private final List<Physical> pool = new ArrayList<>();
+   private RenderTargetPlan plan;
+   private Allocation allocation;
+
+   public TransientTargetAllocator(GlBackend gl) {
+      this.gl = gl;
+   }
+
+   /**
+    * Back the targets of the plan. Returns the same allocation while the plan doesn't change.
+    */
+   public Allocation allocate(RenderTargetPlan plan) {
+      if (plan == this.plan) return allocation;
+      TargetAliasing aliasing = TargetAliasing.assign(plan);
+
+      List<Physical> available = new ArrayList<>(pool);
+      List<Physical> used = new ArrayList<>(aliasing.getPhysicalCount());
+      for (int i = 0; i < aliasing.getPhysicalCount(); i++) {
+         int target = aliasing.getPhysicalTarget(i);
+         Physical physical = take(available, plan.getWidth(target), plan.getHeight(target), plan.getFormat(target));
+         if (physical == null) {
+            physical = create(plan.getWidth(target), plan.getHeight(target), plan.getFormat(target));
+         }
+         used.add(physical);
+      }
+      for (Physical leftOver : available) {
+         delete(leftOver);
+      }
+      pool.clear();
+      pool.addAll(used);
+
+      int[] textures = new int[plan.getTargetCount()];
+      int[] framebuffers = new int[plan.getTargetCount()];
+      for (int target = 0; target < textures.length; target++) {
+         int physical = aliasing.getPhysical(target);
+         if (physical < 0) continue;
+         textures[target] = used.get(physical).texture;
+         framebuffers[target] = used.get(physical).framebuffer;
+      }
+      Timber.d("Transient targets: %d textures for %d targets, %d KB instead of %d KB",
+         aliasing.getPhysicalCount(), plan.getTargetCount(),
+         aliasing.getAliasedBytes() / 1024, aliasing.getUnaliasedBytes() / 1024);
+
+      this.plan = plan;
+      this.allocation = new Allocation(textures, framebuffers, aliasing.getAliasedBytes());
+      return allocation;
+   }
+
+   /**
+    * Delete every texture and framebuffer, the next plan creates them again.
+    */
+   public void release() {
+      for (Physical physical : pool) {
+         delete(physical);
+      }
+      pool.clear();
+      plan = null;
+      allocation = null;
+   }
+
+   private static Physical take(List<Physical> available, int width, int height, int format) {
+      for (int i = 0; i < available.size(); i++) {
+         Physical physical = available.get(i);
+         if (physical.width == width && physical.height == height && physical.format == format) {
+            return available.remove(i);
+         }
+      }
+      return null;
+   }
+
+   private Physical create(int width, int height, int format) {
+      int[] ids = new int[1];
+      gl.glGenTextures(1, ids, 0);
+      int texture = ids[0];
+      gl.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+      gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+      gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+      gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+      gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+      gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+         format, GLES20.GL_UNSIGNED_BYTE, null);
+
+      gl.glGenFramebuffers(1, ids, 0);
+      int framebuffer = ids[0];
+      gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+      gl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+         GLES20.GL_TEXTURE_2D, texture, 0);
+      int status = gl.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+      gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+      gl.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+      if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+         delete(new Physical(texture, framebuffer, width, height, format));
+         throw new IllegalStateException("Transient framebuffer incomplete: 0x" + Integer.toHexString(status));
+      }
+      GlUtil.checkGLError(gl, "Transient target");
+      return new Physical(texture, framebuffer, width, height, format);
+   }
+
+   private void delete(Physical physical) {
+      gl.glDeleteFramebuffers(1, new int[]{physical.framebuffer}, 0);
+      gl.glDeleteTextures(1, new int[]{physical.texture}, 0);
+   }
+
+   /**
+    * Texture and framebuffer of each target of a plan.
+    */
+   public static final class Allocation {
+      private final int[] textures;
+      private final int[] framebuffers;
+      private final long byteSize;
+
+      Allocation(int[] textures, int[] framebuffers, long byteSize) {
+         this.textures = textures;
+         this.framebuffers = framebuffers;
+         this.byteSize = byteSize;
+      }
+
+      /**
+       * Texture to sample the target from, 0 if no pass uses it.
+       */
+      public int getTexture(int target) {
+         return textures[target];
+      }
+
+      /**
+       * Framebuffer to render into the target, 0 if no pass uses it.
+       */
+      public int getFramebuffer(int target) {
+         return framebuffers[target];
+      }
+
+      /**
+       * Memory of the textures backing the plan.
+       */
+      public long getByteSize() {
+         return byteSize;
+      }
+   }
+
+   private static final class Physical {
+      final int texture;
+      final int framebuffer;
+      final int width;
+      final int height;
+      final int format;
+
+      Physical(int texture, int framebuffer, int width, int height, int format) {
+         this.texture = texture;
+         this.framebuffer = framebuffer;
+         this.width = width;
+         this.height = height;
+         this.format = format;
+      }
+   }
+}
@@ -0,0 +1,96 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContextLifecycleTest {
+
+   private final ContextLifecycle lifecycle = new ContextLifecycle();
+
+   @Test public void attachedContextsCantBeReattached() {
+      assertFalse(lifecycle.reattach());
+      assertFalse(lifecycle.isDetached());
+   }
+
+   @Test public void detachedContextsAreReattached() {
+      lifecycle.detach();
+
+      assertTrue(lifecycle.reattach());
+      assertFalse(lifecycle.isDetached());
+      assertFalse(lifecycle.reattach());
+   }
+
+   @Test public void idleTimeoutReleasesADetachedContext() {
+      int token = lifecycle.detach();
+
+      assertTrue(lifecycle.idleTimeout(token));
+
+      assertTrue(lifecycle.isReleasing());
+      assertFalse(lifecycle.reattach());
+   }
+
+   @Test public void idleTimeoutIgnoredOnceReattached() {
+      int token = lifecycle.detach();
+      lifecycle.reattach();
+
+      assertFalse(lifecycle.idleTimeout(token));
+      assertFalse(lifecycle.isReleasing());
+   }
+
+   @Test public void staleIdleTimeoutIgnoredAfterANewDetach() {
+      int first = lifecycle.detach();
+      lifecycle.reattach();
+      int second = lifecycle.detach();
+
+      assertFalse(lifecycle.idleTimeout(first));
+      assertFalse(lifecycle.isReleasing());
+      assertTrue(lifecycle.idleTimeout(second));
+   }
+
+   @Test public void idleTimeoutReleasesOnlyOnce() {
+      int token = lifecycle.detach();
+
+      assertTrue(lifecycle.idleTimeout(token));
+      assertFalse(lifecycle.idleTimeout(token));
+   }
+
+   @Test public void explicitReleaseOnlyWhenDetached() {
+      assertFalse(lifecycle.releaseIfDetached());
+      assertFalse(lifecycle.isReleasing());
+
+      int token = lifecycle.detach();
+      assertTrue(lifecycle.releaseIfDetached());
+
+      assertTrue(lifecycle.isReleasing());
+      assertFalse(lifecycle.idleTimeout(token));
+      assertFalse(lifecycle.reattach());
+   }
+
+   @Test public void releasedContextsCantBeReattached() {
+      lifecycle.release();
+      lifecycle.detach();
+
+      assertFalse(lifecycle.reattach());
+   }
+
+   @SuppressWarnings("Convert2Lambda")
+   @Test public void reattachRacingTheIdleTimeoutHasOneWinner() throws InterruptedException {
+      for (int i = 0; i < 1000; i++) {
+         final ContextLifecycle lifecycle = new ContextLifecycle();
+         final int token = lifecycle.detach();
+         final boolean[] released = new boolean[1];
+         Thread timeout = new Thread(new Runnable() {
+            @Override public void run() {
+               released[0] = lifecycle.idleTimeout(token);
+            }
+         });
+         timeout.start();
+         boolean reattached = lifecycle.reattach();
+         timeout.join();
+
+         assertTrue(reattached != released[0]);
+      }
+   }
+}
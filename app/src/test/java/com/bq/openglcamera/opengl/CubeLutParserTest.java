@@ -0,0 +1,135 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CubeLutParserTest {
+
+   @Test public void identityTable() throws IOException {
+      Lut lut = parse(""
+         + "# Created by hand\n"
+         + "TITLE \"Identity\"\n"
+         + "LUT_3D_SIZE 2\n"
+         + "\n"
+         + "0.0 0.0 0.0\n"
+         + "1.0 0.0 0.0\n"
+         + "0.0 1.0 0.0\n"
+         + "1.0 1.0 0.0\n"
+         + "0.0 0.0 1.0\n"
+         + "1.0 0.0 1.0\n"
+         + "0.0 1.0 1.0\n"
+         + "1.0 1.0 1.0\n");
+
+      assertEquals("Identity", lut.getTitle());
+      assertEquals(2, lut.getSize());
+      assertEquals(Lut.identity(2).getData(), lut.getData());
+   }
+
+   @Test public void valuesAreMappedFromTheDomain() throws IOException {
+      Lut lut = parse(""
+         + "LUT_3D_SIZE 2\n"
+         + "DOMAIN_MIN 0 0 -1\n"
+         + "DOMAIN_MAX 2 1 1\n"
+         + "1 0.5 0\n" + table(7, "0 0 -1"));
+
+      ByteBuffer data = lut.getData();
+      assertEquals(128, data.get(0) & 0xff);
+      assertEquals(128, data.get(1) & 0xff);
+      assertEquals(128, data.get(2) & 0xff);
+      assertEquals(255, data.get(3) & 0xff);
+   }
+
+   @Test public void inputRangeSetsEveryChannel() throws IOException {
+      Lut lut = parse("LUT_3D_INPUT_RANGE 0 4\nLUT_3D_SIZE 2\n1 2 4\n" + table(7, "0 0 0"));
+
+      ByteBuffer data = lut.getData();
+      assertEquals(64, data.get(0) & 0xff);
+      assertEquals(128, data.get(1) & 0xff);
+      assertEquals(255, data.get(2) & 0xff);
+   }
+
+   @Test public void numberFormats() throws IOException {
+      Lut lut = parse("LUT_3D_SIZE 2\r\n"
+         + "+5e-1 2.5E-1\t.75   # trailing comment\r\n"
+         + "-0.5 1e1 0.00000000000000000000001\r\n" + table(6, "0 0 0"));
+
+      ByteBuffer data = lut.getData();
+      assertEquals(128, data.get(0) & 0xff);
+      assertEquals(64, data.get(1) & 0xff);
+      assertEquals(191, data.get(2) & 0xff);
+      //Clamped
+      assertEquals(0, data.get(4) & 0xff);
+      assertEquals(255, data.get(5) & 0xff);
+      assertEquals(0, data.get(6) & 0xff);
+   }
+
+   @Test public void unknownKeywordsAreSkipped() throws IOException {
+      Lut lut = parse("LUT_3D_SIZE 2\nLUT_IN_VIDEO_RANGE\nCUSTOM 1 2 3\n" + table(8, "1 1 1"));
+
+      assertEquals(2, lut.getSize());
+   }
+
+   @Test public void tablesLargerThanAReadBlock() throws IOException {
+      //33^3 lines are well over the 64KB block, numbers get split between reads
+      int size = 33;
+      StringBuilder source = new StringBuilder("LUT_3D_SIZE " + size + "\n");
+      for (int b = 0; b < size; b++) {
+         for (int g = 0; g < size; g++) {
+            for (int r = 0; r < size; r++) {
+               source.append(value(r, size)).append(' ').append(value(g, size)).append(' ')
+                  .append(value(b, size)).append('\n');
+            }
+         }
+      }
+      assertTrue(source.length() > 64 * 1024);
+
+      Lut lut = parse(source.toString());
+
+      assertEquals(Lut.identity(size).getData(), lut.getData());
+   }
+
+   @Test public void malformedTablesAreRejected() {
+      assertRejected("0 0 0\n", "Line 1: Data before LUT_3D_SIZE");
+      assertRejected("LUT_3D_SIZE 2\n" + table(7, "0 0 0"), "Expected 8 entries, found 7");
+      assertRejected("LUT_3D_SIZE 2\n" + table(9, "0 0 0"), "More than 8 entries");
+      assertRejected("LUT_3D_SIZE 2\n" + table(8, "0 0 0") + "TITLE \"late\"\n", "Keyword after the table data");
+      assertRejected("LUT_3D_SIZE 2\n0 0\n", "Expected a number");
+      assertRejected("LUT_3D_SIZE 2\n0 0 0 0\n", "Unexpected '0'");
+      assertRejected("LUT_3D_SIZE 2\n0 0 1e\n", "Expected an exponent");
+      assertRejected("LUT_3D_SIZE 1\n", "Unsupported size 1");
+      assertRejected("LUT_1D_SIZE 1024\n", "1D LUTs are not supported");
+      assertRejected("TITLE \"empty\"\n", "Missing LUT_3D_SIZE");
+   }
+
+   private static Lut parse(String source) throws IOException {
+      return CubeLutParser.parse(new ByteArrayInputStream(source.getBytes("UTF-8")));
+   }
+
+   private static String table(int lines, String line) {
+      StringBuilder table = new StringBuilder();
+      for (int i = 0; i < lines; i++) {
+         table.append(line).append('\n');
+      }
+      return table.toString();
+   }
+
+   private static String value(int index, int size) {
+      return Float.toString(index / (float) (size - 1));
+   }
+
+   private static void assertRejected(String source, String message) {
+      try {
+         parse(source);
+         fail(source);
+      } catch (IOException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains(message));
+      }
+   }
+}
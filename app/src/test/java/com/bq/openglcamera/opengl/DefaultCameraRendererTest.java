@@ -0,0 +1,243 @@
+package com.bq.openglcamera.opengl;
+
+import android.graphics.SurfaceTexture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("Convert2Lambda")
+public class DefaultCameraRendererTest {
+
+   private static final String VERTEX_SOURCE = "attribute vec4 position;\nvoid main() {}\n";
+   private static final String FRAGMENT_SOURCE = "void main() {}\n";
+   private static final String CUSTOM_VERTEX_SOURCE = "attribute vec4 position;\nvoid main() {}\n//custom\n";
+   private static final String EDITED_FRAGMENT_SOURCE = "void main() {}\n//edited\n";
+
+   private RecordingGlBackend gl;
+   private DefaultCameraRenderer renderer;
+   private SurfaceTexture cameraTexture;
+
+   @Before public void setUp() {
+      gl = new RecordingGlBackend();
+      renderer = newRenderer(gl);
+      cameraTexture = new SurfaceTexture(0);
+   }
+
+   static DefaultCameraRenderer newRenderer(GlBackend gl) {
+      return new DefaultCameraRenderer(gl, newProgramCache(), VERTEX_SOURCE, FRAGMENT_SOURCE);
+   }
+
+   @Test public void firstFrameSetsUpTheState() {
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      gl.clearCalls();
+
+      renderer.onFrameAvailable(cameraTexture);
+
+      assertEquals(1, gl.count("glViewport"));
+      assertEquals(1, gl.count("glClearColor"));
+      assertEquals(2, gl.count("glUniformMatrix4fv"));
+      assertEquals(1, gl.count("glDrawElements"));
+   }
+
+   @Test public void steadyStateFrameOnlyClearsAndDraws() {
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      renderer.onFrameAvailable(cameraTexture);
+      gl.clearCalls();
+
+      renderer.onFrameAvailable(cameraTexture);
+
+      assertEquals(0, gl.count("glUseProgram"));
+      assertEquals(0, gl.count("glViewport"));
+      assertEquals(0, gl.count("glClearColor"));
+      assertEquals(0, gl.count("glEnableVertexAttribArray"));
+      assertEquals(0, gl.count("glVertexAttribPointer"));
+      assertEquals(0, gl.count("glUniformMatrix4fv"));
+      assertEquals(0, gl.count("glBindVertexArray"));
+      assertEquals(1, gl.count("glActiveTexture"));
+      assertEquals(1, gl.count("glClear"));
+      assertEquals(1, gl.count("glDrawElements"));
+      assertEquals(3, gl.getCalls().size());
+   }
+
+   @Test public void resizeSendsTheNewViewportOnce() {
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      renderer.onFrameAvailable(cameraTexture);
+      renderer.onSurfaceChanged(cameraTexture, 1080, 1920);
+      gl.clearCalls();
+
+      renderer.onFrameAvailable(cameraTexture);
+      renderer.onFrameAvailable(cameraTexture);
+
+      assertEquals(1, gl.count("glViewport"));
+      assertEquals(2, gl.count("glDrawElements"));
+   }
+
+   @Test public void es3FramesDrawFromTheVertexArray() {
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      gl.clearCalls();
+
+      for (int i = 0; i < 3; i++) {
+         renderer.onFrameAvailable(cameraTexture);
+      }
+
+      assertEquals(0, gl.getClientMemorySubmissions());
+      assertEquals(1, gl.count("glBindVertexArray"));
+      assertEquals(0, gl.count("glBufferData"));
+      assertEquals(1, gl.getLiveVertexArrays().size());
+   }
+
+   @Test public void es2FramesDrawFromBufferObjects() {
+      gl = new RecordingGlBackend("OpenGL ES 2.0 recording");
+      renderer = newRenderer(gl);
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      gl.clearCalls();
+
+      for (int i = 0; i < 3; i++) {
+         renderer.onFrameAvailable(cameraTexture);
+      }
+
+      assertEquals(0, gl.getClientMemorySubmissions());
+      assertEquals(0, gl.count("glBindVertexArray"));
+      assertEquals(0, gl.count("glBufferData"));
+      //The attributes are pointed at the vertex buffer once, the state cache drops the rest
+      assertEquals(2, gl.count("glVertexAttribPointer"));
+      assertEquals(0, gl.getLiveVertexArrays().size());
+   }
+
+   @Test public void surfaceDestroyedDeletesEverything() {
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      renderer.onFrameAvailable(cameraTexture);
+
+      renderer.onSurfaceDestroyed(cameraTexture);
+
+      assertEquals(0, gl.getLivePrograms().size());
+      assertEquals(0, gl.getLiveBuffers().size());
+      assertEquals(0, gl.getLiveVertexArrays().size());
+   }
+
+   @Test public void hotReloadDeletesTheReplacedProgram() {
+      ManualExecutor worker = new ManualExecutor();
+      renderer = rendererCompilingOn(worker);
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      int first = compileAndDraw(worker, FRAGMENT_SOURCE);
+
+      int second = compileAndDraw(worker, EDITED_FRAGMENT_SOURCE);
+
+      Set<Integer> live = gl.getLivePrograms();
+      assertTrue(first != second);
+      assertFalse(live.contains(first));
+      assertTrue(live.contains(second));
+      //Pass-through and the reloaded one
+      assertEquals(2, live.size());
+   }
+
+   @Test public void nullSourcesDeleteTheCustomProgram() {
+      ManualExecutor worker = new ManualExecutor();
+      renderer = rendererCompilingOn(worker);
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      int custom = compileAndDraw(worker, FRAGMENT_SOURCE);
+
+      renderer.setShaderSources(null, null);
+      renderer.onFrameAvailable(cameraTexture);
+
+      assertFalse(gl.getLivePrograms().contains(custom));
+      assertEquals(1, gl.getLivePrograms().size());
+      assertTrue(gl.getLivePrograms().contains(gl.getCurrentProgram()));
+   }
+
+   @Test public void programsPublishedAfterBeingReplacedAreDeleted() {
+      ManualExecutor worker = new ManualExecutor();
+      renderer = rendererCompilingOn(worker);
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      renderer.setShaderSources(CUSTOM_VERTEX_SOURCE, FRAGMENT_SOURCE);
+      renderer.onFrameAvailable(cameraTexture);
+      //Published before the renderer picked it up
+      worker.runAll();
+
+      renderer.setShaderSources(CUSTOM_VERTEX_SOURCE, EDITED_FRAGMENT_SOURCE);
+      renderer.onFrameAvailable(cameraTexture);
+      worker.runAll();
+      renderer.onFrameAvailable(cameraTexture);
+
+      //Never drawn with, deleted when the edit came in
+      assertEquals(1, gl.count("glDeleteProgram"));
+      assertEquals(2, gl.getLivePrograms().size());
+      assertTrue(gl.getLivePrograms().contains(gl.getCurrentProgram()));
+   }
+
+   @Test public void missingSharedContextIsTriedOncePerSurface() {
+      final int[] attempts = new int[1];
+      renderer = new DefaultCameraRenderer(gl, newProgramCache(), VERTEX_SOURCE, FRAGMENT_SOURCE) {
+         @Override ProgramCompiler createCompiler() {
+            attempts[0]++;
+            throw new IllegalStateException("No shared context");
+         }
+      };
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+
+      //Compiled on the render thread instead
+      renderer.setShaderSources(CUSTOM_VERTEX_SOURCE, FRAGMENT_SOURCE);
+      renderer.onFrameAvailable(cameraTexture);
+      int first = gl.getCurrentProgram();
+      renderer.setShaderSources(CUSTOM_VERTEX_SOURCE, EDITED_FRAGMENT_SOURCE);
+      renderer.onFrameAvailable(cameraTexture);
+      int second = gl.getCurrentProgram();
+
+      assertEquals(1, attempts[0]);
+      assertTrue(first != second);
+      assertFalse(gl.getLivePrograms().contains(first));
+      assertEquals(2, gl.getLivePrograms().size());
+
+      renderer.onSurfaceDestroyed(cameraTexture);
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      renderer.onFrameAvailable(cameraTexture);
+      assertEquals(2, attempts[0]);
+   }
+
+   @Test public void surfaceDestroyedDeletesCustomPrograms() {
+      ManualExecutor worker = new ManualExecutor();
+      renderer = rendererCompilingOn(worker);
+      renderer.onSurfaceCreated(cameraTexture, 1920, 1080);
+      compileAndDraw(worker, FRAGMENT_SOURCE);
+      //One more still compiling
+      renderer.setShaderSources(CUSTOM_VERTEX_SOURCE, EDITED_FRAGMENT_SOURCE);
+      renderer.onFrameAvailable(cameraTexture);
+
+      renderer.onSurfaceDestroyed(cameraTexture);
+
+      assertEquals(0, gl.getLivePrograms().size());
+   }
+
+   private DefaultCameraRenderer rendererCompilingOn(final ManualExecutor worker) {
+      return new DefaultCameraRenderer(gl, newProgramCache(), VERTEX_SOURCE, FRAGMENT_SOURCE) {
+         @Override ProgramCompiler createCompiler() {
+            //Same backend, the fake has no per context state
+            return new ProgramCompiler(gl, newProgramCache(), new ProgramCompilerTest.FakeWorkerContext(), worker);
+         }
+      };
+   }
+
+   /**
+    * Reload the custom shaders with the given fragment source and draw with them.
+    *
+    * @return The custom program.
+    */
+   private int compileAndDraw(ManualExecutor worker, String fragmentSource) {
+      renderer.setShaderSources(CUSTOM_VERTEX_SOURCE, fragmentSource);
+      renderer.onFrameAvailable(cameraTexture);
+      worker.runAll();
+      renderer.onFrameAvailable(cameraTexture);
+      return gl.getCurrentProgram();
+   }
+
+   private static ProgramCache newProgramCache() {
+      return new ProgramCache(new File(System.getProperty("java.io.tmpdir"), "gl_programs"));
+   }
+}
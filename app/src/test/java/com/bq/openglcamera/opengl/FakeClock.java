@@ -0,0 +1,21 @@
+package com.bq.openglcamera.opengl;
+
+/**
+ * {@link Clock} that only moves when told to.
+ */
+final class FakeClock implements Clock {
+
+   private long nanos;
+
+   @Override public synchronized long nanoTime() {
+      return nanos;
+   }
+
+   synchronized void advanceMillis(long millis) {
+      nanos += millis * 1000000;
+   }
+
+   synchronized void advanceNanos(long nanos) {
+      this.nanos += nanos;
+   }
+}
@@ -0,0 +1,202 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Generated shaders are compared with the files in <code>src/test/resources/glsl</code>.
+ */
+public class FilterCompilerTest {
+
+   static final Filter SEPIA = Filter.point("sepia", ""
+      + "const vec3 tone = vec3(1.2, 1.0, 0.8);\n"
+      + "float gray(vec4 color) {\n"
+      + "    return dot(color.rgb, vec3(0.299, 0.587, 0.114));\n"
+      + "}\n"
+      + "vec4 filter(vec4 color) {\n"
+      + "    //Blend towards the toned gray\n"
+      + "    return vec4(mix(color.rgb, gray(color) * tone, amount), color.a);\n"
+      + "}\n", "float amount");
+
+   static final Filter EXPOSURE = Filter.point("exposure", ""
+      + "vec4 filter(vec4 color) {\n"
+      + "    return vec4(color.rgb * exp2(stops), color.a);\n"
+      + "}\n", "float stops");
+
+   static final Filter BLUR = Filter.neighbourhood("blur", ""
+      + "vec4 filter(sampler2D source, vec2 coord, vec2 texelSize) {\n"
+      + "    vec2 step = texelSize * radius;\n"
+      + "    return (texture2D(source, coord - step) + texture2D(source, coord + step)) * 0.5;\n"
+      + "}\n", "float radius");
+
+   static final Filter GRADE = Filter.point("grade", ""
+      + "#ifdef GL_OES_texture_3D\n"
+      + "uniform lowp sampler3D lut;\n"
+      + "vec4 filter(vec4 color) {\n"
+      + "    return vec4(texture3D(lut, color.rgb).rgb, color.a);\n"
+      + "}\n"
+      + "#else\n"
+      + "vec4 filter(vec4 color) {\n"
+      + "    return color;\n"
+      + "}\n"
+      + "#endif\n", "sampler lut");
+
+   private final FilterCompiler compiler = new FilterCompiler();
+
+   @Test public void emptyChainCopiesTheCamera() throws IOException {
+      List<FilterPass> passes = compiler.compile(Collections.<Filter>emptyList());
+
+      assertEquals(1, passes.size());
+      assertTrue(passes.get(0).readsCamera());
+      assertGolden("empty_chain.glsl", passes.get(0));
+   }
+
+   @Test public void pointFiltersAreFusedIntoOnePass() throws IOException {
+      List<FilterPass> passes = compiler.compile(Arrays.asList(SEPIA, EXPOSURE));
+
+      assertEquals(1, passes.size());
+      assertGolden("point_chain.glsl", passes.get(0));
+   }
+
+   @Test public void repeatedFiltersGetTheirOwnNames() throws IOException {
+      List<FilterPass> passes = compiler.compile(Arrays.asList(SEPIA, SEPIA));
+
+      assertGolden("repeated_filter.glsl", passes.get(0));
+      assertEquals(Arrays.asList("float f0_amount", "float f1_amount"), names(passes.get(0)));
+   }
+
+   @Test public void neighbourhoodFiltersStartANewPass() throws IOException {
+      List<FilterPass> passes = compiler.compile(Arrays.asList(SEPIA, BLUR, EXPOSURE));
+
+      assertEquals(2, passes.size());
+      assertGolden("split_pass0.glsl", passes.get(0));
+      assertGolden("split_pass1.glsl", passes.get(1));
+      assertFalse(passes.get(0).samplesNeighbourhood());
+      assertTrue(passes.get(1).samplesNeighbourhood());
+      assertFalse(passes.get(1).readsCamera());
+      assertEquals(Arrays.asList("float f1_radius", "float f2_stops"), names(passes.get(1)));
+   }
+
+   @Test public void leadingNeighbourhoodFilterReadsACopyOfTheCamera() throws IOException {
+      //The external camera texture can't be sampled as a sampler2D
+      List<FilterPass> passes = compiler.compile(Collections.singletonList(BLUR));
+
+      assertEquals(2, passes.size());
+      assertGolden("empty_chain.glsl", passes.get(0));
+      assertGolden("leading_neighbourhood_pass1.glsl", passes.get(1));
+   }
+
+   @Test public void extensionsAreEnabledForTheFilters() throws IOException {
+      List<FilterPass> passes = compiler.compile(Collections.singletonList(GRADE),
+         Collections.singleton("GL_OES_texture_3D"));
+
+      assertGolden("extension_chain.glsl", passes.get(0));
+      assertEquals(Collections.singletonList("sampler f0_lut"), names(passes.get(0)));
+   }
+
+   @Test public void lutSamplesTheTiledTextureInGlsl100() throws IOException {
+      List<FilterPass> passes = compiler.compile(Collections.singletonList(LutStage.FILTER));
+
+      assertGolden("lut_100.glsl", passes.get(0));
+   }
+
+   @Test public void lutSamplesA3DTextureInGlsl300() throws IOException {
+      //ES3 drivers without GL_OES_texture_3D still have 3D textures in 3.00 shaders
+      List<FilterPass> passes = compiler.compile(Collections.singletonList(LutStage.FILTER),
+         Collections.<String>emptySet(), FilterCompiler.GLSL_ES_300);
+
+      assertGolden("lut_300.glsl", passes.get(0));
+      assertEquals(Arrays.asList("sampler f0_lut", "float f0_lutSize", "vec2 f0_lutTiles"), names(passes.get(0)));
+   }
+
+   @Test public void neighbourhoodPassesInGlsl300() throws IOException {
+      List<FilterPass> passes = compiler.compile(Arrays.asList(SEPIA, BLUR, EXPOSURE),
+         Collections.<String>emptySet(), FilterCompiler.GLSL_ES_300);
+
+      assertGolden("split_300_pass1.glsl", passes.get(1));
+   }
+
+   @Test public void vertexShadersAreConvertedForGlsl300() {
+      String source = "attribute vec4 position;\nvarying vec2 coordinate;\nvoid main() {}\n";
+
+      assertSame(source, FilterCompiler.vertexSource(source, FilterCompiler.GLSL_ES_100));
+      assertEquals("#version 300 es\n#define attribute in\n#define varying out\n" + source,
+         FilterCompiler.vertexSource(source, FilterCompiler.GLSL_ES_300));
+   }
+
+   @Test public void versionsAreCachedApart() {
+      List<FilterPass> passes = compiler.compile(Collections.singletonList(SEPIA));
+
+      assertNotSame(passes, compiler.compile(Collections.singletonList(SEPIA), Collections.<String>emptySet(),
+         FilterCompiler.GLSL_ES_300));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void unsupportedVersionsAreRejected() {
+      compiler.compile(Collections.singletonList(SEPIA), Collections.<String>emptySet(), 310);
+   }
+
+   @Test public void chainsWithTheSameSignatureShareTheirPasses() {
+      List<FilterPass> passes = compiler.compile(Arrays.asList(SEPIA, EXPOSURE));
+
+      Filter equalSepia = Filter.point("other name", SEPIA.getFunction(), "float amount");
+      assertSame(passes, compiler.compile(Arrays.asList(equalSepia, EXPOSURE)));
+      assertNotSame(passes, compiler.compile(Arrays.asList(EXPOSURE, SEPIA)));
+      assertNotSame(passes, compiler.compile(Arrays.asList(SEPIA, EXPOSURE), Collections.singleton("GL_EXT_x")));
+   }
+
+   @Test public void leastRecentlyUsedChainsAreEvicted() {
+      FilterCompiler compiler = new FilterCompiler(2);
+      List<FilterPass> sepia = compiler.compile(Collections.singletonList(SEPIA));
+      List<FilterPass> exposure = compiler.compile(Collections.singletonList(EXPOSURE));
+      assertSame(sepia, compiler.compile(Collections.singletonList(SEPIA)));
+
+      compiler.compile(Collections.singletonList(BLUR));
+
+      assertSame(sepia, compiler.compile(Collections.singletonList(SEPIA)));
+      assertNotSame(exposure, compiler.compile(Collections.singletonList(EXPOSURE)));
+   }
+
+   @Test public void signaturesAreUnambiguous() {
+      Filter a = Filter.point("a", "vec4 filter(vec4 color) { return color; }\n3:POINT\n");
+      Filter b = Filter.point("b", "vec4 filter(vec4 color) { return color; }\n");
+
+      assertFalse(FilterCompiler.signature(Collections.singletonList(a))
+         .equals(FilterCompiler.signature(Collections.singletonList(b))));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void filtersWithoutAFilterFunctionAreRejected() {
+      compiler.compile(Collections.singletonList(Filter.point("broken", "vec4 apply(vec4 color) { return color; }\n")));
+   }
+
+   private static List<String> names(FilterPass pass) {
+      String[] names = new String[pass.getUniforms().size()];
+      for (int i = 0; i < names.length; i++) {
+         names[i] = pass.getUniforms().get(i).toString();
+      }
+      return Arrays.asList(names);
+   }
+
+   private static void assertGolden(String name, FilterPass pass) throws IOException {
+      assertEquals(name, golden(name), pass.getFragmentSource());
+   }
+
+   static String golden(String name) throws IOException {
+      InputStream is = FilterCompilerTest.class.getResourceAsStream("/glsl/" + name);
+      assertNotNull("Missing golden file " + name, is);
+      return TextStreams.readUtf8(is);
+   }
+}
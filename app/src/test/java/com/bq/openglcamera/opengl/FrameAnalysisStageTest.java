@@ -0,0 +1,195 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("Convert2Lambda")
+public class FrameAnalysisStageTest {
+
+   private static final int WIDTH = 16;
+   private static final int HEIGHT = 8;
+
+   private final ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+   private final FrameAnalyzer analyzer = new FrameAnalyzer(forkJoinPool, 4);
+   private final FrameBufferPool buffers = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+   private final ManualExecutor executor = new ManualExecutor();
+   private final List<FrameStatistics> results = new ArrayList<>();
+
+   private final FrameAnalysisStage.Listener listener = new FrameAnalysisStage.Listener() {
+      @Override public void onFrameAnalyzed(FrameStatistics statistics) {
+         results.add(statistics);
+      }
+   };
+
+   @After public void shutDown() {
+      forkJoinPool.shutdown();
+   }
+
+   @Test public void framesAreAnalyzedOnThePool() {
+      FrameAnalysisStage stage = stage(2, executor);
+      FrameBuffer first = buffer(10);
+
+      deliver(stage, first, WIDTH, 100);
+
+      //One for the task, one kept for the next frame
+      assertEquals(2, first.references());
+      assertTrue(results.isEmpty());
+
+      executor.runAll();
+
+      assertEquals(1, results.size());
+      assertEquals(100, results.get(0).getTimestamp());
+      assertEquals(-1, results.get(0).getMotionScore(), 0);
+      assertEquals(1, first.references());
+      assertEquals(1, stage.getAnalyzedFrames());
+   }
+
+   @Test public void framesAreComparedWithThePreviousOne() {
+      FrameAnalysisStage stage = stage(2, executor);
+      FrameBuffer first = buffer(10);
+      FrameBuffer second = buffer(200);
+      deliver(stage, first, WIDTH, 100);
+      executor.runAll();
+
+      deliver(stage, second, WIDTH, 200);
+      //The kept reference went to the task
+      assertEquals(1, first.references());
+      executor.runAll();
+
+      assertTrue(results.get(1).getMotionScore() > 0);
+      assertEquals(0, first.references());
+      assertEquals(1, second.references());
+   }
+
+   @Test public void framesOfAnotherSizeAreNotCompared() {
+      FrameAnalysisStage stage = stage(2, executor);
+      FrameBuffer first = buffer(10);
+      deliver(stage, first, WIDTH, 100);
+      executor.runAll();
+
+      deliver(stage, buffer(200), WIDTH / 2, 200);
+
+      assertEquals(0, first.references());
+      executor.runAll();
+      assertEquals(-1, results.get(1).getMotionScore(), 0);
+   }
+
+   @Test public void framesAreDroppedWhileTheStageIsFull() {
+      FrameAnalysisStage stage = stage(2, executor);
+      FrameBuffer first = buffer(10);
+      FrameBuffer second = buffer(20);
+      FrameBuffer third = buffer(30);
+
+      deliver(stage, first, WIDTH, 100);
+      deliver(stage, second, WIDTH, 200);
+      deliver(stage, third, WIDTH, 300);
+
+      assertEquals(1, stage.getDroppedFrames());
+      assertEquals(2, executor.pending());
+      //Not kept, and not the previous frame either
+      assertEquals(0, third.references());
+      assertEquals(2, second.references());
+
+      executor.runAll();
+      assertEquals(2, stage.getAnalyzedFrames());
+      assertEquals(0, first.references());
+
+      //Room again
+      FrameBuffer fourth = buffer(40);
+      deliver(stage, fourth, WIDTH, 400);
+      executor.runAll();
+      assertEquals(3, stage.getAnalyzedFrames());
+      assertEquals(0, second.references());
+      assertEquals(1, fourth.references());
+   }
+
+   @Test public void rejectedFramesGiveTheirReferencesBack() {
+      final boolean[] shutDown = {true};
+      FrameAnalysisStage stage = stage(1, new Executor() {
+         @Override public void execute(Runnable command) {
+            if (shutDown[0]) throw new RejectedExecutionException("Shut down");
+            executor.execute(command);
+         }
+      });
+      FrameBuffer first = buffer(10);
+      FrameBuffer second = buffer(20);
+
+      deliver(stage, first, WIDTH, 100);
+      assertEquals(1, first.references());
+      deliver(stage, second, WIDTH, 200);
+
+      assertEquals(2, stage.getDroppedFrames());
+      assertEquals(0, first.references());
+      assertEquals(1, second.references());
+
+      //Nothing left in flight
+      shutDown[0] = false;
+      deliver(stage, buffer(30), WIDTH, 300);
+      executor.runAll();
+      assertEquals(1, stage.getAnalyzedFrames());
+      assertEquals(0, second.references());
+   }
+
+   @Test public void failedAnalysesGiveTheirReferencesBack() {
+      FrameAnalysisStage stage = stage(1, executor);
+      stage.addListener(new FrameAnalysisStage.Listener() {
+         @Override public void onFrameAnalyzed(FrameStatistics statistics) {
+            throw new IllegalStateException("Listener bug");
+         }
+      });
+      FrameBuffer first = buffer(10);
+
+      deliver(stage, first, WIDTH, 100);
+      executor.runAll();
+
+      assertEquals(1, first.references());
+      deliver(stage, buffer(20), WIDTH, 200);
+      assertEquals(0, stage.getDroppedFrames());
+   }
+
+   @Test public void releaseDropsTheKeptFrame() {
+      FrameAnalysisStage stage = stage(2, executor);
+      FrameBuffer first = buffer(10);
+      deliver(stage, first, WIDTH, 100);
+      executor.runAll();
+
+      stage.release();
+
+      assertEquals(0, first.references());
+   }
+
+   private FrameAnalysisStage stage(int maxInFlight, Executor executor) {
+      FrameAnalysisStage stage = new FrameAnalysisStage(analyzer, maxInFlight, executor);
+      stage.addListener(listener);
+      return stage;
+   }
+
+   /**
+    * Synthetic frame of one gray level.
+    */
+   private FrameBuffer buffer(int gray) {
+      FrameBuffer buffer = buffers.tryAcquire(WIDTH * HEIGHT * 4);
+      for (int i = 0; i < WIDTH * HEIGHT * 4; i += 4) {
+         buffer.buffer().putInt(i, gray << 24 | gray << 16 | gray << 8 | 0xff);
+      }
+      return buffer;
+   }
+
+   /**
+    * Hand the frame to the stage as {@link PixelReadback} does, dropping its own reference after.
+    */
+   private static void deliver(FrameAnalysisStage stage, FrameBuffer buffer, int width, long timestamp) {
+      ReadbackFrame frame = new ReadbackFrame(buffer, width, HEIGHT, timestamp);
+      stage.onFrame(frame);
+      frame.release();
+   }
+}
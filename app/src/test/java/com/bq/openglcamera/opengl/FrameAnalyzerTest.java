@@ -0,0 +1,149 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameAnalyzerTest {
+
+   private static final int WIDTH = 64;
+   private static final int HEIGHT = 48;
+   private static final double EPSILON = 1e-9;
+
+   private final ForkJoinPool pool = new ForkJoinPool(4);
+   private final FrameAnalyzer analyzer = new FrameAnalyzer(pool, 4);
+
+   @After public void shutDown() {
+      pool.shutdown();
+   }
+
+   @Test public void lumaOfPrimaries() {
+      assertEquals(0, FrameAnalyzer.luma(0x000000ff));
+      assertEquals(255, FrameAnalyzer.luma(0xffffffff));
+      assertEquals(76, FrameAnalyzer.luma(0xff0000ff));
+      assertEquals(149, FrameAnalyzer.luma(0x00ff00ff));
+      assertEquals(28, FrameAnalyzer.luma(0x0000ffff));
+   }
+
+   @Test public void uniformFrame() {
+      FrameStatistics statistics = analyzer.analyze(fill(gray(100)), null, WIDTH, HEIGHT, 42);
+
+      assertEquals(42, statistics.getTimestamp());
+      assertEquals(WIDTH * HEIGHT, statistics.getPixelCount());
+      assertEquals(100, statistics.getMeanLuma(), EPSILON);
+      assertEquals(0, statistics.getLumaStdDev(), EPSILON);
+      assertEquals(WIDTH * HEIGHT, statistics.getHistogram()[100]);
+      assertEquals(-1, statistics.getMotionScore(), 0);
+      assertEquals(0, statistics.getUnderexposedFraction(), 0);
+      assertEquals(0, statistics.getOverexposedFraction(), 0);
+   }
+
+   @Test public void halfBlackHalfWhite() {
+      ByteBuffer frame = allocate();
+      for (int i = 0; i < WIDTH * HEIGHT; i++) {
+         frame.putInt(i * 4, i < WIDTH * HEIGHT / 2 ? gray(0) : gray(255));
+      }
+
+      FrameStatistics statistics = analyzer.analyze(frame, null, WIDTH, HEIGHT, 0);
+
+      assertEquals(127.5, statistics.getMeanLuma(), EPSILON);
+      assertEquals(127.5, statistics.getLumaStdDev(), EPSILON);
+      assertEquals(0.5, statistics.getUnderexposedFraction(), EPSILON);
+      assertEquals(0.5, statistics.getOverexposedFraction(), EPSILON);
+   }
+
+   @Test public void motionOfIdenticalAndInvertedFrames() {
+      ByteBuffer black = fill(gray(0));
+
+      assertEquals(0, analyzer.analyze(black, fill(gray(0)), WIDTH, HEIGHT, 0).getMotionScore(), EPSILON);
+      assertEquals(1, analyzer.analyze(black, fill(gray(255)), WIDTH, HEIGHT, 0).getMotionScore(), EPSILON);
+   }
+
+   @Test public void previousFrameOfAnotherSizeIsIgnored() {
+      ByteBuffer small = ByteBuffer.allocateDirect(16);
+
+      assertEquals(-1, analyzer.analyze(fill(gray(0)), small, WIDTH, HEIGHT, 0).getMotionScore(), 0);
+   }
+
+   @Test public void bandsAddUpToASingleTask() {
+      ByteBuffer frame = random(1);
+      ByteBuffer previous = random(2);
+      FrameStatistics whole = new FrameAnalyzer(pool, HEIGHT).analyze(frame, previous, WIDTH, HEIGHT, 0);
+
+      //Odd band heights leave uneven halves
+      for (int tileRows : new int[]{1, 3, 7, HEIGHT - 1}) {
+         FrameStatistics banded = new FrameAnalyzer(pool, tileRows).analyze(frame, previous, WIDTH, HEIGHT, 0);
+         assertArrayEquals(whole.getHistogram(), banded.getHistogram());
+         assertEquals(whole.getMeanLuma(), banded.getMeanLuma(), EPSILON);
+         assertEquals(whole.getLumaStdDev(), banded.getLumaStdDev(), EPSILON);
+         assertEquals(whole.getMotionScore(), banded.getMotionScore(), EPSILON);
+      }
+   }
+
+   @Test public void byteOrderOfTheCallersBufferDoesNotMatter() {
+      ByteBuffer frame = random(3);
+      FrameStatistics big = analyzer.analyze(frame, null, WIDTH, HEIGHT, 0);
+      FrameStatistics little = analyzer.analyze(frame.duplicate().order(ByteOrder.LITTLE_ENDIAN), null,
+         WIDTH, HEIGHT, 0);
+
+      assertArrayEquals(big.getHistogram(), little.getHistogram());
+   }
+
+   @Test public void positionOfTheCallersBufferIsUntouched() {
+      ByteBuffer frame = fill(gray(10));
+      frame.position(100);
+
+      analyzer.analyze(frame, null, WIDTH, HEIGHT, 0);
+
+      assertEquals(100, frame.position());
+   }
+
+   @Test public void emptyFrame() {
+      FrameStatistics statistics = analyzer.analyze(ByteBuffer.allocateDirect(0), null, 0, 0, 0);
+
+      assertEquals(0, statistics.getPixelCount());
+      assertEquals(0, statistics.getMeanLuma(), 0);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsBuffersTooSmallForTheFrame() {
+      analyzer.analyze(ByteBuffer.allocateDirect(WIDTH * HEIGHT), null, WIDTH, HEIGHT, 0);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsEmptyBands() {
+      new FrameAnalyzer(pool, 0);
+   }
+
+   private static int gray(int value) {
+      return value << 24 | value << 16 | value << 8 | 0xff;
+   }
+
+   private static ByteBuffer allocate() {
+      return ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
+   }
+
+   private static ByteBuffer fill(int rgba) {
+      ByteBuffer frame = allocate();
+      for (int i = 0; i < WIDTH * HEIGHT; i++) {
+         frame.putInt(i * 4, rgba);
+      }
+      return frame;
+   }
+
+   private static ByteBuffer random(long seed) {
+      Random random = new Random(seed);
+      ByteBuffer frame = allocate();
+      for (int i = 0; i < WIDTH * HEIGHT; i++) {
+         frame.putInt(i * 4, random.nextInt());
+      }
+      return frame;
+   }
+}
@@ -0,0 +1,164 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameBufferPoolTest {
+
+   private static final int FRAME_BYTES = 640 * 480 * 4;
+
+   @Test public void smallestClassIsOnePage() {
+      assertEquals(0, FrameBufferPool.bucketIndex(1));
+      assertEquals(0, FrameBufferPool.bucketIndex(4096));
+      assertEquals(4096, FrameBufferPool.bucketCapacity(0));
+   }
+
+   @Test public void fourClassesPerPowerOfTwo() {
+      assertEquals(5120, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(4097)));
+      assertEquals(6144, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(5121)));
+      assertEquals(7168, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(7000)));
+      assertEquals(8192, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(8192)));
+      assertEquals(4, FrameBufferPool.bucketIndex(8192) - FrameBufferPool.bucketIndex(4096));
+      assertEquals(1 << 30, FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(1 << 30)));
+   }
+
+   @Test public void classesFitTheRequestWithinAQuarter() {
+      int previousIndex = 0;
+      for (int size = 1; size < 1 << 22; size += 97) {
+         int index = FrameBufferPool.bucketIndex(size);
+         int capacity = FrameBufferPool.bucketCapacity(index);
+         assertTrue("Capacity " + capacity + " for " + size, capacity >= size);
+         assertTrue("Smaller class fits " + size, index == 0 || FrameBufferPool.bucketCapacity(index - 1) < size);
+         assertTrue("Waste for " + size, size <= 4096 || capacity - size <= size / 4);
+         assertTrue(index >= previousIndex);
+         previousIndex = index;
+      }
+   }
+
+   @Test public void leaseIsLimitedToTheRequestedSize() {
+      FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+
+      FrameBuffer buffer = pool.tryAcquire(FRAME_BYTES - 10);
+
+      assertEquals(FRAME_BYTES - 10, buffer.size());
+      assertEquals(FRAME_BYTES - 10, buffer.buffer().limit());
+      assertEquals(0, buffer.buffer().position());
+      assertTrue(buffer.buffer().isDirect());
+   }
+
+   @Test public void releasedBufferIsReused() {
+      FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+      FrameBuffer first = pool.tryAcquire(FRAME_BYTES);
+      first.buffer().position(100);
+      first.release();
+
+      FrameBuffer second = pool.tryAcquire(FRAME_BYTES - 1000);
+
+      assertSame(first, second);
+      assertEquals(0, second.buffer().position());
+      assertEquals(FRAME_BYTES - 1000, second.buffer().limit());
+      assertEquals(1, pool.getMissCount());
+      assertEquals(1, pool.getHitCount());
+   }
+
+   @Test public void retainedBufferReturnsOnLastRelease() {
+      FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+      FrameBuffer buffer = pool.tryAcquire(FRAME_BYTES);
+      buffer.retain();
+
+      buffer.release();
+      assertNotSame(buffer, pool.tryAcquire(FRAME_BYTES));
+
+      buffer.release();
+      assertSame(buffer, pool.tryAcquire(FRAME_BYTES));
+   }
+
+   @Test public void releasingTooOftenFails() {
+      FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+      FrameBuffer buffer = pool.tryAcquire(FRAME_BYTES);
+      buffer.release();
+
+      try {
+         buffer.release();
+         fail();
+      } catch (IllegalStateException expected) {
+         //Released twice
+      }
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void retainAfterReleaseFails() {
+      FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+      FrameBuffer buffer = pool.tryAcquire(FRAME_BYTES);
+      buffer.release();
+
+      buffer.retain();
+   }
+
+   @Test public void capRejectsWhenEverythingIsLeased() {
+      int capacity = FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(FRAME_BYTES));
+      FrameBufferPool pool = new FrameBufferPool(3 * capacity, false);
+      FrameBuffer first = pool.tryAcquire(FRAME_BYTES);
+      assertNotNull(pool.tryAcquire(FRAME_BYTES));
+      assertNotNull(pool.tryAcquire(FRAME_BYTES));
+
+      assertNull(pool.tryAcquire(FRAME_BYTES));
+      assertEquals(1, pool.getRejectedCount());
+      assertEquals(3 * capacity, pool.getAllocatedBytes());
+
+      first.release();
+      assertSame(first, pool.tryAcquire(FRAME_BYTES));
+   }
+
+   @Test public void freeBuffersMakeRoomForOtherSizes() {
+      int capacity = FrameBufferPool.bucketCapacity(FrameBufferPool.bucketIndex(FRAME_BYTES));
+      FrameBufferPool pool = new FrameBufferPool(capacity, false);
+      pool.tryAcquire(FRAME_BYTES).release();
+
+      FrameBuffer smaller = pool.tryAcquire(FRAME_BYTES / 2);
+
+      assertNotNull(smaller);
+      assertTrue(pool.getAllocatedBytes() <= capacity);
+   }
+
+   @Test public void trimDropsFreeBuffersOnly() {
+      FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+      FrameBuffer leased = pool.tryAcquire(FRAME_BYTES);
+      pool.tryAcquire(FRAME_BYTES).release();
+
+      pool.trim();
+
+      assertEquals(leased.buffer().capacity(), pool.getAllocatedBytes());
+   }
+
+   @Test public void leakedLeaseIsReported() throws InterruptedException {
+      FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, true);
+      pool.tryAcquire(FRAME_BYTES);
+
+      for (int i = 0; i < 50 && pool.checkLeaks() == 0; i++) {
+         System.gc();
+         Thread.sleep(10);
+      }
+
+      assertEquals(1, pool.getLeakCount());
+      assertEquals(0, pool.getAllocatedBytes());
+   }
+
+   @Test public void releasedLeaseIsNoLeak() throws InterruptedException {
+      FrameBufferPool pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, true);
+      pool.tryAcquire(FRAME_BYTES).release();
+      pool.trim();
+
+      System.gc();
+      Thread.sleep(10);
+
+      assertEquals(0, pool.checkLeaks());
+   }
+}
@@ -0,0 +1,143 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCoalescerTest {
+
+   private final FakeClock clock = new FakeClock();
+   private final FrameCoalescer coalescer = new FrameCoalescer(clock);
+
+   @Test public void firstFrameSchedulesARender() {
+      assertTrue(coalescer.onFrameAvailable());
+   }
+
+   @Test public void framesBeforeTheRenderDontScheduleAnother() {
+      coalescer.onFrameAvailable();
+
+      assertFalse(coalescer.onFrameAvailable());
+      assertFalse(coalescer.onFrameAvailable());
+   }
+
+   @Test public void renderCountsTheReplacedFrames() {
+      coalescer.onFrameAvailable();
+      coalescer.onFrameAvailable();
+      coalescer.onFrameAvailable();
+
+      assertEquals(2, coalescer.beginRender());
+
+      FrameStats stats = coalescer.stats();
+      assertEquals(3, stats.getFramesAvailable());
+      assertEquals(1, stats.getFramesRendered());
+      assertEquals(2, stats.getFramesSkipped());
+   }
+
+   @Test public void frameAfterTheRenderStartsSchedulesAgain() {
+      coalescer.onFrameAvailable();
+      coalescer.beginRender();
+
+      assertTrue(coalescer.onFrameAvailable());
+      assertEquals(0, coalescer.beginRender());
+   }
+
+   @Test public void queueDelayIsMeasuredFromTheFirstSignal() {
+      coalescer.onFrameAvailable();
+      clock.advanceMillis(5);
+      coalescer.onFrameAvailable();
+      clock.advanceMillis(3);
+
+      coalescer.beginRender();
+
+      assertEquals(8000000, coalescer.lastQueueDelay());
+   }
+
+   @Test public void maxQueueDelayKeepsTheWorst() {
+      coalescer.onFrameAvailable();
+      clock.advanceMillis(20);
+      coalescer.beginRender();
+      coalescer.onFrameAvailable();
+      clock.advanceMillis(2);
+      coalescer.beginRender();
+
+      FrameStats stats = coalescer.stats();
+      assertEquals(2000000, stats.getLastQueueDelayNanos());
+      assertEquals(20000000, stats.getMaxQueueDelayNanos());
+   }
+
+   @Test public void resetDropsThePendingRender() {
+      coalescer.onFrameAvailable();
+      coalescer.onFrameAvailable();
+
+      coalescer.reset();
+
+      assertTrue(coalescer.onFrameAvailable());
+      assertEquals(0, coalescer.beginRender());
+      assertEquals(0, coalescer.stats().getFramesSkipped());
+   }
+
+   @Test public void skippedRendersCountEveryFrameAsSkipped() {
+      coalescer.onFrameAvailable();
+      coalescer.onFrameAvailable();
+
+      coalescer.skipRender();
+
+      assertTrue(coalescer.onFrameAvailable());
+      assertEquals(0, coalescer.beginRender());
+      FrameStats stats = coalescer.stats();
+      assertEquals(1, stats.getFramesRendered());
+      assertEquals(2, stats.getFramesSkipped());
+   }
+
+   @Test public void concurrentSignalsScheduleOneRenderAtATime() throws InterruptedException {
+      final int threads = 4;
+      final int framesPerThread = 10000;
+      final AtomicInteger scheduled = new AtomicInteger();
+      final CountDownLatch start = new CountDownLatch(1);
+      Thread[] cameras = new Thread[threads];
+      for (int i = 0; i < threads; i++) {
+         cameras[i] = new Thread() {
+            @Override public void run() {
+               awaitUninterruptibly(start);
+               for (int frame = 0; frame < framesPerThread; frame++) {
+                  if (coalescer.onFrameAvailable()) scheduled.incrementAndGet();
+               }
+            }
+         };
+         cameras[i].start();
+      }
+      start.countDown();
+      long rendered = 0;
+      boolean running = true;
+      while (running || scheduled.get() > rendered) {
+         running = false;
+         for (Thread camera : cameras) {
+            running |= camera.isAlive();
+         }
+         //Never more than the one render the queue holds
+         assertTrue(scheduled.get() - rendered <= 1);
+         if (scheduled.get() > rendered) {
+            coalescer.beginRender();
+            rendered++;
+         }
+      }
+
+      FrameStats stats = coalescer.stats();
+      assertEquals(threads * framesPerThread, stats.getFramesAvailable());
+      assertEquals(rendered, stats.getFramesRendered());
+      assertTrue(stats.getFramesRendered() + stats.getFramesSkipped() >= stats.getFramesAvailable());
+   }
+
+   private static void awaitUninterruptibly(CountDownLatch latch) {
+      try {
+         latch.await();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
@@ -0,0 +1,153 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FramePacerTest {
+
+   private static final long VSYNC_60HZ = 16666667;
+
+   private final List<Long> renders = new ArrayList<>();
+
+   @SuppressWarnings("Convert2Lambda")
+   private final RenderScheduler.Callback callback = new RenderScheduler.Callback() {
+      @Override public void render(long frameTimeNanos) {
+         renders.add(frameTimeNanos);
+      }
+   };
+
+   @Test public void everyVsyncWithoutATarget() {
+      ManualRenderScheduler scheduler = attached(0);
+
+      assertEquals(60, runOneSecond(scheduler, VSYNC_60HZ, 0));
+   }
+
+   @Test public void everyOtherVsyncAt30On60Hz() {
+      ManualRenderScheduler scheduler = attached(30);
+
+      assertEquals(30, runOneSecond(scheduler, VSYNC_60HZ, 0));
+      for (int i = 1; i < renders.size(); i++) {
+         assertEquals(2 * VSYNC_60HZ, renders.get(i) - renders.get(i - 1), 1);
+      }
+   }
+
+   @Test public void targetAboveTheDisplayRateUsesEveryVsync() {
+      ManualRenderScheduler scheduler = attached(120);
+
+      assertEquals(60, runOneSecond(scheduler, VSYNC_60HZ, 0));
+   }
+
+   @Test public void targetsBetweenVsyncMultiplesNeverRenderFaster() {
+      //24 fps on 60Hz: two vsyncs would be too fast, every third one is used
+      ManualRenderScheduler scheduler = attached(24);
+
+      assertEquals(20, runOneSecond(scheduler, VSYNC_60HZ, 0));
+      for (int i = 1; i < renders.size(); i++) {
+         assertEquals(3 * VSYNC_60HZ, renders.get(i) - renders.get(i - 1), 1);
+      }
+   }
+
+   @Test public void earlyVsyncsWithinTheSlackStillRender() {
+      //Vsyncs wander by 1ms either way, 30fps must not drop to 20
+      ManualRenderScheduler scheduler = attached(30);
+
+      assertEquals(30, runOneSecond(scheduler, VSYNC_60HZ, 1000000));
+   }
+
+   @Test public void nothingRendersWithoutARequest() {
+      ManualRenderScheduler scheduler = attached(0);
+
+      assertFalse(scheduler.vsync(0));
+      assertTrue(renders.isEmpty());
+   }
+
+   @Test public void requestsBeforeTheRenderAreMerged() {
+      ManualRenderScheduler scheduler = attached(0);
+
+      scheduler.requestRender();
+      scheduler.requestRender();
+      scheduler.requestRender();
+
+      assertTrue(scheduler.vsync(0));
+      assertFalse(scheduler.vsync(VSYNC_60HZ));
+      assertEquals(1, renders.size());
+   }
+
+   @Test public void pendingRequestWaitsForTheDueVsync() {
+      ManualRenderScheduler scheduler = attached(30);
+      scheduler.requestRender();
+      scheduler.vsync(0);
+
+      scheduler.requestRender();
+      assertFalse(scheduler.vsync(VSYNC_60HZ));
+      assertTrue(scheduler.isRenderPending());
+      assertTrue(scheduler.vsync(2 * VSYNC_60HZ));
+      assertFalse(scheduler.isRenderPending());
+   }
+
+   @Test public void detachDropsThePendingRender() {
+      ManualRenderScheduler scheduler = attached(0);
+      scheduler.requestRender();
+
+      scheduler.detach();
+
+      assertFalse(scheduler.isRenderPending());
+      assertFalse(scheduler.vsync(0));
+      assertTrue(renders.isEmpty());
+   }
+
+   @Test public void reattachRendersTheFirstFrameRightAway() {
+      ManualRenderScheduler scheduler = attached(30);
+      scheduler.requestRender();
+      scheduler.vsync(0);
+
+      //A new context shouldn't wait out the interval of the old one
+      scheduler.detach();
+      scheduler.attach(callback);
+      scheduler.requestRender();
+
+      assertTrue(scheduler.vsync(VSYNC_60HZ));
+   }
+
+   @Test public void targetRateCanChangeWhileRunning() {
+      FramePacer pacer = new FramePacer();
+      pacer.setTargetFrameRate(30);
+      assertTrue(pacer.onVsync(0));
+      assertFalse(pacer.onVsync(VSYNC_60HZ));
+
+      pacer.setTargetFrameRate(0);
+
+      assertTrue(pacer.onVsync(2 * VSYNC_60HZ));
+      assertTrue(pacer.onVsync(3 * VSYNC_60HZ));
+   }
+
+   private ManualRenderScheduler attached(float targetFramesPerSecond) {
+      ManualRenderScheduler scheduler = new ManualRenderScheduler(targetFramesPerSecond);
+      scheduler.attach(callback);
+      return scheduler;
+   }
+
+   /**
+    * A camera frame waiting on every vsync for a second.
+    *
+    * @param jitterNanos Vsyncs alternate this much early and late.
+    * @return Frames rendered.
+    */
+   private int runOneSecond(ManualRenderScheduler scheduler, long vsyncNanos, long jitterNanos) {
+      int rendered = 0;
+      for (int i = 0; i < 60; i++) {
+         long jitter = i % 2 == 0 ? -jitterNanos : jitterNanos;
+         scheduler.requestRender();
+         if (scheduler.vsync(1000000000L + i * vsyncNanos + jitter)) {
+            rendered++;
+         }
+      }
+      return rendered;
+   }
+}
@@ -0,0 +1,163 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GlCaptureReportTest {
+
+   private static final int CAPACITY = 64 * 1024;
+
+   private final FakeClock clock = new FakeClock();
+   private File directory;
+
+   @Before public void setUp() throws IOException {
+      directory = TestFiles.createTempDirectory("report");
+   }
+
+   @After public void tearDown() {
+      TestFiles.deleteRecursively(directory);
+   }
+
+   @Test public void redundantCallsRecordedUnderTheStateCacheAreFound() throws IOException {
+      File file = capture("before.glcap", true);
+
+      GlCaptureReport.Summary summary = GlCaptureReport.summarize(file);
+
+      assertEquals(3, summary.frames);
+      //The cache only let the first one through
+      assertEquals(1, count(summary, GlCall.USE_PROGRAM));
+      assertEquals(0, redundant(summary, GlCall.USE_PROGRAM));
+      //Left alone by the cache, repeated every frame
+      assertEquals(3, count(summary, GlCall.BIND_TEXTURE));
+      assertEquals(2, redundant(summary, GlCall.BIND_TEXTURE));
+      assertEquals(3, count(summary, GlCall.UNIFORM1I));
+      assertEquals(2, redundant(summary, GlCall.UNIFORM1I));
+      assertEquals(0, redundant(summary, GlCall.DRAW_ARRAYS));
+      assertEquals(6, summary.totalRedundant());
+      assertFalse(summary.truncated);
+   }
+
+   @Test public void frameTimesAddUpTheirCalls() throws IOException {
+      File file = capture("before.glcap", true);
+
+      GlCaptureReport.Summary summary = GlCaptureReport.summarize(file);
+
+      //Draws of 1, 2 and 3 ms
+      assertEquals(2000000, summary.framePercentile(0.5));
+      assertEquals(3000000, summary.framePercentile(1));
+      assertEquals(1000000, summary.framePercentile(0));
+      assertEquals(6000000, summary.nanos[GlCall.DRAW_ARRAYS.ordinal()]);
+   }
+
+   @Test public void reportListsTheCallsPerFrame() throws IOException {
+      String report = print(GlCaptureReport.summarize(capture("before.glcap", true)));
+
+      assertTrue(report, report.startsWith("3 frames, 4.3 calls and 2.0 redundant per frame\n"));
+      assertTrue(report, report.contains("CPU per frame: median 2.000 ms, p90 3.000 ms, max 3.000 ms"));
+      assertTrue(report, report.matches("(?s).*\nBIND_TEXTURE +1\\.00 +0\\.67 +0\\.00\n.*"));
+      assertTrue(report, report.matches("(?s).*\nDRAW_ARRAYS +1\\.00 +0\\.00 +2000\\.00\n.*"));
+      //Calls never made are left out
+      assertFalse(report, report.contains("READ_PIXELS"));
+   }
+
+   @Test public void truncatedCapturesAreReported() throws IOException {
+      File file = capture("before.glcap", true);
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         raf.setLength(raf.length() - 1);
+      } finally {
+         raf.close();
+      }
+
+      GlCaptureReport.Summary summary = GlCaptureReport.summarize(file);
+
+      assertTrue(summary.truncated);
+      assertTrue(print(summary).contains(", truncated"));
+   }
+
+   @Test public void diffComparesPerFrame() throws IOException {
+      GlCaptureReport.Summary before = GlCaptureReport.summarize(capture("before.glcap", true));
+      GlCaptureReport.Summary after = GlCaptureReport.summarize(capture("after.glcap", false));
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+      GlCaptureReport.diff(before, after, new PrintStream(bytes, true));
+
+      String diff = bytes.toString();
+      assertTrue(diff, diff.startsWith("calls/frame 4.3 -> 2.3, redundant/frame 2.0 -> 0.0\n"));
+      assertTrue(diff, diff.matches("(?s).*\nBIND_TEXTURE +0\\.33 +-0\\.67 .*"));
+      assertTrue(diff, diff.matches("(?s).*\nDRAW_ARRAYS +1\\.00 +\\+0\\.00 .*"));
+   }
+
+   @Test public void emptyCapture() throws IOException {
+      File file = new File(directory, "empty.glcap");
+      GlCapture.open(file, CAPACITY, clock).close();
+
+      GlCaptureReport.Summary summary = GlCaptureReport.summarize(file);
+
+      assertEquals(0, summary.frames);
+      assertEquals(0, summary.totalCalls());
+      assertEquals(0, summary.framePercentile(0.5));
+      assertTrue(print(summary).startsWith("0 frames, 0.0 calls"));
+   }
+
+   /**
+    * Three frames of a renderer drawing through a state cache over the capture, as the app does.
+    * Frame n draws for n ms.
+    *
+    * @param rebind Bind the texture and set the sampler uniform every frame, not only the first.
+    */
+   private File capture(String name, boolean rebind) throws IOException {
+      File file = new File(directory, name);
+      GlCapture capture = GlCapture.open(file, CAPACITY, clock);
+      final int[] frame = new int[1];
+      GlBackend driver = new ForwardingGlBackend(new RecordingGlBackend()) {
+         @Override public void glDrawArrays(int mode, int first, int count) {
+            clock.advanceMillis(frame[0]);
+            super.glDrawArrays(mode, first, count);
+         }
+      };
+      StateCachingGlBackend gl = new StateCachingGlBackend(new CapturingGlBackend(driver, capture));
+      try {
+         for (frame[0] = 1; frame[0] <= 3; frame[0]++) {
+            gl.glUseProgram(1);
+            if (rebind || frame[0] == 1) {
+               gl.glActiveTexture(GLES20.GL_TEXTURE0);
+               gl.glBindTexture(GLES20.GL_TEXTURE_2D, 5);
+               gl.glUniform1i(2, 0);
+            }
+            gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+            capture.frame(frame[0]);
+         }
+      } finally {
+         capture.close();
+      }
+      return file;
+   }
+
+   private static long count(GlCaptureReport.Summary summary, GlCall call) {
+      return summary.counts[call.ordinal()];
+   }
+
+   private static long redundant(GlCaptureReport.Summary summary, GlCall call) {
+      return summary.redundant[call.ordinal()];
+   }
+
+   private static String print(GlCaptureReport.Summary summary) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      GlCaptureReport.print(summary, new PrintStream(bytes, true));
+      return bytes.toString();
+   }
+}
@@ -0,0 +1,304 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GlCaptureTest {
+
+   private static final int CAPACITY = 64 * 1024;
+
+   private final FakeClock clock = new FakeClock();
+   private final RecordingGlBackend driver = new RecordingGlBackend();
+   private File directory;
+   private File file;
+
+   @Before public void setUp() throws IOException {
+      directory = TestFiles.createTempDirectory("capture");
+      file = new File(directory, "frames.glcap");
+   }
+
+   @After public void tearDown() {
+      TestFiles.deleteRecursively(directory);
+   }
+
+   @Test public void callsRoundTripWithTheirFields() throws IOException {
+      GlCapture capture = GlCapture.open(file, CAPACITY, clock);
+      GlBackend gl = new CapturingGlBackend(driver, capture);
+      float[] matrices = new float[32];
+      for (int i = 0; i < matrices.length; i++) {
+         matrices[i] = i * 0.5f;
+      }
+      int[] names = {-1, 0, 0};
+
+      gl.glViewport(0, 0, 1920, 1080);
+      gl.glClearColor(0.25f, 0.5f, -1f, 1f);
+      gl.glGetString(GLES20.GL_VERSION);
+      gl.glUniform1i(3, -5);
+      gl.glUniformMatrix4fv(4, 1, false, matrices, 16);
+      gl.glVertexAttribPointer(0, 2, GLES20.GL_FLOAT, false, 8, ByteBuffer.allocate(48));
+      gl.glGenTextures(2, names, 1);
+      gl.glShaderSource(9, null);
+      capture.frame(123456789012L);
+      capture.egl(GlCall.EGL_SWAP_BUFFERS, capture.start(), 2, true);
+      capture.close();
+
+      List<GlCaptureReader.Record> records = read(file);
+      assertEquals(10, records.size());
+      assertRecord(records.get(0), GlCall.VIEWPORT, 0, 0, 1920, 1080);
+      assertRecord(records.get(1), GlCall.CLEAR_COLOR, 0.25f, 0.5f, -1f, 1f);
+      assertRecord(records.get(2), GlCall.GET_STRING, GLES20.GL_VERSION, "OpenGL ES 3.0 recording");
+      assertRecord(records.get(3), GlCall.UNIFORM1I, 3, -5);
+      //Only the elements the call reads
+      assertEquals(GlCall.UNIFORM_MATRIX4FV, records.get(4).getCall());
+      assertArrayEquals(Arrays.copyOfRange(matrices, 16, 32),
+         (float[]) records.get(4).getField(3), 0);
+      //Buffers by size
+      assertRecord(records.get(5), GlCall.VERTEX_ATTRIB_POINTER, 0, 2, GLES20.GL_FLOAT, false, 8, 48);
+      assertArrayEquals(new int[]{names[1], names[2]}, (int[]) records.get(6).getField(0));
+      assertRecord(records.get(7), GlCall.SHADER_SOURCE, 9, null);
+      assertRecord(records.get(8), GlCall.FRAME, 123456789012L);
+      assertRecord(records.get(9), GlCall.EGL_SWAP_BUFFERS, 2, true);
+   }
+
+   @Test public void recordsKeepTheirStartAndDuration() throws IOException {
+      clock.advanceMillis(1000);
+      GlCapture capture = GlCapture.open(file, CAPACITY, clock);
+      GlBackend gl = new CapturingGlBackend(new ForwardingGlBackend(driver) {
+         @Override public void glFinish() {
+            clock.advanceNanos(2500000);
+            super.glFinish();
+         }
+      }, capture);
+
+      clock.advanceNanos(700);
+      gl.glFinish();
+      clock.advanceNanos(300);
+      gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+      capture.close();
+
+      GlCaptureReader reader = GlCaptureReader.open(file);
+      try {
+         assertEquals(1000000000L, reader.getStartNanos());
+         GlCaptureReader.Record finish = reader.next();
+         assertEquals(1000000700L, finish.getStartNanos());
+         assertEquals(2500000, finish.getDurationNanos());
+         GlCaptureReader.Record clear = reader.next();
+         assertEquals(1002501000L, clear.getStartNanos());
+         assertEquals(0, clear.getDurationNanos());
+         assertNull(reader.next());
+      } finally {
+         reader.close();
+      }
+   }
+
+   @Test public void replayIssuesTheRecordedCalls() throws IOException {
+      GlCapture capture = GlCapture.open(file, CAPACITY, clock);
+      GlBackend gl = new CapturingGlBackend(driver, capture);
+      int[] textures = new int[1];
+      gl.glGenTextures(1, textures, 0);
+      gl.glActiveTexture(GLES20.GL_TEXTURE0);
+      gl.glDisable(GLES20.GL_BLEND);
+      gl.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+      gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 4, 4, 0, GLES20.GL_RGBA,
+         GLES20.GL_UNSIGNED_BYTE, ByteBuffer.allocate(64));
+      int program = gl.glCreateProgram();
+      gl.glLinkProgram(program);
+      gl.glUseProgram(program);
+      gl.glUniform4fv(gl.glGetUniformLocation(program, "uColor"), 1, new float[]{1, 0, 0, 1}, 0);
+      gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      capture.frame(0);
+      gl.glDeleteTextures(1, textures, 0);
+      capture.close();
+
+      RecordingGlBackend replayed = new RecordingGlBackend();
+      GlCaptureReplay replay = new GlCaptureReplay(replayed);
+      for (GlCaptureReader.Record record : read(file)) {
+         replay.replay(record);
+      }
+
+      assertEquals(driver.getCalls(), replayed.getCalls());
+   }
+
+   @Test public void fullCapturesDropCallsButKeepCompleteRecords() throws IOException {
+      //Header plus a few records
+      GlCapture capture = GlCapture.open(file, 16 + 40, clock);
+      GlBackend gl = new CapturingGlBackend(driver, capture);
+
+      for (int i = 0; i < 100; i++) {
+         gl.glViewport(0, 0, 1000, 1000);
+      }
+
+      assertFalse(capture.isRecording());
+      assertTrue(capture.getRecordedCalls() > 0);
+      assertEquals(100, capture.getRecordedCalls() + capture.getDroppedCalls());
+      //The calls themselves still reach the driver
+      assertEquals(100, driver.count("glViewport"));
+      long recorded = capture.getRecordedCalls();
+      int used = capture.getUsedBytes();
+      capture.close();
+
+      assertEquals(used, file.length());
+      GlCaptureReader reader = GlCaptureReader.open(file);
+      try {
+         for (int i = 0; i < recorded; i++) {
+            assertRecord(reader.next(), GlCall.VIEWPORT, 0, 0, 1000, 1000);
+         }
+         assertNull(reader.next());
+         assertFalse(reader.isTruncated());
+      } finally {
+         reader.close();
+      }
+   }
+
+   @Test public void recordCutShortByTheEndOfTheFileIsDropped() throws IOException {
+      GlCapture capture = GlCapture.open(file, 16 + 40, clock);
+      GlBackend gl = new CapturingGlBackend(driver, capture);
+
+      gl.glViewport(0, 0, 1000, 1000);
+      //Longer than what is left
+      gl.glShaderSource(1, "void main() { gl_FragColor = vec4(1.0); }");
+      gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+      assertEquals(1, capture.getRecordedCalls());
+      assertEquals(2, capture.getDroppedCalls());
+      capture.close();
+
+      List<GlCaptureReader.Record> records = read(file);
+      assertEquals(1, records.size());
+      assertEquals(GlCall.VIEWPORT, records.get(0).getCall());
+   }
+
+   @Test public void stoppedCapturesRecordNothing() throws IOException {
+      GlCapture capture = GlCapture.open(file, CAPACITY, clock);
+      GlBackend gl = new CapturingGlBackend(driver, capture);
+      gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+      capture.stop();
+      gl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+      assertFalse(capture.isRecording());
+      assertEquals(1, capture.getRecordedCalls());
+      assertEquals(0, capture.getDroppedCalls());
+      capture.close();
+      assertEquals(1, read(file).size());
+   }
+
+   @Test public void truncatedFilesEndAtTheLastCompleteRecord() throws IOException {
+      GlCapture capture = GlCapture.open(file, CAPACITY, clock);
+      GlBackend gl = new CapturingGlBackend(driver, capture);
+      for (int i = 0; i < 3; i++) {
+         gl.glViewport(0, 0, 1000, 1000);
+      }
+      capture.close();
+
+      //As if the app died before the last record's pages were written back
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         raf.setLength(raf.length() - 1);
+      } finally {
+         raf.close();
+      }
+
+      GlCaptureReader reader = GlCaptureReader.open(file);
+      try {
+         assertRecord(reader.next(), GlCall.VIEWPORT, 0, 0, 1000, 1000);
+         assertRecord(reader.next(), GlCall.VIEWPORT, 0, 0, 1000, 1000);
+         assertNull(reader.next());
+         assertTrue(reader.isTruncated());
+      } finally {
+         reader.close();
+      }
+   }
+
+   @Test public void emptyCapture() throws IOException {
+      clock.advanceMillis(5);
+      GlCapture.open(file, CAPACITY, clock).close();
+
+      GlCaptureReader reader = GlCaptureReader.open(file);
+      try {
+         assertEquals(5000000, reader.getStartNanos());
+         assertNull(reader.next());
+         assertFalse(reader.isTruncated());
+      } finally {
+         reader.close();
+      }
+   }
+
+   @Test public void rejectsFilesThatAreNotCaptures() throws IOException {
+      write(file, "not a capture at all".getBytes("UTF-8"));
+
+      try {
+         GlCaptureReader.open(file);
+         fail();
+      } catch (IOException expected) {
+         //Expected
+      }
+   }
+
+   @Test public void rejectsUnknownOpcodes() throws IOException {
+      ByteBuffer bytes = ByteBuffer.allocate(17).order(ByteOrder.LITTLE_ENDIAN);
+      bytes.putInt(GlCapture.MAGIC).putInt(GlCapture.VERSION).putLong(0).put((byte) 0xff);
+      write(file, bytes.array());
+
+      GlCaptureReader reader = GlCaptureReader.open(file);
+      try {
+         reader.next();
+         fail();
+      } catch (IOException expected) {
+         //Expected
+      } finally {
+         reader.close();
+      }
+   }
+
+   static List<GlCaptureReader.Record> read(File file) throws IOException {
+      List<GlCaptureReader.Record> records = new ArrayList<>();
+      GlCaptureReader reader = GlCaptureReader.open(file);
+      try {
+         GlCaptureReader.Record record;
+         while ((record = reader.next()) != null) {
+            records.add(record);
+         }
+      } finally {
+         reader.close();
+      }
+      return records;
+   }
+
+   private static void assertRecord(GlCaptureReader.Record record, GlCall call, Object... fields) {
+      assertEquals(call, record.getCall());
+      assertEquals(fields.length, record.getFieldCount());
+      for (int i = 0; i < fields.length; i++) {
+         assertEquals(call + " field " + i, fields[i], record.getField(i));
+      }
+   }
+
+   private static void write(File file, byte[] bytes) throws IOException {
+      FileOutputStream out = new FileOutputStream(file);
+      try {
+         out.write(bytes);
+      } finally {
+         out.close();
+      }
+   }
+}
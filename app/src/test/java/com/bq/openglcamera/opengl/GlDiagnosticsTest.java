@@ -0,0 +1,279 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GlDiagnosticsTest {
+
+   private final RecordingGlBackend driver = new RecordingGlBackend();
+   private final List<String> reports = Collections.synchronizedList(new ArrayList<String>());
+
+   private final GlDiagnostics.Listener listener = new GlDiagnostics.Listener() {
+      @Override public void onGlError(int error, String site) {
+         reports.add("error 0x" + Integer.toHexString(error) + " at " + site);
+      }
+
+      @Override public void onMessage(boolean error, int id, String message, String site) {
+         reports.add((error ? "error " : "warning ") + message + " at " + site);
+      }
+   };
+
+   @Test public void offAddsNoChecks() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.OFF, 1);
+
+      GlBackend gl = CheckingGlBackend.wrap(driver, diagnostics);
+      assertSame(driver, gl);
+      driver.raiseError(GLES20.GL_INVALID_OPERATION);
+      diagnostics.beginFrame(driver);
+      diagnostics.checkpoint(driver, "setup");
+      diagnostics.check(driver, "glDrawArrays");
+
+      assertEquals(0, driver.count("glGetError"));
+      assertEquals(0, diagnostics.getCheckCount());
+      assertEquals(0, diagnostics.getCheckedFrameCount());
+      assertEquals(0, diagnostics.getErrorCount());
+   }
+
+   @Test public void fullChecksEveryCall() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      GlBackend gl = CheckingGlBackend.wrap(driver, diagnostics);
+
+      for (int frame = 0; frame < 3; frame++) {
+         diagnostics.beginFrame(gl);
+         gl.glUseProgram(1);
+         gl.glEnable(GLES20.GL_BLEND);
+         gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      }
+
+      assertEquals(9, driver.count("glGetError"));
+      assertEquals(9, diagnostics.getCheckCount());
+      assertEquals(3, diagnostics.getCheckedFrameCount());
+      assertTrue(reports.isEmpty());
+   }
+
+   @Test public void errorsAreReportedWithTheCallRaisingThem() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      GlBackend gl = CheckingGlBackend.wrap(new ForwardingGlBackend(driver) {
+         @Override public void glDisable(int capability) {
+            super.glDisable(capability);
+            driver.raiseError(GLES20.GL_INVALID_ENUM);
+         }
+      }, diagnostics);
+
+      diagnostics.beginFrame(gl);
+      gl.glEnable(GLES20.GL_BLEND);
+      gl.glDisable(0x1234);
+      gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+      assertEquals(Collections.singletonList("error 0x500 at glDisable"), reports);
+      assertEquals(1, diagnostics.getErrorCount());
+      assertEquals(1, diagnostics.getErrorCount(GLES20.GL_INVALID_ENUM));
+      assertEquals(0, diagnostics.getErrorCount(GLES20.GL_INVALID_OPERATION));
+   }
+
+   @Test public void everyPendingErrorIsDrainedUpToALimit() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      driver.raiseError(GLES20.GL_INVALID_VALUE);
+      driver.raiseError(GLES20.GL_OUT_OF_MEMORY);
+      //Not a glGetError code
+      driver.raiseError(0x1234);
+
+      diagnostics.checkpoint(driver, "setup");
+
+      assertEquals(3, diagnostics.getErrorCount());
+      assertEquals(1, diagnostics.getErrorCount(GLES20.GL_INVALID_VALUE));
+      assertEquals(1, diagnostics.getErrorCount(GLES20.GL_OUT_OF_MEMORY));
+      assertEquals(1, diagnostics.getErrorCount(0x1234));
+      //The last one returned no error
+      assertEquals(4, diagnostics.getCheckCount());
+
+      for (int i = 0; i < 20; i++) {
+         driver.raiseError(GLES20.GL_INVALID_OPERATION);
+      }
+      diagnostics.checkpoint(driver, "setup");
+      assertEquals(8, diagnostics.getErrorCount(GLES20.GL_INVALID_OPERATION));
+   }
+
+   @Test public void sampledChecksOneFrameInN() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.SAMPLED, 3);
+      GlBackend gl = CheckingGlBackend.wrap(driver, diagnostics);
+
+      boolean[] checked = new boolean[9];
+      for (int frame = 0; frame < checked.length; frame++) {
+         diagnostics.beginFrame(gl);
+         checked[frame] = diagnostics.isChecking();
+         gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      }
+
+      assertTrue(Arrays.equals(new boolean[]{false, false, true, false, false, true, false, false, true},
+         checked));
+      assertEquals(3, diagnostics.getCheckedFrameCount());
+      //One per checked draw, plus draining what the unchecked frames left
+      assertEquals(6, driver.count("glGetError"));
+   }
+
+   @Test public void errorsOfUncheckedFramesAreNotBlamedOnTheNextCall() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.SAMPLED, 2);
+      GlBackend gl = CheckingGlBackend.wrap(driver, diagnostics);
+
+      diagnostics.beginFrame(gl);
+      assertFalse(diagnostics.isChecking());
+      gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      driver.raiseError(GLES20.GL_INVALID_OPERATION);
+
+      diagnostics.beginFrame(gl);
+      gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+      assertEquals(Collections.singletonList("error 0x502 at " + GlDiagnostics.UNCHECKED_SITE), reports);
+   }
+
+   @Test public void levelChangesApplyFromTheNextFrame() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      diagnostics.beginFrame(driver);
+
+      diagnostics.setLevel(GlDiagnostics.Level.OFF);
+      assertTrue(diagnostics.isChecking());
+
+      diagnostics.beginFrame(driver);
+      assertFalse(diagnostics.isChecking());
+      diagnostics.check(driver, "glDrawArrays");
+      assertEquals(0, driver.count("glGetError"));
+   }
+
+   @Test public void diagnosticsCreatedOnCanBeTurnedBackOn() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      diagnostics.setLevel(GlDiagnostics.Level.OFF);
+
+      diagnostics.setLevel(GlDiagnostics.Level.SAMPLED);
+
+      assertEquals(GlDiagnostics.Level.SAMPLED, diagnostics.getLevel());
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void diagnosticsCreatedOffStayOff() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.OFF, 1);
+      //The backend given out is not checked
+      CheckingGlBackend.wrap(driver, diagnostics);
+
+      diagnostics.setLevel(GlDiagnostics.Level.FULL);
+   }
+
+   @Test public void synchronousDebugMessagesAreReportedWithTheirCall() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      diagnostics.setDebugOutput(true, true);
+      GlBackend gl = CheckingGlBackend.wrap(new ForwardingGlBackend(driver) {
+         @Override public void glDrawArrays(int mode, int first, int count) {
+            super.glDrawArrays(mode, first, count);
+            //Logged before the call returns, as the driver does in synchronous mode
+            driver.logDebugMessage(GlDiagnostics.DEBUG_TYPE_ERROR, 0, 1, "no program");
+            driver.logDebugMessage(0x8250, 0, 2, "slow path");
+            driver.logDebugMessage(0x8251, GlDiagnostics.DEBUG_SEVERITY_NOTIFICATION, 3, "hint");
+         }
+      }, diagnostics);
+
+      diagnostics.beginFrame(gl);
+      gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+      assertEquals(Arrays.asList("error no program at glDrawArrays", "warning slow path at glDrawArrays"),
+         reports);
+      assertEquals(1, diagnostics.getErrorCount());
+      assertEquals(1, diagnostics.getWarningCount());
+      assertEquals(0, driver.getDebugLogSize());
+      //The log is read, no error is polled
+      assertEquals(0, driver.count("glGetError"));
+   }
+
+   @Test public void asynchronousDebugMessagesHaveNoCall() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      diagnostics.setDebugOutput(true, false);
+      diagnostics.beginFrame(driver);
+
+      driver.logDebugMessage(GlDiagnostics.DEBUG_TYPE_ERROR, 0, 1, "lost context");
+      diagnostics.check(driver, "glDrawArrays");
+
+      assertEquals(Collections.singletonList("error lost context at null"), reports);
+   }
+
+   @Test public void checkpointsDrainTheDebugLog() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.SAMPLED, 60);
+      diagnostics.setDebugOutput(true, true);
+
+      driver.logDebugMessage(GlDiagnostics.DEBUG_TYPE_ERROR, 0, 1, "incomplete texture");
+      diagnostics.checkpoint(driver, "setup");
+
+      assertEquals(Collections.singletonList("error incomplete texture at setup"), reports);
+      assertEquals(1, driver.count("glGetDebugMessageLogKHR"));
+   }
+
+   @Test public void debugMessagesOfUncheckedFramesAreDrainedEveryFrame() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.SAMPLED, 3);
+      diagnostics.setDebugOutput(true, true);
+      GlBackend gl = CheckingGlBackend.wrap(driver, diagnostics);
+
+      diagnostics.beginFrame(gl);
+      assertFalse(diagnostics.isChecking());
+      driver.logDebugMessage(0x8250, 0, 1, "slow path");
+      gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+      diagnostics.beginFrame(gl);
+
+      assertEquals(Collections.singletonList("warning slow path at " + GlDiagnostics.UNCHECKED_SITE),
+         reports);
+      assertEquals(2, driver.count("glGetDebugMessageLogKHR"));
+      assertEquals(0, driver.count("glGetError"));
+   }
+
+   @Test public void fullLogsAreDrainedInSeveralReads() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      diagnostics.setDebugOutput(true, true);
+      for (int i = 0; i < 40; i++) {
+         driver.logDebugMessage(0x8250, 0, i, "message " + i);
+      }
+
+      diagnostics.checkpoint(driver, "setup");
+
+      assertEquals(40, reports.size());
+      assertEquals("warning message 39 at setup", reports.get(39));
+      assertEquals(0, driver.getDebugLogSize());
+      assertEquals(3, driver.count("glGetDebugMessageLogKHR"));
+   }
+
+   @Test public void countersReset() {
+      GlDiagnostics diagnostics = diagnostics(GlDiagnostics.Level.FULL, 1);
+      driver.raiseError(GLES20.GL_INVALID_ENUM);
+      diagnostics.beginFrame(driver);
+      diagnostics.checkpoint(driver, "setup");
+      diagnostics.setDebugOutput(true, true);
+      driver.logDebugMessage(0x8250, 0, 1, "slow path");
+      diagnostics.checkpoint(driver, "setup");
+
+      diagnostics.resetCounters();
+
+      assertEquals(0, diagnostics.getErrorCount());
+      assertEquals(0, diagnostics.getErrorCount(GLES20.GL_INVALID_ENUM));
+      assertEquals(0, diagnostics.getWarningCount());
+      assertEquals(0, diagnostics.getCheckCount());
+      assertEquals(0, diagnostics.getCheckedFrameCount());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsEmptySampleIntervals() {
+      new GlDiagnostics(GlDiagnostics.Level.SAMPLED, 0);
+   }
+
+   private GlDiagnostics diagnostics(GlDiagnostics.Level level, int sampleInterval) {
+      GlDiagnostics diagnostics = new GlDiagnostics(level, sampleInterval);
+      diagnostics.setListener(listener);
+      return diagnostics;
+   }
+}
@@ -0,0 +1,175 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GlRedundancyTrackerTest {
+
+   private final GlRedundancyTracker tracker = new GlRedundancyTracker();
+
+   @Test public void stateIsUnknownUntilSet() {
+      assertFalse(track(GlCall.USE_PROGRAM, 0));
+      assertFalse(track(GlCall.VIEWPORT, 0, 0, 0, 0));
+      assertFalse(track(GlCall.CLEAR_COLOR, 0f, 0f, 0f, 0f));
+      assertFalse(track(GlCall.ACTIVE_TEXTURE, GLES20.GL_TEXTURE0));
+      assertFalse(track(GlCall.BIND_BUFFER, GLES20.GL_ARRAY_BUFFER, 0));
+      assertFalse(track(GlCall.BIND_FRAMEBUFFER, GLES20.GL_FRAMEBUFFER, 0));
+      assertFalse(track(GlCall.BIND_VERTEX_ARRAY, 0));
+   }
+
+   @Test public void sameValuesAgainAreRedundant() {
+      track(GlCall.USE_PROGRAM, 1);
+      track(GlCall.VIEWPORT, 0, 0, 1920, 1080);
+      track(GlCall.CLEAR_COLOR, 0f, 0f, 0f, 1f);
+
+      assertTrue(track(GlCall.USE_PROGRAM, 1));
+      assertTrue(track(GlCall.VIEWPORT, 0, 0, 1920, 1080));
+      assertTrue(track(GlCall.CLEAR_COLOR, 0f, 0f, 0f, 1f));
+      assertFalse(track(GlCall.USE_PROGRAM, 2));
+      assertFalse(track(GlCall.VIEWPORT, 0, 0, 960, 540));
+      assertFalse(track(GlCall.CLEAR_COLOR, 1f, 0f, 0f, 1f));
+   }
+
+   @Test public void capabilitiesEnabledOrDisabledAgainAreRedundant() {
+      assertFalse(track(GlCall.ENABLE, GLES20.GL_BLEND));
+      assertTrue(track(GlCall.ENABLE, GLES20.GL_BLEND));
+      assertFalse(track(GlCall.DISABLE, GLES20.GL_BLEND));
+      assertTrue(track(GlCall.DISABLE, GLES20.GL_BLEND));
+      assertFalse(track(GlCall.DISABLE, GLES20.GL_DEPTH_TEST));
+   }
+
+   @Test public void textureBindingsArePerUnitAndTarget() {
+      track(GlCall.ACTIVE_TEXTURE, GLES20.GL_TEXTURE0);
+      assertFalse(track(GlCall.BIND_TEXTURE, GLES20.GL_TEXTURE_2D, 5));
+      assertTrue(track(GlCall.ACTIVE_TEXTURE, GLES20.GL_TEXTURE0));
+
+      track(GlCall.ACTIVE_TEXTURE, GLES20.GL_TEXTURE1);
+      assertFalse(track(GlCall.BIND_TEXTURE, GLES20.GL_TEXTURE_2D, 5));
+      assertFalse(track(GlCall.BIND_TEXTURE, GLES30.GL_TEXTURE_3D, 5));
+
+      track(GlCall.ACTIVE_TEXTURE, GLES20.GL_TEXTURE0);
+      assertTrue(track(GlCall.BIND_TEXTURE, GLES20.GL_TEXTURE_2D, 5));
+   }
+
+   @Test public void textureBindingsOfAnUnknownUnitAreNeverRedundant() {
+      track(GlCall.BIND_TEXTURE, GLES20.GL_TEXTURE_2D, 5);
+
+      assertFalse(track(GlCall.BIND_TEXTURE, GLES20.GL_TEXTURE_2D, 5));
+   }
+
+   @Test public void framebufferTargetSetsBothDrawAndRead() {
+      track(GlCall.BIND_FRAMEBUFFER, GLES20.GL_FRAMEBUFFER, 3);
+      assertTrue(track(GlCall.BIND_FRAMEBUFFER, GLES30.GL_READ_FRAMEBUFFER, 3));
+      assertTrue(track(GlCall.BIND_FRAMEBUFFER, GLES30.GL_DRAW_FRAMEBUFFER, 3));
+
+      assertFalse(track(GlCall.BIND_FRAMEBUFFER, GLES30.GL_READ_FRAMEBUFFER, 4));
+      //Changes the read binding back
+      assertFalse(track(GlCall.BIND_FRAMEBUFFER, GLES20.GL_FRAMEBUFFER, 3));
+      assertTrue(track(GlCall.BIND_FRAMEBUFFER, GLES20.GL_FRAMEBUFFER, 3));
+   }
+
+   @Test public void deletingBoundObjectsBindsZero() {
+      track(GlCall.ACTIVE_TEXTURE, GLES20.GL_TEXTURE0);
+      track(GlCall.BIND_TEXTURE, GLES20.GL_TEXTURE_2D, 5);
+      track(GlCall.BIND_BUFFER, GLES20.GL_ARRAY_BUFFER, 6);
+      track(GlCall.BIND_FRAMEBUFFER, GLES20.GL_FRAMEBUFFER, 7);
+      track(GlCall.BIND_VERTEX_ARRAY, 8);
+
+      track(GlCall.DELETE_TEXTURES, (Object) new int[]{5});
+      track(GlCall.DELETE_BUFFERS, (Object) new int[]{6});
+      track(GlCall.DELETE_FRAMEBUFFERS, (Object) new int[]{7});
+      track(GlCall.DELETE_VERTEX_ARRAYS, (Object) new int[]{8});
+
+      assertTrue(track(GlCall.BIND_TEXTURE, GLES20.GL_TEXTURE_2D, 0));
+      assertTrue(track(GlCall.BIND_BUFFER, GLES20.GL_ARRAY_BUFFER, 0));
+      assertTrue(track(GlCall.BIND_FRAMEBUFFER, GLES20.GL_FRAMEBUFFER, 0));
+      assertTrue(track(GlCall.BIND_VERTEX_ARRAY, 0));
+   }
+
+   @Test public void vertexArraysHoldTheElementBufferAndAttributeArrays() {
+      track(GlCall.BIND_VERTEX_ARRAY, 1);
+      track(GlCall.BIND_BUFFER, GLES20.GL_ELEMENT_ARRAY_BUFFER, 7);
+      track(GlCall.BIND_BUFFER, GLES20.GL_ARRAY_BUFFER, 9);
+      track(GlCall.ENABLE_VERTEX_ATTRIB_ARRAY, 0);
+      assertTrue(track(GlCall.ENABLE_VERTEX_ATTRIB_ARRAY, 0));
+
+      assertFalse(track(GlCall.BIND_VERTEX_ARRAY, 2));
+
+      assertFalse(track(GlCall.BIND_BUFFER, GLES20.GL_ELEMENT_ARRAY_BUFFER, 7));
+      assertFalse(track(GlCall.ENABLE_VERTEX_ATTRIB_ARRAY, 0));
+      //Not vertex array state
+      assertTrue(track(GlCall.BIND_BUFFER, GLES20.GL_ARRAY_BUFFER, 9));
+   }
+
+   @Test public void uniformsArePerProgram() {
+      track(GlCall.USE_PROGRAM, 1);
+      assertFalse(track(GlCall.UNIFORM1I, 2, 0));
+      assertTrue(track(GlCall.UNIFORM1I, 2, 0));
+
+      track(GlCall.USE_PROGRAM, 3);
+      assertFalse(track(GlCall.UNIFORM1I, 2, 0));
+
+      track(GlCall.USE_PROGRAM, 1);
+      assertTrue(track(GlCall.UNIFORM1I, 2, 0));
+      assertFalse(track(GlCall.UNIFORM1I, 2, 1));
+   }
+
+   @Test public void uniformValuesAreComparedByContent() {
+      track(GlCall.USE_PROGRAM, 1);
+      float[] matrix = new float[16];
+      matrix[0] = 1;
+
+      assertFalse(track(GlCall.UNIFORM_MATRIX4FV, 4, 1, false, matrix.clone()));
+      assertTrue(track(GlCall.UNIFORM_MATRIX4FV, 4, 1, false, matrix.clone()));
+      assertFalse(track(GlCall.UNIFORM_MATRIX4FV, 4, 1, true, matrix.clone()));
+      assertFalse(track(GlCall.UNIFORM4FV, 5, 1, new float[]{1, 0, 0, 1}));
+      assertTrue(track(GlCall.UNIFORM4FV, 5, 1, new float[]{1, 0, 0, 1}));
+      assertFalse(track(GlCall.UNIFORM4FV, 5, 1, new float[]{1, 0, 1, 1}));
+   }
+
+   @Test public void uniformsOfAnUnknownProgramAreNeverRedundant() {
+      track(GlCall.UNIFORM1I, 2, 0);
+
+      assertFalse(track(GlCall.UNIFORM1I, 2, 0));
+   }
+
+   @Test public void linkingResetsTheUniforms() {
+      track(GlCall.USE_PROGRAM, 1);
+      track(GlCall.UNIFORM1I, 2, 0);
+
+      track(GlCall.LINK_PROGRAM, 1);
+
+      assertFalse(track(GlCall.UNIFORM1I, 2, 0));
+   }
+
+   @Test public void uniformArraysAreNotTracked() {
+      track(GlCall.USE_PROGRAM, 1);
+      track(GlCall.UNIFORM1FV, 3, 1, new float[]{0.5f});
+
+      //Sets locations 2 to 4
+      assertFalse(track(GlCall.UNIFORM1FV, 2, 3, new float[]{1, 2, 3}));
+      assertFalse(track(GlCall.UNIFORM1FV, 2, 3, new float[]{1, 2, 3}));
+      assertFalse(track(GlCall.UNIFORM1FV, 3, 1, new float[]{0.5f}));
+   }
+
+   @Test public void uniformsAtLocationMinusOneAreIgnoredByTheDriver() {
+      assertTrue(track(GlCall.UNIFORM1I, -1, 0));
+   }
+
+   @Test public void callsWithoutStateAreNeverRedundant() {
+      track(GlCall.DRAW_ARRAYS, GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+      assertFalse(track(GlCall.DRAW_ARRAYS, GLES20.GL_TRIANGLE_STRIP, 0, 4));
+      assertFalse(track(GlCall.CLEAR, GLES20.GL_COLOR_BUFFER_BIT));
+      assertFalse(track(GlCall.CLEAR, GLES20.GL_COLOR_BUFFER_BIT));
+   }
+
+   private boolean track(GlCall call, Object... fields) {
+      return tracker.track(new GlCaptureReader.Record(call, 0, 0, fields));
+   }
+}
@@ -0,0 +1,87 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GlslIdentifiersTest {
+
+   @Test public void renamesAgainstTheGoldenFile() throws IOException {
+      String source = FilterCompilerTest.golden("rename_input.glsl");
+      Map<String, String> renames = new HashMap<>();
+      for (String declared : GlslIdentifiers.globalDeclarations(source)) {
+         renames.put(declared, FilterCompiler.uniformName(3, declared));
+      }
+      renames.put("amount", FilterCompiler.uniformName(3, "amount"));
+
+      assertEquals(FilterCompilerTest.golden("rename_expected.glsl"), GlslIdentifiers.rename(source, renames));
+   }
+
+   @Test public void globalDeclarationsInOrder() {
+      Set<String> declared = GlslIdentifiers.globalDeclarations(""
+         + "uniform lowp sampler2D lut;\n"
+         + "const float a = 1.0, b = 2.0;\n"
+         + "float weights[2], c;\n"
+         + "float helper(float x, float y);\n"
+         + "vec4 filter(vec4 color) {\n"
+         + "    float local = helper(color.r, a), other;\n"
+         + "    return color;\n"
+         + "}\n");
+
+      assertEquals(Arrays.asList("lut", "a", "b", "weights", "c", "helper", "filter"),
+         Arrays.asList(declared.toArray()));
+   }
+
+   @Test public void preprocessorCommentsAndPrecisionAreSkipped() {
+      Set<String> declared = GlslIdentifiers.globalDeclarations(""
+         + "#define SCALE 2.0\n"
+         + "precision mediump float;\n"
+         + "// float commented;\n"
+         + "/* vec2 block = vec2(0.0); */\n"
+         + "vec4 filter(vec4 color) { return color; }\n");
+
+      assertEquals(Collections.singleton("filter"), declared);
+   }
+
+   @Test public void onlyWholeIdentifiersAreRenamed() {
+      Map<String, String> renames = Collections.singletonMap("gain", "f0_gain");
+
+      assertEquals("f0_gain * gainX + again_gain + f0_gain.x",
+         GlslIdentifiers.rename("gain * gainX + again_gain + gain.x", renames));
+   }
+
+   @Test public void fieldsAndSwizzlesAreNotRenamed() {
+      //Globals named like swizzles, declared by a filter
+      Map<String, String> renames = new HashMap<>();
+      renames.put("x", "f0_x");
+      renames.put("rgb", "f0_rgb");
+      renames.put("a", "f0_a");
+
+      assertEquals("color.x * f0_x + color . rgb + v.xy.x + color./* c */a + f0_a.rgb",
+         GlslIdentifiers.rename("color.x * x + color . rgb + v.xy.x + color./* c */a + a.rgb", renames));
+   }
+
+   @Test public void numberSuffixesAreNotIdentifiers() {
+      //The 'e' of an exponent or a 'u' suffix must survive renames of e and u
+      Map<String, String> renames = new HashMap<>();
+      renames.put("e", "f0_e");
+      renames.put("u", "f0_u");
+
+      assertEquals("1e5 + 3u + f0_e * f0_u", GlslIdentifiers.rename("1e5 + 3u + e * u", renames));
+   }
+
+   @Test public void unterminatedCommentsRunToTheEnd() {
+      Map<String, String> renames = Collections.singletonMap("gain", "f0_gain");
+
+      assertEquals("f0_gain /* gain", GlslIdentifiers.rename("gain /* gain", renames));
+      assertTrue(GlslIdentifiers.globalDeclarations("float a; /* float b;").contains("a"));
+   }
+}
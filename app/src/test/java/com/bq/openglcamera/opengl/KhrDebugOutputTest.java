@@ -0,0 +1,89 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES31Ext;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("Convert2Lambda")
+public class KhrDebugOutputTest {
+
+   private final RecordingGlBackend gl = new RecordingGlBackend();
+
+   @Test public void fullDiagnosticsGetSynchronousOutput() {
+      gl.setExtensions("GL_OES_EGL_image_external " + KhrDebugOutput.EXTENSION);
+      GlDiagnostics diagnostics = new GlDiagnostics(GlDiagnostics.Level.FULL);
+
+      assertTrue(KhrDebugOutput.install(gl, diagnostics));
+
+      assertTrue(gl.isEnabled(GLES31Ext.GL_DEBUG_OUTPUT_KHR));
+      assertTrue(gl.isEnabled(GLES31Ext.GL_DEBUG_OUTPUT_SYNCHRONOUS_KHR));
+      assertTrue(diagnostics.hasDebugOutput());
+   }
+
+   @Test public void installedOutputIsReadFromTheLog() {
+      gl.setExtensions(KhrDebugOutput.EXTENSION);
+      GlDiagnostics diagnostics = new GlDiagnostics(GlDiagnostics.Level.FULL);
+      final List<String> messages = new ArrayList<>();
+      diagnostics.setListener(new GlDiagnostics.Listener() {
+         @Override public void onGlError(int error, String site) {
+            messages.add("glGetError at " + site);
+         }
+
+         @Override public void onMessage(boolean error, int id, String message, String site) {
+            messages.add(message + " at " + site);
+         }
+      });
+      KhrDebugOutput.install(gl, diagnostics);
+      gl.raiseError(GLES20.GL_INVALID_OPERATION);
+
+      diagnostics.beginFrame(gl);
+      gl.logDebugMessage(GLES31Ext.GL_DEBUG_TYPE_ERROR_KHR, GLES31Ext.GL_DEBUG_SEVERITY_HIGH_KHR, 1,
+         "program not linked");
+      diagnostics.check(gl, "glUseProgram");
+
+      assertEquals(Collections.singletonList("program not linked at glUseProgram"), messages);
+      assertEquals(1, diagnostics.getErrorCount());
+      assertEquals(0, gl.count("glGetError"));
+   }
+
+   @Test public void sampledDiagnosticsLeaveTheDriverItsThreads() {
+      gl.setExtensions(KhrDebugOutput.EXTENSION);
+      GlDiagnostics diagnostics = new GlDiagnostics(GlDiagnostics.Level.SAMPLED);
+
+      assertTrue(KhrDebugOutput.install(gl, diagnostics));
+
+      assertTrue(gl.isEnabled(GLES31Ext.GL_DEBUG_OUTPUT_KHR));
+      assertFalse(gl.isEnabled(GLES31Ext.GL_DEBUG_OUTPUT_SYNCHRONOUS_KHR));
+      assertEquals(1, gl.count("glDisable"));
+      assertTrue(diagnostics.hasDebugOutput());
+   }
+
+   @Test public void contextsWithoutTheExtensionKeepPolling() {
+      gl.setExtensions("GL_OES_EGL_image_external");
+      GlDiagnostics diagnostics = new GlDiagnostics(GlDiagnostics.Level.FULL);
+
+      assertFalse(KhrDebugOutput.install(gl, diagnostics));
+
+      assertEquals(0, gl.count("glEnable"));
+      assertFalse(diagnostics.hasDebugOutput());
+   }
+
+   @Test public void nothingIsInstalledWhenDiagnosticsAreOff() {
+      gl.setExtensions(KhrDebugOutput.EXTENSION);
+      GlDiagnostics diagnostics = new GlDiagnostics(GlDiagnostics.Level.OFF);
+
+      assertFalse(KhrDebugOutput.install(gl, diagnostics));
+
+      assertTrue(gl.getCalls().isEmpty());
+      assertFalse(diagnostics.hasDebugOutput());
+   }
+}
@@ -0,0 +1,213 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("Convert2Lambda")
+public class LutCacheTest {
+
+   //4^3 texels of 4 bytes, the same as its tiled texture
+   private static final int TABLE_BYTES = 256;
+
+   private final RecordingGlBackend gl = new RecordingGlBackend();
+   private final ManualExecutor loader = new ManualExecutor();
+
+   @Test public void leastRecentlyUsedTablesAreEvictedOverBudget() {
+      LutCache cache = new LutCache(2 * TABLE_BYTES, loader);
+      cache.put("a", Lut.identity(4));
+      cache.put("b", Lut.identity(4));
+      cache.get("a");
+
+      cache.put("c", Lut.identity(4));
+
+      assertNotNull(cache.get("a"));
+      assertNull(cache.get("b"));
+      assertNotNull(cache.get("c"));
+      assertEquals(2 * TABLE_BYTES, cache.getUsedBytes());
+   }
+
+   @Test public void lastUsedTableStaysEvenOverBudget() {
+      LutCache cache = new LutCache(TABLE_BYTES / 2, loader);
+
+      cache.put("a", Lut.identity(4));
+
+      assertEquals(1, cache.size());
+      assertEquals(TABLE_BYTES, cache.getUsedBytes());
+   }
+
+   @Test public void replacedTablesAreNotCountedTwice() {
+      LutCache cache = new LutCache(LutCache.DEFAULT_BUDGET_BYTES, loader);
+      cache.put("a", Lut.identity(4));
+
+      cache.put("a", Lut.identity(4));
+
+      assertEquals(TABLE_BYTES, cache.getUsedBytes());
+   }
+
+   @Test public void texturesCountAgainstTheBudget() {
+      LutCache cache = new LutCache(LutCache.DEFAULT_BUDGET_BYTES, loader);
+      cache.put("3d", Lut.identity(5));
+      cache.put("tiled", Lut.identity(5));
+
+      cache.getTexture(gl, "3d", true);
+      cache.getTexture(gl, "tiled", false);
+
+      //5^3 texels in 3D, 3x2 tiles of 5x5 texels tiled
+      assertEquals(2 * 500 + 500 + 15 * 10 * 4, cache.getUsedBytes());
+      assertEquals(1, gl.count("glTexImage3D"));
+      assertEquals(1, gl.count("glTexImage2D"));
+   }
+
+   @Test public void texturesAreUploadedOnce() {
+      LutCache cache = new LutCache(LutCache.DEFAULT_BUDGET_BYTES, loader);
+      cache.put("a", Lut.identity(4));
+
+      int texture = cache.getTexture(gl, "a", true);
+
+      assertTrue(texture != 0);
+      assertEquals(texture, cache.getTexture(gl, "a", true));
+      assertEquals(1, gl.count("glTexImage3D"));
+      assertEquals(0, cache.getTexture(gl, "missing", true));
+   }
+
+   @Test public void texturesOfEvictedTablesAreDeletedOnTheNextCall() {
+      LutCache cache = new LutCache(4 * TABLE_BYTES, loader);
+      cache.put("a", Lut.identity(4));
+      int evicted = cache.getTexture(gl, "a", true);
+      cache.put("b", Lut.identity(4));
+      int kept = cache.getTexture(gl, "b", true);
+
+      cache.put("c", Lut.identity(4));
+      assertNull(cache.get("a"));
+      //Loaders don't have the context, the render thread deletes it
+      assertTrue(gl.getLiveTextures().contains(evicted));
+
+      cache.getTexture(gl, "c", true);
+
+      assertFalse(gl.getLiveTextures().contains(evicted));
+      assertTrue(gl.getLiveTextures().contains(kept));
+      //Tables and textures of b and c
+      assertEquals(4 * TABLE_BYTES, cache.getUsedBytes());
+   }
+
+   @Test public void releaseDeletesTexturesAndKeepsTables() {
+      LutCache cache = new LutCache(LutCache.DEFAULT_BUDGET_BYTES, loader);
+      cache.put("a", Lut.identity(4));
+      cache.getTexture(gl, "a", false);
+
+      cache.releaseTextures(gl);
+
+      assertTrue(gl.getLiveTextures().isEmpty());
+      assertEquals(TABLE_BYTES, cache.getUsedBytes());
+      assertTrue(cache.getTexture(gl, "a", false) != 0);
+   }
+
+   @Test public void loadsParseInTheBackgroundOnce() throws Exception {
+      LutCache cache = new LutCache(LutCache.DEFAULT_BUDGET_BYTES, loader);
+      CountingSource source = new CountingSource(IDENTITY_CUBE);
+
+      Future<Lut> pending = cache.load("a", source);
+      assertSame(pending, cache.load("a", source));
+      assertNull(cache.get("a"));
+
+      loader.runAll();
+
+      assertSame(pending.get(), cache.get("a"));
+      assertSame(pending.get(), cache.load("a", source).get());
+      assertEquals(1, source.opens);
+   }
+
+   @Test public void parsedTablesAreCachedBeforeTheyStopLoading() throws Exception {
+      final CountingSource source = new CountingSource(IDENTITY_CUBE);
+      final boolean[] reloaded = new boolean[1];
+      LutCache cache = new LutCache(LutCache.DEFAULT_BUDGET_BYTES, loader) {
+         @Override public synchronized void put(String key, Lut lut) {
+            //A load just before the table is cached must not parse it again
+            load(key, source);
+            reloaded[0] = loader.pending() > 0;
+            super.put(key, lut);
+         }
+      };
+
+      cache.load("a", source);
+      loader.runAll();
+
+      assertFalse(reloaded[0]);
+      assertEquals(1, source.opens);
+   }
+
+   @Test public void failedParsesAreReportedAndRetried() throws Exception {
+      LutCache cache = new LutCache(LutCache.DEFAULT_BUDGET_BYTES, loader);
+      CountingSource source = new CountingSource("LUT_3D_SIZE 2\n0 0 0\n");
+
+      Future<Lut> failed = cache.load("a", source);
+      loader.runAll();
+      try {
+         failed.get();
+         fail();
+      } catch (ExecutionException e) {
+         assertTrue(e.getCause() instanceof IOException);
+      }
+      assertNull(cache.get("a"));
+
+      cache.load("a", source);
+      assertEquals(1, loader.pending());
+   }
+
+   @Test public void rejectedLoadsCanBeRetried() {
+      ManualExecutor rejecting = new ManualExecutor() {
+         private boolean rejected;
+
+         @Override public void execute(Runnable command) {
+            if (!rejected) {
+               rejected = true;
+               throw new RejectedExecutionException();
+            }
+            super.execute(command);
+         }
+      };
+      LutCache cache = new LutCache(LutCache.DEFAULT_BUDGET_BYTES, rejecting);
+      CountingSource source = new CountingSource(IDENTITY_CUBE);
+      try {
+         cache.load("a", source);
+         fail();
+      } catch (RejectedExecutionException expected) {
+         //Expected
+      }
+
+      cache.load("a", source);
+
+      assertEquals(1, rejecting.pending());
+   }
+
+   private static final String IDENTITY_CUBE = "LUT_3D_SIZE 2\n"
+      + "0 0 0\n1 0 0\n0 1 0\n1 1 0\n0 0 1\n1 0 1\n0 1 1\n1 1 1\n";
+
+   private static final class CountingSource implements LutCache.Source {
+      private final String cube;
+      int opens;
+
+      CountingSource(String cube) {
+         this.cube = cube;
+      }
+
+      @Override public InputStream open() throws IOException {
+         opens++;
+         return new ByteArrayInputStream(cube.getBytes("UTF-8"));
+      }
+   }
+}
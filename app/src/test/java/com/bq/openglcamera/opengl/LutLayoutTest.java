@@ -0,0 +1,61 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class LutLayoutTest {
+
+   @Test public void tilesFitTheUsualTextureLimit() {
+      assertEquals(9, LutLayout.columns(65));
+      assertEquals(8, LutLayout.rows(65));
+      assertEquals(585, LutLayout.width(65));
+      assertEquals(520, LutLayout.height(65));
+      assertEquals(6, LutLayout.columns(33));
+      assertEquals(6, LutLayout.rows(33));
+      assertEquals(2, LutLayout.columns(2));
+      assertEquals(1, LutLayout.rows(2));
+      for (int size = 2; size <= CubeLutParser.MAX_SIZE; size++) {
+         int tiles = LutLayout.columns(size) * LutLayout.rows(size);
+         assertEquals("size " + size, true, tiles >= size && tiles - size < LutLayout.columns(size));
+      }
+   }
+
+   @Test public void everyTexelLandsInItsTile() {
+      for (int size : new int[]{2, 3, 5, 17}) {
+         Lut lut = Lut.identity(size);
+         ByteBuffer tiled = LutLayout.allocateTiled(size);
+
+         LutLayout.toTiled(lut, tiled);
+
+         int columns = LutLayout.columns(size);
+         int width = LutLayout.width(size);
+         ByteBuffer data = lut.getData();
+         //Texels compared as ints, the byte order only has to agree
+         tiled.order(data.order());
+         for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+               for (int r = 0; r < size; r++) {
+                  int x = (b % columns) * size + r;
+                  int y = (b / columns) * size + g;
+                  assertEquals(data.getInt(((b * size + g) * size + r) * Lut.BYTES_PER_TEXEL),
+                     tiled.getInt((y * width + x) * Lut.BYTES_PER_TEXEL));
+               }
+            }
+         }
+      }
+   }
+
+   @Test public void positionsAreLeftAlone() {
+      Lut lut = Lut.identity(4);
+      ByteBuffer tiled = LutLayout.allocateTiled(4);
+
+      LutLayout.toTiled(lut, tiled);
+      LutLayout.toTiled(lut, tiled);
+
+      assertEquals(0, tiled.position());
+      assertEquals(0, lut.getData().position());
+   }
+}
@@ -0,0 +1,56 @@
+package com.bq.openglcamera.opengl;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single thread executor that runs the queued tasks when told to, on the calling thread.
+ * Shutting down runs whatever is left.
+ */
+class ManualExecutor extends AbstractExecutorService {
+
+   private final Queue<Runnable> tasks = new ArrayDeque<>();
+   private boolean shutdown;
+
+   void runAll() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+         task.run();
+      }
+   }
+
+   int pending() {
+      return tasks.size();
+   }
+
+   @Override public void execute(Runnable command) {
+      tasks.add(command);
+      if (shutdown) runAll();
+   }
+
+   @Override public void shutdown() {
+      shutdown = true;
+      runAll();
+   }
+
+   @Override public List<Runnable> shutdownNow() {
+      shutdown = true;
+      return Collections.emptyList();
+   }
+
+   @Override public boolean isShutdown() {
+      return shutdown;
+   }
+
+   @Override public boolean isTerminated() {
+      return shutdown && tasks.isEmpty();
+   }
+
+   @Override public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return isTerminated();
+   }
+}
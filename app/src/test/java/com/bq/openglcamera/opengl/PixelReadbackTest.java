@@ -0,0 +1,220 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES30;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PixelReadbackTest {
+
+   private static final int WIDTH = 8;
+   private static final int HEIGHT = 4;
+   //One free buffer of the smallest class
+   private static final int ONE_FRAME = 4096;
+
+   private final RecordingGlBackend gl = new RecordingGlBackend();
+   private final Frames frames = new Frames();
+
+   @Test public void setupCreatesOnePixelBufferPerSlot() {
+      PixelReadback readback = readback(gl, 3, FrameBufferPool.DEFAULT_MAX_BYTES);
+
+      assertEquals(3, gl.getLiveBuffers().size());
+      assertEquals(3, gl.count("glBufferData"));
+      assertEquals(0, gl.getBoundBuffer(GLES30.GL_PIXEL_PACK_BUFFER));
+
+      readback.release();
+      assertTrue(gl.getLiveBuffers().isEmpty());
+   }
+
+   @Test public void framesArriveDepthMinusOneFramesLate() {
+      PixelReadback readback = readback(gl, 3, FrameBufferPool.DEFAULT_MAX_BYTES);
+      readback.addListener(frames);
+
+      readback.readFrame(100);
+      readback.readFrame(200);
+      assertTrue(frames.timestamps.isEmpty());
+      assertEquals(0, gl.count("glMapBufferRange"));
+
+      readback.readFrame(300);
+      readback.readFrame(400);
+      readback.readFrame(500);
+
+      assertEquals(Arrays.asList(100L, 200L, 300L), frames.timestamps);
+      //Each frame holds what the read of its own timestamp wrote
+      assertEquals(Arrays.asList(1, 2, 3), frames.pixels);
+      assertEquals(3, readback.getDeliveredFrames());
+      assertEquals(0, gl.getBoundBuffer(GLES30.GL_PIXEL_PACK_BUFFER));
+   }
+
+   @Test public void theOldestSlotIsMappedNotTheOneJustRead() {
+      PixelReadback readback = readback(gl, 3, FrameBufferPool.DEFAULT_MAX_BYTES);
+      readback.addListener(frames);
+      List<Integer> buffers = new ArrayList<>(gl.getLiveBuffers());
+
+      for (int frame = 0; frame < 6; frame++) {
+         readback.readFrame(frame);
+      }
+
+      List<Integer> mapped = gl.getMappedBuffers();
+      assertEquals(4, mapped.size());
+      //Round the ring, starting from the first slot
+      assertEquals(mapped.get(0), mapped.get(3));
+      assertEquals(3, new HashSet<>(mapped.subList(0, 3)).size());
+      assertTrue(buffers.containsAll(mapped));
+   }
+
+   @Test public void nothingIsReadWithoutListeners() {
+      PixelReadback readback = readback(gl, 2, FrameBufferPool.DEFAULT_MAX_BYTES);
+      gl.clearCalls();
+
+      readback.readFrame(100);
+      readback.readFrame(200);
+
+      assertEquals(0, gl.count("glReadPixels"));
+      assertEquals(0, readback.getDroppedFrames());
+   }
+
+   @Test public void losingTheListenersForgetsThePendingFrames() {
+      PixelReadback readback = readback(gl, 3, FrameBufferPool.DEFAULT_MAX_BYTES);
+      readback.addListener(frames);
+      readback.readFrame(100);
+      readback.readFrame(200);
+
+      readback.removeListener(frames);
+      readback.readFrame(300);
+      readback.addListener(frames);
+      readback.readFrame(400);
+      readback.readFrame(500);
+      assertTrue(frames.timestamps.isEmpty());
+      readback.readFrame(600);
+
+      //Not 100, read before the pause
+      assertEquals(Arrays.asList(400L), frames.timestamps);
+   }
+
+   @Test public void sizeChangesForgetThePendingFrames() {
+      PixelReadback readback = readback(gl, 2, FrameBufferPool.DEFAULT_MAX_BYTES);
+      readback.addListener(frames);
+      readback.readFrame(100);
+
+      readback.setup(WIDTH * 2, HEIGHT);
+      readback.readFrame(200);
+      assertTrue(frames.timestamps.isEmpty());
+      readback.readFrame(300);
+
+      assertEquals(Arrays.asList(200L), frames.timestamps);
+      assertEquals(Arrays.asList(WIDTH * 2), frames.widths);
+      //The first buffers were deleted
+      assertEquals(2, gl.getLiveBuffers().size());
+   }
+
+   @Test public void framesAreDroppedAtThePoolCap() {
+      PixelReadback readback = readback(gl, 2, ONE_FRAME);
+      Frames holding = new Frames();
+      holding.retain = true;
+      readback.addListener(holding);
+      readback.readFrame(100);
+      readback.readFrame(200);
+      assertEquals(Arrays.asList(100L), holding.timestamps);
+      int maps = gl.count("glMapBufferRange");
+
+      //The listener still holds 100
+      readback.readFrame(300);
+
+      assertEquals(1, readback.getDroppedFrames());
+      assertEquals(maps, gl.count("glMapBufferRange"));
+      assertEquals(0, gl.getBoundBuffer(GLES30.GL_PIXEL_PACK_BUFFER));
+
+      holding.releaseAll();
+      readback.readFrame(400);
+      assertEquals(Arrays.asList(100L, 300L), holding.timestamps);
+   }
+
+   @Test public void failedMapsDropTheFrameAndGiveItsBufferBack() {
+      PixelReadback readback = readback(gl, 2, ONE_FRAME);
+      readback.addListener(frames);
+      readback.readFrame(100);
+
+      gl.setMapSucceeds(false);
+      readback.readFrame(200);
+      assertEquals(1, readback.getDroppedFrames());
+      assertTrue(frames.timestamps.isEmpty());
+      assertEquals(0, gl.count("glUnmapBuffer"));
+
+      gl.setMapSucceeds(true);
+      readback.readFrame(300);
+      //Leased again, so the failed frame released it
+      assertEquals(Arrays.asList(200L), frames.timestamps);
+   }
+
+   @Test public void es2ReadsSynchronously() {
+      RecordingGlBackend es2 = new RecordingGlBackend("OpenGL ES 2.0");
+      PixelReadback readback = readback(es2, 3, FrameBufferPool.DEFAULT_MAX_BYTES);
+      readback.addListener(frames);
+
+      readback.readFrame(100);
+      readback.readFrame(200);
+
+      assertEquals(Arrays.asList(100L, 200L), frames.timestamps);
+      assertEquals(Arrays.asList(1, 2), frames.pixels);
+      assertTrue(es2.getLiveBuffers().isEmpty());
+      assertEquals(0, es2.count("glMapBufferRange"));
+   }
+
+   @Test public void es2DropsAtThePoolCap() {
+      RecordingGlBackend es2 = new RecordingGlBackend("OpenGL ES 2.0");
+      PixelReadback readback = readback(es2, 3, ONE_FRAME);
+      Frames holding = new Frames();
+      holding.retain = true;
+      readback.addListener(holding);
+
+      readback.readFrame(100);
+      readback.readFrame(200);
+
+      assertEquals(Arrays.asList(100L), holding.timestamps);
+      assertEquals(1, readback.getDroppedFrames());
+      assertEquals(1, es2.count("glReadPixels"));
+   }
+
+   private static PixelReadback readback(GlBackend gl, int depth, long maxBytes) {
+      PixelReadback readback = new PixelReadback(gl, depth, new FrameBufferPool(maxBytes, false));
+      readback.setup(WIDTH, HEIGHT);
+      return readback;
+   }
+
+   /**
+    * Notes the frames it gets, retaining them if asked to.
+    */
+   private static class Frames implements PixelReadback.Listener {
+      final List<Long> timestamps = new ArrayList<>();
+      final List<Integer> widths = new ArrayList<>();
+      //First byte of each frame
+      final List<Integer> pixels = new ArrayList<>();
+      final List<ReadbackFrame> retained = new ArrayList<>();
+      boolean retain;
+
+      @Override public void onFrame(ReadbackFrame frame) {
+         timestamps.add(frame.getTimestamp());
+         widths.add(frame.getWidth());
+         pixels.add((int) frame.getPixels().get(0));
+         if (retain) {
+            frame.retain();
+            retained.add(frame);
+         }
+      }
+
+      void releaseAll() {
+         for (ReadbackFrame frame : retained) {
+            frame.release();
+         }
+         retained.clear();
+      }
+   }
+}
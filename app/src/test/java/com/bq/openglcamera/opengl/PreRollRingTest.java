@@ -0,0 +1,377 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreRollRingTest {
+
+   private static final long MILLIS = 1000000;
+
+   private File directory;
+
+   @Before public void setUp() throws IOException {
+      directory = TestFiles.createTempDirectory("preroll");
+   }
+
+   @After public void tearDown() {
+      TestFiles.deleteRecursively(directory);
+   }
+
+   @Test public void emptyRingsWriteOnlyTheHeader() throws IOException {
+      PreRollRing ring = new PreRollRing(4, 64);
+      Sink sink = new Sink();
+
+      PreRollRing.Snapshot snapshot = ring.snapshot(Long.MAX_VALUE, sink);
+
+      assertEquals(0, snapshot.getFrames());
+      assertEquals(PreRollRing.FILE_HEADER_BYTES, snapshot.getBytes());
+      assertTrue(parse(sink.toByteArray()).isEmpty());
+   }
+
+   @Test public void framesComeBackAsWritten() throws IOException {
+      PreRollRing ring = new PreRollRing(8, 64);
+      for (int i = 0; i < 5; i++) {
+         assertTrue(ring.write(i * MILLIS, PreRollRing.FLAG_KEY_FRAME, 4 + i, 2, payload(i)));
+      }
+      Sink sink = new Sink();
+
+      PreRollRing.Snapshot snapshot = ring.snapshot(Long.MAX_VALUE, sink);
+
+      List<Frame> frames = parse(sink.toByteArray());
+      assertEquals(5, frames.size());
+      assertEquals(5, snapshot.getFrames());
+      assertEquals(0, snapshot.getLostFrames());
+      assertEquals(sink.size(), snapshot.getBytes());
+      assertEquals(0, snapshot.getFirstTimestamp());
+      assertEquals(4 * MILLIS, snapshot.getLastTimestamp());
+      for (int i = 0; i < frames.size(); i++) {
+         assertEquals(i, frames.get(i).index);
+         assertEquals(4 + i, frames.get(i).width);
+         assertEquals(2, frames.get(i).height);
+      }
+   }
+
+   @Test public void writingLeavesTheSourceAsItWas() {
+      PreRollRing ring = new PreRollRing(2, 64);
+      ByteBuffer data = payload(3);
+      data.position(2);
+      int limit = data.limit();
+
+      ring.write(0, 0, 0, 0, data);
+
+      assertEquals(2, data.position());
+      assertEquals(limit, data.limit());
+   }
+
+   @Test public void oversizedFramesAreDropped() throws IOException {
+      PreRollRing ring = new PreRollRing(4, 8);
+
+      assertTrue(ring.write(0, PreRollRing.FLAG_KEY_FRAME, 0, 0, ByteBuffer.allocate(8)));
+      assertFalse(ring.write(1, PreRollRing.FLAG_KEY_FRAME, 0, 0, ByteBuffer.allocate(9)));
+
+      assertEquals(1, ring.getWrittenFrames());
+      assertEquals(1, ring.getDroppedFrames());
+      assertEquals(1, ring.snapshot(Long.MAX_VALUE, new Sink()).getFrames());
+      assertEquals(4 * (PreRollRing.RECORD_HEADER_BYTES + 8), ring.getCapacityBytes());
+   }
+
+   @Test public void theOldestFramesAreOverwritten() throws IOException {
+      PreRollRing ring = new PreRollRing(4, 64);
+      //Key frames 0, 3, 6 and 9, the ring keeps 6 to 9
+      write(ring, 0, 10, 3);
+      Sink sink = new Sink();
+
+      ring.snapshot(Long.MAX_VALUE, sink);
+
+      assertEquals(indexes(6, 7, 8, 9), indexes(parse(sink.toByteArray())));
+   }
+
+   @Test public void snapshotsStartAtAKeyFrameStillInTheRing() throws IOException {
+      PreRollRing ring = new PreRollRing(4, 64);
+      //Key frames 0, 4 and 8, 6 and 7 depend on 4 which was overwritten
+      write(ring, 0, 10, 4);
+      Sink sink = new Sink();
+
+      ring.snapshot(Long.MAX_VALUE, sink);
+
+      assertEquals(indexes(8, 9), indexes(parse(sink.toByteArray())));
+   }
+
+   @Test public void ringsWithoutKeyFramesWriteNone() throws IOException {
+      PreRollRing ring = new PreRollRing(4, 64);
+      for (int i = 0; i < 3; i++) {
+         ring.write(i * MILLIS, 0, 0, 0, payload(i));
+      }
+
+      assertEquals(0, ring.snapshot(Long.MAX_VALUE, new Sink()).getFrames());
+   }
+
+   @Test public void snapshotsCoverTheDurationFromTheKeyFrameBefore() throws IOException {
+      PreRollRing ring = new PreRollRing(16, 64);
+      //Key frames 0, 4 and 8, frame n at n ms
+      write(ring, 0, 10, 4);
+
+      assertEquals(indexes(4, 5, 6, 7, 8, 9), snapshot(ring, 3 * MILLIS));
+      assertEquals(indexes(8, 9), snapshot(ring, 0));
+      assertEquals(indexes(8, 9), snapshot(ring, MILLIS));
+      assertEquals(indexes(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), snapshot(ring, Long.MAX_VALUE / 2));
+   }
+
+   @Test public void framesOverwrittenDuringASnapshotAreSkippedToTheNextKeyFrame() throws IOException {
+      final PreRollRing ring = new PreRollRing(4, 64);
+      //Key frames 0 and 3
+      ring.write(0, PreRollRing.FLAG_KEY_FRAME, 0, 0, payload(0));
+      ring.write(MILLIS, 0, 0, 0, payload(1));
+      ring.write(2 * MILLIS, 0, 0, 0, payload(2));
+      ring.write(3 * MILLIS, PreRollRing.FLAG_KEY_FRAME, 0, 0, payload(3));
+      Sink sink = new Sink() {
+         @Override void onWrite(int writes) {
+            //Frame 0 is copied, the writer overwrites 0 and 1 before 1 is
+            if (writes == 2) PreRollRingTest.write(ring, 4, 6, 1);
+         }
+      };
+
+      PreRollRing.Snapshot snapshot = ring.snapshot(Long.MAX_VALUE, sink);
+
+      //1 was lost, 2 depends on it
+      assertEquals(indexes(0, 3), indexes(parse(sink.toByteArray())));
+      assertEquals(2, snapshot.getFrames());
+      assertEquals(2, snapshot.getLostFrames());
+      assertEquals(sink.size(), snapshot.getBytes());
+   }
+
+   @SuppressWarnings("Convert2Lambda")
+   @Test(timeout = 60000)
+   public void concurrentSnapshotsHoldOnlyWholeFrames() throws Exception {
+      final PreRollRing ring = new PreRollRing(16, 64);
+      final AtomicBoolean writing = new AtomicBoolean(true);
+      final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+      final AtomicInteger snapshots = new AtomicInteger();
+
+      Thread writer = new Thread(new Runnable() {
+         @Override public void run() {
+            //Until every reader has run a few snapshots along it
+            for (int i = 0; i < 100000 || snapshots.get() < 40; i++) {
+               ring.write(i * MILLIS, i % 5 == 0 ? PreRollRing.FLAG_KEY_FRAME : 0, 0, 0, payload(i));
+            }
+            writing.set(false);
+         }
+      }, "Writer");
+      Thread[] readers = new Thread[4];
+      for (int r = 0; r < readers.length; r++) {
+         readers[r] = new Thread(new Runnable() {
+            @Override public void run() {
+               try {
+                  while (writing.get()) {
+                     Sink sink = new Sink();
+                     PreRollRing.Snapshot snapshot = ring.snapshot(8 * MILLIS, sink);
+                     String error = checkConsistent(parse(sink.toByteArray()), snapshot, sink.size());
+                     if (error != null) errors.add(error);
+                     snapshots.incrementAndGet();
+                  }
+               } catch (IOException | RuntimeException | AssertionError e) {
+                  errors.add(e.toString());
+               }
+            }
+         }, "Reader" + r);
+      }
+
+      writer.start();
+      for (Thread reader : readers) {
+         reader.start();
+      }
+      writer.join(TimeUnit.SECONDS.toMillis(50));
+      for (Thread reader : readers) {
+         reader.join();
+      }
+
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertTrue(snapshots.get() >= 40);
+      //The ring is still whole once the writer stopped
+      Sink sink = new Sink();
+      PreRollRing.Snapshot last = ring.snapshot(8 * MILLIS, sink);
+      assertEquals(null, checkConsistent(parse(sink.toByteArray()), last, sink.size()));
+      assertEquals(0, last.getLostFrames());
+   }
+
+   @Test public void recordersSaveSnapshotsToFiles() throws Exception {
+      PreRollRecorder recorder = PreRollRecorder.forDuration(1, 8, 64);
+      for (int i = 0; i < 12; i++) {
+         recorder.onPacket(payload(i), i * MILLIS, i % 2 == 0);
+      }
+      File file = new File(directory, "preroll.bin");
+
+      PreRollRing.Snapshot snapshot = recorder.save(file, Long.MAX_VALUE / 2).get(10, TimeUnit.SECONDS);
+      recorder.release();
+
+      assertEquals(indexes(4, 5, 6, 7, 8, 9, 10, 11), indexes(parse(read(file))));
+      assertEquals(file.length(), snapshot.getBytes());
+      assertFalse(new File(file.getPath() + ".part").exists());
+   }
+
+   /**
+    * @return Null if the snapshot is one the ring could have held: whole frames, in order,
+    * restarting at a key frame after each gap.
+    */
+   private static String checkConsistent(List<Frame> frames, PreRollRing.Snapshot snapshot, int bytes) {
+      if (frames.size() != snapshot.getFrames()) return "Wrote " + frames.size() + " frames, " + snapshot;
+      if (bytes != snapshot.getBytes()) return "Wrote " + bytes + " bytes, " + snapshot;
+      for (int i = 0; i < frames.size(); i++) {
+         Frame frame = frames.get(i);
+         if (!frame.whole) return "Torn frame " + frame.index;
+         boolean key = (frame.flags & PreRollRing.FLAG_KEY_FRAME) != 0;
+         if (i == 0 && !key) return "Starts at " + frame.index + ", not a key frame";
+         if (i > 0) {
+            long previous = frames.get(i - 1).index;
+            if (frame.index <= previous) return "Frame " + frame.index + " after " + previous;
+            if (frame.index > previous + 1 && !key) return "Frame " + frame.index + " depends on lost frames";
+         }
+      }
+      return null;
+   }
+
+   private static List<Long> snapshot(PreRollRing ring, long durationNanos) throws IOException {
+      Sink sink = new Sink();
+      ring.snapshot(durationNanos, sink);
+      return indexes(parse(sink.toByteArray()));
+   }
+
+   /**
+    * Frames <code>from</code> to <code>to</code>, excluded, frame n at n ms.
+    */
+   private static void write(PreRollRing ring, int from, int to, int keyFrameInterval) {
+      for (int i = from; i < to; i++) {
+         ring.write(i * MILLIS, i % keyFrameInterval == 0 ? PreRollRing.FLAG_KEY_FRAME : 0, 0, 0, payload(i));
+      }
+   }
+
+   /**
+    * Payload of frame n: a length and bytes derived from n, to tell torn frames apart.
+    */
+   private static ByteBuffer payload(long index) {
+      ByteBuffer payload = ByteBuffer.allocate(8 + (int) (index % 7) * 8);
+      while (payload.hasRemaining()) {
+         payload.put((byte) (index + payload.position()));
+      }
+      payload.flip();
+      return payload;
+   }
+
+   private static List<Frame> parse(byte[] bytes) {
+      ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+      assertEquals(PreRollRing.MAGIC, in.getInt());
+      assertEquals(PreRollRing.VERSION, in.getInt());
+      List<Frame> frames = new ArrayList<>();
+      while (in.hasRemaining()) {
+         Frame frame = new Frame();
+         long timestamp = in.getLong();
+         frame.index = timestamp / MILLIS;
+         frame.flags = in.getInt();
+         int length = in.getInt();
+         frame.width = in.getInt();
+         frame.height = in.getInt();
+         byte[] data = new byte[length];
+         in.get(data);
+         ByteBuffer expected = payload(frame.index);
+         frame.whole = timestamp % MILLIS == 0 && expected.equals(ByteBuffer.wrap(data));
+         frames.add(frame);
+      }
+      return frames;
+   }
+
+   private static List<Long> indexes(List<Frame> frames) {
+      List<Long> indexes = new ArrayList<>();
+      for (Frame frame : frames) {
+         indexes.add(frame.index);
+      }
+      return indexes;
+   }
+
+   private static List<Long> indexes(long... values) {
+      List<Long> indexes = new ArrayList<>();
+      for (long value : values) {
+         indexes.add(value);
+      }
+      return indexes;
+   }
+
+   private static byte[] read(File file) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      FileInputStream in = new FileInputStream(file);
+      try {
+         byte[] buffer = new byte[4096];
+         int count;
+         while ((count = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, count);
+         }
+      } finally {
+         in.close();
+      }
+      return bytes.toByteArray();
+   }
+
+   private static class Frame {
+      long index;
+      int flags;
+      int width;
+      int height;
+      boolean whole;
+   }
+
+   /**
+    * Channel into memory, writing at most 16 bytes per call to exercise partial writes.
+    */
+   private static class Sink implements WritableByteChannel {
+      private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      private int writes;
+
+      /**
+       * Called before the write of each buffer begins, 1 for the first.
+       */
+      void onWrite(int writes) {
+      }
+
+      @Override public int write(ByteBuffer source) {
+         if (source.position() == 0) onWrite(++writes);
+         int count = Math.min(16, source.remaining());
+         for (int i = 0; i < count; i++) {
+            bytes.write(source.get());
+         }
+         return count;
+      }
+
+      @Override public boolean isOpen() {
+         return true;
+      }
+
+      @Override public void close() {
+      }
+
+      byte[] toByteArray() {
+         return bytes.toByteArray();
+      }
+
+      int size() {
+         return bytes.size();
+      }
+   }
+}
@@ -0,0 +1,173 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreviewTransformTest {
+
+   private static final int[] ROTATIONS = {0, 90, 180, 270};
+   //Landscape buffers, as camera output sizes are listed
+   private static final int BUFFER_WIDTH = 1920;
+   private static final int BUFFER_HEIGHT = 1080;
+   private static final float EPSILON = 1e-4f;
+
+   private final PreviewTransform transform = new PreviewTransform();
+   private final float[] matrix = new float[16];
+
+   @Test public void rotationUndoesTheDisplayRotation() {
+      for (int display : ROTATIONS) {
+         assertEquals(0, (PreviewTransform.previewRotation(display) + display) % 360);
+      }
+   }
+
+   @Test public void uprightSizeSwapsForSidewaysSensors() {
+      for (int sensor : ROTATIONS) {
+         boolean sideways = sensor == 90 || sensor == 270;
+         assertEquals(sideways ? BUFFER_HEIGHT : BUFFER_WIDTH,
+            PreviewTransform.uprightWidth(BUFFER_WIDTH, BUFFER_HEIGHT, sensor));
+         assertEquals(sideways ? BUFFER_WIDTH : BUFFER_HEIGHT,
+            PreviewTransform.uprightHeight(BUFFER_WIDTH, BUFFER_HEIGHT, sensor));
+      }
+   }
+
+   @Test public void defaultIsIdentity() {
+      transform.getMatrix(matrix);
+
+      for (int i = 0; i < 16; i++) {
+         assertEquals(i % 5 == 0 ? 1 : 0, matrix[i], 0);
+      }
+   }
+
+   @Test public void neverMirrors() {
+      //The SurfaceTexture transform mirrors front cameras already
+      for (int sensor : ROTATIONS) {
+         for (int display : ROTATIONS) {
+            configure(sensor, display, 1080, 2160, PreviewTransform.ScaleMode.CENTER_CROP);
+            float determinant = matrix[0] * matrix[5] - matrix[1] * matrix[4];
+            assertTrue(describe(sensor, display), determinant > 0);
+         }
+      }
+   }
+
+   @Test public void imageUpPointsTheWayOfTheRotation() {
+      //Clockwise in clip space, where y points up
+      float[][] expectedUp = {{0, 1}, {1, 0}, {0, -1}, {-1, 0}};
+      for (int sensor : ROTATIONS) {
+         for (int display : ROTATIONS) {
+            configure(sensor, display, 1080, 1080, PreviewTransform.ScaleMode.FIT_CENTER);
+            int rotation = PreviewTransform.previewRotation(display);
+            float[] up = expectedUp[rotation / 90];
+            assertEquals(describe(sensor, display), up[0], Math.signum(matrix[4]), 0);
+            assertEquals(describe(sensor, display), up[1], Math.signum(matrix[5]), 0);
+         }
+      }
+   }
+
+   @Test public void centerCropFillsTheSurfaceKeepingTheAspectRatio() {
+      for (int[] surface : new int[][]{{1080, 2160}, {2160, 1080}, {1000, 1000}, {720, 1280}}) {
+         for (int sensor : ROTATIONS) {
+            for (int display : ROTATIONS) {
+               configure(sensor, display, surface[0], surface[1], PreviewTransform.ScaleMode.CENTER_CROP);
+               String what = describe(sensor, display) + " surface " + surface[0] + "x" + surface[1];
+               float[] drawn = drawnSize(surface[0], surface[1]);
+
+               assertTrue(what, drawn[0] >= surface[0] - EPSILON && drawn[1] >= surface[1] - EPSILON);
+               assertTrue(what, Math.abs(drawn[0] - surface[0]) < 1e-2f || Math.abs(drawn[1] - surface[1]) < 1e-2f);
+               assertEquals(what, displayedAspect(sensor, display), drawn[0] / drawn[1], EPSILON);
+            }
+         }
+      }
+   }
+
+   @Test public void fitCenterShowsTheWholeImageKeepingTheAspectRatio() {
+      for (int[] surface : new int[][]{{1080, 2160}, {2160, 1080}, {1000, 1000}, {720, 1280}}) {
+         for (int sensor : ROTATIONS) {
+            for (int display : ROTATIONS) {
+               configure(sensor, display, surface[0], surface[1], PreviewTransform.ScaleMode.FIT_CENTER);
+               String what = describe(sensor, display) + " surface " + surface[0] + "x" + surface[1];
+               float[] drawn = drawnSize(surface[0], surface[1]);
+
+               assertTrue(what, drawn[0] <= surface[0] + EPSILON && drawn[1] <= surface[1] + EPSILON);
+               assertTrue(what, Math.abs(drawn[0] - surface[0]) < 1e-2f || Math.abs(drawn[1] - surface[1]) < 1e-2f);
+               assertEquals(what, displayedAspect(sensor, display), drawn[0] / drawn[1], EPSILON);
+            }
+         }
+      }
+   }
+
+   @Test public void portraitPhoneFillsAPortraitSurfaceWithoutScaling() {
+      //Sensor mounted sideways, 16:9 buffers upright as 9:16, shown on a 9:16 display
+      configure(90, 0, 1080, 1920, PreviewTransform.ScaleMode.CENTER_CROP);
+
+      assertEquals(1, matrix[0], EPSILON);
+      assertEquals(1, matrix[5], EPSILON);
+      assertEquals(0, matrix[1], EPSILON);
+      assertEquals(0, matrix[4], EPSILON);
+   }
+
+   @Test public void landscapeDisplayRotatesBack() {
+      configure(90, 90, 1920, 1080, PreviewTransform.ScaleMode.CENTER_CROP);
+
+      //270 clockwise: x takes -y, y takes x
+      assertEquals(0, matrix[0], EPSILON);
+      assertEquals(1, matrix[1], EPSILON);
+      assertEquals(-1, matrix[4], EPSILON);
+      assertEquals(0, matrix[5], EPSILON);
+   }
+
+   @Test public void copiesOnlyAfterAChange() {
+      assertTrue(transform.copyIfChanged(matrix));
+      assertFalse(transform.copyIfChanged(matrix));
+
+      transform.setSurfaceSize(1080, 1920);
+      assertTrue(transform.copyIfChanged(matrix));
+
+      //Same values, nothing to recompute
+      transform.setSurfaceSize(1080, 1920);
+      transform.setRotation(360);
+      transform.setScaleMode(PreviewTransform.ScaleMode.CENTER_CROP);
+      assertFalse(transform.copyIfChanged(matrix));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsRotationsOffTheRightAngles() {
+      transform.setRotation(45);
+   }
+
+   private void configure(int sensor, int display, int surfaceWidth, int surfaceHeight,
+                          PreviewTransform.ScaleMode scaleMode) {
+      transform.setScaleMode(scaleMode);
+      transform.setSurfaceSize(surfaceWidth, surfaceHeight);
+      transform.setRotation(PreviewTransform.previewRotation(display));
+      transform.setBufferSize(
+         PreviewTransform.uprightWidth(BUFFER_WIDTH, BUFFER_HEIGHT, sensor),
+         PreviewTransform.uprightHeight(BUFFER_WIDTH, BUFFER_HEIGHT, sensor));
+      transform.getMatrix(matrix);
+   }
+
+   /**
+    * Size in pixels of the quad once transformed, it covers the whole surface untransformed.
+    */
+   private float[] drawnSize(int surfaceWidth, int surfaceHeight) {
+      float halfWidth = Math.abs(matrix[0]) + Math.abs(matrix[4]);
+      float halfHeight = Math.abs(matrix[1]) + Math.abs(matrix[5]);
+      return new float[]{halfWidth * surfaceWidth, halfHeight * surfaceHeight};
+   }
+
+   /**
+    * Aspect ratio the image must have on screen: upright for the natural orientation, then
+    * turned with the display.
+    */
+   private static float displayedAspect(int sensor, int display) {
+      float upright = (float) PreviewTransform.uprightWidth(BUFFER_WIDTH, BUFFER_HEIGHT, sensor)
+         / PreviewTransform.uprightHeight(BUFFER_WIDTH, BUFFER_HEIGHT, sensor);
+      return display % 180 == 0 ? upright : 1 / upright;
+   }
+
+   private static String describe(int sensor, int display) {
+      return "sensor " + sensor + " display " + display;
+   }
+}
@@ -0,0 +1,38 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgramBinaryKeyTest {
+
+   @Test public void sourceHashIsStable() {
+      assertEquals(ProgramBinaryKey.hashSources("vertex", "fragment"),
+         ProgramBinaryKey.hashSources("vertex", "fragment"));
+      assertEquals(40, ProgramBinaryKey.hashSources("vertex", "fragment").length());
+   }
+
+   @Test public void sourceHashSeparatesTheShaders() {
+      assertNotEquals(ProgramBinaryKey.hashSources("ab", "c"), ProgramBinaryKey.hashSources("a", "bc"));
+      assertNotEquals(ProgramBinaryKey.hashSources("a", "b"), ProgramBinaryKey.hashSources("b", "a"));
+   }
+
+   @Test public void driverIsPartOfTheKey() {
+      ProgramBinaryKey key = new ProgramBinaryKey("hash", "Qualcomm", "Adreno 540", "OpenGL ES 3.2 V@258.0");
+      ProgramBinaryKey updatedDriver =
+         new ProgramBinaryKey("hash", "Qualcomm", "Adreno 540", "OpenGL ES 3.2 V@269.0");
+
+      assertNotEquals(key, updatedDriver);
+      assertNotEquals(key.fileName(), updatedDriver.fileName());
+      assertEquals(key, new ProgramBinaryKey("hash", "Qualcomm", "Adreno 540", "OpenGL ES 3.2 V@258.0"));
+   }
+
+   @Test public void missingDriverStringsAreEmpty() {
+      ProgramBinaryKey key = new ProgramBinaryKey("hash", null, null, null);
+
+      assertEquals("hash\n\n\n", key.descriptor());
+      assertTrue(key.fileName().endsWith(".bin"));
+   }
+}
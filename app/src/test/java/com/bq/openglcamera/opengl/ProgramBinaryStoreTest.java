@@ -0,0 +1,146 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProgramBinaryStoreTest {
+
+   private static final int BINARY_FORMAT = 0x8741;
+
+   private final ProgramBinaryKey key = new ProgramBinaryKey(
+      ProgramBinaryKey.hashSources("vertex", "fragment"), "Vendor", "Renderer", "OpenGL ES 3.0");
+   private File directory;
+   private ProgramBinaryStore store;
+
+   @Before public void setUp() throws IOException {
+      directory = TestFiles.createTempDirectory("program_binaries");
+      store = new ProgramBinaryStore(directory);
+   }
+
+   @After public void tearDown() {
+      TestFiles.deleteRecursively(directory);
+   }
+
+   @Test public void readsBackWhatWasWritten() {
+      assertTrue(store.write(key, BINARY_FORMAT, binary(1000)));
+
+      ProgramBinaryStore.Entry entry = store.read(key);
+
+      assertNotNull(entry);
+      assertEquals(BINARY_FORMAT, entry.binaryFormat);
+      assertEquals(binary(1000), entry.binary);
+   }
+
+   @Test public void missingEntryIsNull() {
+      assertNull(store.read(key));
+   }
+
+   @Test public void writeLeavesNoTemporaryFile() {
+      store.write(key, BINARY_FORMAT, binary(100));
+
+      String[] files = directory.list();
+      assertEquals(1, files.length);
+      assertEquals(key.fileName(), files[0]);
+   }
+
+   @Test public void headerLayout() {
+      ByteBuffer header = ProgramBinaryStore.encodeHeader(key, BINARY_FORMAT, binary(10));
+
+      assertEquals(ProgramBinaryStore.MAGIC, header.getInt());
+      assertEquals(ProgramBinaryStore.FORMAT_VERSION, header.getInt());
+      int descriptorLength = header.getInt();
+      assertEquals(key.descriptor().length(), descriptorLength);
+      header.position(header.position() + descriptorLength);
+      assertEquals(BINARY_FORMAT, header.getInt());
+      assertEquals(10, header.getInt());
+   }
+
+   @Test public void corruptedBinaryIsDiscarded() throws IOException {
+      store.write(key, BINARY_FORMAT, binary(1000));
+      File file = store.fileFor(key);
+      overwriteByte(file, file.length() - 1);
+
+      assertNull(store.read(key));
+      assertFalse(file.exists());
+   }
+
+   @Test public void truncatedEntryIsDiscarded() throws IOException {
+      store.write(key, BINARY_FORMAT, binary(1000));
+      File file = store.fileFor(key);
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         raf.setLength(file.length() - 10);
+      } finally {
+         raf.close();
+      }
+
+      assertNull(store.read(key));
+      assertFalse(file.exists());
+   }
+
+   @Test public void otherFormatVersionIsDiscarded() throws IOException {
+      store.write(key, BINARY_FORMAT, binary(100));
+      File file = store.fileFor(key);
+      //Last byte of the big endian version int
+      overwriteByte(file, 7);
+
+      assertNull(store.read(key));
+      assertFalse(file.exists());
+   }
+
+   @Test public void entryOfAnotherKeyIsRejected() {
+      ByteBuffer data = entry(key, binary(100));
+      ProgramBinaryKey otherDriver = new ProgramBinaryKey(key.sourceHash, "Vendor", "Renderer", "OpenGL ES 3.1");
+
+      assertNull(ProgramBinaryStore.parse(data, otherDriver));
+   }
+
+   @Test public void removeDeletesTheEntry() {
+      store.write(key, BINARY_FORMAT, binary(100));
+
+      store.remove(key);
+
+      assertFalse(store.fileFor(key).exists());
+      assertNull(store.read(key));
+   }
+
+   private static ByteBuffer entry(ProgramBinaryKey key, ByteBuffer binary) {
+      ByteBuffer header = ProgramBinaryStore.encodeHeader(key, BINARY_FORMAT, binary);
+      ByteBuffer data = ByteBuffer.allocate(header.remaining() + binary.remaining());
+      data.put(header).put(binary.duplicate()).flip();
+      return data;
+   }
+
+   private static ByteBuffer binary(int length) {
+      ByteBuffer binary = ByteBuffer.allocate(length);
+      for (int i = 0; i < length; i++) {
+         binary.put((byte) (i * 31));
+      }
+      binary.flip();
+      return binary;
+   }
+
+   private static void overwriteByte(File file, long position) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         raf.seek(position);
+         int value = raf.read();
+         raf.seek(position);
+         raf.write(value ^ 0xFF);
+      } finally {
+         raf.close();
+      }
+   }
+}
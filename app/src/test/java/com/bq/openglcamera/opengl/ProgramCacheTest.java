@@ -0,0 +1,150 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgramCacheTest {
+
+   private File directory;
+
+   @Before public void setUp() throws IOException {
+      directory = TestFiles.createTempDirectory("program_cache");
+   }
+
+   @After public void tearDown() {
+      TestFiles.deleteRecursively(directory);
+   }
+
+   @Test public void sameSourcesShareAProgram() {
+      BinaryGlBackend gl = new BinaryGlBackend();
+      ProgramCache cache = new ProgramCache(directory);
+
+      int program = cache.getProgram(gl, "vertex", "fragment");
+
+      assertNotEquals(0, program);
+      assertEquals(program, cache.getProgram(gl, "vertex", "fragment"));
+      assertEquals(2, gl.count("glCompileShader"));
+   }
+
+   @Test public void nextContextLoadsTheStoredBinary() {
+      new ProgramCache(directory).getProgram(new BinaryGlBackend(), "vertex", "fragment");
+      BinaryGlBackend gl = new BinaryGlBackend();
+
+      int program = new ProgramCache(directory).getProgram(gl, "vertex", "fragment");
+
+      assertNotEquals(0, program);
+      assertEquals(1, gl.count("glProgramBinary"));
+      assertEquals(0, gl.count("glCompileShader"));
+   }
+
+   @Test public void rejectedBinaryFallsBackToSource() {
+      new ProgramCache(directory).getProgram(new BinaryGlBackend(), "vertex", "fragment");
+      BinaryGlBackend gl = new BinaryGlBackend();
+      gl.rejectBinaries = true;
+
+      int program = new ProgramCache(directory).getProgram(gl, "vertex", "fragment");
+
+      assertNotEquals(0, program);
+      assertEquals(1, gl.count("glProgramBinary"));
+      assertEquals(2, gl.count("glCompileShader"));
+      //The rejected program is deleted, the compiled one replaces the stored binary
+      assertEquals(1, gl.getLivePrograms().size());
+      assertEquals(1, directory.list().length);
+   }
+
+   @Test public void es2CompilesWithoutTouchingTheDisk() {
+      BinaryGlBackend gl = new BinaryGlBackend("OpenGL ES 2.0 recording");
+
+      new ProgramCache(directory).getProgram(gl, "vertex", "fragment");
+
+      assertEquals(0, gl.count("glGetProgramBinary"));
+      assertEquals(0, directory.list().length);
+   }
+
+   @Test public void releaseDeletesThePrograms() {
+      BinaryGlBackend gl = new BinaryGlBackend();
+      ProgramCache cache = new ProgramCache(directory);
+      cache.getProgram(gl, "vertex", "fragment");
+      cache.getProgram(gl, "vertex", "other fragment");
+
+      cache.release(gl);
+
+      assertTrue(gl.getLivePrograms().isEmpty());
+   }
+
+   @Test public void takenProgramsBelongToTheCaller() {
+      BinaryGlBackend gl = new BinaryGlBackend();
+      ProgramCache cache = new ProgramCache(directory);
+      int taken = cache.takeProgram(gl, "vertex", "fragment");
+
+      //Linked again from the stored binary rather than shared
+      assertNotEquals(taken, cache.getProgram(gl, "vertex", "fragment"));
+      cache.release(gl);
+
+      assertEquals(Collections.singleton(taken), gl.getLivePrograms());
+   }
+
+   /**
+    * Driver with one binary format, whose binaries are a fixed blob.
+    */
+   private static class BinaryGlBackend extends RecordingGlBackend {
+      static final int BINARY_LENGTH = 64;
+
+      boolean rejectBinaries;
+      private boolean loadedBinary;
+
+      BinaryGlBackend() {
+         setInteger(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, 1);
+      }
+
+      BinaryGlBackend(String version) {
+         super(version);
+         setInteger(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, 1);
+      }
+
+      @Override public synchronized void glGetProgramiv(int program, int name, int[] params, int offset) {
+         super.glGetProgramiv(program, name, params, offset);
+         if (name == GLES30.GL_PROGRAM_BINARY_LENGTH) {
+            params[offset] = BINARY_LENGTH;
+         } else if (name == GLES20.GL_LINK_STATUS && loadedBinary && rejectBinaries) {
+            params[offset] = GLES20.GL_FALSE;
+         }
+      }
+
+      @Override public synchronized void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                                            int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+         super.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+         //Like the JNI binding, leaves the position alone
+         ByteBuffer out = (ByteBuffer) binary;
+         for (int i = 0; i < BINARY_LENGTH; i++) {
+            out.put(out.position() + i, (byte) 7);
+         }
+         length[lengthOffset] = BINARY_LENGTH;
+         binaryFormat[binaryFormatOffset] = 1;
+      }
+
+      @Override public synchronized void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+         super.glProgramBinary(program, binaryFormat, binary, length);
+         loadedBinary = true;
+      }
+
+      @Override public synchronized void glLinkProgram(int program) {
+         super.glLinkProgram(program);
+         loadedBinary = false;
+      }
+   }
+}
@@ -0,0 +1,167 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("Convert2Lambda")
+public class ProgramCompilerTest {
+
+   private static final String VERTEX_SOURCE = "attribute vec4 position;\nvoid main() {}\n";
+   private static final String FRAGMENT_SOURCE = "void main() {}\n";
+
+   private final RecordingGlBackend gl = new RecordingGlBackend();
+   private final ManualExecutor executor = new ManualExecutor();
+   private final FakeWorkerContext workerContext = new FakeWorkerContext();
+   private File directory;
+   private ProgramCompiler compiler;
+
+   @Before public void setUp() throws IOException {
+      directory = TestFiles.createTempDirectory("compiler");
+      compiler = new ProgramCompiler(gl, new ProgramCache(directory), workerContext, executor);
+   }
+
+   @After public void tearDown() {
+      TestFiles.deleteRecursively(directory);
+   }
+
+   @Test public void workerMakesItsContextCurrentFirst() {
+      executor.runAll();
+
+      assertTrue(workerContext.current);
+   }
+
+   @Test public void compiledProgramsArePublished() {
+      CompiledProgram request = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+      assertFalse(request.isReady());
+      assertEquals(0, request.get());
+
+      executor.runAll();
+
+      assertTrue(request.isReady());
+      assertTrue(gl.getLivePrograms().contains(request.get()));
+      //Complete before another context can use it
+      assertEquals(1, gl.count("glFinish"));
+   }
+
+   @Test public void publishedProgramsBelongToTheRequester() {
+      CompiledProgram request = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+      executor.runAll();
+
+      compiler.release();
+
+      assertTrue(gl.getLivePrograms().contains(request.get()));
+      assertTrue(workerContext.released);
+   }
+
+   @Test public void sameSourcesAgainGetTheirOwnProgram() {
+      CompiledProgram first = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+      CompiledProgram second = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+      executor.runAll();
+
+      //Deleting one must not break the other
+      assertTrue(first.get() != second.get());
+   }
+
+   @Test public void requestsCancelledBeforeTheWorkerAreSkipped() {
+      CompiledProgram request = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+
+      assertTrue(request.cancel());
+      executor.runAll();
+
+      assertFalse(request.isReady());
+      assertEquals(0, gl.count("glCreateProgram"));
+   }
+
+   @Test public void programsCancelledWhileCompilingAreDeletedByTheWorker() {
+      final CompiledProgram[] request = new CompiledProgram[1];
+      final boolean[] cancelled = new boolean[1];
+      compiler = new ProgramCompiler(new ForwardingGlBackend(gl) {
+         @Override public void glFinish() {
+            //Linked, not published yet
+            cancelled[0] = request[0].cancel();
+            super.glFinish();
+         }
+      }, new ProgramCache(directory), workerContext, executor);
+      request[0] = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+
+      executor.runAll();
+
+      assertTrue(cancelled[0]);
+      assertFalse(request[0].isReady());
+      assertEquals(0, request[0].get());
+      assertEquals(1, gl.count("glCreateProgram"));
+      assertTrue(gl.getLivePrograms().isEmpty());
+   }
+
+   @Test public void cancellingAPublishedProgramHandsItBack() {
+      CompiledProgram request = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+      executor.runAll();
+
+      assertFalse(request.cancel());
+      assertTrue(request.isReady());
+      assertTrue(gl.getLivePrograms().contains(request.get()));
+   }
+
+   @Test public void failedLinksAreReported() {
+      gl.setLinkSucceeds(false);
+
+      CompiledProgram request = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+      executor.runAll();
+
+      assertTrue(request.isFailed());
+      assertFalse(request.isReady());
+      assertTrue(request.cancel());
+   }
+
+   @Test public void requestsAfterReleaseFail() {
+      executor.runAll();
+      compiler.release();
+
+      assertTrue(compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE).isFailed());
+   }
+
+   @Test(timeout = 20000)
+   public void everyProgramHasExactlyOneOwner() throws Exception {
+      //Cancels land before, during and after the compilation on a real worker thread
+      ExecutorService worker = Executors.newSingleThreadExecutor();
+      ProgramCompiler compiler = new ProgramCompiler(gl, new ProgramCache(directory), workerContext, worker);
+      int kept = 0;
+      for (int i = 0; i < 500; i++) {
+         CompiledProgram request = compiler.compile(VERTEX_SOURCE, FRAGMENT_SOURCE);
+         for (int spin = 0; spin < i % 50; spin++) {
+            Thread.yield();
+         }
+         if (!request.cancel()) {
+            assertTrue(request.isReady());
+            kept++;
+         }
+      }
+      compiler.release();
+
+      assertEquals(kept, gl.getLivePrograms().size());
+   }
+
+   static final class FakeWorkerContext implements ProgramCompiler.WorkerContext {
+      volatile boolean current;
+      volatile boolean released;
+
+      @Override public boolean makeCurrent() {
+         current = true;
+         return true;
+      }
+
+      @Override public void release() {
+         released = true;
+      }
+   }
+}
@@ -0,0 +1,129 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PyramidLevelsTest {
+
+   private final PyramidLevels levels = new PyramidLevels();
+
+   @Test public void levelSizesHalveRoundingUp() {
+      assertEquals(960, PyramidLevels.levelSize(1920, 1));
+      assertEquals(480, PyramidLevels.levelSize(1920, 2));
+      assertEquals(240, PyramidLevels.levelSize(1920, 3));
+      assertEquals(120, PyramidLevels.levelSize(1920, 4));
+      assertEquals(540, PyramidLevels.levelSize(1080, 1));
+      assertEquals(68, PyramidLevels.levelSize(1080, 4));
+      assertEquals(1, PyramidLevels.levelSize(1, 4));
+      assertEquals(1, PyramidLevels.levelSize(0, 1));
+   }
+
+   @Test public void everyLevelCoversTheOneAbove() {
+      for (int size = 1; size < 300; size++) {
+         int above = size;
+         for (int level = 1; level <= PyramidLevels.MAX_LEVEL; level++) {
+            int levelSize = PyramidLevels.levelSize(size, level);
+            assertEquals("size " + size + " level " + level, (above + 1) / 2, levelSize);
+            above = levelSize;
+         }
+      }
+   }
+
+   @Test public void levelsOutsideThePyramidAreRejected() {
+      for (int level : new int[]{0, -1, PyramidLevels.MAX_LEVEL + 1}) {
+         try {
+            PyramidLevels.levelSize(1920, level);
+            fail("level " + level);
+         } catch (IllegalArgumentException expected) {
+            //Expected
+         }
+         try {
+            levels.subscribe(level);
+            fail("level " + level);
+         } catch (IllegalArgumentException expected) {
+            //Expected
+         }
+      }
+   }
+
+   @Test public void nothingRendersWithoutSubscribers() {
+      assertEquals(0, levels.deepestSubscribedLevel());
+      for (int level = 1; level <= PyramidLevels.MAX_LEVEL; level++) {
+         assertFalse(levels.isSubscribed(level));
+      }
+   }
+
+   @Test public void rendersDownToTheDeepestSubscription() {
+      levels.subscribe(1);
+      assertEquals(1, levels.deepestSubscribedLevel());
+
+      levels.subscribe(3);
+      assertEquals(3, levels.deepestSubscribedLevel());
+      assertFalse(levels.isSubscribed(2));
+
+      levels.unsubscribe(3);
+      assertEquals(1, levels.deepestSubscribedLevel());
+   }
+
+   @Test public void levelsStayWhileAnySubscriberIsLeft() {
+      levels.subscribe(2);
+      levels.subscribe(2);
+
+      levels.unsubscribe(2);
+      assertTrue(levels.isSubscribed(2));
+
+      levels.unsubscribe(2);
+      assertFalse(levels.isSubscribed(2));
+      assertEquals(0, levels.deepestSubscribedLevel());
+   }
+
+   @Test public void unbalancedUnsubscribeFailsWithoutCorruptingTheCount() {
+      try {
+         levels.unsubscribe(2);
+         fail();
+      } catch (IllegalStateException expected) {
+         //Expected
+      }
+
+      levels.subscribe(2);
+      assertTrue(levels.isSubscribed(2));
+   }
+
+   @SuppressWarnings("Convert2Lambda")
+   @Test public void concurrentSubscriptionsBalanceOut() throws InterruptedException {
+      final int threads = 4;
+      final CountDownLatch start = new CountDownLatch(1);
+      Thread[] workers = new Thread[threads];
+      for (int t = 0; t < threads; t++) {
+         final int level = t % PyramidLevels.MAX_LEVEL + 1;
+         workers[t] = new Thread(new Runnable() {
+            @Override public void run() {
+               try {
+                  start.await();
+               } catch (InterruptedException e) {
+                  return;
+               }
+               for (int i = 0; i < 10000; i++) {
+                  levels.subscribe(level);
+                  levels.unsubscribe(level);
+               }
+            }
+         });
+         workers[t].start();
+      }
+      levels.subscribe(1);
+
+      start.countDown();
+      for (Thread worker : workers) {
+         worker.join();
+      }
+
+      assertEquals(1, levels.deepestSubscribedLevel());
+   }
+}
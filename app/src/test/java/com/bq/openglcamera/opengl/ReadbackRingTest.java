@@ -0,0 +1,65 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReadbackRingTest {
+
+   @Test public void nothingCompletesWhileTheRingFills() {
+      ReadbackRing ring = new ReadbackRing(3);
+
+      assertEquals(-1, ring.completedSlot());
+      ring.beginWrite(100);
+      assertEquals(-1, ring.completedSlot());
+      ring.beginWrite(200);
+      assertEquals(-1, ring.completedSlot());
+      ring.beginWrite(300);
+      assertEquals(0, ring.completedSlot());
+   }
+
+   @Test public void theSlotWrittenDepthMinusOneFramesEarlierIsCompleted() {
+      ReadbackRing ring = new ReadbackRing(3);
+      int[] slots = new int[10];
+
+      for (int frame = 0; frame < slots.length; frame++) {
+         slots[frame] = ring.beginWrite(frame * 100);
+         assertEquals(frame % 3, slots[frame]);
+         if (frame >= 2) {
+            int completed = ring.completedSlot();
+            assertEquals(slots[frame - 2], completed);
+            assertEquals((frame - 2) * 100, ring.timestampOf(completed));
+         }
+      }
+   }
+
+   @Test public void theCompletedSlotIsTheNextOneWritten() {
+      ReadbackRing ring = new ReadbackRing(2);
+      ring.beginWrite(100);
+      ring.beginWrite(200);
+
+      int completed = ring.completedSlot();
+
+      assertEquals(completed, ring.beginWrite(300));
+   }
+
+   @Test public void resetStartsFillingAgain() {
+      ReadbackRing ring = new ReadbackRing(2);
+      ring.beginWrite(100);
+      ring.beginWrite(200);
+      ring.beginWrite(300);
+
+      ring.reset();
+
+      assertEquals(-1, ring.completedSlot());
+      assertEquals(0, ring.beginWrite(400));
+      assertEquals(-1, ring.completedSlot());
+      assertEquals(1, ring.beginWrite(500));
+      assertEquals(400, ring.timestampOf(ring.completedSlot()));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void ringsNeedTwoSlots() {
+      new ReadbackRing(1);
+   }
+}
@@ -0,0 +1,544 @@
+package com.bq.openglcamera.opengl;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link GlBackend} standing in for a driver on the JVM: records the calls it gets, hands out
+ * object names and tracks which objects are alive. Compiles and links everything unless told
+ * otherwise. Calls may come from several threads, as from contexts sharing objects.
+ * <p>
+ * Every byte read by the n-th <code>glReadPixels</code> is n, into the client buffer or the
+ * bound pixel pack buffer, where mapping it finds it.
+ */
+class RecordingGlBackend implements GlBackend {
+
+   private final List<String> calls = new ArrayList<>();
+   private final Deque<Integer> errors = new ArrayDeque<>();
+   private final Deque<Object[]> debugMessages = new ArrayDeque<>();
+   private final Map<String, Integer> uniformLocations = new HashMap<>();
+   private final Map<String, Integer> attribLocations = new HashMap<>();
+   private final Map<Integer, Integer> integers = new HashMap<>();
+   private final Set<Integer> programs = new HashSet<>();
+   private final Set<Integer> textures = new HashSet<>();
+   private final Set<Integer> buffers = new HashSet<>();
+   private final Set<Integer> framebuffers = new HashSet<>();
+   private final Set<Integer> vertexArrays = new HashSet<>();
+   private final Set<Integer> enabled = new HashSet<>();
+   private final Map<Integer, Integer> boundBuffers = new HashMap<>();
+   private final Map<Integer, Byte> bufferPixels = new HashMap<>();
+   private final List<Integer> mappedBuffers = new ArrayList<>();
+   private int readPixelsCount;
+   private int nextName = 1;
+   private int currentProgram;
+   private int currentFramebuffer;
+   private int clientMemorySubmissions;
+
+   private String version;
+   private String extensions = "";
+   private boolean linkSucceeds = true;
+   private boolean mapSucceeds = true;
+
+   RecordingGlBackend() {
+      this("OpenGL ES 3.0 recording");
+   }
+
+   /**
+    * @param version <code>GL_VERSION</code>, such as "OpenGL ES 2.0".
+    */
+   RecordingGlBackend(String version) {
+      this.version = version;
+   }
+
+   synchronized void setExtensions(String extensions) {
+      this.extensions = extensions;
+   }
+
+   synchronized void setLinkSucceeds(boolean linkSucceeds) {
+      this.linkSucceeds = linkSucceeds;
+   }
+
+   synchronized void setMapSucceeds(boolean mapSucceeds) {
+      this.mapSucceeds = mapSucceeds;
+   }
+
+   synchronized void setInteger(int name, int value) {
+      integers.put(name, value);
+   }
+
+   /**
+    * Error returned by the next <code>glGetError</code>.
+    */
+   synchronized void raiseError(int error) {
+      errors.add(error);
+   }
+
+   /**
+    * Message added to the debug log, taken by <code>glGetDebugMessageLogKHR</code>.
+    */
+   synchronized void logDebugMessage(int type, int severity, int id, String message) {
+      debugMessages.add(new Object[]{type, severity, id, message});
+   }
+
+   synchronized int getDebugLogSize() {
+      return debugMessages.size();
+   }
+
+   synchronized List<String> getCalls() {
+      return new ArrayList<>(calls);
+   }
+
+   synchronized int count(String call) {
+      return Collections.frequency(calls, call);
+   }
+
+   synchronized void clearCalls() {
+      calls.clear();
+      clientMemorySubmissions = 0;
+   }
+
+   /**
+    * Vertex attributes or indices read from client memory, copied by the driver on every draw.
+    */
+   synchronized int getClientMemorySubmissions() {
+      return clientMemorySubmissions;
+   }
+
+   /**
+    * Program of the last <code>glUseProgram</code>.
+    */
+   synchronized int getCurrentProgram() {
+      return currentProgram;
+   }
+
+   /**
+    * True if the capability was enabled last, rather than disabled.
+    */
+   synchronized boolean isEnabled(int capability) {
+      return enabled.contains(capability);
+   }
+
+   /**
+    * Framebuffer of the last <code>glBindFramebuffer</code>.
+    */
+   synchronized int getBoundFramebuffer() {
+      return currentFramebuffer;
+   }
+
+   synchronized int getBoundBuffer(int target) {
+      Integer buffer = boundBuffers.get(target);
+      return buffer == null ? 0 : buffer;
+   }
+
+   /**
+    * Buffers mapped so far, in order.
+    */
+   synchronized List<Integer> getMappedBuffers() {
+      return new ArrayList<>(mappedBuffers);
+   }
+
+   synchronized Set<Integer> getLivePrograms() {
+      return new HashSet<>(programs);
+   }
+
+   synchronized Set<Integer> getLiveTextures() {
+      return new HashSet<>(textures);
+   }
+
+   synchronized Set<Integer> getLiveBuffers() {
+      return new HashSet<>(buffers);
+   }
+
+   synchronized Set<Integer> getLiveFramebuffers() {
+      return new HashSet<>(framebuffers);
+   }
+
+   synchronized Set<Integer> getLiveVertexArrays() {
+      return new HashSet<>(vertexArrays);
+   }
+
+   private void record(String call) {
+      calls.add(call);
+   }
+
+   private void generate(Set<Integer> live, int n, int[] names, int offset) {
+      for (int i = 0; i < n; i++) {
+         names[offset + i] = nextName;
+         live.add(nextName++);
+      }
+   }
+
+   private static void delete(Set<Integer> live, int n, int[] names, int offset) {
+      for (int i = 0; i < n; i++) {
+         live.remove(names[offset + i]);
+      }
+   }
+
+   private static int location(Map<String, Integer> locations, String name) {
+      Integer location = locations.get(name);
+      if (location == null) {
+         location = locations.size();
+         locations.put(name, location);
+      }
+      return location;
+   }
+
+   @Override public synchronized void glUseProgram(int program) {
+      record("glUseProgram");
+      currentProgram = program;
+   }
+
+   @Override public synchronized void glViewport(int x, int y, int width, int height) {
+      record("glViewport");
+   }
+
+   @Override public synchronized void glClearColor(float red, float green, float blue, float alpha) {
+      record("glClearColor");
+   }
+
+   @Override public synchronized void glClear(int mask) {
+      record("glClear");
+   }
+
+   @Override public synchronized void glActiveTexture(int texture) {
+      record("glActiveTexture");
+   }
+
+   @Override public synchronized void glEnable(int capability) {
+      record("glEnable");
+      enabled.add(capability);
+   }
+
+   @Override public synchronized void glDisable(int capability) {
+      record("glDisable");
+      enabled.remove(capability);
+   }
+
+   @Override public synchronized int glGetError() {
+      record("glGetError");
+      Integer error = errors.poll();
+      return error == null ? GLES20.GL_NO_ERROR : error;
+   }
+
+   @Override public synchronized String glGetString(int name) {
+      record("glGetString");
+      switch (name) {
+         case GLES20.GL_VERSION:
+            return version;
+         case GLES20.GL_EXTENSIONS:
+            return extensions;
+         case GLES20.GL_VENDOR:
+            return "Recording";
+         case GLES20.GL_RENDERER:
+            return "RecordingGlBackend";
+         default:
+            return null;
+      }
+   }
+
+   @Override public synchronized void glGetIntegerv(int name, int[] params, int offset) {
+      record("glGetIntegerv");
+      Integer value = integers.get(name);
+      params[offset] = value == null ? 0 : value;
+   }
+
+   @Override public synchronized void glFinish() {
+      record("glFinish");
+   }
+
+   @Override public synchronized int glGetUniformLocation(int program, String name) {
+      record("glGetUniformLocation");
+      return location(uniformLocations, name);
+   }
+
+   @Override public synchronized int glGetAttribLocation(int program, String name) {
+      record("glGetAttribLocation");
+      return location(attribLocations, name);
+   }
+
+   @Override
+   public synchronized void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+      record("glUniformMatrix4fv");
+   }
+
+   @Override public synchronized void glUniform1i(int location, int x) {
+      record("glUniform1i");
+   }
+
+   @Override public synchronized void glUniform1fv(int location, int count, float[] value, int offset) {
+      record("glUniform1fv");
+   }
+
+   @Override public synchronized void glUniform2fv(int location, int count, float[] value, int offset) {
+      record("glUniform2fv");
+   }
+
+   @Override public synchronized void glUniform3fv(int location, int count, float[] value, int offset) {
+      record("glUniform3fv");
+   }
+
+   @Override public synchronized void glUniform4fv(int location, int count, float[] value, int offset) {
+      record("glUniform4fv");
+   }
+
+   @Override public synchronized void glEnableVertexAttribArray(int index) {
+      record("glEnableVertexAttribArray");
+   }
+
+   @Override public synchronized void glDisableVertexAttribArray(int index) {
+      record("glDisableVertexAttribArray");
+   }
+
+   @Override public synchronized void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                                            int stride, Buffer buffer) {
+      record("glVertexAttribPointer");
+      clientMemorySubmissions++;
+   }
+
+   @Override public synchronized void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                                            int stride, int offset) {
+      record("glVertexAttribPointer");
+   }
+
+   @Override public synchronized void glGenBuffers(int n, int[] names, int offset) {
+      record("glGenBuffers");
+      generate(buffers, n, names, offset);
+   }
+
+   @Override public synchronized void glDeleteBuffers(int n, int[] names, int offset) {
+      record("glDeleteBuffers");
+      delete(buffers, n, names, offset);
+   }
+
+   @Override public synchronized void glBindBuffer(int target, int buffer) {
+      record("glBindBuffer");
+      boundBuffers.put(target, buffer);
+   }
+
+   @Override public synchronized void glBufferData(int target, int size, Buffer data, int usage) {
+      record("glBufferData");
+   }
+
+   @Override public synchronized void glGenVertexArrays(int n, int[] arrays, int offset) {
+      record("glGenVertexArrays");
+      generate(vertexArrays, n, arrays, offset);
+   }
+
+   @Override public synchronized void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+      record("glDeleteVertexArrays");
+      delete(vertexArrays, n, arrays, offset);
+   }
+
+   @Override public synchronized void glBindVertexArray(int array) {
+      record("glBindVertexArray");
+   }
+
+   @Override public synchronized void glDrawElements(int mode, int count, int type, Buffer indices) {
+      record("glDrawElements");
+      clientMemorySubmissions++;
+   }
+
+   @Override public synchronized void glDrawElements(int mode, int count, int type, int offset) {
+      record("glDrawElements");
+   }
+
+   @Override public synchronized void glDrawArrays(int mode, int first, int count) {
+      record("glDrawArrays");
+   }
+
+   @Override public synchronized int glCreateShader(int type) {
+      record("glCreateShader");
+      return nextName++;
+   }
+
+   @Override public synchronized void glShaderSource(int shader, String source) {
+      record("glShaderSource");
+   }
+
+   @Override public synchronized void glCompileShader(int shader) {
+      record("glCompileShader");
+   }
+
+   @Override public synchronized void glGetShaderiv(int shader, int name, int[] params, int offset) {
+      record("glGetShaderiv");
+      params[offset] = name == GLES20.GL_COMPILE_STATUS ? GLES20.GL_TRUE : 0;
+   }
+
+   @Override public synchronized String glGetShaderInfoLog(int shader) {
+      record("glGetShaderInfoLog");
+      return "";
+   }
+
+   @Override public synchronized void glDeleteShader(int shader) {
+      record("glDeleteShader");
+   }
+
+   @Override public synchronized int glCreateProgram() {
+      record("glCreateProgram");
+      programs.add(nextName);
+      return nextName++;
+   }
+
+   @Override public synchronized void glAttachShader(int program, int shader) {
+      record("glAttachShader");
+   }
+
+   @Override public synchronized void glLinkProgram(int program) {
+      record("glLinkProgram");
+   }
+
+   @Override public synchronized void glGetProgramiv(int program, int name, int[] params, int offset) {
+      record("glGetProgramiv");
+      params[offset] = name == GLES20.GL_LINK_STATUS && linkSucceeds ? GLES20.GL_TRUE : 0;
+   }
+
+   @Override public synchronized String glGetProgramInfoLog(int program) {
+      record("glGetProgramInfoLog");
+      return "";
+   }
+
+   @Override public synchronized void glDeleteProgram(int program) {
+      record("glDeleteProgram");
+      programs.remove(program);
+   }
+
+   @Override public synchronized void glGenTextures(int n, int[] names, int offset) {
+      record("glGenTextures");
+      generate(textures, n, names, offset);
+   }
+
+   @Override public synchronized void glDeleteTextures(int n, int[] names, int offset) {
+      record("glDeleteTextures");
+      delete(textures, n, names, offset);
+   }
+
+   @Override public synchronized void glBindTexture(int target, int texture) {
+      record("glBindTexture");
+   }
+
+   @Override public synchronized void glTexParameteri(int target, int name, int param) {
+      record("glTexParameteri");
+   }
+
+   @Override public synchronized void glTexImage2D(int target, int level, int internalFormat, int width,
+                                                   int height, int border, int format, int type, Buffer pixels) {
+      record("glTexImage2D");
+   }
+
+   @Override public synchronized void glTexImage3D(int target, int level, int internalFormat, int width,
+                                                   int height, int depth, int border, int format, int type,
+                                                   Buffer pixels) {
+      record("glTexImage3D");
+   }
+
+   @Override public synchronized void glGenFramebuffers(int n, int[] names, int offset) {
+      record("glGenFramebuffers");
+      generate(framebuffers, n, names, offset);
+   }
+
+   @Override public synchronized void glDeleteFramebuffers(int n, int[] names, int offset) {
+      record("glDeleteFramebuffers");
+      delete(framebuffers, n, names, offset);
+   }
+
+   @Override public synchronized void glBindFramebuffer(int target, int framebuffer) {
+      record("glBindFramebuffer");
+      currentFramebuffer = framebuffer;
+   }
+
+   @Override public synchronized void glFramebufferTexture2D(int target, int attachment, int textureTarget,
+                                                             int texture, int level) {
+      record("glFramebufferTexture2D");
+   }
+
+   @Override public synchronized int glCheckFramebufferStatus(int target) {
+      record("glCheckFramebufferStatus");
+      return GLES20.GL_FRAMEBUFFER_COMPLETE;
+   }
+
+   @Override public synchronized void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                                         int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+      record("glGetProgramBinary");
+      length[lengthOffset] = 0;
+   }
+
+   @Override public synchronized void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+      record("glProgramBinary");
+   }
+
+   @Override public synchronized void glReadPixels(int x, int y, int width, int height, int format, int type,
+                                                   Buffer pixels) {
+      record("glReadPixels");
+      byte value = (byte) ++readPixelsCount;
+      if (pixels instanceof ByteBuffer) {
+         ByteBuffer bytes = (ByteBuffer) pixels;
+         for (int i = bytes.position(); i < bytes.limit(); i++) {
+            bytes.put(i, value);
+         }
+      }
+   }
+
+   @Override public synchronized void glReadPixels(int x, int y, int width, int height, int format, int type,
+                                                   int offset) {
+      record("glReadPixels");
+      bufferPixels.put(getBoundBuffer(GLES30.GL_PIXEL_PACK_BUFFER), (byte) ++readPixelsCount);
+   }
+
+   @Override public synchronized Buffer glMapBufferRange(int target, int offset, int length, int access) {
+      record("glMapBufferRange");
+      if (!mapSucceeds) return null;
+      int buffer = getBoundBuffer(target);
+      mappedBuffers.add(buffer);
+      ByteBuffer mapped = ByteBuffer.allocateDirect(length);
+      Byte value = bufferPixels.get(buffer);
+      while (mapped.hasRemaining()) {
+         mapped.put(value == null ? 0 : value);
+      }
+      mapped.flip();
+      return mapped;
+   }
+
+   @Override public synchronized boolean glUnmapBuffer(int target) {
+      record("glUnmapBuffer");
+      return true;
+   }
+
+   @Override
+   public synchronized int glGetDebugMessageLogKHR(int count, int bufSize, int[] sources, int sourcesOffset,
+                                                   int[] types, int typesOffset, int[] ids, int idsOffset,
+                                                   int[] severities, int severitiesOffset, int[] lengths,
+                                                   int lengthsOffset, byte[] messageLog, int messageLogOffset) {
+      record("glGetDebugMessageLogKHR");
+      int taken = 0;
+      int used = 0;
+      while (taken < count && !debugMessages.isEmpty()) {
+         Object[] message = debugMessages.peek();
+         byte[] text = ((String) message[3]).getBytes(GlCapture.UTF_8);
+         //As the driver: messages that don't fit stay in the log
+         if (used + text.length + 1 > bufSize) break;
+         debugMessages.poll();
+         System.arraycopy(text, 0, messageLog, messageLogOffset + used, text.length);
+         messageLog[messageLogOffset + used + text.length] = 0;
+         sources[sourcesOffset + taken] = 0x8246;
+         types[typesOffset + taken] = (Integer) message[0];
+         severities[severitiesOffset + taken] = (Integer) message[1];
+         ids[idsOffset + taken] = (Integer) message[2];
+         lengths[lengthsOffset + taken] = text.length + 1;
+         used += text.length + 1;
+         taken++;
+      }
+      return taken;
+   }
+}
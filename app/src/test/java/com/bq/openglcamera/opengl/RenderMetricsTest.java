@@ -0,0 +1,91 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RenderMetricsTest {
+
+   private final FakeClock clock = new FakeClock();
+   private final RenderMetrics metrics = new RenderMetrics(clock);
+
+   @Before public void enable() {
+      clock.advanceMillis(1000);
+      metrics.setEnabled(true);
+   }
+
+   @Test public void disabledMetricsRecordNothing() {
+      metrics.setEnabled(false);
+
+      assertEquals(0, metrics.start());
+      metrics.recordDuration(RenderMetrics.Stage.DRAW, 5000000);
+      metrics.framePresented(clock.nanoTime());
+
+      assertEquals(0, metrics.snapshot().get(RenderMetrics.Stage.DRAW).count);
+      assertEquals(0, metrics.snapshot().get(RenderMetrics.Stage.CAMERA_TO_PRESENT).count);
+   }
+
+   @Test public void stagesMeasureTheClock() {
+      long start = metrics.start();
+      clock.advanceMillis(4);
+      metrics.record(RenderMetrics.Stage.DRAW, start);
+
+      LatencyHistogram.Summary draw = metrics.snapshot().get(RenderMetrics.Stage.DRAW);
+      assertEquals(1, draw.count);
+      assertEquals(4000000, draw.max);
+   }
+
+   @Test public void cameraLatencyInTheMetricsClockByDefault() {
+      long cameraTimestamp = clock.nanoTime();
+      clock.advanceMillis(30);
+
+      metrics.framePresented(cameraTimestamp);
+
+      assertEquals(30000000, metrics.snapshot().get(RenderMetrics.Stage.CAMERA_TO_PRESENT).max);
+   }
+
+   @Test public void cameraLatencyInTheCameraClock() {
+      //Realtime keeps counting in deep sleep, far ahead of the monotonic clock
+      FakeClock realtime = new FakeClock();
+      realtime.advanceMillis(3600000);
+      metrics.setCameraClock(realtime);
+      long cameraTimestamp = realtime.nanoTime();
+      clock.advanceMillis(20);
+      realtime.advanceMillis(20);
+
+      metrics.framePresented(cameraTimestamp);
+
+      LatencyHistogram.Summary latency = metrics.snapshot().get(RenderMetrics.Stage.CAMERA_TO_PRESENT);
+      assertEquals(1, latency.count);
+      assertEquals(20000000, latency.max);
+   }
+
+   @Test public void timestampsAheadOfTheCameraClockAreIgnored() {
+      metrics.framePresented(clock.nanoTime() + 1000000);
+      metrics.framePresented(0);
+
+      assertEquals(0, metrics.snapshot().get(RenderMetrics.Stage.CAMERA_TO_PRESENT).count);
+   }
+
+   @Test public void framesPerSecondFromPresentIntervals() {
+      for (int i = 0; i < 10; i++) {
+         metrics.framePresented(0);
+         clock.advanceMillis(20);
+      }
+
+      assertEquals(50, metrics.snapshot().getFramesPerSecond(), 0.01);
+   }
+
+   @Test public void resetForgetsEverything() {
+      metrics.recordDuration(RenderMetrics.Stage.SWAP, 1000000);
+      metrics.framePresented(0);
+      clock.advanceMillis(10);
+      metrics.framePresented(0);
+
+      metrics.reset();
+
+      assertEquals(0, metrics.snapshot().get(RenderMetrics.Stage.SWAP).count);
+      assertEquals(0, metrics.snapshot().getFramesPerSecond(), 0);
+   }
+}
@@ -0,0 +1,177 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Feeds the governor frame time traces of a simulated device, whose frames take a base time
+ * scaled by the pixel count at the current scale.
+ */
+public class ResolutionGovernorTest {
+
+   private static final long BUDGET_60FPS = 16666667;
+   private static final long MILLIS = 1000000;
+
+   private final ResolutionGovernor governor = new ResolutionGovernor(BUDGET_60FPS);
+
+   @Test public void coolDeviceStaysAtFullScale() {
+      run(10 * MILLIS, 3000);
+
+      assertEquals(1f, governor.getScale(), 0);
+      assertTrue(governor.getDecisions().isEmpty());
+   }
+
+   @Test public void stepsDownAsItHeatsAndBackUpAsItCools() {
+      run(10 * MILLIS, 300);
+      //24ms at full scale: 0.85 still takes 17ms, 0.7 fits with 12ms
+      run(24 * MILLIS, 600);
+      assertEquals(0.7f, governor.getScale(), 0);
+
+      run(10 * MILLIS, 1200);
+
+      assertEquals(1f, governor.getScale(), 0);
+      List<ResolutionGovernor.Decision> decisions = governor.getDecisions();
+      assertEquals(4, decisions.size());
+      assertDecision(decisions.get(0), 1f, 0.85f, ResolutionGovernor.Reason.OVER_BUDGET);
+      assertDecision(decisions.get(1), 0.85f, 0.7f, ResolutionGovernor.Reason.OVER_BUDGET);
+      assertDecision(decisions.get(2), 0.7f, 0.85f, ResolutionGovernor.Reason.UNDER_BUDGET);
+      assertDecision(decisions.get(3), 0.85f, 1f, ResolutionGovernor.Reason.UNDER_BUDGET);
+   }
+
+   @Test public void borderlineLoadDoesNotOscillate() {
+      //Just over the down threshold at full scale, just over the up one at 0.85
+      run(15500000, 6000);
+
+      assertEquals(0.85f, governor.getScale(), 0);
+      assertEquals(1, governor.getDecisions().size());
+   }
+
+   @Test public void spikesUnderTheTenthPercentileAreIgnored() {
+      //Three 50ms frames per window of 30, such as a GC or a camera hiccup
+      for (int i = 0; i < 900; i++) {
+         governor.onFrame(i % 30 < 3 ? 50 * MILLIS : 10 * MILLIS);
+      }
+      assertEquals(1f, governor.getScale(), 0);
+
+      for (int i = 0; i < 30; i++) {
+         governor.onFrame(i % 30 < 4 ? 50 * MILLIS : 10 * MILLIS);
+      }
+      assertEquals(0.85f, governor.getScale(), 0);
+   }
+
+   @Test public void windowAfterAChangeIsDropped() {
+      run(40 * MILLIS, 120);
+
+      List<ResolutionGovernor.Decision> decisions = governor.getDecisions();
+      assertEquals(30, decisions.get(0).getFrame());
+      //Frames 31 to 60 straddle the change
+      assertEquals(90, decisions.get(1).getFrame());
+   }
+
+   @Test public void lowestScaleIsTheFloor() {
+      run(100 * MILLIS, 3000);
+
+      assertEquals(0.5f, governor.getScale(), 0);
+      assertEquals(ResolutionGovernor.DEFAULT_SCALES.length - 1, governor.getDecisions().size());
+   }
+
+   @Test public void goingUpNeedsConsecutiveQuietWindows() {
+      run(24 * MILLIS, 600);
+      int decisions = governor.getDecisions().size();
+
+      //Three quiet windows, a busy one, three quiet ones again: never four in a row
+      for (int i = 0; i < 5; i++) {
+         run(5 * MILLIS, 90);
+         run(24 * MILLIS, 30);
+      }
+
+      assertEquals(decisions, governor.getDecisions().size());
+   }
+
+   @Test public void resetDropsThePartialWindow() {
+      run(40 * MILLIS, 29);
+
+      governor.reset();
+      run(10 * MILLIS, 1);
+      run(40 * MILLIS, 28);
+
+      assertEquals(1f, governor.getScale(), 0);
+      assertTrue(governor.onFrame(40 * MILLIS));
+   }
+
+   @SuppressWarnings("Convert2Lambda")
+   @Test public void listenerHearsEveryDecision() {
+      final List<ResolutionGovernor.Decision> heard = new ArrayList<>();
+      governor.setListener(new ResolutionGovernor.Listener() {
+         @Override public void onDecision(ResolutionGovernor.Decision decision) {
+            heard.add(decision);
+         }
+      });
+
+      run(100 * MILLIS, 3000);
+
+      assertEquals(governor.getDecisions(), heard);
+   }
+
+   @Test public void onlyRecentDecisionsAreKept() {
+      ResolutionGovernor governor = new ResolutionGovernor(BUDGET_60FPS, new float[]{1f, 0.5f}, 1);
+      for (int i = 0; i < 100; i++) {
+         //Over budget at full scale, far under at half
+         governor.onFrame(governor.getScale() == 1f ? 20 * MILLIS : MILLIS);
+      }
+
+      List<ResolutionGovernor.Decision> decisions = governor.getDecisions();
+      assertEquals(16, decisions.size());
+      assertTrue(decisions.get(0).getFrame() > 1);
+   }
+
+   @Test public void scaledSizesAreEven() {
+      run(24 * MILLIS, 600);
+
+      assertEquals(1344, governor.scale(1920));
+      assertEquals(756, governor.scale(1080));
+      assertEquals(2, governor.scale(1));
+   }
+
+   @Test public void invalidConfigurationsAreRejected() {
+      assertRejected(0, ResolutionGovernor.DEFAULT_SCALES, 30);
+      assertRejected(BUDGET_60FPS, new float[0], 30);
+      assertRejected(BUDGET_60FPS, new float[]{1f, 1f}, 30);
+      assertRejected(BUDGET_60FPS, new float[]{0.5f, 1f}, 30);
+      assertRejected(BUDGET_60FPS, ResolutionGovernor.DEFAULT_SCALES, 0);
+   }
+
+   /**
+    * Frames taking <code>fullScaleNanos</code> at scale 1, less in proportion to the pixels at
+    * lower scales.
+    */
+   private void run(long fullScaleNanos, int frames) {
+      for (int i = 0; i < frames; i++) {
+         float scale = governor.getScale();
+         governor.onFrame((long) (fullScaleNanos * scale * scale));
+      }
+   }
+
+   private static void assertDecision(ResolutionGovernor.Decision decision, float from, float to,
+                                      ResolutionGovernor.Reason reason) {
+      assertEquals(from, decision.getFromScale(), 0);
+      assertEquals(to, decision.getToScale(), 0);
+      assertEquals(reason, decision.getReason());
+   }
+
+   private static void assertRejected(long target, float[] scales, int windowFrames) {
+      try {
+         new ResolutionGovernor(target, scales, windowFrames);
+         fail("Accepted " + Arrays.toString(scales));
+      } catch (IllegalArgumentException expected) {
+         //Expected
+      }
+   }
+}
@@ -0,0 +1,303 @@
+package com.bq.openglcamera.opengl;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives the capture pipeline frame by frame against a fake driver, with stills small enough
+ * to read in two strips.
+ */
+public class StillCaptureRendererTest {
+
+   private static final int WIDTH = 8;
+   private static final int HEIGHT = 4;
+   //Two rows a strip
+   private static final int STRIP_BYTES = 2 * WIDTH * 4;
+   //One free buffer of the smallest class, for a single still
+   private static final int ONE_STILL = 4096;
+
+   private final RecordingGlBackend gl = new RecordingGlBackend();
+   private final DrawingRenderer preview = new DrawingRenderer();
+   private final ManualExecutor executor = new ManualExecutor();
+   private final PixelEncoder encoder = new PixelEncoder();
+   private final StillEncoderPool encoders = new StillEncoderPool(encoder, executor);
+   private File directory;
+   private int captures;
+
+   @Before public void setUp() throws IOException {
+      directory = TestFiles.createTempDirectory("stills");
+      gl.setInteger(GLES20.GL_MAX_TEXTURE_SIZE, 4096);
+   }
+
+   @After public void tearDown() {
+      TestFiles.deleteRecursively(directory);
+   }
+
+   @Test public void stripsAreMappedTwoFramesAfterTheirRead() throws Exception {
+      StillCaptureRenderer renderer = renderer(gl, 2, FrameBufferPool.DEFAULT_MAX_BYTES);
+      StillCapture capture = capture(renderer);
+
+      frame(renderer);
+      assertEquals(1, preview.stills.size());
+      assertEquals(1, gl.count("glReadPixels"));
+      frame(renderer);
+      assertEquals(2, gl.count("glReadPixels"));
+      assertEquals(0, gl.count("glMapBufferRange"));
+
+      frame(renderer);
+      assertEquals(1, gl.count("glMapBufferRange"));
+      assertEquals(0, encoders.getPendingCount());
+      frame(renderer);
+      assertEquals(2, gl.count("glMapBufferRange"));
+      assertEquals(1, encoders.getPendingCount());
+
+      executor.runAll();
+      StillCapture.Result result = capture.get();
+      assertEquals(WIDTH, result.getWidth());
+      assertEquals(HEIGHT, result.getHeight());
+      assertTrue(result.getFile().exists());
+      //Each strip holds what its own read wrote, not the one read since into the same slot
+      assertArrayEquals(new int[]{1, 1, 2, 2}, encoder.rows.get(0));
+      //Reads and maps leave the pipeline as they found it
+      assertEquals(0, gl.getBoundFramebuffer());
+   }
+
+   @Test public void stillsWaitForAFreeTarget() throws Exception {
+      StillCaptureRenderer renderer = renderer(gl, 2, FrameBufferPool.DEFAULT_MAX_BYTES);
+      StillCapture first = capture(renderer);
+      capture(renderer);
+      StillCapture third = capture(renderer);
+
+      frame(renderer);
+      int framebuffers = gl.count("glGenFramebuffers");
+      frame(renderer);
+      frame(renderer);
+      assertEquals(2, preview.stills.size());
+      assertTrue(preview.stills.get(0) != preview.stills.get(1));
+
+      //The first still is read out, its target takes the third one
+      frame(renderer);
+      assertEquals(3, preview.stills.size());
+      assertEquals(preview.stills.get(0), preview.stills.get(2));
+      assertEquals(framebuffers, gl.count("glGenFramebuffers"));
+
+      for (int i = 0; i < 4; i++) {
+         frame(renderer);
+      }
+      executor.runAll();
+      assertNotNull(first.get());
+      assertNotNull(third.get());
+      assertEquals(3, encoders.getWrittenCount());
+   }
+
+   @Test public void stillsWaitForTheEncodersToCatchUp() throws Exception {
+      StillCaptureRenderer renderer = renderer(gl, 1, FrameBufferPool.DEFAULT_MAX_BYTES);
+      capture(renderer);
+      StillCapture second = capture(renderer);
+      for (int i = 0; i < 4; i++) {
+         frame(renderer);
+      }
+      assertEquals(1, encoders.getPendingCount());
+
+      //The target is free, the encoder still holds the first still
+      frame(renderer);
+      assertEquals(1, preview.stills.size());
+
+      executor.runAll();
+      frame(renderer);
+      assertEquals(2, preview.stills.size());
+      for (int i = 0; i < 3; i++) {
+         frame(renderer);
+      }
+      executor.runAll();
+      assertNotNull(second.get());
+   }
+
+   @Test public void stillsCancelledBeforeDrawnAreSkipped() throws Exception {
+      StillCaptureRenderer renderer = renderer(gl, 2, FrameBufferPool.DEFAULT_MAX_BYTES);
+      capture(renderer).cancel(false);
+      StillCapture second = capture(renderer);
+
+      for (int i = 0; i < 4; i++) {
+         frame(renderer);
+      }
+      executor.runAll();
+
+      assertEquals(1, preview.stills.size());
+      assertNotNull(second.get());
+      assertEquals(1, encoder.rows.size());
+   }
+
+   @Test public void stillsCancelledWhileReadAreNotMappedNorEncoded() throws Exception {
+      StillCaptureRenderer renderer = renderer(gl, 1, ONE_STILL);
+      StillCapture first = capture(renderer);
+      frame(renderer);
+
+      first.cancel(false);
+      for (int i = 0; i < 3; i++) {
+         frame(renderer);
+      }
+
+      assertEquals(0, gl.count("glMapBufferRange"));
+      assertEquals(0, encoders.getPendingCount());
+      assertFalse(first.getFile().exists());
+
+      //Its pixels and its target are free again
+      StillCapture second = capture(renderer);
+      for (int i = 0; i < 4; i++) {
+         frame(renderer);
+      }
+      executor.runAll();
+      assertEquals(2, preview.stills.size());
+      assertNotNull(second.get());
+   }
+
+   @Test public void failedMapsFailTheStillAndFreeItsResources() throws Exception {
+      StillCaptureRenderer renderer = renderer(gl, 1, ONE_STILL);
+      StillCapture first = capture(renderer);
+      gl.setMapSucceeds(false);
+      for (int i = 0; i < 4; i++) {
+         frame(renderer);
+      }
+
+      assertTrue(first.isDone());
+      assertFailed(first, IllegalStateException.class);
+      assertEquals(0, encoders.getPendingCount());
+
+      gl.setMapSucceeds(true);
+      StillCapture second = capture(renderer);
+      for (int i = 0; i < 4; i++) {
+         frame(renderer);
+      }
+      executor.runAll();
+      assertNotNull(second.get());
+   }
+
+   @Test public void stillsOverTheTextureLimitFail() throws Exception {
+      StillCaptureRenderer renderer = renderer(gl, 1, FrameBufferPool.DEFAULT_MAX_BYTES);
+      renderer.setCaptureSize(8192, 4096, null);
+      StillCapture capture = capture(renderer);
+
+      frame(renderer);
+
+      assertFailed(capture, IllegalStateException.class);
+      assertTrue(preview.stills.isEmpty());
+   }
+
+   @Test public void stillsInFlightFailWithTheContext() throws Exception {
+      StillCaptureRenderer renderer = renderer(gl, 2, FrameBufferPool.DEFAULT_MAX_BYTES);
+      StillCapture capture = capture(renderer);
+      frame(renderer);
+
+      renderer.onSurfaceDestroyed(new SurfaceTexture(0));
+
+      assertFailed(capture, IllegalStateException.class);
+      assertTrue(gl.getLiveBuffers().isEmpty());
+      assertTrue(gl.getLiveTextures().isEmpty());
+   }
+
+   @Test public void es2ReadsEachStripRightAway() throws Exception {
+      RecordingGlBackend es2 = new RecordingGlBackend("OpenGL ES 2.0");
+      es2.setInteger(GLES20.GL_MAX_TEXTURE_SIZE, 4096);
+      StillCaptureRenderer renderer = renderer(es2, 1, FrameBufferPool.DEFAULT_MAX_BYTES);
+      StillCapture capture = capture(renderer);
+
+      frame(renderer);
+      frame(renderer);
+
+      assertEquals(1, encoders.getPendingCount());
+      assertEquals(0, es2.count("glMapBufferRange"));
+      assertTrue(es2.getLiveBuffers().isEmpty());
+      executor.runAll();
+      assertNotNull(capture.get());
+      assertArrayEquals(new int[]{1, 1, 2, 2}, encoder.rows.get(0));
+   }
+
+   private StillCaptureRenderer renderer(RecordingGlBackend gl, int maxInFlight, long maxBytes) {
+      preview.gl = gl;
+      StillCaptureRenderer renderer = new StillCaptureRenderer(preview, gl, encoders,
+         new FrameBufferPool(maxBytes, false), maxInFlight, STRIP_BYTES);
+      renderer.onSurfaceCreated(new SurfaceTexture(0), 1080, 1920);
+      renderer.setCaptureSize(WIDTH, HEIGHT, null);
+      return renderer;
+   }
+
+   private StillCapture capture(StillCaptureRenderer renderer) {
+      return renderer.capture(new File(directory, "still" + captures++ + ".jpg"), StillCapture.Format.JPEG);
+   }
+
+   private static void frame(StillCaptureRenderer renderer) {
+      renderer.onFrameAvailable(new SurfaceTexture(0));
+   }
+
+   private static void assertFailed(StillCapture capture, Class<? extends Throwable> cause) throws InterruptedException {
+      try {
+         capture.get();
+         fail("Capture completed");
+      } catch (ExecutionException e) {
+         assertTrue(e.getCause().toString(), cause.isInstance(e.getCause()));
+      }
+   }
+
+   /**
+    * Preview renderer noting the framebuffer each still is drawn into.
+    */
+   private static class DrawingRenderer implements TextureViewGLWrapper.MultiSurfaceRenderer {
+      final List<Integer> stills = new ArrayList<>();
+      RecordingGlBackend gl;
+
+      @Override public void onDrawFrame(int surfaceWidth, int surfaceHeight, float[] transform) {
+         assertEquals(WIDTH, surfaceWidth);
+         assertEquals(HEIGHT, surfaceHeight);
+         stills.add(gl.getBoundFramebuffer());
+      }
+
+      @Override public void onSurfaceCreated(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      }
+
+      @Override public void onSurfaceChanged(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+      }
+
+      @Override public void onSurfaceDestroyed(SurfaceTexture eglSurfaceTexture) {
+      }
+
+      @Override public void onFrameAvailable(SurfaceTexture eglSurfaceTexture) {
+      }
+   }
+
+   /**
+    * Keeps the first byte of every row it encodes, the read that wrote it.
+    */
+   private static class PixelEncoder implements StillEncoderPool.Encoder {
+      final List<int[]> rows = new ArrayList<>();
+
+      @Override public void encode(ByteBuffer pixels, int width, int height, StillCapture.Format format,
+                                   int quality, OutputStream out) throws IOException {
+         int[] firstBytes = new int[height];
+         for (int row = 0; row < height; row++) {
+            firstBytes[row] = pixels.get(pixels.position() + row * width * 4);
+         }
+         rows.add(firstBytes);
+         out.write(firstBytes.length);
+      }
+   }
+}
@@ -0,0 +1,356 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StillEncoderPoolTest {
+
+   private static final int WIDTH = 16;
+   private static final int HEIGHT = 8;
+
+   private final FrameBufferPool buffers = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+   private final ManualExecutor executor = new ManualExecutor();
+   private File directory;
+
+   @Before public void setUp() throws IOException {
+      directory = TestFiles.createTempDirectory("stills");
+   }
+
+   @After public void tearDown() {
+      TestFiles.deleteRecursively(directory);
+   }
+
+   @Test public void stillsWaitInTheQueueUntilEncoded() throws Exception {
+      StillEncoderPool pool = new StillEncoderPool(new RawEncoder(), executor);
+      StillCapture[] captures = new StillCapture[3];
+      FrameBuffer[] frames = new FrameBuffer[captures.length];
+      for (int i = 0; i < captures.length; i++) {
+         captures[i] = capture("still" + i + ".jpg");
+         frames[i] = frame(i);
+         pool.submit(captures[i], frames[i], WIDTH, HEIGHT, 1000 + i);
+      }
+
+      assertEquals(3, pool.getPendingCount());
+      assertFalse(captures[0].isDone());
+      assertFalse(captures[0].getFile().exists());
+
+      executor.runAll();
+
+      assertEquals(0, pool.getPendingCount());
+      assertEquals(3, pool.getWrittenCount());
+      for (int i = 0; i < captures.length; i++) {
+         StillCapture.Result result = captures[i].get();
+         assertEquals(captures[i].getFile(), result.getFile());
+         assertEquals(1000 + i, result.getTimestamp());
+         assertEquals(WIDTH, result.getWidth());
+         assertEquals(HEIGHT, result.getHeight());
+         assertArrayEquals(expectedFile(i, captures[i]), read(result.getFile()));
+         assertReleased(frames[i]);
+      }
+      assertNoPartialFiles();
+   }
+
+   @Test public void onlyTheFrameIsEncodedNotTheWholeBuffer() throws Exception {
+      StillEncoderPool pool = new StillEncoderPool(new RawEncoder(), executor);
+      StillCapture capture = capture("still.png");
+      FrameBuffer frame = frame(7);
+      frame.buffer().position(5);
+
+      pool.submit(capture, frame, WIDTH, HEIGHT - 2, 0);
+      executor.runAll();
+
+      byte[] written = read(capture.get().getFile());
+      assertEquals(RawEncoder.HEADER_BYTES + WIDTH * (HEIGHT - 2) * 4, written.length);
+   }
+
+   @Test public void stillsCancelledWhileQueuedAreSkipped() throws Exception {
+      RawEncoder encoder = new RawEncoder();
+      StillEncoderPool pool = new StillEncoderPool(encoder, executor);
+      StillCapture capture = capture("still.jpg");
+      FrameBuffer frame = frame(0);
+      pool.submit(capture, frame, WIDTH, HEIGHT, 0);
+
+      assertTrue(capture.cancel(false));
+      executor.runAll();
+
+      assertEquals(0, encoder.encoded.get());
+      assertEquals(0, pool.getPendingCount());
+      assertEquals(0, pool.getWrittenCount());
+      assertFalse(capture.getFile().exists());
+      assertReleased(frame);
+   }
+
+   @Test public void stillsCancelledWhileEncodingLeaveNothingOnDisk() throws Exception {
+      final StillCapture capture = capture("still.jpg");
+      StillEncoderPool pool = new StillEncoderPool(new RawEncoder() {
+         @Override public void encode(ByteBuffer pixels, int width, int height,
+                                      StillCapture.Format format, int quality, OutputStream out)
+            throws IOException {
+            super.encode(pixels, width, height, format, quality, out);
+            capture.cancel(false);
+         }
+      }, executor);
+      FrameBuffer frame = frame(0);
+
+      pool.submit(capture, frame, WIDTH, HEIGHT, 0);
+      executor.runAll();
+
+      assertTrue(capture.isCancelled());
+      assertFalse(capture.getFile().exists());
+      assertNoPartialFiles();
+      assertEquals(0, pool.getWrittenCount());
+      assertEquals(0, pool.getFailedCount());
+      assertReleased(frame);
+   }
+
+   @Test public void encoderFailuresFailTheCapture() throws Exception {
+      StillEncoderPool pool = new StillEncoderPool(new RawEncoder() {
+         @Override public void encode(ByteBuffer pixels, int width, int height,
+                                      StillCapture.Format format, int quality, OutputStream out)
+            throws IOException {
+            out.write(new byte[100]);
+            out.flush();
+            throw new IOException("Disk full");
+         }
+      }, executor);
+      StillCapture capture = capture("still.jpg");
+      FrameBuffer frame = frame(0);
+
+      pool.submit(capture, frame, WIDTH, HEIGHT, 0);
+      executor.runAll();
+
+      try {
+         capture.get();
+         fail();
+      } catch (ExecutionException expected) {
+         assertEquals("Disk full", expected.getCause().getMessage());
+      }
+      assertEquals(1, pool.getFailedCount());
+      assertEquals(0, pool.getPendingCount());
+      assertFalse(capture.getFile().exists());
+      assertNoPartialFiles();
+      assertReleased(frame);
+   }
+
+   @Test public void failuresDoNotStopTheQueue() throws Exception {
+      StillEncoderPool pool = new StillEncoderPool(new RawEncoder() {
+         @Override public void encode(ByteBuffer pixels, int width, int height,
+                                      StillCapture.Format format, int quality, OutputStream out)
+            throws IOException {
+            if (format == StillCapture.Format.PNG) throw new IllegalStateException("No PNG encoder");
+            super.encode(pixels, width, height, format, quality, out);
+         }
+      }, executor);
+      StillCapture broken = capture("broken.png");
+      StillCapture fine = capture("fine.jpg");
+
+      pool.submit(broken, frame(0), WIDTH, HEIGHT, 0);
+      pool.submit(fine, frame(1), WIDTH, HEIGHT, 1);
+      executor.runAll();
+
+      assertEquals(1, pool.getFailedCount());
+      assertEquals(1, pool.getWrittenCount());
+      assertTrue(fine.get().getFile().exists());
+   }
+
+   @Test public void stillsSubmittedAfterShutdownFail() throws Exception {
+      ExecutorService stopped = Executors.newSingleThreadExecutor();
+      stopped.shutdown();
+      StillEncoderPool pool = new StillEncoderPool(new RawEncoder(), stopped);
+      StillCapture capture = capture("still.jpg");
+      FrameBuffer frame = frame(0);
+
+      pool.submit(capture, frame, WIDTH, HEIGHT, 0);
+
+      try {
+         capture.get();
+         fail();
+      } catch (ExecutionException expected) {
+         assertTrue(expected.getCause() instanceof RejectedExecutionException);
+      }
+      assertEquals(0, pool.getPendingCount());
+      assertReleased(frame);
+   }
+
+   @Test public void shutdownFinishesTheQueuedStills() throws Exception {
+      StillEncoderPool pool = new StillEncoderPool(new RawEncoder(), executor);
+      StillCapture capture = capture("still.jpg");
+      pool.submit(capture, frame(0), WIDTH, HEIGHT, 0);
+
+      pool.shutdown();
+
+      assertTrue(capture.get().getFile().exists());
+   }
+
+   @Test(timeout = 20000)
+   public void burstsQueueBehindTheEncoderThreads() throws Exception {
+      final CountDownLatch blocked = new CountDownLatch(1);
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicInteger mostRunning = new AtomicInteger();
+      final AtomicInteger wrongThread = new AtomicInteger();
+      StillEncoderPool pool = new StillEncoderPool(new RawEncoder() {
+         @Override public void encode(ByteBuffer pixels, int width, int height,
+                                      StillCapture.Format format, int quality, OutputStream out)
+            throws IOException {
+            Thread thread = Thread.currentThread();
+            if (!thread.getName().startsWith("StillEncoder-") || thread.getPriority() != Thread.MIN_PRIORITY) {
+               wrongThread.incrementAndGet();
+            }
+            int now = running.incrementAndGet();
+            int most;
+            do {
+               most = mostRunning.get();
+            } while (now > most && !mostRunning.compareAndSet(most, now));
+            try {
+               blocked.await();
+            } catch (InterruptedException e) {
+               throw new IOException(e);
+            }
+            running.decrementAndGet();
+            super.encode(pixels, width, height, format, quality, out);
+         }
+      }, 2);
+      StillCapture[] captures = new StillCapture[6];
+      for (int i = 0; i < captures.length; i++) {
+         captures[i] = capture("burst" + i + ".jpg");
+         pool.submit(captures[i], frame(i), WIDTH, HEIGHT, i);
+      }
+
+      //Nothing finishes while the encoders are blocked, the burst is all pending
+      assertEquals(captures.length, pool.getPendingCount());
+      while (running.get() < 2) {
+         Thread.sleep(1);
+      }
+      blocked.countDown();
+      for (int i = 0; i < captures.length; i++) {
+         assertArrayEquals(expectedFile(i, captures[i]), read(captures[i].get(10, TimeUnit.SECONDS).getFile()));
+      }
+      pool.shutdown();
+
+      assertEquals(2, mostRunning.get());
+      assertEquals(0, wrongThread.get());
+      assertEquals(captures.length, pool.getWrittenCount());
+      while (pool.getPendingCount() > 0) {
+         Thread.sleep(1);
+      }
+   }
+
+   @Test public void cancelledCapturesReportCancellation() throws Exception {
+      StillCapture capture = capture("still.jpg");
+      capture.cancel(true);
+
+      try {
+         capture.get();
+         fail();
+      } catch (CancellationException expected) {
+         //Expected
+      }
+      assertFalse(capture.cancel(true));
+   }
+
+   private StillCapture capture(String name) {
+      StillCapture.Format format = name.endsWith(".png") ? StillCapture.Format.PNG : StillCapture.Format.JPEG;
+      return new StillCapture(new File(directory, name), format, 90);
+   }
+
+   /**
+    * Synthetic RGBA frame, each pixel a function of its position and the frame index.
+    */
+   private FrameBuffer frame(int index) {
+      FrameBuffer frame = buffers.tryAcquire(WIDTH * HEIGHT * 4);
+      ByteBuffer pixels = frame.buffer();
+      pixels.clear();
+      putPixels(pixels, index);
+      pixels.clear();
+      return frame;
+   }
+
+   private static byte[] expectedFile(int index, StillCapture capture) {
+      ByteBuffer expected = ByteBuffer.allocate(RawEncoder.HEADER_BYTES + WIDTH * HEIGHT * 4);
+      expected.putInt(WIDTH).putInt(HEIGHT).putInt(capture.getFormat().ordinal()).putInt(capture.getQuality());
+      putPixels(expected, index);
+      return expected.array();
+   }
+
+   private static void putPixels(ByteBuffer out, int index) {
+      for (int y = 0; y < HEIGHT; y++) {
+         for (int x = 0; x < WIDTH; x++) {
+            out.put((byte) (x * 16)).put((byte) (y * 32)).put((byte) index).put((byte) 0xff);
+         }
+      }
+   }
+
+   private static byte[] read(File file) throws IOException {
+      byte[] bytes = new byte[(int) file.length()];
+      InputStream in = new FileInputStream(file);
+      try {
+         int read = 0;
+         while (read < bytes.length) {
+            int count = in.read(bytes, read, bytes.length - read);
+            if (count < 0) throw new IOException("Short read of " + file);
+            read += count;
+         }
+      } finally {
+         in.close();
+      }
+      return bytes;
+   }
+
+   private static void assertReleased(FrameBuffer frame) {
+      try {
+         frame.retain();
+         fail("Frame still referenced");
+      } catch (IllegalStateException expected) {
+         //Expected
+      }
+   }
+
+   private void assertNoPartialFiles() {
+      for (String name : directory.list()) {
+         assertFalse(name, name.endsWith(".part"));
+      }
+   }
+
+   /**
+    * Writes the size, format and quality, then the pixels as they are.
+    */
+   static class RawEncoder implements StillEncoderPool.Encoder {
+      static final int HEADER_BYTES = 16;
+
+      final AtomicInteger encoded = new AtomicInteger();
+
+      @Override public void encode(ByteBuffer pixels, int width, int height, StillCapture.Format format,
+                                   int quality, OutputStream out) throws IOException {
+         encoded.incrementAndGet();
+         ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+         header.putInt(width).putInt(height).putInt(format.ordinal()).putInt(quality);
+         out.write(header.array());
+         byte[] bytes = new byte[pixels.remaining()];
+         pixels.get(bytes);
+         out.write(bytes);
+      }
+   }
+}
@@ -0,0 +1,264 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamConfigNegotiatorTest {
+
+   private static final String FULL_BACK = "full_level_back.txt";
+   private static final String LEGACY_BACK = "legacy_level_back.txt";
+   private static final String LIMITED_FRONT = "limited_level_front.txt";
+
+   @Test public void portraitPreviewGetsTheMatchingSensorSize() throws IOException {
+      //1080x2340 portrait view on a 90 degree sensor
+      StreamConfigNegotiator.Config config = negotiate(FULL_BACK,
+         StreamConfigNegotiator.Consumer.preview(1080, 2340, 90, 0));
+
+      assertSize(2340, 1080, config);
+      //Lowest bottom, AE may lengthen exposures in low light
+      assertRange(7, 30, config);
+      assertTrue(config.meetsFrameRate());
+   }
+
+   @Test public void encoderGetsAFixedRange() throws IOException {
+      StreamConfigNegotiator.Config config = negotiate(FULL_BACK,
+         StreamConfigNegotiator.Consumer.encoder(1920, 1080, 30));
+
+      assertSize(1920, 1080, config);
+      assertRange(30, 30, config);
+   }
+
+   @Test public void encoderAtAnUncommonRate() throws IOException {
+      StreamConfigNegotiator.Config config = negotiate(LIMITED_FRONT,
+         StreamConfigNegotiator.Consumer.encoder(1280, 720, 24));
+
+      assertSize(1280, 720, config);
+      assertRange(24, 24, config);
+   }
+
+   @Test public void fixedRateOfTheEncoderWinsOverThePreview() throws IOException {
+      StreamConfigNegotiator.Config config = negotiate(FULL_BACK,
+         StreamConfigNegotiator.Consumer.preview(1080, 2340, 90, 0),
+         StreamConfigNegotiator.Consumer.encoder(1920, 1080, 30));
+
+      assertRange(30, 30, config);
+   }
+
+   @Test public void fastAnalysisOnlyUsesSizesThatKeepUp() throws IOException {
+      StreamConfigNegotiator.Config config = negotiate(FULL_BACK,
+         StreamConfigNegotiator.Consumer.analysis(640, 480, 60));
+
+      assertSize(640, 480, config);
+      assertRange(60, 60, config);
+      assertTrue(config.meetsFrameRate());
+   }
+
+   @Test public void frameRateWinsOverSize() throws IOException {
+      //4K only runs at 30 on this sensor, 60 needs a smaller output scaled up
+      StreamConfigNegotiator.Config config = negotiate(FULL_BACK,
+         StreamConfigNegotiator.Consumer.encoder(3840, 2160, 60));
+
+      assertSize(1920, 1080, config);
+      assertRange(60, 60, config);
+      assertTrue(config.meetsFrameRate());
+   }
+
+   @Test public void fastestConfigWhenNothingReachesTheFrameRate() throws IOException {
+      StreamConfigNegotiator.Config config = negotiate(LEGACY_BACK,
+         StreamConfigNegotiator.Consumer.analysis(640, 480, 60));
+
+      assertSize(640, 480, config);
+      assertEquals(30, config.getFpsMax());
+      assertFalse(config.meetsFrameRate());
+   }
+
+   @Test public void unknownFrameDurationsAllowEveryRange() throws IOException {
+      StreamConfigNegotiator.Config config = negotiate(LEGACY_BACK,
+         StreamConfigNegotiator.Consumer.encoder(3264, 2448, 30));
+
+      assertSize(3264, 2448, config);
+      assertRange(30, 30, config);
+   }
+
+   @Test public void landscapePreviewOnAFrontCamera() throws IOException {
+      StreamConfigNegotiator.Config config = negotiate(LIMITED_FRONT,
+         StreamConfigNegotiator.Consumer.preview(720, 1280, 270, 0));
+
+      assertSize(1280, 720, config);
+      assertRange(8, 30, config);
+   }
+
+   @Test public void negotiatedConfigsAreSupportedPairs() throws IOException {
+      StreamConfigNegotiator.Consumer[] consumers = {
+         StreamConfigNegotiator.Consumer.preview(1080, 2340, 90, 0),
+         StreamConfigNegotiator.Consumer.preview(2340, 1080, 90, 90),
+         StreamConfigNegotiator.Consumer.encoder(3840, 2160, 30),
+         StreamConfigNegotiator.Consumer.encoder(1280, 720, 60),
+         StreamConfigNegotiator.Consumer.analysis(320, 240, 15),
+         StreamConfigNegotiator.Consumer.analysis(640, 480, 120),
+      };
+      for (String table : new String[]{FULL_BACK, LEGACY_BACK, LIMITED_FRONT}) {
+         List<long[]> sizes = new ArrayList<>();
+         List<int[]> ranges = new ArrayList<>();
+         StreamConfigNegotiator.Capabilities capabilities = load(table, sizes, ranges);
+         for (StreamConfigNegotiator.Consumer consumer : consumers) {
+            StreamConfigNegotiator.Config config =
+               StreamConfigNegotiator.negotiate(capabilities, Collections.singletonList(consumer));
+            String message = table + " " + consumer + " " + config;
+
+            long[] size = find(sizes, config);
+            assertNotNull(message, size);
+            assertTrue(message, containsRange(ranges, config.getFpsMin(), config.getFpsMax()));
+            if (size[2] > 0) {
+               assertTrue(message, config.getFpsMax() <= 1e9 / size[2] + 0.5);
+            }
+         }
+      }
+   }
+
+   @Test public void sidewaysWhenSensorAndDisplayAreAQuarterTurnApart() {
+      for (int sensor = 0; sensor < 360; sensor += 90) {
+         for (int display = 0; display < 360; display += 90) {
+            boolean quarterTurn = (sensor / 90 + display / 90) % 2 == 1;
+            assertEquals(sensor + " " + display, quarterTurn,
+               StreamConfigNegotiator.isSideways(sensor, display));
+         }
+      }
+   }
+
+   @Test public void previewSizesAreSwappedIntoTheSensorOrientation() {
+      StreamConfigNegotiator.Consumer portrait = StreamConfigNegotiator.Consumer.preview(1080, 2340, 90, 0);
+      assertEquals(2340, portrait.getWidth());
+      assertEquals(1080, portrait.getHeight());
+
+      StreamConfigNegotiator.Consumer landscape = StreamConfigNegotiator.Consumer.preview(2340, 1080, 90, 270);
+      assertEquals(2340, landscape.getWidth());
+      assertEquals(1080, landscape.getHeight());
+
+      StreamConfigNegotiator.Consumer front = StreamConfigNegotiator.Consumer.preview(1080, 2340, 270, 0);
+      assertEquals(2340, front.getWidth());
+      assertEquals(1080, front.getHeight());
+   }
+
+   @Test public void rejectsEmptyInputs() {
+      StreamConfigNegotiator.Capabilities capabilities = new StreamConfigNegotiator.Capabilities()
+         .addOutputSize(1920, 1080, 0)
+         .addFpsRange(15, 30);
+      List<StreamConfigNegotiator.Consumer> preview =
+         Collections.singletonList(StreamConfigNegotiator.Consumer.preview(1920, 1080));
+
+      assertRejected(capabilities, Collections.<StreamConfigNegotiator.Consumer>emptyList());
+      assertRejected(new StreamConfigNegotiator.Capabilities().addFpsRange(15, 30), preview);
+      assertRejected(new StreamConfigNegotiator.Capabilities().addOutputSize(1920, 1080, 0), preview);
+   }
+
+   @Test public void rejectsTablesWhereNoRangeRunsAtAnySize() {
+      //10 fps at most, every range needs more
+      StreamConfigNegotiator.Capabilities capabilities = new StreamConfigNegotiator.Capabilities()
+         .addOutputSize(4032, 3024, 100000000)
+         .addFpsRange(15, 30);
+
+      assertRejected(capabilities,
+         Collections.singletonList(StreamConfigNegotiator.Consumer.preview(1920, 1080)));
+   }
+
+   @Test public void rejectsInvalidRangesAndSizes() {
+      StreamConfigNegotiator.Capabilities capabilities = new StreamConfigNegotiator.Capabilities();
+      for (int[] range : new int[][]{{30, 15}, {0, 30}, {-1, 30}}) {
+         try {
+            capabilities.addFpsRange(range[0], range[1]);
+            fail(Arrays.toString(range));
+         } catch (IllegalArgumentException expected) {
+            //Expected
+         }
+      }
+      try {
+         StreamConfigNegotiator.Consumer.preview(0, 1080);
+         fail();
+      } catch (IllegalArgumentException expected) {
+         //Expected
+      }
+   }
+
+   private static StreamConfigNegotiator.Config negotiate(String table,
+                                                          StreamConfigNegotiator.Consumer... consumers)
+      throws IOException {
+      StreamConfigNegotiator.Capabilities capabilities =
+         load(table, new ArrayList<long[]>(), new ArrayList<int[]>());
+      return StreamConfigNegotiator.negotiate(capabilities, Arrays.asList(consumers));
+   }
+
+   /**
+    * Reads a capability table from the test resources: <code>size width height
+    * minFrameDurationNanos</code> and <code>fps min max</code> lines, as the device lists them.
+    */
+   private static StreamConfigNegotiator.Capabilities load(String table, List<long[]> sizes,
+                                                          List<int[]> ranges) throws IOException {
+      InputStream is = StreamConfigNegotiatorTest.class.getResourceAsStream("/capabilities/" + table);
+      assertNotNull("Missing capability table " + table, is);
+      StreamConfigNegotiator.Capabilities capabilities = new StreamConfigNegotiator.Capabilities();
+      for (String line : TextStreams.readUtf8(is).split("\n")) {
+         line = line.trim();
+         if (line.isEmpty() || line.startsWith("#")) continue;
+         String[] fields = line.split("\\s+");
+         if (fields[0].equals("size")) {
+            long[] size = {Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3])};
+            sizes.add(size);
+            capabilities.addOutputSize((int) size[0], (int) size[1], size[2]);
+         } else if (fields[0].equals("fps")) {
+            int[] range = {Integer.parseInt(fields[1]), Integer.parseInt(fields[2])};
+            ranges.add(range);
+            capabilities.addFpsRange(range[0], range[1]);
+         } else {
+            throw new IOException("Unknown entry in " + table + ": " + line);
+         }
+      }
+      return capabilities;
+   }
+
+   private static long[] find(List<long[]> sizes, StreamConfigNegotiator.Config config) {
+      for (long[] size : sizes) {
+         if (size[0] == config.getWidth() && size[1] == config.getHeight()) return size;
+      }
+      return null;
+   }
+
+   private static boolean containsRange(List<int[]> ranges, int min, int max) {
+      for (int[] range : ranges) {
+         if (range[0] == min && range[1] == max) return true;
+      }
+      return false;
+   }
+
+   private static void assertSize(int width, int height, StreamConfigNegotiator.Config config) {
+      assertEquals(config.toString(), width, config.getWidth());
+      assertEquals(config.toString(), height, config.getHeight());
+   }
+
+   private static void assertRange(int min, int max, StreamConfigNegotiator.Config config) {
+      assertEquals(config.toString(), min, config.getFpsMin());
+      assertEquals(config.toString(), max, config.getFpsMax());
+   }
+
+   private static void assertRejected(StreamConfigNegotiator.Capabilities capabilities,
+                                      List<StreamConfigNegotiator.Consumer> consumers) {
+      try {
+         StreamConfigNegotiator.negotiate(capabilities, consumers);
+         fail();
+      } catch (IllegalArgumentException expected) {
+         //Expected
+      }
+   }
+}
@@ -0,0 +1,169 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamSetTest {
+
+   private final FakeClock clock = new FakeClock();
+   private final FrameCoalescer coalescer = new FrameCoalescer(clock);
+   private final StreamSet streams = new StreamSet(clock, coalescer);
+
+   @Test public void streamsAreNumberedInOrder() {
+      CameraStream primary = streams.add(1, new FakeImage());
+      CameraStream second = streams.add(2, new FakeImage());
+
+      assertEquals(0, primary.getId());
+      assertEquals(1, second.getId());
+      assertEquals(2, second.getTexture());
+      assertEquals(Arrays.asList(primary, second), streams.getStreams());
+   }
+
+   @Test public void clearStartsNumberingAgain() {
+      streams.add(1, new FakeImage());
+      streams.add(2, new FakeImage());
+
+      streams.clear();
+
+      assertTrue(streams.getStreams().isEmpty());
+      assertEquals(0, streams.add(1, new FakeImage()).getId());
+   }
+
+   @Test public void framesOfAnyStreamShareOneRender() {
+      CameraStream primary = streams.add(1, new FakeImage());
+      CameraStream second = streams.add(2, new FakeImage());
+
+      assertTrue(streams.onFrameAvailable(primary));
+      assertFalse(streams.onFrameAvailable(second));
+      assertFalse(streams.onFrameAvailable(primary));
+
+      coalescer.beginRender();
+      assertEquals(2, streams.latchPending());
+      assertTrue(streams.onFrameAvailable(second));
+   }
+
+   @Test public void onlyStreamsWithANewImageAreLatched() {
+      FakeImage primaryImage = new FakeImage();
+      FakeImage secondImage = new FakeImage();
+      CameraStream primary = streams.add(1, primaryImage);
+      CameraStream second = streams.add(2, secondImage);
+      streams.onFrameAvailable(primary);
+      streams.onFrameAvailable(second);
+      streams.latchPending();
+
+      streams.onFrameAvailable(second);
+
+      assertEquals(1, streams.latchPending());
+      assertEquals(1, primaryImage.updates);
+      assertEquals(2, secondImage.updates);
+      assertEquals(0, streams.latchPending());
+   }
+
+   @Test public void latchedImageKeepsItsTimestampAndMatrix() {
+      FakeImage image = new FakeImage();
+      CameraStream stream = streams.add(1, image);
+      image.timestamp = 1000;
+      image.matrix[12] = 0.5f;
+      streams.onFrameAvailable(stream);
+      streams.latchPending();
+
+      //A newer image that isn't latched yet
+      image.timestamp = 2000;
+      image.matrix[12] = 0.25f;
+      streams.latchPending();
+
+      assertEquals(1000, stream.getImageTimestamp());
+      assertEquals(0.5f, stream.getTextureMatrix()[12], 0);
+   }
+
+   @Test public void imagesReplacedBeforeALatchAreCounted() {
+      CameraStream stream = streams.add(1, new FakeImage());
+
+      streams.onFrameAvailable(stream);
+      streams.onFrameAvailable(stream);
+      streams.latchPending();
+      streams.onFrameAvailable(stream);
+      streams.latchPending();
+
+      assertEquals(3, stream.getFramesAvailable());
+      assertEquals(2, stream.getFramesLatched());
+   }
+
+   @Test public void streamsGoStaleWithoutNewImages() {
+      CameraStream stream = streams.add(1, new FakeImage());
+      assertFalse(stream.hasImage());
+      assertEquals(-1, stream.getImageAgeNanos());
+      assertTrue(stream.isStale(Long.MAX_VALUE));
+
+      streams.onFrameAvailable(stream);
+      streams.latchPending();
+      clock.advanceMillis(100);
+
+      assertTrue(stream.hasImage());
+      assertEquals(100000000, stream.getImageAgeNanos());
+      assertFalse(stream.isStale(200000000));
+      assertTrue(stream.isStale(50000000));
+   }
+
+   @Test public void removedStreamsAreNotLatched() {
+      FakeImage image = new FakeImage();
+      CameraStream stream = streams.add(1, image);
+      streams.onFrameAvailable(stream);
+
+      assertTrue(streams.remove(stream));
+      assertFalse(streams.remove(stream));
+
+      assertEquals(0, streams.latchPending());
+      assertEquals(0, image.updates);
+   }
+
+   @Test public void rendersKeepTheStreamsTheyStartedWith() {
+      CameraStream primary = streams.add(1, new FakeImage());
+      List<CameraStream> rendering = streams.getStreams();
+
+      streams.add(2, new FakeImage());
+      streams.remove(primary);
+
+      assertEquals(Arrays.asList(primary), rendering);
+      assertEquals(1, streams.getStreams().size());
+   }
+
+   @Test public void regionsCoverTheOutputUnlessSet() {
+      CameraStream stream = streams.add(1, new FakeImage());
+      assertArrayEquals(new float[]{0, 0, 1, 1}, stream.getRegion(), 0);
+
+      stream.setRegion(0.75f, 0, 0.25f, 0.25f);
+      float[] region = stream.getRegion();
+      region[0] = 0;
+
+      assertArrayEquals(new float[]{0.75f, 0, 0.25f, 0.25f}, stream.getRegion(), 0);
+   }
+
+   /**
+    * Camera image with a settable timestamp and matrix, counting its updates.
+    */
+   private static final class FakeImage implements CameraStream.Image {
+      final float[] matrix = new float[16];
+      long timestamp;
+      int updates;
+
+      @Override public void update() {
+         updates++;
+      }
+
+      @Override public long getTimestamp() {
+         return timestamp;
+      }
+
+      @Override public void getTransformMatrix(float[] matrix) {
+         System.arraycopy(this.matrix, 0, matrix, 0, 16);
+      }
+   }
+}
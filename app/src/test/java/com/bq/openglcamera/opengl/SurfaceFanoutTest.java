@@ -0,0 +1,189 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("Convert2Lambda")
+public class SurfaceFanoutTest {
+
+   private final SurfaceFanout fanout = new SurfaceFanout();
+   private final FakeEgl egl = new FakeEgl();
+   private final List<String> draws = new ArrayList<>();
+
+   private final SurfaceFanout.Drawer drawer = new SurfaceFanout.Drawer() {
+      @Override public void draw(int width, int height, float[] transform) {
+         draws.add(width + "x" + height);
+      }
+   };
+
+   @Test public void surfacesAreCreatedOnTheFirstRender() {
+      Object window = new Object();
+      OutputSurface output = fanout.add(window, 1280, 720);
+
+      assertTrue(egl.targets.isEmpty());
+      assertEquals(1, fanout.render(1000, drawer, egl));
+
+      assertEquals(1, egl.targets.size());
+      assertSame(window, egl.targets.get(0).window);
+      assertEquals(1, output.getFramesPresented());
+      assertEquals(1000, output.getLastPresentationTime());
+      assertEquals(1000, egl.targets.get(0).presentationTime);
+   }
+
+   @Test public void everyOutputGetsItsOwnViewport() {
+      fanout.add(new Object(), 1920, 1080);
+      fanout.add(new Object(), 640, 480);
+
+      assertEquals(2, fanout.render(1, drawer, egl));
+      assertEquals(2, fanout.render(2, drawer, egl));
+
+      assertEquals(2, egl.targets.size());
+      assertEquals("[1920x1080, 640x480, 1920x1080, 640x480]", draws.toString());
+   }
+
+   @Test public void removedSurfacesAreReleasedWithoutARender() {
+      OutputSurface output = fanout.add(new Object(), 1280, 720);
+      fanout.render(1, drawer, egl);
+      FakeTarget target = egl.targets.get(0);
+
+      fanout.remove(output);
+      assertFalse(target.released);
+      fanout.releaseRemoved();
+
+      assertTrue(target.released);
+      assertNull(output.target);
+      assertTrue(fanout.isEmpty());
+   }
+
+   @Test public void removedOutputsGetNoMoreFrames() {
+      OutputSurface output = fanout.add(new Object(), 1280, 720);
+      fanout.render(1, drawer, egl);
+
+      fanout.remove(output);
+      assertEquals(0, fanout.render(2, drawer, egl));
+
+      assertTrue(egl.targets.get(0).released);
+      assertEquals(1, output.getFramesPresented());
+      assertTrue(fanout.isEmpty());
+   }
+
+   @Test public void removingBeforeTheFirstRenderCreatesNothing() {
+      OutputSurface output = fanout.add(new Object(), 1280, 720);
+
+      fanout.remove(output);
+      fanout.releaseRemoved();
+      fanout.render(1, drawer, egl);
+
+      assertTrue(egl.targets.isEmpty());
+      assertTrue(fanout.isEmpty());
+   }
+
+   @Test public void outputsThatCantGetASurfaceAreDropped() {
+      egl.failCreate = true;
+      fanout.add(new Object(), 1280, 720);
+
+      assertEquals(0, fanout.render(1, drawer, egl));
+      assertTrue(fanout.isEmpty());
+   }
+
+   @Test public void failedMakeCurrentSkipsTheFrame() {
+      OutputSurface output = fanout.add(new Object(), 1280, 720);
+      fanout.render(1, drawer, egl);
+      egl.targets.get(0).current = false;
+
+      assertEquals(0, fanout.render(2, drawer, egl));
+
+      assertEquals(1, draws.size());
+      assertEquals(1, output.getFramesPresented());
+      assertFalse(fanout.isEmpty());
+   }
+
+   @Test public void releasedTargetsAreRecreatedWithTheNextContext() {
+      fanout.add(new Object(), 1280, 720);
+      OutputSurface removed = fanout.add(new Object(), 640, 480);
+      fanout.render(1, drawer, egl);
+      fanout.remove(removed);
+
+      fanout.releaseTargets();
+
+      assertTrue(egl.targets.get(0).released);
+      assertTrue(egl.targets.get(1).released);
+      assertEquals(1, fanout.render(2, drawer, egl));
+      assertEquals(3, egl.targets.size());
+   }
+
+   @Test public void resizesAreNeverSeenHalfApplied() throws InterruptedException {
+      final OutputSurface output = fanout.add(new Object(), 0, 0);
+      final AtomicBoolean done = new AtomicBoolean();
+      final List<String> torn = new ArrayList<>();
+      Thread resizer = new Thread(new Runnable() {
+         @Override public void run() {
+            for (int i = 1; i < 200000; i++) {
+               output.setSize(i, i);
+            }
+            done.set(true);
+         }
+      });
+      SurfaceFanout.Drawer checker = new SurfaceFanout.Drawer() {
+         @Override public void draw(int width, int height, float[] transform) {
+            if (width != height) torn.add(width + "x" + height);
+         }
+      };
+
+      resizer.start();
+      while (!done.get()) {
+         fanout.render(0, checker, egl);
+      }
+      resizer.join();
+
+      assertTrue(torn.toString(), torn.isEmpty());
+   }
+
+   private static final class FakeEgl implements SurfaceFanout.TargetFactory {
+      final List<FakeTarget> targets = new ArrayList<>();
+      boolean failCreate;
+
+      @Override public SurfaceFanout.Target create(Object nativeWindow) {
+         if (failCreate) return null;
+         FakeTarget target = new FakeTarget(nativeWindow);
+         targets.add(target);
+         return target;
+      }
+   }
+
+   private static final class FakeTarget implements SurfaceFanout.Target {
+      final Object window;
+      boolean current = true;
+      boolean released;
+      long presentationTime;
+
+      FakeTarget(Object window) {
+         this.window = window;
+      }
+
+      @Override public boolean makeCurrent() {
+         return current && !released;
+      }
+
+      @Override public void setPresentationTime(long nanos) {
+         presentationTime = nanos;
+      }
+
+      @Override public boolean swapBuffers() {
+         return !released;
+      }
+
+      @Override public void release() {
+         released = true;
+      }
+   }
+}
@@ -0,0 +1,133 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TargetAliasingTest {
+
+   private static final int WIDTH_4K = 3840;
+   private static final int HEIGHT_4K = 2160;
+   private static final long BYTES_4K = (long) WIDTH_4K * HEIGHT_4K * 4;
+   private static final int[] NONE = new int[0];
+
+   @Test public void chainOfFivePassesPingPongsBetweenTwoTextures() {
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int[] targets = new int[5];
+      for (int i = 0; i < targets.length; i++) {
+         targets[i] = plan.target(WIDTH_4K, HEIGHT_4K, RenderTargetPlan.FORMAT_RGBA);
+      }
+      plan.pass(NONE, new int[]{targets[0]});
+      for (int i = 1; i < targets.length; i++) {
+         plan.pass(new int[]{targets[i - 1]}, new int[]{targets[i]});
+      }
+
+      TargetAliasing aliasing = TargetAliasing.assign(plan);
+
+      assertEquals(2, aliasing.getPhysicalCount());
+      //66MB instead of 166MB
+      assertEquals(2 * BYTES_4K, aliasing.getAliasedBytes());
+      assertEquals(5 * BYTES_4K, aliasing.getUnaliasedBytes());
+      for (int i = 0; i < targets.length; i++) {
+         assertEquals(i % 2, aliasing.getPhysical(targets[i]));
+      }
+   }
+
+   @Test public void lifetimesRunFromFirstToLastUse() {
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int a = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      int b = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      plan.pass(NONE, new int[]{a})
+         .pass(new int[]{a}, new int[]{b})
+         .pass(new int[]{b}, NONE)
+         .pass(new int[]{a}, NONE);
+
+      TargetAliasing aliasing = TargetAliasing.assign(plan);
+
+      assertEquals(0, aliasing.getFirstUse(a));
+      assertEquals(3, aliasing.getLastUse(a));
+      assertEquals(1, aliasing.getFirstUse(b));
+      assertEquals(2, aliasing.getLastUse(b));
+      //a is read again after b is done
+      assertEquals(2, aliasing.getPhysicalCount());
+   }
+
+   @Test public void targetsOfTheSamePassNeverShare() {
+      //Two inputs blended into a third: the output starts where both inputs end
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int a = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      int b = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      int blended = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      plan.pass(NONE, new int[]{a})
+         .pass(NONE, new int[]{b})
+         .pass(new int[]{a, b}, new int[]{blended})
+         .pass(new int[]{blended}, NONE);
+
+      TargetAliasing aliasing = TargetAliasing.assign(plan);
+
+      assertEquals(3, aliasing.getPhysicalCount());
+   }
+
+   @Test public void onlyTargetsOfTheSameSizeAndFormatShare() {
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int full = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      int half = plan.target(32, 32, RenderTargetPlan.FORMAT_RGBA);
+      int luminance = plan.target(64, 64, RenderTargetPlan.FORMAT_LUMINANCE);
+      int fullAgain = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      plan.pass(NONE, new int[]{full})
+         .pass(new int[]{full}, new int[]{half})
+         .pass(new int[]{half}, new int[]{luminance})
+         .pass(new int[]{luminance}, new int[]{fullAgain})
+         .pass(new int[]{fullAgain}, NONE);
+
+      TargetAliasing aliasing = TargetAliasing.assign(plan);
+
+      assertEquals(3, aliasing.getPhysicalCount());
+      assertEquals(aliasing.getPhysical(full), aliasing.getPhysical(fullAgain));
+      assertEquals(64 * 64 * 4 + 32 * 32 * 4 + 64 * 64, aliasing.getAliasedBytes());
+   }
+
+   @Test public void bloomNeedsThreeFullTexturesAtItsPeak() {
+      //Scene, bright pass, two blurs and a composite of the scene with the last blur
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int scene = plan.target(WIDTH_4K, HEIGHT_4K, RenderTargetPlan.FORMAT_RGBA);
+      int bright = plan.target(WIDTH_4K, HEIGHT_4K, RenderTargetPlan.FORMAT_RGBA);
+      int blurX = plan.target(WIDTH_4K, HEIGHT_4K, RenderTargetPlan.FORMAT_RGBA);
+      int blurY = plan.target(WIDTH_4K, HEIGHT_4K, RenderTargetPlan.FORMAT_RGBA);
+      plan.pass(NONE, new int[]{scene})
+         .pass(new int[]{scene}, new int[]{bright})
+         .pass(new int[]{bright}, new int[]{blurX})
+         .pass(new int[]{blurX}, new int[]{blurY})
+         .pass(new int[]{scene, blurY}, NONE);
+
+      TargetAliasing aliasing = TargetAliasing.assign(plan);
+
+      //The scene lives through the whole frame, the blurs ping-pong next to it
+      assertEquals(3, aliasing.getPhysicalCount());
+      assertEquals(aliasing.getPhysical(bright), aliasing.getPhysical(blurY));
+      assertEquals(3 * BYTES_4K, aliasing.getAliasedBytes());
+      assertEquals(4 * BYTES_4K, aliasing.getUnaliasedBytes());
+   }
+
+   @Test public void unusedTargetsGetNoTexture() {
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int used = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      int unused = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      plan.pass(NONE, new int[]{used});
+
+      TargetAliasing aliasing = TargetAliasing.assign(plan);
+
+      assertEquals(-1, aliasing.getPhysical(unused));
+      assertEquals(-1, aliasing.getFirstUse(unused));
+      assertEquals(64 * 64 * 4, aliasing.getUnaliasedBytes());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void readsBeforeAnyWriteAreRejected() {
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int target = plan.target(64, 64, RenderTargetPlan.FORMAT_RGBA);
+      plan.pass(new int[]{target}, NONE);
+
+      TargetAliasing.assign(plan);
+   }
+}
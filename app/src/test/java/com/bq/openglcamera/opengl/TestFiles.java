@@ -0,0 +1,33 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Scratch directories for tests writing files.
+ */
+final class TestFiles {
+
+   private TestFiles() {
+      //No instances
+   }
+
+   static File createTempDirectory(String prefix) throws IOException {
+      File directory = File.createTempFile(prefix, "");
+      if (!directory.delete() || !directory.mkdir()) {
+         throw new IOException("Can't create " + directory);
+      }
+      return directory;
+   }
+
+   static void deleteRecursively(File file) {
+      File[] children = file.listFiles();
+      if (children != null) {
+         for (File child : children) {
+            deleteRecursively(child);
+         }
+      }
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+   }
+}
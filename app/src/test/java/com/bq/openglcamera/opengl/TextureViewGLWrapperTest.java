@@ -0,0 +1,211 @@
+package com.bq.openglcamera.opengl;
+
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the render thread side of the wrapper, the steps its messages run, with a fake EGL.
+ */
+@SuppressWarnings("Convert2Lambda")
+public class TextureViewGLWrapperTest {
+
+   private static final long FRAME_NANOS = 40000000;
+
+   private final RecordingGlBackend gl = new RecordingGlBackend();
+   private final FakeEglHelper egl = new FakeEglHelper(gl);
+   private final CountingRenderer renderer = new CountingRenderer(DefaultCameraRendererTest.newRenderer(gl));
+   private final ManualRenderScheduler scheduler = new ManualRenderScheduler(30);
+   private final TextureViewGLWrapper wrapper = new TextureViewGLWrapper(renderer, gl, scheduler, egl);
+   private long frameTime;
+
+   @Before public void setUp() {
+      wrapper.setListener(new TextureViewGLWrapper.EGLSurfaceTextureListener() {
+         @Override public void onSurfaceTextureReady(SurfaceTexture surfaceTexture) {
+            //Posted, never delivered here
+         }
+      }, new Handler());
+   }
+
+   @Test public void rotationsReuseTheContextAndTheRendererResources() {
+      wrapper.configure(new Handler(), new SurfaceTexture(0), 1080, 1920);
+      assertTrue(renderFrame());
+      Set<Integer> programs = gl.getLivePrograms();
+      Set<Integer> buffers = gl.getLiveBuffers();
+
+      for (int cycle = 0; cycle < 50; cycle++) {
+         wrapper.detachWindow();
+         boolean landscape = cycle % 2 == 0;
+         wrapper.reattach(new SurfaceTexture(0), landscape ? 1920 : 1080, landscape ? 1080 : 1920);
+         assertTrue(renderFrame());
+      }
+
+      assertEquals(1, egl.contexts);
+      assertEquals(51, egl.windows);
+      assertEquals(1, renderer.created);
+      assertEquals(50, renderer.changed);
+      assertEquals(0, renderer.destroyed);
+      //The external texture, created with the context
+      assertEquals(1, gl.count("glGenTextures"));
+      assertEquals(Collections.singleton(egl.getTexture()), gl.getLiveTextures());
+      assertEquals(1, gl.count("glCreateProgram"));
+      assertEquals(programs, gl.getLivePrograms());
+      assertEquals(buffers, gl.getLiveBuffers());
+      assertEquals(51, egl.swaps);
+   }
+
+   @Test public void nothingIsDrawnWhileDetached() {
+      wrapper.getRenderMetrics().setEnabled(true);
+      wrapper.configure(new Handler(), new SurfaceTexture(0), 1080, 1920);
+      assertTrue(renderFrame());
+      wrapper.detachWindow();
+
+      for (int i = 0; i < 5; i++) {
+         assertTrue(renderFrame());
+      }
+
+      assertEquals(1, renderer.frames);
+      assertEquals(1, egl.swaps);
+      assertEquals(1, wrapper.getRenderMetrics().snapshot().get(RenderMetrics.Stage.FRAME).count);
+      assertEquals(1, wrapper.getFrameStats().getFramesRendered());
+      assertEquals(5, wrapper.getFrameStats().getFramesSkipped());
+
+      wrapper.reattach(new SurfaceTexture(0), 1920, 1080);
+      assertTrue(renderFrame());
+      assertEquals(2, renderer.frames);
+      assertEquals(2, egl.swaps);
+   }
+
+   @Test public void theGovernorGetsTheTimeOfEveryFrameRendered() {
+      //Any frame goes over a budget of a nanosecond
+      ResolutionGovernor governor = new ResolutionGovernor(1, new float[]{1f, 0.5f}, 1);
+      wrapper.setResolutionGovernor(governor);
+      wrapper.configure(new Handler(), new SurfaceTexture(0), 1080, 1920);
+
+      assertTrue(renderFrame());
+
+      assertEquals(0.5f, governor.getScale(), 0);
+      assertEquals(1, governor.getDecisions().size());
+   }
+
+   @Test public void disposeReleasesTheContextOnce() {
+      wrapper.configure(new Handler(), new SurfaceTexture(0), 1080, 1920);
+      wrapper.detachWindow();
+      wrapper.reattach(new SurfaceTexture(0), 1920, 1080);
+
+      wrapper.dispose();
+
+      assertEquals(1, renderer.destroyed);
+      assertEquals(1, egl.destroyed);
+      //No renders after the scheduler let go
+      wrapper.onFrameAvailable(null);
+      assertFalse(scheduler.vsync(frameTime += FRAME_NANOS));
+   }
+
+   private boolean renderFrame() {
+      wrapper.onFrameAvailable(null);
+      return scheduler.vsync(frameTime += FRAME_NANOS);
+   }
+
+   /**
+    * EGL without a display: a window is attached or not, the camera texture comes from the
+    * backend like the real one.
+    */
+   static class FakeEglHelper extends EglHelper {
+      private final GlBackend gl;
+      private final int[] texture = new int[1];
+      private boolean window;
+      int contexts;
+      int windows;
+      int swaps;
+      int destroyed;
+
+      FakeEglHelper(GlBackend gl) {
+         super(gl);
+         this.gl = gl;
+      }
+
+      @Override SurfaceTexture createSurface(SurfaceTexture surfaceTexture, boolean isVideo) {
+         contexts++;
+         gl.glGenTextures(1, texture, 0);
+         attachWindow(surfaceTexture);
+         return new SurfaceTexture(texture[0]);
+      }
+
+      @Override void attachWindow(SurfaceTexture surfaceTexture) {
+         window = true;
+         windows++;
+      }
+
+      @Override void detachWindow() {
+         window = false;
+      }
+
+      @Override boolean hasWindow() {
+         return window;
+      }
+
+      @Override int getTexture() {
+         return texture[0];
+      }
+
+      @Override boolean makeCurrent() {
+         return true;
+      }
+
+      @Override boolean swapBuffers() {
+         if (!window) return false;
+         swaps++;
+         return true;
+      }
+
+      @Override void destroySurface() {
+         destroyed++;
+         window = false;
+      }
+   }
+
+   /**
+    * Counts the lifecycle callbacks on the way to a real renderer.
+    */
+   static class CountingRenderer implements TextureViewGLWrapper.GLRenderer {
+      private final TextureViewGLWrapper.GLRenderer renderer;
+      int created;
+      int changed;
+      int destroyed;
+      int frames;
+
+      CountingRenderer(TextureViewGLWrapper.GLRenderer renderer) {
+         this.renderer = renderer;
+      }
+
+      @Override public void onSurfaceCreated(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+         created++;
+         renderer.onSurfaceCreated(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      }
+
+      @Override public void onSurfaceChanged(SurfaceTexture eglSurfaceTexture, int surfaceWidth, int surfaceHeight) {
+         changed++;
+         renderer.onSurfaceChanged(eglSurfaceTexture, surfaceWidth, surfaceHeight);
+      }
+
+      @Override public void onSurfaceDestroyed(SurfaceTexture eglSurfaceTexture) {
+         destroyed++;
+         renderer.onSurfaceDestroyed(eglSurfaceTexture);
+      }
+
+      @Override public void onFrameAvailable(SurfaceTexture eglSurfaceTexture) {
+         frames++;
+         renderer.onFrameAvailable(eglSurfaceTexture);
+      }
+   }
+}
@@ -0,0 +1,112 @@
+package com.bq.openglcamera.opengl;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransientTargetAllocatorTest {
+
+   private static final int[] NONE = new int[0];
+
+   private final RecordingGlBackend gl = new RecordingGlBackend();
+   private final TransientTargetAllocator allocator = new TransientTargetAllocator(gl);
+
+   @Test public void chainedPassesShareTwoTextures() {
+      RenderTargetPlan plan = chain(5, 1920, 1080);
+
+      TransientTargetAllocator.Allocation allocation = allocator.allocate(plan);
+
+      assertEquals(2, gl.getLiveTextures().size());
+      assertEquals(2, gl.getLiveFramebuffers().size());
+      assertEquals(2L * 1920 * 1080 * 4, allocation.getByteSize());
+      Set<Integer> textures = new HashSet<>();
+      for (int target = 0; target < plan.getTargetCount(); target++) {
+         textures.add(allocation.getTexture(target));
+         assertTrue(gl.getLiveFramebuffers().contains(allocation.getFramebuffer(target)));
+      }
+      assertEquals(gl.getLiveTextures(), textures);
+   }
+
+   @Test public void samePlanKeepsItsAllocation() {
+      RenderTargetPlan plan = chain(3, 64, 64);
+      TransientTargetAllocator.Allocation allocation = allocator.allocate(plan);
+      gl.clearCalls();
+
+      assertSame(allocation, allocator.allocate(plan));
+      assertTrue(gl.getCalls().isEmpty());
+   }
+
+   @Test public void newPlansReuseTexturesThatFit() {
+      allocator.allocate(chain(3, 64, 64));
+      Set<Integer> before = gl.getLiveTextures();
+      gl.clearCalls();
+
+      allocator.allocate(chain(4, 64, 64));
+
+      assertEquals(0, gl.count("glGenTextures"));
+      assertEquals(before, gl.getLiveTextures());
+   }
+
+   @Test public void texturesLeftOverAreDeleted() {
+      allocator.allocate(chain(3, 64, 64));
+      Set<Integer> before = gl.getLiveTextures();
+
+      allocator.allocate(chain(3, 32, 32));
+
+      assertEquals(2, gl.getLiveTextures().size());
+      for (int texture : before) {
+         assertTrue(!gl.getLiveTextures().contains(texture));
+      }
+   }
+
+   @Test public void releaseDeletesEverything() {
+      RenderTargetPlan plan = chain(3, 64, 64);
+      allocator.allocate(plan);
+
+      allocator.release();
+
+      assertTrue(gl.getLiveTextures().isEmpty());
+      assertTrue(gl.getLiveFramebuffers().isEmpty());
+      //Created again for the same plan
+      allocator.allocate(plan);
+      assertEquals(2, gl.getLiveTextures().size());
+   }
+
+   @Test public void incompleteFramebuffersAreDeleted() {
+      TransientTargetAllocator allocator = new TransientTargetAllocator(new ForwardingGlBackend(gl) {
+         @Override public int glCheckFramebufferStatus(int target) {
+            //GL_FRAMEBUFFER_INCOMPLETE_ATTACHMENT
+            return 0x8CD6;
+         }
+      });
+      try {
+         allocator.allocate(chain(1, 64, 64));
+         fail();
+      } catch (IllegalStateException expected) {
+         //Expected
+      }
+
+      assertTrue(gl.getLiveTextures().isEmpty());
+      assertTrue(gl.getLiveFramebuffers().isEmpty());
+   }
+
+   /**
+    * Passes each reading the output of the one before.
+    */
+   private static RenderTargetPlan chain(int passes, int width, int height) {
+      RenderTargetPlan plan = new RenderTargetPlan();
+      int previous = -1;
+      for (int i = 0; i < passes; i++) {
+         int target = plan.target(width, height, RenderTargetPlan.FORMAT_RGBA);
+         plan.pass(previous < 0 ? NONE : new int[]{previous}, new int[]{target});
+         previous = target;
+      }
+      return plan;
+   }
+}
@@ -0,0 +1,25 @@
+#extension GL_OES_EGL_image_external : require
+#extension GL_OES_texture_3D : enable
+
+precision mediump float;
+
+uniform samplerExternalOES camTex;
+varying vec2 camTexCoordinate;
+
+//0: grade
+#ifdef GL_OES_texture_3D
+uniform lowp sampler3D f0_lut;
+vec4 f0_filter(vec4 color) {
+    return vec4(texture3D(f0_lut, color.rgb).rgb, color.a);
+}
+#else
+vec4 f0_filter(vec4 color) {
+    return color;
+}
+#endif
+
+void main () {
+    vec4 color = texture2D(camTex, camTexCoordinate);
+    color = f0_filter(color);
+    gl_FragColor = color;
+}
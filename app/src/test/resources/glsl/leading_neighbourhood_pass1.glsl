@@ -0,0 +1,17 @@
+precision mediump float;
+
+uniform sampler2D sourceTex;
+uniform vec2 texelSize;
+varying vec2 texCoordinate;
+
+//0: blur
+uniform float f0_radius;
+vec4 f0_filter(sampler2D source, vec2 coord, vec2 texelSize) {
+    vec2 step = texelSize * f0_radius;
+    return (texture2D(source, coord - step) + texture2D(source, coord + step)) * 0.5;
+}
+
+void main () {
+    vec4 color = f0_filter(sourceTex, texCoordinate, texelSize);
+    gl_FragColor = color;
+}
@@ -0,0 +1,38 @@
+#extension GL_OES_EGL_image_external : require
+
+precision mediump float;
+
+uniform samplerExternalOES camTex;
+varying vec2 camTexCoordinate;
+
+//0: lut
+uniform float f0_lutSize;
+uniform vec2 f0_lutTiles;
+#if defined(GL_OES_texture_3D) || __VERSION__ >= 300
+precision mediump sampler3D;
+uniform sampler3D f0_lut;
+#else
+uniform sampler2D f0_lut;
+#endif
+
+vec4 f0_filter(vec4 color) {
+    vec3 c = clamp(color.rgb, 0.0, 1.0) * (f0_lutSize - 1.0);
+#if defined(GL_OES_texture_3D) || __VERSION__ >= 300
+    vec3 graded = texture3D(f0_lut, (c + 0.5) / f0_lutSize).rgb;
+#else
+    //Red and green interpolated by the sampler inside a slice, blue between slices
+    float b0 = floor(c.b);
+    float b1 = min(b0 + 1.0, f0_lutSize - 1.0);
+    vec2 inTile = (c.rg + 0.5) / (f0_lutTiles * f0_lutSize);
+    vec2 tile0 = vec2(mod(b0, f0_lutTiles.x), floor(b0 / f0_lutTiles.x)) / f0_lutTiles;
+    vec2 tile1 = vec2(mod(b1, f0_lutTiles.x), floor(b1 / f0_lutTiles.x)) / f0_lutTiles;
+    vec3 graded = mix(texture2D(f0_lut, tile0 + inTile).rgb, texture2D(f0_lut, tile1 + inTile).rgb, c.b - b0);
+#endif
+    return vec4(graded, color.a);
+}
+
+void main () {
+    vec4 color = texture2D(camTex, camTexCoordinate);
+    color = f0_filter(color);
+    gl_FragColor = color;
+}
@@ -0,0 +1,14 @@
+#define SCALE 2.0
+precision mediump float;
+/* gray(), tone and amount in comments stay as they are */
+const float f3_weights[3] = float[3](0.25, 0.5, 0.25), f3_bias = 1e-3;
+vec3 f3_tone = vec3(1.0);
+float f3_gray(vec4 color) {
+    //Locals and parameters are not global declarations
+    float amountX = 2e2;
+    return dot(color.rgb, vec3(0.299, 0.587, 0.114)) * amountX + f3_bias;
+}
+vec4 f3_filter(vec4 color) {
+    float graytone = f3_gray(color);
+    return vec4(mix(color.rgb, vec3(graytone) * f3_tone * SCALE, f3_amount), color.a) * f3_weights[1];
+}
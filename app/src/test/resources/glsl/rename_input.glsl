@@ -0,0 +1,14 @@
+#define SCALE 2.0
+precision mediump float;
+/* gray(), tone and amount in comments stay as they are */
+const float weights[3] = float[3](0.25, 0.5, 0.25), bias = 1e-3;
+vec3 tone = vec3(1.0);
+float gray(vec4 color) {
+    //Locals and parameters are not global declarations
+    float amountX = 2e2;
+    return dot(color.rgb, vec3(0.299, 0.587, 0.114)) * amountX + bias;
+}
+vec4 filter(vec4 color) {
+    float graytone = gray(color);
+    return vec4(mix(color.rgb, vec3(graytone) * tone * SCALE, amount), color.a) * weights[1];
+}
@@ -0,0 +1,35 @@
+#extension GL_OES_EGL_image_external : require
+
+precision mediump float;
+
+uniform samplerExternalOES camTex;
+varying vec2 camTexCoordinate;
+
+//0: sepia
+uniform float f0_amount;
+const vec3 f0_tone = vec3(1.2, 1.0, 0.8);
+float f0_gray(vec4 color) {
+    return dot(color.rgb, vec3(0.299, 0.587, 0.114));
+}
+vec4 f0_filter(vec4 color) {
+    //Blend towards the toned gray
+    return vec4(mix(color.rgb, f0_gray(color) * f0_tone, f0_amount), color.a);
+}
+
+//1: sepia
+uniform float f1_amount;
+const vec3 f1_tone = vec3(1.2, 1.0, 0.8);
+float f1_gray(vec4 color) {
+    return dot(color.rgb, vec3(0.299, 0.587, 0.114));
+}
+vec4 f1_filter(vec4 color) {
+    //Blend towards the toned gray
+    return vec4(mix(color.rgb, f1_gray(color) * f1_tone, f1_amount), color.a);
+}
+
+void main () {
+    vec4 color = texture2D(camTex, camTexCoordinate);
+    color = f0_filter(color);
+    color = f1_filter(color);
+    gl_FragColor = color;
+}
@@ -0,0 +1,31 @@
+#version 300 es
+
+precision mediump float;
+
+#define varying in
+#define texture2D texture
+#define texture3D texture
+out vec4 fragColor;
+
+uniform sampler2D sourceTex;
+uniform vec2 texelSize;
+varying vec2 texCoordinate;
+
+//1: blur
+uniform float f1_radius;
+vec4 f1_filter(sampler2D source, vec2 coord, vec2 texelSize) {
+    vec2 step = texelSize * f1_radius;
+    return (texture2D(source, coord - step) + texture2D(source, coord + step)) * 0.5;
+}
+
+//2: exposure
+uniform float f2_stops;
+vec4 f2_filter(vec4 color) {
+    return vec4(color.rgb * exp2(f2_stops), color.a);
+}
+
+void main () {
+    vec4 color = f1_filter(sourceTex, texCoordinate, texelSize);
+    color = f2_filter(color);
+    fragColor = color;
+}
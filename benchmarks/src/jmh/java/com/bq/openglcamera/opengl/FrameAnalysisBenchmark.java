@@ -0,0 +1,56 @@
+package com.bq.openglcamera.opengl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * {@link FrameAnalyzer} on synthetic 1080p frames, serial and on all cores.
+ */
+@State(Scope.Thread)
+public class FrameAnalysisBenchmark {
+
+   private static final int WIDTH = 1920;
+   private static final int HEIGHT = 1080;
+
+   @Param({"1", "0"})
+   public int threads;
+
+   @Param({"16", "64", "270"})
+   public int tileRows;
+
+   private ForkJoinPool pool;
+   private FrameAnalyzer analyzer;
+   private ByteBuffer frame;
+   private ByteBuffer previous;
+
+   @Setup public void setup() {
+      pool = threads > 0 ? new ForkJoinPool(threads) : new ForkJoinPool();
+      analyzer = new FrameAnalyzer(pool, tileRows);
+      frame = syntheticFrame(1);
+      previous = syntheticFrame(2);
+   }
+
+   @TearDown public void tearDown() {
+      pool.shutdown();
+   }
+
+   @Benchmark public FrameStatistics analyze() {
+      return analyzer.analyze(frame, previous, WIDTH, HEIGHT, 0);
+   }
+
+   private static ByteBuffer syntheticFrame(long seed) {
+      byte[] pixels = new byte[WIDTH * HEIGHT * 4];
+      new Random(seed).nextBytes(pixels);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+      buffer.put(pixels).position(0);
+      return buffer;
+   }
+}
@@ -0,0 +1,47 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * A frame's buffer leased from a {@link FrameBufferPool} and given back, against allocating a
+ * direct buffer for every frame.
+ */
+@State(Scope.Benchmark)
+public class FrameBufferPoolBenchmark {
+
+   //640x480 and 1920x1080 RGBA
+   @Param({"1228800", "8294400"})
+   public int frameBytes;
+
+   private FrameBufferPool pool;
+
+   @Setup public void setUp() {
+      pool = new FrameBufferPool(FrameBufferPool.DEFAULT_MAX_BYTES, false);
+   }
+
+   @Benchmark public FrameBuffer pooled() {
+      FrameBuffer buffer = pool.tryAcquire(frameBytes);
+      buffer.release();
+      return buffer;
+   }
+
+   /**
+    * Producer and consumers on different threads sharing the pool.
+    */
+   @Benchmark @Threads(4) public FrameBuffer pooledContended() {
+      FrameBuffer buffer = pool.tryAcquire(frameBytes);
+      if (buffer != null) buffer.release();
+      return buffer;
+   }
+
+   @Benchmark public ByteBuffer allocateDirect() {
+      return ByteBuffer.allocateDirect(frameBytes);
+   }
+}
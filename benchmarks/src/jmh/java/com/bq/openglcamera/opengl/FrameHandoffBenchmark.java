@@ -0,0 +1,32 @@
+package com.bq.openglcamera.opengl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Camera and render threads racing on a {@link FrameCoalescer}, the handoff done for every
+ * frame available signal.
+ */
+@State(Scope.Group)
+public class FrameHandoffBenchmark {
+
+   private final FrameCoalescer coalescer = new FrameCoalescer(Clock.SYSTEM);
+
+   @Benchmark @Group("handoff") @GroupThreads(1)
+   public boolean frameAvailable() {
+      return coalescer.onFrameAvailable();
+   }
+
+   @Benchmark @Group("handoff") @GroupThreads(1)
+   public long beginRender() {
+      return coalescer.beginRender();
+   }
+
+   @Benchmark public long uncontended() {
+      coalescer.onFrameAvailable();
+      return coalescer.beginRender();
+   }
+}
@@ -0,0 +1,82 @@
+package com.bq.openglcamera.opengl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <code>.cube</code> parsing, tiled layout conversion and {@link LutCache} churn over its budget.
+ */
+@State(Scope.Thread)
+public class LutBenchmark {
+
+   private static final int LOOKS = 8;
+
+   @Param({"33", "65"})
+   public int size;
+
+   private byte[] cube;
+   private Lut lut;
+   private ByteBuffer tiled;
+   private ExecutorService loader;
+   private LutCache cache;
+   private final NoOpGlBackend gl = new NoOpGlBackend();
+   private int look;
+
+   @Setup public void setup() throws IOException {
+      cube = cubeFile(size);
+      lut = CubeLutParser.parse(new ByteArrayInputStream(cube));
+      tiled = LutLayout.allocateTiled(size);
+      loader = Executors.newSingleThreadExecutor();
+      //Room for half the looks, every switch evicts one
+      cache = new LutCache(LOOKS / 2 * 2L * lut.getByteSize(), loader);
+   }
+
+   @TearDown public void tearDown() {
+      loader.shutdown();
+   }
+
+   @Benchmark public Lut parse() throws IOException {
+      return CubeLutParser.parse(new ByteArrayInputStream(cube));
+   }
+
+   @Benchmark public ByteBuffer toTiled() {
+      LutLayout.toTiled(lut, tiled);
+      return tiled;
+   }
+
+   @Benchmark public int switchLook() {
+      String key = "look" + look;
+      look = (look + 1) % LOOKS;
+      if (cache.get(key) == null) {
+         cache.put(key, lut);
+      }
+      return cache.getTexture(gl, key, true);
+   }
+
+   private static byte[] cubeFile(int size) {
+      StringBuilder cube = new StringBuilder("TITLE \"Benchmark\"\nLUT_3D_SIZE ").append(size).append('\n');
+      float max = size - 1;
+      for (int b = 0; b < size; b++) {
+         for (int g = 0; g < size; g++) {
+            for (int r = 0; r < size; r++) {
+               //Something other than identity so the values have all their digits
+               cube.append(String.format(Locale.ROOT, "%.6f %.6f %.6f\n",
+                  Math.sqrt(r / max), g / max * 0.9f, 1 - b / max));
+            }
+         }
+      }
+      return cube.toString().getBytes(StandardCharsets.US_ASCII);
+   }
+}
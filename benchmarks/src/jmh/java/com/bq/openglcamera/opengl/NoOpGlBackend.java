@@ -0,0 +1,249 @@
+package com.bq.openglcamera.opengl;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GlBackend} that does nothing, so benchmarks measure only the CPU side of a frame.
+ * Reports an ES 3.0 context, hands out object names and a location per uniform or attribute
+ * name so callers take the same paths as on a device.
+ */
+final class NoOpGlBackend implements GlBackend {
+
+   private final Map<String, Integer> locations = new HashMap<>();
+   private int nextName = 1;
+
+   @Override public void glUseProgram(int program) {
+   }
+
+   @Override public void glViewport(int x, int y, int width, int height) {
+   }
+
+   @Override public void glClearColor(float red, float green, float blue, float alpha) {
+   }
+
+   @Override public void glClear(int mask) {
+   }
+
+   @Override public void glActiveTexture(int texture) {
+   }
+
+   @Override public void glEnable(int capability) {
+   }
+
+   @Override public void glDisable(int capability) {
+   }
+
+   @Override public int glGetError() {
+      return 0;
+   }
+
+   @Override public String glGetString(int name) {
+      return "OpenGL ES 3.0";
+   }
+
+   @Override public void glGetIntegerv(int name, int[] params, int offset) {
+   }
+
+   @Override public void glFinish() {
+   }
+
+   @Override public int glGetUniformLocation(int program, String name) {
+      return location(name);
+   }
+
+   @Override public int glGetAttribLocation(int program, String name) {
+      return location(name);
+   }
+
+   @Override public void glUniformMatrix4fv(int location, int count, boolean transpose,
+      float[] value, int offset) {
+   }
+
+   @Override public void glUniform1i(int location, int x) {
+   }
+
+   @Override public void glUniform1fv(int location, int count, float[] value, int offset) {
+   }
+
+   @Override public void glUniform2fv(int location, int count, float[] value, int offset) {
+   }
+
+   @Override public void glUniform3fv(int location, int count, float[] value, int offset) {
+   }
+
+   @Override public void glUniform4fv(int location, int count, float[] value, int offset) {
+   }
+
+   @Override public void glEnableVertexAttribArray(int index) {
+   }
+
+   @Override public void glDisableVertexAttribArray(int index) {
+   }
+
+   @Override public void glVertexAttribPointer(int index, int size, int type,
+      boolean normalized, int stride, Buffer buffer) {
+   }
+
+   @Override public void glVertexAttribPointer(int index, int size, int type,
+      boolean normalized, int stride, int offset) {
+   }
+
+   @Override public void glGenBuffers(int n, int[] buffers, int offset) {
+      generate(n, buffers, offset);
+   }
+
+   @Override public void glDeleteBuffers(int n, int[] buffers, int offset) {
+   }
+
+   @Override public void glBindBuffer(int target, int buffer) {
+   }
+
+   @Override public void glBufferData(int target, int size, Buffer data, int usage) {
+   }
+
+   @Override public void glGenVertexArrays(int n, int[] arrays, int offset) {
+      generate(n, arrays, offset);
+   }
+
+   @Override public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+   }
+
+   @Override public void glBindVertexArray(int array) {
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, Buffer indices) {
+   }
+
+   @Override public void glDrawElements(int mode, int count, int type, int offset) {
+   }
+
+   @Override public void glDrawArrays(int mode, int first, int count) {
+   }
+
+   @Override public int glCreateShader(int type) {
+      return 0;
+   }
+
+   @Override public void glShaderSource(int shader, String source) {
+   }
+
+   @Override public void glCompileShader(int shader) {
+   }
+
+   @Override public void glGetShaderiv(int shader, int name, int[] params, int offset) {
+   }
+
+   @Override public String glGetShaderInfoLog(int shader) {
+      return "OpenGL ES 3.0";
+   }
+
+   @Override public void glDeleteShader(int shader) {
+   }
+
+   @Override public int glCreateProgram() {
+      return 0;
+   }
+
+   @Override public void glAttachShader(int program, int shader) {
+   }
+
+   @Override public void glLinkProgram(int program) {
+   }
+
+   @Override public void glGetProgramiv(int program, int name, int[] params, int offset) {
+   }
+
+   @Override public String glGetProgramInfoLog(int program) {
+      return "OpenGL ES 3.0";
+   }
+
+   @Override public void glDeleteProgram(int program) {
+   }
+
+   @Override public void glGenTextures(int n, int[] textures, int offset) {
+      generate(n, textures, offset);
+   }
+
+   @Override public void glDeleteTextures(int n, int[] textures, int offset) {
+   }
+
+   @Override public void glBindTexture(int target, int texture) {
+   }
+
+   @Override public void glTexParameteri(int target, int name, int param) {
+   }
+
+   @Override public void glTexImage2D(int target, int level, int internalFormat, int width,
+      int height, int border, int format, int type, Buffer pixels) {
+   }
+
+   @Override public void glTexImage3D(int target, int level, int internalFormat, int width,
+      int height, int depth, int border, int format, int type, Buffer pixels) {
+   }
+
+   @Override public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+      generate(n, framebuffers, offset);
+   }
+
+   @Override public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+   }
+
+   @Override public void glBindFramebuffer(int target, int framebuffer) {
+   }
+
+   @Override public void glFramebufferTexture2D(int target, int attachment, int textureTarget,
+      int texture, int level) {
+   }
+
+   @Override public int glCheckFramebufferStatus(int target) {
+      return 0x8CD5; //GL_FRAMEBUFFER_COMPLETE
+   }
+
+   @Override public void glGetProgramBinary(int program, int bufSize, int[] length,
+      int lengthOffset, int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+   }
+
+   @Override public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+   }
+
+   @Override public void glReadPixels(int x, int y, int width, int height, int format,
+      int type, Buffer pixels) {
+   }
+
+   @Override public void glReadPixels(int x, int y, int width, int height, int format,
+      int type, int offset) {
+   }
+
+   @Override public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+      return null;
+   }
+
+   @Override public boolean glUnmapBuffer(int target) {
+      return true;
+   }
+
+   private int location(String name) {
+      Integer location = locations.get(name);
+      if (location == null) {
+         location = locations.size();
+         locations.put(name, location);
+      }
+      return location;
+   }
+
+   private void generate(int n, int[] names, int offset) {
+      for (int i = 0; i < n; i++) {
+         names[offset + i] = nextName++;
+      }
+   }
+
+   @Override
+   public int glGetDebugMessageLogKHR(int count, int bufSize, int[] sources, int sourcesOffset,
+                                      int[] types, int typesOffset, int[] ids, int idsOffset,
+                                      int[] severities, int severitiesOffset, int[] lengths,
+                                      int lengthsOffset, byte[] messageLog, int messageLogOffset) {
+      return 0;
+   }
+}
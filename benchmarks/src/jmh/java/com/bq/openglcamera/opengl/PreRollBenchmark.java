@@ -0,0 +1,66 @@
+package com.bq.openglcamera.opengl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Frames written into a {@link PreRollRing}, alone and while snapshots of the last second are
+ * copied out, as when the operator saves the pre-roll during recording.
+ */
+@State(Scope.Group)
+public class PreRollBenchmark {
+
+   private static final long FRAME_NANOS = 33333333;
+
+   //An encoded packet and a 160x120 RGBA frame
+   @Param({"16384", "76800"})
+   public int frameBytes;
+
+   private PreRollRing ring;
+   private ByteBuffer frame;
+   private long timestamp;
+   private final WritableByteChannel discard = new WritableByteChannel() {
+      @Override public int write(ByteBuffer src) {
+         int bytes = src.remaining();
+         src.position(src.limit());
+         return bytes;
+      }
+
+      @Override public boolean isOpen() {
+         return true;
+      }
+
+      @Override public void close() {
+      }
+   };
+
+   @Setup public void setUp() {
+      ring = new PreRollRing(90, frameBytes);
+      frame = ByteBuffer.allocateDirect(frameBytes);
+   }
+
+   @Benchmark @Group("snapshotting") @GroupThreads(1)
+   public boolean write() {
+      timestamp += FRAME_NANOS;
+      return ring.write(timestamp, PreRollRing.FLAG_KEY_FRAME, 0, 0, frame);
+   }
+
+   @Benchmark @Group("snapshotting") @GroupThreads(1)
+   public PreRollRing.Snapshot snapshot() throws IOException {
+      return ring.snapshot(1000000000L, discard);
+   }
+
+   @Benchmark public boolean uncontendedWrite() {
+      timestamp += FRAME_NANOS;
+      return ring.write(timestamp, PreRollRing.FLAG_KEY_FRAME, 0, 0, frame);
+   }
+}
@@ -0,0 +1,45 @@
+package com.bq.openglcamera.opengl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * GL side of a <code>DefaultCameraRenderer</code> frame, the same {@link CameraQuad} calls,
+ * against a backend that does nothing, with and without the redundant state filter.
+ * <p>
+ * Latching the camera image needs a SurfaceTexture, which only exists on a device, so the
+ * frame starts right after it.
+ */
+@State(Scope.Thread)
+public class RenderFrameBenchmark {
+
+   private static final int PROGRAM = 3;
+
+   @Param({"true", "false"})
+   public boolean stateCaching;
+
+   @Param({"true", "false"})
+   public boolean vertexArrays;
+
+   private final float[] cameraTextureMatrix = new float[16];
+   private final float[] mvpMatrix = new float[16];
+   private CameraQuad quad;
+
+   @Setup public void setup() {
+      GlBackend gl = stateCaching ? new StateCachingGlBackend(new NoOpGlBackend()) : new NoOpGlBackend();
+      quad = new CameraQuad(gl);
+      quad.setProgram(PROGRAM);
+      quad.upload(vertexArrays);
+      cameraTextureMatrix[0] = cameraTextureMatrix[5] = cameraTextureMatrix[10] = cameraTextureMatrix[15] = 1;
+      mvpMatrix[0] = mvpMatrix[5] = mvpMatrix[10] = mvpMatrix[15] = 1;
+   }
+
+   @Benchmark public void drawFrame() {
+      quad.activateCameraTexture();
+      quad.useProgram();
+      quad.draw(1920, 1080, cameraTextureMatrix, mvpMatrix);
+   }
+}
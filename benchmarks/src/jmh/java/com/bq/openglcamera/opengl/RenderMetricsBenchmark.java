@@ -0,0 +1,34 @@
+package com.bq.openglcamera.opengl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per frame cost of the {@link RenderMetrics} brackets in the render loop.
+ */
+@State(Scope.Thread)
+public class RenderMetricsBenchmark {
+
+   @Param({"true", "false"})
+   public boolean enabled;
+
+   private final RenderMetrics metrics = new RenderMetrics();
+
+   @Setup public void setup() {
+      metrics.setEnabled(enabled);
+   }
+
+   @Benchmark public void frame() {
+      long frameStart = metrics.start();
+      metrics.recordDuration(RenderMetrics.Stage.QUEUE, 1000);
+      long drawStart = metrics.start();
+      metrics.record(RenderMetrics.Stage.DRAW, drawStart);
+      long swapStart = metrics.start();
+      metrics.record(RenderMetrics.Stage.SWAP, swapStart);
+      metrics.record(RenderMetrics.Stage.FRAME, frameStart);
+      metrics.framePresented(frameStart);
+   }
+}
@@ -0,0 +1,22 @@
+package com.bq.openglcamera.opengl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Reading shader sources the way <code>GlUtil</code> reads assets, from the app's own shaders.
+ */
+@State(Scope.Thread)
+public class ShaderSourceBenchmark {
+
+   @Param({"vert.glsl", "frag.glsl"})
+   public String asset;
+
+   @Benchmark public String read() throws IOException {
+      return TextStreams.readUtf8(getClass().getClassLoader().getResourceAsStream(asset));
+   }
+}